@@ -0,0 +1,123 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import wf.bitcoin.krotjson.HexCoder;
+
+/**
+ * Cursor of a {@link BitcoinAcceptor}: the last block it processed and the transactions it delivered since,
+ * stored in a compact binary file so that a restarted acceptor resumes where it stopped.
+ * <br><br>
+ * The file holds a magic number, the format version, the 32 byte block hash and the 32 byte txids. It is written
+ * to a temporary file first and moved over the previous one, so a crash leaves either the old or the new cursor.
+ */
+public final class AcceptorCheckpoint {
+
+  private static final int MAGIC = 0x42414350; // "BACP"
+  private static final int VERSION = 1;
+  private static final int HASH_SIZE = 32;
+
+  private final String lastBlock;
+  private final Set<String> delivered;
+
+  /**
+   * @param lastBlock hash of the last block processed, may be null
+   * @param delivered txids delivered to the listeners since that block became the tip
+   */
+  public AcceptorCheckpoint(String lastBlock, Set<String> delivered) {
+    this.lastBlock = lastBlock;
+    this.delivered = Collections.unmodifiableSet(new LinkedHashSet<>(delivered));
+  }
+
+  public String lastBlock() {
+    return lastBlock;
+  }
+
+  public Set<String> delivered() {
+    return delivered;
+  }
+
+  /**
+   * @return the checkpoint stored in the file, or null if the file does not exist
+   * @throws IOException if the file cannot be read or is not a checkpoint
+   */
+  public static AcceptorCheckpoint load(Path file) throws IOException {
+    if (!Files.exists(file))
+      return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC)
+        throw new IOException("Not an acceptor checkpoint: " + file);
+      int version = in.readUnsignedByte();
+      if (version != VERSION)
+        throw new IOException("Unsupported acceptor checkpoint version " + version + ": " + file);
+      byte[] hash = new byte[HASH_SIZE];
+      String lastBlock = null;
+      if (in.readBoolean()) {
+        in.readFully(hash);
+        lastBlock = HexCoder.encode(hash);
+      }
+      int count = in.readInt();
+      if (count < 0 || count > (Files.size(file) / HASH_SIZE))
+        throw new IOException("Corrupted acceptor checkpoint: " + file);
+      Set<String> delivered = new LinkedHashSet<>(count * 4 / 3 + 1);
+      for (int i = 0; i < count; i++) {
+        in.readFully(hash);
+        delivered.add(HexCoder.encode(hash));
+      }
+      return new AcceptorCheckpoint(lastBlock, delivered);
+    } catch (EOFException ex) {
+      throw new IOException("Truncated acceptor checkpoint: " + file, ex);
+    }
+  }
+
+  /**
+   * Replaces the content of the file with this checkpoint.
+   */
+  public void save(Path file) throws IOException {
+    Path dir = file.toAbsolutePath().getParent();
+    Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeBoolean(lastBlock != null);
+        if (lastBlock != null)
+          out.write(hash(lastBlock));
+        out.writeInt(delivered.size());
+        for (String txId : delivered)
+          out.write(hash(txId));
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static byte[] hash(String hex) {
+    byte[] hash = HexCoder.decode(hex);
+    if (hash.length != HASH_SIZE)
+      throw new IllegalArgumentException("Not a 32 byte hash: " + hex);
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "AcceptorCheckpoint[" + lastBlock + ", " + delivered.size() + " delivered]";
+  }
+}
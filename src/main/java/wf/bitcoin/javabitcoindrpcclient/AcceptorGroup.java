@@ -0,0 +1,252 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.Closeable;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the payments of many wallets of the same node, instead of running a {@link BitcoinAcceptor} thread per
+ * wallet.
+ * <br><br>
+ * A single scheduler thread polls the best block hash of the node. When it changes, or when {@link #wakeUp()} is
+ * called, every wallet is checked right away; otherwise each wallet is checked once per check interval. Checks
+ * run on a shared executor, virtual threads when the JVM has them, and the wallet clients share the transport
+ * of the node client, so they share its connection pool. Each wallet keeps its own {@link BitcoinAcceptor}, with
+ * its own cursor and listeners, and at most one check of a wallet runs at a time.
+ */
+public class AcceptorGroup implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(AcceptorGroup.class.getName());
+
+  private static final class Member {
+    final BitcoinAcceptor acceptor;
+    final AtomicBoolean running = new AtomicBoolean();
+    volatile boolean again;
+    volatile long lastCheck;
+
+    Member(BitcoinAcceptor acceptor) {
+      this.acceptor = acceptor;
+    }
+  }
+
+  private final BitcoinJSONRPCClient node;
+  private final ExecutorService workers;
+  private final boolean ownWorkers;
+  private final ScheduledExecutorService scheduler;
+  private final Map<String, Member> wallets = Collections.synchronizedMap(new LinkedHashMap<>());
+  private volatile long pollInterval = 1000;
+  private volatile long checkInterval = 5000;
+  private volatile boolean wakeUpRequested;
+  private ScheduledFuture<?> polling;
+  private String tip;
+
+  public AcceptorGroup(BitcoinJSONRPCClient node) {
+    this(node, newWorkers(), true);
+  }
+
+  /**
+   * @param workers the executor running the checks, left running by {@link #close()}
+   */
+  public AcceptorGroup(BitcoinJSONRPCClient node, ExecutorService workers) {
+    this(node, workers, false);
+  }
+
+  private AcceptorGroup(BitcoinJSONRPCClient node, ExecutorService workers, boolean ownWorkers) {
+    this.node = node;
+    this.workers = workers;
+    this.ownWorkers = ownWorkers;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "bitcoin-acceptor-group");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * @return a virtual thread per task executor on Java 21+, a cached pool of daemon threads otherwise
+   */
+  static ExecutorService newWorkers() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException ex) {
+      AtomicInteger threads = new AtomicInteger();
+      return Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "bitcoin-acceptor-" + threads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+
+  /**
+   * @return a client for the <code>/wallet/&lt;name&gt;</code> endpoint of the node, sharing its transport and
+   * connection settings
+   */
+  public BitcoinJSONRPCClient walletClient(String walletName) {
+    URL url;
+    try {
+      url = new URL(node.rpcURL, "/wallet/" + URLEncoder.encode(walletName, "UTF-8").replace("+", "%20"));
+    } catch (MalformedURLException | UnsupportedEncodingException ex) {
+      throw new IllegalArgumentException(walletName, ex);
+    }
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(url);
+    client.setTransport(node.getTransport());
+    client.setConnectTimeout(node.getConnectTimeout());
+    client.setReadTimeout(node.getReadTimeout());
+    client.setHostnameVerifier(node.getHostnameVerifier());
+    client.setSslSocketFactory(node.getSslSocketFactory());
+    client.setLazyParsing(node.isLazyParsing());
+    return client;
+  }
+
+  /**
+   * Adds a wallet, monitored from its whole history on the first check.
+   *
+   * @return the acceptor of the wallet, to add listeners or set a checkpoint file
+   */
+  public BitcoinAcceptor addWallet(String walletName, int monitorDepth) {
+    BitcoinAcceptor acceptor = new BitcoinAcceptor(walletClient(walletName), null, monitorDepth);
+    addAcceptor(walletName, acceptor);
+    return acceptor;
+  }
+
+  /**
+   * Adds an acceptor set up by the caller. It must not be run by its own thread as well.
+   */
+  public void addAcceptor(String name, BitcoinAcceptor acceptor) {
+    if (wallets.putIfAbsent(name, new Member(acceptor)) != null)
+      throw new IllegalArgumentException("Wallet already added: " + name);
+  }
+
+  public BitcoinAcceptor getAcceptor(String name) {
+    Member member = wallets.get(name);
+    return member == null ? null : member.acceptor;
+  }
+
+  public BitcoinAcceptor removeWallet(String name) {
+    Member member = wallets.remove(name);
+    return member == null ? null : member.acceptor;
+  }
+
+  public List<String> getWalletNames() {
+    synchronized (wallets) {
+      return new ArrayList<>(wallets.keySet());
+    }
+  }
+
+  public long getPollInterval() {
+    return pollInterval;
+  }
+
+  /**
+   * Sets how often the best block hash is polled, 1 second by default.
+   * Takes effect on the next call to {@link #start()}.
+   */
+  public void setPollInterval(long pollInterval) {
+    this.pollInterval = pollInterval;
+  }
+
+  public long getCheckInterval() {
+    return checkInterval;
+  }
+
+  /**
+   * Sets how often each wallet is checked when no block arrives, for unconfirmed payments. 5 seconds by default.
+   */
+  public void setCheckInterval(long checkInterval) {
+    this.checkInterval = checkInterval;
+  }
+
+  public synchronized void start() {
+    if (polling != null)
+      throw new IllegalStateException("Already started");
+    polling = scheduler.scheduleWithFixedDelay(this::poll, 0, pollInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Makes the next poll, run right away, check every wallet, e.g. when a block notification is received.
+   */
+  public void wakeUp() {
+    wakeUpRequested = true;
+    try {
+      scheduler.execute(this::poll);
+    } catch (RejectedExecutionException ex) {
+      // closed
+    }
+  }
+
+  private void poll() {
+    boolean all = wakeUpRequested;
+    wakeUpRequested = false;
+    try {
+      String best = node.getBestBlockHash();
+      if (!best.equals(tip)) {
+        tip = best;
+        all = true;
+      }
+    } catch (GenericRpcException ex) {
+      logger.log(Level.WARNING, "Cannot get the best block hash", ex);
+    }
+    long now = System.currentTimeMillis();
+    List<Member> members;
+    synchronized (wallets) {
+      members = new ArrayList<>(wallets.values());
+    }
+    for (Member member : members)
+      if (all || now - member.lastCheck >= checkInterval)
+        submit(member);
+  }
+
+  private void submit(Member member) {
+    if (!member.running.compareAndSet(false, true)) {
+      // Checked again by the running task
+      member.again = true;
+      return;
+    }
+    try {
+      workers.execute(() -> check(member));
+    } catch (RejectedExecutionException ex) {
+      member.running.set(false);
+    }
+  }
+
+  private void check(Member member) {
+    do {
+      member.again = false;
+      member.lastCheck = System.currentTimeMillis();
+      try {
+        member.acceptor.checkPayments();
+      } catch (Exception ex) {
+        logger.log(Level.SEVERE, null, ex);
+      }
+      member.running.set(false);
+    } while (member.again && member.running.compareAndSet(false, true));
+  }
+
+  /**
+   * Stops polling. Running checks complete.
+   */
+  @Override
+  public synchronized void close() {
+    scheduler.shutdownNow();
+    if (ownWorkers)
+      workers.shutdown();
+  }
+}
@@ -0,0 +1,203 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Block;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BlockChainInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BlockWithTxInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.NetworkInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.SmartFeeResult;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TransactionsSinceBlock;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxOut;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Unspent;
+import wf.bitcoin.javabitcoindrpcclient.transport.AsyncHttpTransport;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpResponse;
+import wf.bitcoin.javabitcoindrpcclient.transport.NioHttpTransport;
+
+/**
+ * {@link AsyncBitcoindRpcClient} sending JSON-RPC requests through an {@link AsyncHttpTransport}.
+ * <br><br>
+ * URL, credentials, timeouts and TLS settings are taken from a {@link BitcoinJSONRPCClient},
+ * and results are wrapped in the same types it returns, so both clients can be used side by side.
+ */
+public class AsyncBitcoinJSONRPCClient implements AsyncBitcoindRpcClient {
+
+  private static final Logger logger = Logger.getLogger(AsyncBitcoinJSONRPCClient.class.getName());
+
+  private final BitcoinJSONRPCClient client;
+  private final AsyncHttpTransport transport;
+  private final boolean ownsTransport;
+
+  /**
+   * Creates a client with its own {@link NioHttpTransport}, which is closed together with the client.
+   */
+  public AsyncBitcoinJSONRPCClient(URL rpc) throws IOException {
+    this(new BitcoinJSONRPCClient(rpc), new NioHttpTransport(), true);
+  }
+
+  /**
+   * @param client the blocking client whose connection settings are used
+   * @param transport the transport, possibly shared with other clients; it is not closed by {@link #close()}
+   */
+  public AsyncBitcoinJSONRPCClient(BitcoinJSONRPCClient client, AsyncHttpTransport transport) {
+    this(client, transport, false);
+  }
+
+  private AsyncBitcoinJSONRPCClient(BitcoinJSONRPCClient client, AsyncHttpTransport transport, boolean ownsTransport) {
+    this.client = client;
+    this.transport = transport;
+    this.ownsTransport = ownsTransport;
+  }
+
+  public BitcoinJSONRPCClient getClient() {
+    return client;
+  }
+
+  public AsyncHttpTransport getTransport() {
+    return transport;
+  }
+
+  @Override
+  public CompletableFuture<Object> query(String method, Object... params) {
+    byte[] r = client.prepareRequest(method, params);
+    logger.log(Level.FINE, "Bitcoin JSON-RPC request:\n{0}", new String(r, BitcoinJSONRPCClient.QUERY_CHARSET));
+    return transport.execute(client.newRequest(r)).handle((response, failure) -> {
+      try {
+        if (failure != null) {
+          Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+          if (cause instanceof IOException)
+            throw (IOException) cause;
+          throw new CompletionException(cause);
+        }
+        try (HttpResponse res = response) {
+          if (res.getCode() != 200) {
+            throw new BitcoinRPCException(method,
+                                          Arrays.deepToString(params),
+                                          res.getCode(),
+                                          res.getMessage(),
+                                          BitcoinJSONRPCClient.readErrorBody(res));
+          }
+          return client.loadResponse(res.getBody(), res.getContentLength(), "1", true);
+        }
+      } catch (IOException ex) {
+        throw new BitcoinRPCException(method, Arrays.deepToString(params), ex);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<String> getBestBlockHash() {
+    return query("getbestblockhash").thenApply(String.class::cast);
+  }
+
+  @Override
+  public CompletableFuture<Integer> getBlockCount() {
+    return query("getblockcount").thenApply(r -> ((Number) r).intValue());
+  }
+
+  @Override
+  public CompletableFuture<String> getBlockHash(int height) {
+    return query("getblockhash", height).thenApply(String.class::cast);
+  }
+
+  @Override
+  public CompletableFuture<Block> getBlock(int height) {
+    return getBlockHash(height).thenCompose(this::getBlock);
+  }
+
+  @Override
+  public CompletableFuture<Block> getBlock(String blockHash) {
+    return query("getblock", blockHash).thenApply(client::toBlock);
+  }
+
+  @Override
+  public CompletableFuture<BlockWithTxInfo> getBlockWithTxInfo(String blockHash) {
+    return query("getblock", blockHash, 2).thenApply(client::toBlockWithTxInfo);
+  }
+
+  @Override
+  public CompletableFuture<String> getRawBlock(String blockHash) {
+    return query("getblock", blockHash, false).thenApply(String.class::cast);
+  }
+
+  @Override
+  public CompletableFuture<BlockChainInfo> getBlockChainInfo() {
+    return query("getblockchaininfo").thenApply(client::toBlockChainInfo);
+  }
+
+  @Override
+  public CompletableFuture<NetworkInfo> getNetworkInfo() {
+    return query("getnetworkinfo").thenApply(client::toNetworkInfo);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public CompletableFuture<List<String>> getRawMemPool() {
+    return query("getrawmempool").thenApply(r -> (List<String>) r);
+  }
+
+  @Override
+  public CompletableFuture<String> getRawTransactionHex(String txId) {
+    return query("getrawtransaction", txId).thenApply(String.class::cast);
+  }
+
+  @Override
+  public CompletableFuture<RawTransaction> getRawTransaction(String txId) {
+    return query("getrawtransaction", txId, 1).thenApply(client::toRawTransaction);
+  }
+
+  @Override
+  public CompletableFuture<RawTransaction> decodeRawTransaction(String hex) {
+    return query("decoderawtransaction", hex).thenApply(client::toDecodedRawTransaction);
+  }
+
+  @Override
+  public CompletableFuture<Transaction> getTransaction(String txId) {
+    return query("gettransaction", txId).thenApply(r -> client.toTransaction(txId, r));
+  }
+
+  @Override
+  public CompletableFuture<TxOut> getTxOut(String txId, long vout) {
+    return getTxOut(txId, vout, true);
+  }
+
+  @Override
+  public CompletableFuture<TxOut> getTxOut(String txId, long vout, boolean includemempool) {
+    return query("gettxout", txId, vout, includemempool).thenApply(client::toTxOut);
+  }
+
+  @Override
+  public CompletableFuture<SmartFeeResult> estimateSmartFee(int blocks) {
+    return query("estimatesmartfee", blocks).thenApply(client::toSmartFeeResult);
+  }
+
+  @Override
+  public CompletableFuture<String> sendRawTransaction(String hex) {
+    return query("sendrawtransaction", hex).thenApply(String.class::cast);
+  }
+
+  @Override
+  public CompletableFuture<List<Unspent>> listUnspent(int minConf, int maxConf) {
+    return query("listunspent", minConf, maxConf).thenApply(client::toUnspentList);
+  }
+
+  @Override
+  public CompletableFuture<TransactionsSinceBlock> listSinceBlock(String blockHash) {
+    return query("listsinceblock", blockHash).thenApply(client::toTransactionsSinceBlock);
+  }
+
+  @Override
+  public void close() {
+    if (ownsTransport)
+      transport.close();
+  }
+}
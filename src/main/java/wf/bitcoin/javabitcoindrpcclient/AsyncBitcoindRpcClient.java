@@ -0,0 +1,136 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Block;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BlockChainInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BlockWithTxInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.NetworkInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.SmartFeeResult;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TransactionsSinceBlock;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxOut;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Unspent;
+
+/**
+ * Non-blocking variant of {@link BitcoindRpcClient}: every method sends its request immediately and returns a
+ * future completed with the same result type as the corresponding blocking method.
+ * <br><br>
+ * RPC errors complete the future exceptionally with a {@link GenericRpcException}.
+ * Methods not (yet) mirrored here can be called through {@link #query(String, Object...)}.
+ *
+ * @see AsyncBitcoinJSONRPCClient
+ */
+public interface AsyncBitcoindRpcClient extends Closeable {
+
+  /**
+   * Sends an arbitrary RPC, the future is completed with the raw <code>result</code> of the response.
+   */
+  CompletableFuture<Object> query(String method, Object... params);
+
+  /**
+   * @see BitcoindRpcClient#getBestBlockHash()
+   */
+  CompletableFuture<String> getBestBlockHash();
+
+  /**
+   * @see BitcoindRpcClient#getBlockCount()
+   */
+  CompletableFuture<Integer> getBlockCount();
+
+  /**
+   * @see BitcoindRpcClient#getBlockHash(int)
+   */
+  CompletableFuture<String> getBlockHash(int height);
+
+  /**
+   * @see BitcoindRpcClient#getBlock(int)
+   */
+  CompletableFuture<Block> getBlock(int height);
+
+  /**
+   * @see BitcoindRpcClient#getBlock(String)
+   */
+  CompletableFuture<Block> getBlock(String blockHash);
+
+  /**
+   * @see BitcoindRpcClient#getBlockWithTxInfo(String)
+   */
+  CompletableFuture<BlockWithTxInfo> getBlockWithTxInfo(String blockHash);
+
+  /**
+   * @see BitcoindRpcClient#getRawBlock(String)
+   */
+  CompletableFuture<String> getRawBlock(String blockHash);
+
+  /**
+   * @see BitcoindRpcClient#getBlockChainInfo()
+   */
+  CompletableFuture<BlockChainInfo> getBlockChainInfo();
+
+  /**
+   * @see BitcoindRpcClient#getNetworkInfo()
+   */
+  CompletableFuture<NetworkInfo> getNetworkInfo();
+
+  /**
+   * @see BitcoindRpcClient#getRawMemPool()
+   */
+  CompletableFuture<List<String>> getRawMemPool();
+
+  /**
+   * @see BitcoindRpcClient#getRawTransactionHex(String)
+   */
+  CompletableFuture<String> getRawTransactionHex(String txId);
+
+  /**
+   * @see BitcoindRpcClient#getRawTransaction(String)
+   */
+  CompletableFuture<RawTransaction> getRawTransaction(String txId);
+
+  /**
+   * @see BitcoindRpcClient#decodeRawTransaction(String)
+   */
+  CompletableFuture<RawTransaction> decodeRawTransaction(String hex);
+
+  /**
+   * @see BitcoindRpcClient#getTransaction(String)
+   */
+  CompletableFuture<Transaction> getTransaction(String txId);
+
+  /**
+   * @see BitcoindRpcClient#getTxOut(String, long)
+   */
+  CompletableFuture<TxOut> getTxOut(String txId, long vout);
+
+  /**
+   * @see BitcoinJSONRPCClient#getTxOut(String, long, boolean)
+   */
+  CompletableFuture<TxOut> getTxOut(String txId, long vout, boolean includemempool);
+
+  /**
+   * @see BitcoindRpcClient#estimateSmartFee(int)
+   */
+  CompletableFuture<SmartFeeResult> estimateSmartFee(int blocks);
+
+  /**
+   * @see BitcoindRpcClient#sendRawTransaction(String)
+   */
+  CompletableFuture<String> sendRawTransaction(String hex);
+
+  /**
+   * @see BitcoindRpcClient#listUnspent(int, int)
+   */
+  CompletableFuture<List<Unspent>> listUnspent(int minConf, int maxConf);
+
+  /**
+   * @see BitcoindRpcClient#listSinceBlock(String)
+   */
+  CompletableFuture<TransactionsSinceBlock> listSinceBlock(String blockHash);
+
+  @Override
+  void close();
+}
@@ -0,0 +1,374 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+
+/**
+ * Payment listener passing the events to another listener on an executor, so that a slow listener does not hold
+ * the thread of the {@link BitcoinAcceptor}.
+ * <br><br>
+ * Events are queued in a bounded queue and passed in order, one at a time: at most one task of this listener runs
+ * on the executor at any time, so an executor shared by several listeners keeps the order of each of them. What
+ * happens when the queue is full is set by the {@link Backpressure} policy.
+ *
+ * @see BitcoinAcceptor#addAsyncListener(BitcoinPaymentListener, Executor, int, Backpressure)
+ */
+public class AsyncPaymentListener implements BitcoinPaymentListener, Closeable {
+
+  private static final Logger logger = Logger.getLogger(AsyncPaymentListener.class.getName());
+
+  public enum Backpressure {
+    /**
+     * The acceptor waits for room in the queue, slowing down payment detection to the pace of the listener
+     */
+    BLOCK,
+    /**
+     * The oldest queued event is discarded. Suits listeners that only need recent events, since discarded
+     * transactions are not delivered again
+     */
+    DROP_OLDEST,
+    /**
+     * The new event is rejected with a {@link RejectedExecutionException}, logged by the acceptor
+     */
+    FAIL
+  }
+
+  private enum Kind {
+    BLOCK, TRANSACTION, BLOCK_DISCONNECTED, TRANSACTION_REVERTED
+  }
+
+  private static final class Event {
+    final Kind kind;
+    final Object value;
+    final long queued;
+
+    Event(Kind kind, Object value) {
+      this.kind = kind;
+      this.value = value;
+      this.queued = System.nanoTime();
+    }
+  }
+
+  private final BitcoinPaymentListener listener;
+  private final Executor executor;
+  private final int capacity;
+  private final Backpressure backpressure;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition idle = lock.newCondition();
+  private final ArrayDeque<Event> queue;
+  private boolean running;
+  private boolean closed;
+
+  private long delivered;
+  private long dropped;
+  private long rejected;
+  private long failed;
+  private int maxQueueDepth;
+  private long totalWaitNanos;
+  private long totalHandlerNanos;
+  private long maxHandlerNanos;
+
+  public AsyncPaymentListener(BitcoinPaymentListener listener, Executor executor, int capacity, Backpressure backpressure) {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    this.listener = listener;
+    this.executor = executor;
+    this.capacity = capacity;
+    this.backpressure = backpressure;
+    this.queue = new ArrayDeque<>(Math.min(capacity, 1024));
+  }
+
+  public BitcoinPaymentListener getListener() {
+    return listener;
+  }
+
+  @Override
+  public void block(String blockHash) {
+    enqueue(new Event(Kind.BLOCK, blockHash));
+  }
+
+  @Override
+  public void transaction(Transaction transaction) {
+    enqueue(new Event(Kind.TRANSACTION, transaction));
+  }
+
+  @Override
+  public void blockDisconnected(String blockHash) {
+    enqueue(new Event(Kind.BLOCK_DISCONNECTED, blockHash));
+  }
+
+  @Override
+  public void transactionReverted(Transaction transaction) {
+    enqueue(new Event(Kind.TRANSACTION_REVERTED, transaction));
+  }
+
+  private void enqueue(Event event) {
+    boolean schedule;
+    lock.lock();
+    try {
+      if (closed)
+        throw new RejectedExecutionException("Listener closed");
+      while (queue.size() >= capacity) {
+        if (backpressure == Backpressure.DROP_OLDEST) {
+          queue.poll();
+          dropped++;
+        } else if (backpressure == Backpressure.FAIL) {
+          rejected++;
+          throw new RejectedExecutionException("Listener queue full (" + capacity + " events)");
+        } else {
+          try {
+            notFull.await();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            rejected++;
+            throw new RejectedExecutionException("Interrupted while waiting for the listener queue", ex);
+          }
+          if (closed)
+            throw new RejectedExecutionException("Listener closed");
+        }
+      }
+      queue.add(event);
+      maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+      schedule = !running;
+      running = true;
+    } finally {
+      lock.unlock();
+    }
+    if (schedule) {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException ex) {
+        lock.lock();
+        try {
+          running = false;
+          idle.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        throw ex;
+      }
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      Event event;
+      lock.lock();
+      try {
+        event = queue.poll();
+        if (event == null) {
+          running = false;
+          idle.signalAll();
+          return;
+        }
+        notFull.signal();
+      } finally {
+        lock.unlock();
+      }
+      long start = System.nanoTime();
+      boolean ok = false;
+      try {
+        dispatch(event);
+        ok = true;
+      } catch (Throwable ex) {
+        // Errors too: leaving the loop without resetting running would stop the delivery for good
+        logger.log(Level.SEVERE, null, ex);
+      }
+      long end = System.nanoTime();
+      lock.lock();
+      try {
+        if (ok)
+          delivered++;
+        else
+          failed++;
+        totalWaitNanos += start - event.queued;
+        totalHandlerNanos += end - start;
+        maxHandlerNanos = Math.max(maxHandlerNanos, end - start);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void dispatch(Event event) {
+    switch (event.kind) {
+      case BLOCK:
+        listener.block((String) event.value);
+        break;
+      case TRANSACTION:
+        listener.transaction((Transaction) event.value);
+        break;
+      case BLOCK_DISCONNECTED:
+        listener.blockDisconnected((String) event.value);
+        break;
+      case TRANSACTION_REVERTED:
+        listener.transactionReverted((Transaction) event.value);
+        break;
+    }
+  }
+
+  /**
+   * Waits for the queued events to be passed to the listener.
+   *
+   * @return false if the timeout elapsed first
+   */
+  public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (running || !queue.isEmpty()) {
+        if (nanos <= 0)
+          return false;
+        nanos = idle.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Rejects new events. Queued events are still passed to the listener.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public Backpressure getBackpressure() {
+    return backpressure;
+  }
+
+  public int getQueueDepth() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the highest number of events queued at once
+   */
+  public int getMaxQueueDepth() {
+    lock.lock();
+    try {
+      return maxQueueDepth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of events the listener handled without throwing
+   */
+  public long getDeliveredCount() {
+    lock.lock();
+    try {
+      return delivered;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of events for which the listener threw an exception
+   */
+  public long getFailedCount() {
+    lock.lock();
+    try {
+      return failed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of events discarded by {@link Backpressure#DROP_OLDEST}
+   */
+  public long getDroppedCount() {
+    lock.lock();
+    try {
+      return dropped;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of events rejected by {@link Backpressure#FAIL} or an interrupt
+   */
+  public long getRejectedCount() {
+    lock.lock();
+    try {
+      return rejected;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the average time events spent in the queue, in nanoseconds
+   */
+  public long getAverageQueueNanos() {
+    lock.lock();
+    try {
+      long handled = delivered + failed;
+      return handled == 0 ? 0 : totalWaitNanos / handled;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the average time the listener took to handle an event, in nanoseconds
+   */
+  public long getAverageHandlerNanos() {
+    lock.lock();
+    try {
+      long handled = delivered + failed;
+      return handled == 0 ? 0 : totalHandlerNanos / handled;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the longest time the listener took to handle an event, in nanoseconds
+   */
+  public long getMaxHandlerNanos() {
+    lock.lock();
+    try {
+      return maxHandlerNanos;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AsyncPaymentListener[" + listener + ", " + getQueueDepth() + "/" + capacity + " queued]";
+  }
+}
@@ -0,0 +1,77 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many calls of a large batch are sent per request.
+ * <br><br>
+ * In adaptive mode, every executed chunk reports its latency and response size; the chunk size then moves towards
+ * the number of calls expected to fit both the target latency and the maximum response size.
+ * Observations are smoothed, so a single slow request does not collapse the chunk size.
+ */
+class BatchChunker {
+
+  static final int DEFAULT_CHUNK_SIZE = 500;
+  static final int DEFAULT_MIN_CHUNK_SIZE = 50;
+  static final int DEFAULT_MAX_CHUNK_SIZE = 5000;
+  static final long DEFAULT_TARGET_LATENCY = TimeUnit.MILLISECONDS.toNanos(500);
+  static final long DEFAULT_MAX_CHUNK_BYTES = 8L << 20;
+
+  private static final double SMOOTHING = 0.3;
+
+  private final int minChunkSize;
+  private final int maxChunkSize;
+  private final long targetLatencyNanos;
+  private final long maxChunkBytes;
+  private final boolean adaptive;
+  private double chunkSize; // guarded by this
+
+  private BatchChunker(int initialChunkSize, int minChunkSize, int maxChunkSize, long targetLatencyNanos, long maxChunkBytes, boolean adaptive) {
+    if (minChunkSize < 1 || maxChunkSize < minChunkSize)
+      throw new IllegalArgumentException("Invalid chunk size bounds: " + minChunkSize + ".." + maxChunkSize);
+    this.minChunkSize = minChunkSize;
+    this.maxChunkSize = maxChunkSize;
+    this.targetLatencyNanos = targetLatencyNanos;
+    this.maxChunkBytes = maxChunkBytes;
+    this.adaptive = adaptive;
+    this.chunkSize = Math.max(minChunkSize, Math.min(maxChunkSize, initialChunkSize));
+  }
+
+  static BatchChunker fixed(int chunkSize) {
+    return new BatchChunker(chunkSize, chunkSize, chunkSize, 0, 0, false);
+  }
+
+  static BatchChunker adaptive(int minChunkSize, int maxChunkSize, long targetLatencyNanos, long maxChunkBytes) {
+    int initial = Math.max(minChunkSize, Math.min(maxChunkSize, DEFAULT_CHUNK_SIZE));
+    return new BatchChunker(initial, minChunkSize, maxChunkSize, targetLatencyNanos, maxChunkBytes, true);
+  }
+
+  static BatchChunker defaults() {
+    return adaptive(DEFAULT_MIN_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE, DEFAULT_TARGET_LATENCY, DEFAULT_MAX_CHUNK_BYTES);
+  }
+
+  boolean isAdaptive() {
+    return adaptive;
+  }
+
+  synchronized int chunkSize() {
+    return (int) chunkSize;
+  }
+
+  /**
+   * @param calls number of calls in the executed chunk
+   * @param elapsedNanos time between sending the request and parsing the response
+   * @param responseBytes size of the response body
+   */
+  synchronized void record(int calls, long elapsedNanos, long responseBytes) {
+    if (!adaptive || calls <= 0)
+      return;
+    double ideal = maxChunkSize;
+    if (elapsedNanos > 0)
+      ideal = Math.min(ideal, calls * (double) targetLatencyNanos / elapsedNanos);
+    if (responseBytes > 0)
+      ideal = Math.min(ideal, calls * (double) maxChunkBytes / responseBytes);
+    ideal = Math.max(minChunkSize, ideal);
+    chunkSize = Math.max(minChunkSize, Math.min(maxChunkSize, chunkSize + SMOOTHING * (ideal - chunkSize)));
+  }
+}
@@ -18,9 +18,15 @@
 
 package wf.bitcoin.javabitcoindrpcclient;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,11 +38,16 @@ public class BitcoinAcceptor implements Runnable {
     private String lastBlock, monitorBlock = null;
     int monitorDepth;
     private final LinkedHashSet<BitcoinPaymentListener> listeners = new LinkedHashSet<BitcoinPaymentListener>();
+    private final HeaderChainCache headers;
+    private Path checkpointFile;
+    private boolean monitorBlockStale;
 
     public BitcoinAcceptor(BitcoindRpcClient bitcoin, String lastBlock, int monitorDepth) {
         this.bitcoin = bitcoin;
         this.lastBlock = lastBlock;
         this.monitorDepth = monitorDepth;
+        this.headers = new HeaderChainCache(bitcoin, Math.max(HeaderChainCache.DEFAULT_CAPACITY, monitorDepth * 4));
+        this.monitorBlockStale = lastBlock != null;
     }
     
     public BitcoinAcceptor(BitcoindRpcClient bitcoin) {
@@ -83,22 +94,117 @@ public class BitcoinAcceptor implements Runnable {
         listeners.remove(listener);
     }
 
+    /**
+     * Adds a listener called on the given executor instead of the thread checking for payments, so that it cannot
+     * delay the other listeners. Its events are queued, up to <code>capacity</code>, and passed in order.
+     *
+     * @return the listener added, to remove it or read its queue metrics
+     */
+    public synchronized AsyncPaymentListener addAsyncListener(BitcoinPaymentListener listener, Executor executor, int capacity, AsyncPaymentListener.Backpressure backpressure) {
+        AsyncPaymentListener async = new AsyncPaymentListener(listener, executor, capacity, backpressure);
+        listeners.add(async);
+        return async;
+    }
+
+    public synchronized Path getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Persists the cursor of this acceptor to the given file after each check, and resumes from it if it exists:
+     * the last block and the transactions already delivered for it are restored, so a restarted acceptor only
+     * replays the monitored window instead of the whole wallet history.
+     * <br><br>
+     * The checkpoint is written once the listeners have been called, so transactions delivered just before a
+     * crash may be delivered again.
+     *
+     * @see AcceptorCheckpoint
+     */
+    public synchronized void setCheckpointFile(Path checkpointFile) throws IOException {
+        this.checkpointFile = checkpointFile;
+        AcceptorCheckpoint checkpoint = checkpointFile == null ? null : AcceptorCheckpoint.load(checkpointFile);
+        if (checkpoint != null && checkpoint.lastBlock() != null) {
+            lastBlock = checkpoint.lastBlock();
+            seen = new HashSet<String>(checkpoint.delivered());
+            monitorBlockStale = true;
+        }
+    }
+
+    /**
+     * @return the cache of block parents used to find the monitored window
+     */
+    public HeaderChainCache getHeaderChainCache() {
+        return headers;
+    }
+
     private HashSet<String> seen = new HashSet<String>();
 
     private void updateMonitorBlock() throws GenericRpcException {
-        monitorBlock = lastBlock;
-        for(int i = 0; i < monitorDepth && monitorBlock != null; i++) {
-            BitcoindRpcClient.Block b = bitcoin.getBlock(monitorBlock);
-            monitorBlock = b == null ? null : b.previousHash();
+        monitorBlock = headers.ancestor(lastBlock, monitorDepth);
+        monitorBlockStale = false;
+    }
+
+    private void saveCheckpoint() {
+        if (checkpointFile == null)
+            return;
+        try {
+            new AcceptorCheckpoint(lastBlock, seen).save(checkpointFile);
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "Cannot write checkpoint " + checkpointFile, ex);
         }
     }
 
+    /**
+     * Longest reorganization looked for when the tip changes
+     */
+    static final int MAX_REORG_DEPTH = 1000;
+
+    /**
+     * Transactions delivered in a block, by txid, to report them as reverted if their block is disconnected
+     */
+    private final LinkedHashMap<String, BitcoindRpcClient.Transaction> confirmedIn = new LinkedHashMap<String, BitcoindRpcClient.Transaction>();
+
     public synchronized void checkPayments() throws GenericRpcException {
+        if (monitorBlockStale)
+            updateMonitorBlock();
         BitcoindRpcClient.TransactionsSinceBlock t = monitorBlock == null ? bitcoin.listSinceBlock() : bitcoin.listSinceBlock(monitorBlock);
-        for (BitcoindRpcClient.Transaction transaction : t.transactions()) {
+        HashSet<String> reverted = new HashSet<String>();
+        boolean changed = deliver(t.transactions());
+        // Only set when monitorBlock itself was disconnected: bitcoind then lists the transactions since the fork
+        // point, so the whole affected range is covered by this single call
+        for (BitcoindRpcClient.Transaction transaction : t.removed())
+            if ("receive".equals(transaction.category()) && reverted.add(transaction.txId()))
+                revert(transaction);
+        if (!t.lastBlock().equals(lastBlock)) {
+            String previous = lastBlock;
+            if (previous != null)
+                disconnect(previous, t.lastBlock(), reverted);
+            seen.clear();
+            lastBlock = t.lastBlock();
+            updateMonitorBlock();
+            changed = true;
+            for (BitcoinPaymentListener listener : listeners) {
+                try {
+                    listener.block(lastBlock);
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+            }
+            pruneConfirmed();
+        }
+        if (changed || !reverted.isEmpty())
+            saveCheckpoint();
+    }
+
+    private boolean deliver(List<BitcoindRpcClient.Transaction> transactions) {
+        boolean changed = false;
+        for (BitcoindRpcClient.Transaction transaction : transactions) {
             if ("receive".equals(transaction.category())) {
                 if (!seen.add(transaction.txId()))
                     continue;
+                changed = true;
+                if (transaction.blockHash() != null)
+                    confirmedIn.put(transaction.txId(), transaction);
                 for (BitcoinPaymentListener listener : listeners) {
                     try {
                         listener.transaction(transaction);
@@ -108,24 +214,88 @@ public class BitcoinAcceptor implements Runnable {
                 }
             }
         }
-        if (!t.lastBlock().equals(lastBlock)) {
-            seen.clear();
-            lastBlock = t.lastBlock();
-            updateMonitorBlock();
+        return changed;
+    }
+
+    private void revert(BitcoindRpcClient.Transaction transaction) {
+        BitcoindRpcClient.Transaction delivered = confirmedIn.remove(transaction.txId());
+        for (BitcoinPaymentListener listener : listeners) {
+            try {
+                listener.transactionReverted(delivered == null ? transaction : delivered);
+            } catch (Exception ex) {
+                logger.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Reports the blocks of the previous chain above the fork point as disconnected, with the transactions
+     * delivered in them. Nothing is reported when the new tip extends the previous one.
+     */
+    private void disconnect(String previousTip, String newTip, HashSet<String> reverted) throws GenericRpcException {
+        int previousHeight = headers.height(previousTip);
+        int newHeight = headers.height(newTip);
+        if (previousHeight < 0 || newHeight < 0
+                || (newHeight >= previousHeight && previousTip.equals(headers.ancestor(newTip, newHeight - previousHeight))))
+            return;
+        String fork = headers.commonAncestor(previousTip, newTip, MAX_REORG_DEPTH);
+        if (fork == null)
+            logger.log(Level.WARNING, "No fork point found within {0} blocks between {1} and {2}", new Object[] { MAX_REORG_DEPTH, previousTip, newTip });
+        HashSet<String> disconnected = new HashSet<String>();
+        for (String hash = previousTip; hash != null && !hash.equals(fork) && disconnected.size() < MAX_REORG_DEPTH; hash = headers.previousHash(hash)) {
+            disconnected.add(hash);
             for (BitcoinPaymentListener listener : listeners) {
                 try {
-                    listener.block(lastBlock);
+                    listener.blockDisconnected(hash);
                 } catch (Exception ex) {
                     logger.log(Level.SEVERE, null, ex);
                 }
             }
         }
+        for (BitcoindRpcClient.Transaction transaction : new ArrayList<BitcoindRpcClient.Transaction>(confirmedIn.values()))
+            if (disconnected.contains(transaction.blockHash()) && reverted.add(transaction.txId()))
+                revert(transaction);
     }
 
-    private boolean stop = false;
-    
+    /**
+     * Forgets the transactions confirmed below the monitored window, a reorganization that deep is reported
+     * through the <code>removed</code> field of listsinceblock.
+     */
+    private void pruneConfirmed() throws GenericRpcException {
+        int windowHeight = monitorBlock == null ? -1 : headers.height(monitorBlock);
+        for (Iterator<BitcoindRpcClient.Transaction> it = confirmedIn.values().iterator(); it.hasNext();) {
+            BitcoindRpcClient.Transaction transaction = it.next();
+            if (headers.height(transaction.blockHash()) <= windowHeight)
+                it.remove();
+        }
+    }
+
+    private volatile boolean stop = false;
+    private final Object wakeUpLock = new Object();
+    private boolean wakeUpRequested = false;
+
     public void stopAccepting() {
         stop = true;
+        wakeUp();
+    }
+
+    /**
+     * Makes {@link #run()} check for payments right away instead of waiting for the check interval,
+     * e.g. when a notification is received. Requests made while a check is running cause one more check.
+     */
+    public void wakeUp() {
+        synchronized (wakeUpLock) {
+            wakeUpRequested = true;
+            wakeUpLock.notifyAll();
+        }
+    }
+
+    private boolean consumeWakeUp() {
+        synchronized (wakeUpLock) {
+            boolean requested = wakeUpRequested;
+            wakeUpRequested = false;
+            return requested;
+        }
     }
     
     private long checkInterval = 5000;
@@ -153,7 +323,7 @@ public class BitcoinAcceptor implements Runnable {
         stop = false;
         long nextCheck = 0;
         while(!(Thread.interrupted() || stop)) {
-            if (nextCheck <= System.currentTimeMillis())
+            if (consumeWakeUp() || nextCheck <= System.currentTimeMillis())
                 try {
                     nextCheck = System.currentTimeMillis() + checkInterval;
                     checkPayments();
@@ -162,7 +332,10 @@ public class BitcoinAcceptor implements Runnable {
                 }
             else
                 try {
-                    Thread.sleep(Math.max(nextCheck - System.currentTimeMillis(), 100));
+                    synchronized (wakeUpLock) {
+                        if (!wakeUpRequested && !stop)
+                            wakeUpLock.wait(Math.max(nextCheck - System.currentTimeMillis(), 100));
+                    }
                 } catch (InterruptedException ex) {
                     Logger.getLogger(BitcoinAcceptor.class.getName()).log(Level.WARNING, null, ex);
                 }
@@ -27,17 +27,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -46,21 +48,36 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.apache.commons.lang3.StringUtils;
 
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryBlock;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryTransaction;
 import wf.bitcoin.javabitcoindrpcclient.config.RpcClientConfig;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpRequest;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpResponse;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpTransport;
+import wf.bitcoin.javabitcoindrpcclient.transport.PooledHttpTransport;
+import wf.bitcoin.javabitcoindrpcclient.transport.UrlConnectionTransport;
 import wf.bitcoin.krotjson.Base64Coder;
 import wf.bitcoin.krotjson.HexCoder;
 import wf.bitcoin.krotjson.JSON;
+import wf.bitcoin.krotjson.JSONReader;
+import wf.bitcoin.krotjson.JSONWriter;
+import wf.bitcoin.krotjson.LazyJSON;
 
 /**
  *
@@ -78,6 +95,9 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   public static final Charset QUERY_CHARSET = Charset.forName("ISO8859-1");
   public static final int CONNECT_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(1);
   public static final int READ_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(5);
+  public static final int DEFAULT_BATCH_PARALLELISM = 4;
+
+  private static final ThreadLocal<JSONWriter> REQUEST_WRITER = ThreadLocal.withInitial(JSONWriter::new);
 
   static {
     String user = "user";
@@ -205,6 +225,15 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   private SSLSocketFactory sslSocketFactory;
   private URL noAuthURL;
   private String authStr;
+  private HttpTransport transport = new UrlConnectionTransport();
+  private int connectTimeout = CONNECT_TIMEOUT;
+  private int readTimeout = READ_TIMEOUT;
+  private volatile RequestCoalescer coalescer;
+  private volatile BatchChunker batchChunker = BatchChunker.defaults();
+  private volatile int batchParallelism = DEFAULT_BATCH_PARALLELISM;
+  private volatile Executor batchExecutor;
+  private volatile boolean lazyParsing;
+  private static Executor defaultBatchExecutor;
 
   public BitcoinJSONRPCClient(String rpcUrl) throws MalformedURLException {
     this(new URL(rpcUrl));
@@ -244,31 +273,184 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
     this.sslSocketFactory = sslSocketFactory;
   }
 
-  @SuppressWarnings("serial")
+  public HttpTransport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Replace the HTTP transport used to reach the node.
+   * The default opens a new {@link java.net.HttpURLConnection} for each request,
+   * use a {@link PooledHttpTransport} to keep connections alive between requests.
+   */
+  public void setTransport(HttpTransport transport) {
+    this.transport = transport;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  public boolean isLazyParsing() {
+    return lazyParsing;
+  }
+
+  /**
+   * In lazy mode, responses are only indexed when received, and each field is decoded when a result object
+   * reads it. This saves most of the parsing work and garbage when only a few fields of large results are used,
+   * at the cost of keeping the raw response in memory as long as any result object built from it.
+   *
+   * @see LazyJSON
+   */
+  public void setLazyParsing(boolean lazyParsing) {
+    this.lazyParsing = lazyParsing;
+  }
+
+  /**
+   * Enables request coalescing: concurrent calls to {@link #query(String, Object...)} arriving within the given window
+   * are sent together as a single JSON-RPC batch request, with at most <code>maxBatchSize</code> calls per batch.
+   * <br><br>
+   * The first call of each batch waits for the window to elapse, so this only pays off when many threads
+   * share the client; a window of a few milliseconds is usually enough.
+   */
+  public void setCoalescing(long window, TimeUnit unit, int maxBatchSize) {
+    this.coalescer = new RequestCoalescer(this, unit.toNanos(window), maxBatchSize);
+  }
+
+  /**
+   * Sends every call as its own request again, which is the default.
+   */
+  public void disableCoalescing() {
+    this.coalescer = null;
+  }
+
+  public boolean isCoalescing() {
+    return coalescer != null;
+  }
+
+  /**
+   * Splits large batches (e.g. {@link #getRawTransactions(List)}) into requests of exactly <code>chunkSize</code> calls.
+   */
+  public void setBatchChunkSize(int chunkSize) {
+    this.batchChunker = BatchChunker.fixed(chunkSize);
+  }
+
+  /**
+   * Splits large batches into requests whose size adapts to the observed latency and response size, which is the default.
+   *
+   * @param minChunkSize the minimum number of calls per request
+   * @param maxChunkSize the maximum number of calls per request
+   * @param targetLatency the time a single request should take
+   * @param maxChunkBytes the maximum size of a single response
+   */
+  public void setAdaptiveBatchChunking(int minChunkSize, int maxChunkSize, long targetLatency, TimeUnit unit, long maxChunkBytes) {
+    this.batchChunker = BatchChunker.adaptive(minChunkSize, maxChunkSize, unit.toNanos(targetLatency), maxChunkBytes);
+  }
+
+  /**
+   * @return the number of calls the next chunk of a large batch will hold
+   */
+  public int getBatchChunkSize() {
+    return batchChunker.chunkSize();
+  }
+
+  public int getBatchParallelism() {
+    return batchParallelism;
+  }
+
+  /**
+   * @param batchParallelism maximum number of chunks of a single batch sent at the same time,
+   * should not exceed the number of connections allowed by the transport
+   */
+  public void setBatchParallelism(int batchParallelism) {
+    if (batchParallelism < 1)
+      throw new IllegalArgumentException("batchParallelism must be positive");
+    this.batchParallelism = batchParallelism;
+  }
+
+  /**
+   * @param batchExecutor executor running the additional chunks of large batches,
+   * by default a shared pool of daemon threads
+   */
+  public void setBatchExecutor(Executor batchExecutor) {
+    this.batchExecutor = batchExecutor;
+  }
+
   protected byte[] prepareRequest(final String method, final Object... params) {
-    return JSON.stringify(new LinkedHashMap<String, Object>() {
-      {
-        put("method", method);
-        put("params", params);
-        put("id", "1");
-      }
-    }).getBytes(QUERY_CHARSET);
+    return writeRequest(new JSONWriter(), method, params, "1").toByteArray();
   }
 
-  @SuppressWarnings("serial")
-  protected byte[] prepareBatchRequest(final String method, final List<BatchParam> paramsList) {
-    return JSON.stringify(paramsList.stream().map(batchParam-> new LinkedHashMap<String, Object>() {
-      {
-        put("method", method);
-        put("params", batchParam.params);
-        put("id", batchParam.id);
+  byte[] prepareBatchRequest(final List<RpcBatch.Call<?>> calls) {
+    return writeBatchRequest(new JSONWriter(calls.size() * 128), calls).toByteArray();
+  }
+
+  private static JSONWriter writeRequest(JSONWriter writer, String method, Object[] params, String id) {
+    return writer.beginObject()
+        .name("method").value(method)
+        .name("params").value(params)
+        .name("id").value(id)
+        .endObject();
+  }
+
+  private static JSONWriter writeBatchRequest(JSONWriter writer, List<RpcBatch.Call<?>> calls) {
+    writer.beginArray();
+    for (RpcBatch.Call<?> call : calls)
+      writeRequest(writer, call.method, call.params, call.id);
+    return writer.endArray();
+  }
+
+  /**
+   * Sends a request written into the calling thread's reusable buffer, which is released as soon as it is sent.
+   */
+  private HttpResponse execute(JSONWriter writer) throws IOException {
+    try {
+      if (logger.isLoggable(Level.FINE))
+        logger.log(Level.FINE, "Bitcoin JSON-RPC request:\n{0}", writer.toString());
+      return transport.execute(newRequest(writer.buffer(), writer.size()));
+    } finally {
+      writer.reset();
+    }
+  }
+
+  /**
+   * @param expectedLength the Content-Length of the response, or -1 if unknown
+   */
+  static byte[] loadStream(InputStream in, long expectedLength) throws IOException {
+    if (expectedLength >= 0 && expectedLength < Integer.MAX_VALUE - 8) {
+      // Read straight into a buffer of the right size
+      byte[] data = new byte[(int) expectedLength];
+      int total = 0;
+      while (total < data.length) {
+        int nr = in.read(data, total, data.length - total);
+        if (nr == -1)
+          return Arrays.copyOf(data, total);
+        if (nr == 0)
+          throw new IOException("Read timed out");
+        total += nr;
       }
-    }).collect(Collectors.toList())).getBytes(QUERY_CHARSET);
+      if (in.read() == -1)
+        return data;
+      // The server sent more than announced, keep reading below
+      ByteArrayOutputStream o = new ByteArrayOutputStream(data.length * 2);
+      o.write(data, 0, data.length);
+      return loadRemaining(in, o);
+    }
+    return loadRemaining(in, new ByteArrayOutputStream(8192));
   }
 
-  private static byte[] loadStream(InputStream in, boolean close) throws IOException {
-    ByteArrayOutputStream o = new ByteArrayOutputStream();
-    byte[] buffer = new byte[1024];
+  private static byte[] loadRemaining(InputStream in, ByteArrayOutputStream o) throws IOException {
+    byte[] buffer = new byte[8192];
     for (;;) {
       int nr = in.read(buffer);
 
@@ -282,17 +464,21 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
     return o.toByteArray();
   }
 
-  @SuppressWarnings("rawtypes")
   public Object loadResponse(InputStream in, Object expectedID, boolean close) throws IOException, GenericRpcException {
+    return loadResponse(in, -1, expectedID, close);
+  }
+
+  @SuppressWarnings("rawtypes")
+  Object loadResponse(InputStream in, long expectedLength, Object expectedID, boolean close) throws IOException, GenericRpcException {
     try {
-      String r = new String(loadStream(in, close), QUERY_CHARSET);
-      logger.log(Level.FINE, "Bitcoin JSON-RPC response:\n{0}", r);
+      byte[] data = loadStream(in, expectedLength);
+      logResponse(data);
       try {
-        Map response = (Map) JSON.parse(r);
+        Map response = (Map) parseResponse(data);
 
         return getResponseObject(expectedID, response);
-      } catch (ClassCastException ex) {
-        throw new BitcoinRPCException("Invalid server response format (data: \"" + r + "\")");
+      } catch (ClassCastException | IllegalArgumentException ex) {
+        throw new BitcoinRPCException("Invalid server response format (data: \"" + new String(data, StandardCharsets.UTF_8) + "\")");
       }
     } finally {
       if (close)
@@ -300,32 +486,46 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
     }
   }
 
-    @SuppressWarnings("rawtypes")
-    public Object loadBatchResponse(InputStream in, List<BatchParam> batchParams, boolean close) throws IOException, GenericRpcException {
+  private Object parseResponse(byte[] data) {
+    return lazyParsing ? LazyJSON.parse(data) : JSON.parse(data);
+  }
+
+  private static void logResponse(byte[] data) {
+    if (logger.isLoggable(Level.FINE))
+      logger.log(Level.FINE, "Bitcoin JSON-RPC response:\n{0}", new String(data, StandardCharsets.UTF_8));
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private List<Object> parseBatchResponse(byte[] data, List<RpcBatch.Call<?>> calls) throws GenericRpcException {
+    logResponse(data);
+    try {
+      List<Map> response = (List<Map>) parseResponse(data);
+
+      Map<Object, Integer> indexById = new HashMap<>(calls.size() * 4 / 3 + 1);
+      for (int i = 0; i < calls.size(); i++)
+        indexById.put(calls.get(i).id, i);
+
+      Object[] results = new Object[calls.size()];
+      boolean[] answered = new boolean[calls.size()];
+      for (Map item : response) {
+        Integer index = indexById.get(item.get("id"));
+        if (index == null)
+          throw new BitcoinRPCException("Unexpected response ID in batch: " + item.get("id"));
+        answered[index] = true;
         try {
-            String r = new String(loadStream(in, close), QUERY_CHARSET);
-            logger.log(Level.FINE, "Bitcoin JSON-RPC response:\n{0}", r);
-            try {
-                List<Map> response = (List<Map>) JSON.parse(r);
-
-                return response.stream().map(item-> {
-                  try {
-                    Object expectedId = batchParams.stream()
-                            .filter(batchParam -> batchParam.id.equals(item.get("id")))
-                            .findFirst().orElseGet(()->new BatchParam(null, null)).id;
-                    return getResponseObject(expectedId, item);
-                  } catch (BitcoinRPCException e) {
-                    return e;
-                  }
-                  }).collect(Collectors.toList());
-            } catch (ClassCastException ex) {
-                throw new BitcoinRPCException("Invalid server response format (data: \"" + r + "\")");
-            }
-        } finally {
-            if (close)
-                in.close();
+          results[index] = getResponseObject(calls.get(index).id, item);
+        } catch (BitcoinRPCException e) {
+          results[index] = e;
         }
+      }
+      for (int i = 0; i < results.length; i++)
+        if (!answered[i])
+          results[i] = new BitcoinRPCException("Missing response in batch for " + calls.get(i).method + " (ID: " + calls.get(i).id + ")");
+      return Arrays.asList(results);
+    } catch (ClassCastException | IllegalArgumentException ex) {
+      throw new BitcoinRPCException("Invalid server response format (data: \"" + new String(data, StandardCharsets.UTF_8) + "\")");
     }
+  }
 
   private Object getResponseObject(Object expectedID, Map response) {
     if (!expectedID.equals(response.get("id")))
@@ -338,75 +538,330 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   }
 
   /**
-   * Set an authenticated connection with Bitcoin server
+   * Build an authenticated request to the Bitcoin server
    */
-  private HttpURLConnection setConnection() {
-    HttpURLConnection conn;
-    try {
-      conn = (HttpURLConnection) noAuthURL.openConnection();
+  protected HttpRequest newRequest(byte[] body) {
+    return newRequest(body, body.length);
+  }
 
-      conn.setDoOutput(true);
-      conn.setDoInput(true);
+  /**
+   * Build an authenticated request to the Bitcoin server, sending the first <code>length</code> bytes of the body
+   */
+  protected HttpRequest newRequest(byte[] body, int length) {
+    HttpRequest request = HttpRequest.post(noAuthURL, null)
+            .body(body, length)
+            .connectTimeout(connectTimeout)
+            .readTimeout(readTimeout)
+            .hostnameVerifier(hostnameVerifier)
+            .sslSocketFactory(sslSocketFactory);
+    if (authStr != null)
+      request.authorization("Basic " + authStr);
+    return request;
+  }
+
+  /**
+   * Build a GET request to another endpoint of the Bitcoin server, with the connection settings of this client
+   */
+  HttpRequest newGetRequest(URL url) {
+    HttpRequest request = HttpRequest.get(url)
+            .connectTimeout(connectTimeout)
+            .readTimeout(readTimeout)
+            .hostnameVerifier(hostnameVerifier)
+            .sslSocketFactory(sslSocketFactory);
+    if (authStr != null)
+      request.authorization("Basic " + authStr);
+    return request;
+  }
+
+  static String readErrorBody(HttpResponse response) throws IOException {
+    byte[] body = response.readBody();
+    return body == null ? null : new String(body);
+  }
 
-      conn.setConnectTimeout(CONNECT_TIMEOUT);
-      conn.setReadTimeout(READ_TIMEOUT);
+  public Object query(String method, Object... o) throws GenericRpcException {
+    RequestCoalescer c = coalescer;
+    if (c != null)
+      return c.query(method, o);
+    return send(method, o);
+  }
 
-      if (conn instanceof HttpsURLConnection) {
-        if (hostnameVerifier != null)
-          ((HttpsURLConnection) conn).setHostnameVerifier(hostnameVerifier);
-        if (sslSocketFactory != null)
-          ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+  /**
+   * Sends a single request, bypassing request coalescing
+   */
+  Object send(String method, Object... o) throws GenericRpcException {
+    try (HttpResponse response = execute(writeRequest(REQUEST_WRITER.get(), method, o, "1"))) {
+      int responseCode = response.getCode();
+      if (responseCode != 200) {
+        throw new BitcoinRPCException(method,
+                                      Arrays.deepToString(o),
+                                      responseCode,
+                                      response.getMessage(),
+                                      readErrorBody(response));
       }
-      conn.setRequestProperty("Authorization", "Basic " + authStr);
-      return conn;
+      return loadResponse(response.getBody(), response.getContentLength(), "1", true);
     } catch (IOException ex) {
-      throw new BitcoinRPCException("Fail to set authenticated connection with server");
+      throw new BitcoinRPCException(method, Arrays.deepToString(o), ex);
     }
   }
 
-  public Object query(String method, Object... o) throws GenericRpcException {
-    HttpURLConnection conn = setConnection();
-    try {
-      byte[] r = prepareRequest(method, o);
-      logger.log(Level.FINE, "Bitcoin JSON-RPC request:\n{0}", new String(r, QUERY_CHARSET));
-      conn.getOutputStream().write(r);
-      conn.getOutputStream().close();
-      int responseCode = conn.getResponseCode();
+  /**
+   * Reads the result of a streamed query, see {@link BitcoinJSONRPCClient#queryStreaming(String, ResultReader, Object...)}.
+   */
+  @FunctionalInterface
+  public interface ResultReader<T> {
+
+    /**
+     * @param reader positioned on the result, which must be consumed entirely and nothing more
+     */
+    T read(JSONReader reader) throws IOException;
+  }
+
+  /**
+   * Like {@link #query(String, Object...)}, but hands the response stream to the given reader instead of parsing
+   * it in memory, so huge results can be processed while they are being downloaded.
+   * Streamed queries are never coalesced.
+   *
+   * @return the value returned by the reader, or null if the result was null
+   */
+  public <T> T queryStreaming(String method, ResultReader<T> resultReader, Object... o) throws GenericRpcException {
+    try (HttpResponse response = execute(writeRequest(REQUEST_WRITER.get(), method, o, "1"))) {
+      int responseCode = response.getCode();
       if (responseCode != 200) {
-        InputStream errorStream = conn.getErrorStream();
         throw new BitcoinRPCException(method,
                                       Arrays.deepToString(o),
                                       responseCode,
-                                      conn.getResponseMessage(),
-                                      errorStream == null ? null : new String(loadStream(errorStream, true)));
+                                      response.getMessage(),
+                                      readErrorBody(response));
+      }
+      try (JSONReader reader = new JSONReader(response.getBody())) {
+        return readStreamedResponse(reader, "1", resultReader);
+      } catch (IllegalArgumentException ex) {
+        throw new BitcoinRPCException("Invalid server response format: " + ex.getMessage());
       }
-      return loadResponse(conn.getInputStream(), "1", true);
     } catch (IOException ex) {
       throw new BitcoinRPCException(method, Arrays.deepToString(o), ex);
     }
   }
 
-  public Object batchQuery(String method, List<BatchParam> batchParams) throws GenericRpcException {
-    HttpURLConnection conn = setConnection();
-    try {
-      byte[] r = prepareBatchRequest(method, batchParams);
-      logger.log(Level.FINE, "Bitcoin JSON-RPC request:\n{0}", new String(r, QUERY_CHARSET));
-      conn.getOutputStream().write(r);
-      conn.getOutputStream().close();
-      int responseCode = conn.getResponseCode();
+  /**
+   * Streams a query returning an array, passing each element to the action as soon as it has been received.
+   * Elements are materialized one at a time with the usual model of maps, lists, Long and BigDecimal.
+   *
+   * @return the number of elements
+   */
+  public long queryForEach(String method, Consumer<Object> action, Object... o) throws GenericRpcException {
+    Long count = queryStreaming(method, reader -> {
+      long n = 0;
+      reader.beginArray();
+      while (reader.hasNext()) {
+        action.accept(reader.readValue());
+        n++;
+      }
+      reader.endArray();
+      return n;
+    }, o);
+    return count == null ? 0 : count;
+  }
+
+  private <T> T readStreamedResponse(JSONReader reader, Object expectedID, ResultReader<T> resultReader) throws IOException {
+    T result = null;
+    Map<String, Object> envelope = new LinkedHashMap<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("result") && reader.peek() != JSONReader.Token.NULL)
+        result = resultReader.read(reader);
+      else
+        envelope.put(name, reader.readValue());
+    }
+    reader.endObject();
+    // Reach the end of the body, so the connection can be reused
+    reader.peek();
+
+    getResponseObject(expectedID, envelope);
+    return result;
+  }
+
+  /**
+   * Creates an empty batch, to send calls to different methods in a single request.
+   */
+  public RpcBatch batch() {
+    return new RpcBatch(this);
+  }
+
+  /**
+   * Sends the calls of a batch, split into chunks executed concurrently when the batch is large.
+   *
+   * @return the result of each call in the order of the calls, or the exception for the calls that failed
+   * @throws GenericRpcException if no chunk could be executed at all
+   */
+  List<Object> batchQuery(List<RpcBatch.Call<?>> calls) throws GenericRpcException {
+    BatchChunker chunker = batchChunker;
+    int n = calls.size();
+    if (n <= chunker.chunkSize())
+      return sendBatch(calls, chunker);
+
+    Object[] results = new Object[n];
+    AtomicInteger next = new AtomicInteger();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    AtomicInteger succeeded = new AtomicInteger();
+    Runnable worker = () -> {
+      for (;;) {
+        int size = chunker.chunkSize();
+        int from = next.getAndAdd(size);
+        if (from >= n)
+          return;
+        List<RpcBatch.Call<?>> chunk = calls.subList(from, Math.min(n, from + size));
+        List<?> chunkResults;
+        try {
+          chunkResults = sendBatch(chunk, chunker);
+          succeeded.incrementAndGet();
+        } catch (RuntimeException ex) {
+          failure.compareAndSet(null, ex);
+          chunkResults = Collections.nCopies(chunk.size(), ex);
+        }
+        for (int i = 0; i < chunkResults.size(); i++)
+          results[from + i] = chunkResults.get(i);
+      }
+    };
+
+    int workers = Math.min(batchParallelism, (n + chunker.chunkSize() - 1) / chunker.chunkSize());
+    Executor executor = batchExecutor != null ? batchExecutor : defaultBatchExecutor();
+    List<CompletableFuture<Void>> helpers = new ArrayList<>();
+    for (int i = 1; i < workers; i++)
+      helpers.add(CompletableFuture.runAsync(worker, executor));
+    worker.run();
+    for (CompletableFuture<Void> helper : helpers)
+      helper.join();
+
+    if (succeeded.get() == 0)
+      throw failure.get();
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Sends the calls in a single JSON-RPC batch request.
+   */
+  private List<Object> sendBatch(List<RpcBatch.Call<?>> calls, BatchChunker chunker) throws GenericRpcException {
+    JSONWriter writer = writeBatchRequest(REQUEST_WRITER.get(), calls);
+    long start = System.nanoTime();
+    try (HttpResponse response = execute(writer)) {
+      int responseCode = response.getCode();
       if (responseCode != 200) {
-        InputStream errorStream = conn.getErrorStream();
-        throw new BitcoinRPCException(method,
-                batchParams.stream().map(param->Arrays.deepToString(param.params)).collect(Collectors.joining()),
+        throw new BitcoinRPCException(batchMethods(calls),
+                batchParams(calls),
                 responseCode,
-                conn.getResponseMessage(),
-                errorStream == null ? null : new String(loadStream(errorStream, true)));
+                response.getMessage(),
+                readErrorBody(response));
       }
-      return loadBatchResponse((conn.getInputStream()), batchParams, true);
+      byte[] data = loadStream(response.getBody(), response.getContentLength());
+      chunker.record(calls.size(), System.nanoTime() - start, data.length);
+      return parseBatchResponse(data, calls);
     } catch (IOException ex) {
-      throw new BitcoinRPCException(method, batchParams.stream()
-              .map(param->Arrays.deepToString(param.params)).collect(Collectors.joining()), ex);
+      throw new BitcoinRPCException(batchMethods(calls), batchParams(calls), ex);
+    }
+  }
+
+  private static synchronized Executor defaultBatchExecutor() {
+    if (defaultBatchExecutor == null) {
+      AtomicInteger threads = new AtomicInteger();
+      defaultBatchExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "bitcoind-rpc-batch-" + threads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
     }
+    return defaultBatchExecutor;
+  }
+
+  private static String batchMethods(List<RpcBatch.Call<?>> calls) {
+    return calls.stream().map(call -> call.method).distinct().collect(Collectors.joining(","));
+  }
+
+  private static String batchParams(List<RpcBatch.Call<?>> calls) {
+    return calls.stream().map(call -> Arrays.deepToString(call.params)).collect(Collectors.joining());
+  }
+
+  /*
+   * Conversions of raw JSON-RPC results into the wrapper types, shared with the asynchronous client.
+   */
+
+  @SuppressWarnings("unchecked")
+  Block toBlock(Object result) {
+    return new BlockMapWrapper((Map<String, ?>) result);
+  }
+
+  @SuppressWarnings("unchecked")
+  BlockWithTxInfo toBlockWithTxInfo(Object result) {
+    return new BlockWithTxInfoMapWrapper((Map<String, ?>) result);
+  }
+
+  @SuppressWarnings("unchecked")
+  BlockChainInfo toBlockChainInfo(Object result) {
+    return new BlockChainInfoMapWrapper((Map<String, ?>) result);
+  }
+
+  @SuppressWarnings("unchecked")
+  NetworkInfo toNetworkInfo(Object result) {
+    return new NetworkInfoWrapper((Map<String, ?>) result);
+  }
+
+  @SuppressWarnings("unchecked")
+  RawTransaction toRawTransaction(Object result) {
+    return new RawTransactionImpl((Map<String, ?>) result);
+  }
+
+  @SuppressWarnings("unchecked")
+  RawTransaction toDecodedRawTransaction(Object result) {
+    RawTransaction rawTransaction = new RawTransactionImpl((Map<String, ?>) result);
+    return rawTransaction.vOut().get(0).transaction();
+  }
+
+  @SuppressWarnings("unchecked")
+  TxOut toTxOut(Object result) {
+    TxOutWrapper txOut = new TxOutWrapper((Map<String, ?>) result);
+    if (txOut.m == null) {
+      return null;
+    }
+    return txOut;
+  }
+
+  @SuppressWarnings("unchecked")
+  SmartFeeResult toSmartFeeResult(Object result) {
+    return new SmartFeeResultMapWrapper((Map<String, ?>) result);
+  }
+
+  @SuppressWarnings("unchecked")
+  Transaction toTransaction(String txId, Object result) {
+    TransactionWrapper tx = new TransactionWrapper((Map<String, ?>) result);
+
+    // [#88] Request for invalid Tx should fail
+    // https://github.com/Polve/JavaBitcoindRpcClient/issues/88
+    // Checked on the hex returned by gettransaction, so batched and asynchronous calls need no getrawtransaction
+    RawTransaction rawTx = null;
+    String hex = tx.mapStr("hex");
+    if (hex != null) {
+      try {
+        rawTx = BinaryTransaction.decode(HexCoder.decode(hex));
+      } catch (IllegalArgumentException ex) {
+        logger.warning(ex.getMessage());
+      }
+    }
+    if (rawTx == null || rawTx.vIn().isEmpty() || rawTx.vOut().isEmpty()) {
+      throw new BitcoinRPCException("Invalid Tx: " + txId);
+    }
+
+    return tx;
+  }
+
+  @SuppressWarnings("unchecked")
+  TransactionsSinceBlock toTransactionsSinceBlock(Object result) {
+    return new TransactionsSinceBlockImpl((Map<String, ?>) result);
+  }
+
+  @SuppressWarnings("unchecked")
+  List<Unspent> toUnspentList(Object result) {
+    return new UnspentListWrapper((List<Map<String, ?>>) result);
   }
 
   @Override
@@ -475,7 +930,7 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   @Override
   @SuppressWarnings("unchecked")
   public SmartFeeResult estimateSmartFee(int blocks) {
-    return new SmartFeeResultMapWrapper((Map<String, ?>) query("estimatesmartfee", blocks));
+    return toSmartFeeResult(query("estimatesmartfee", blocks));
   }
 
   @Override
@@ -487,13 +942,19 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   @Override
   @SuppressWarnings({ "unchecked" })
   public Block getBlock(String blockHash) throws GenericRpcException {
-    return new BlockMapWrapper((Map<String, ?>) query("getblock", blockHash));
+    return toBlock(query("getblock", blockHash));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public BlockHeaderInfo getBlockHeader(String blockHash) throws GenericRpcException {
+    return new BlockHeaderInfoMapWrapper((Map<String, ?>) query("getblockheader", blockHash));
   }
 
   @Override
   @SuppressWarnings({ "unchecked" })
   public BlockWithTxInfo getBlockWithTxInfo(String blockHash) throws GenericRpcException {
-    return new BlockWithTxInfoMapWrapper((Map<String, ?>) query("getblock", blockHash, 2)); // verbosity = 2
+    return toBlockWithTxInfo(query("getblock", blockHash, 2)); // verbosity = 2
   }
 
   @Override
@@ -501,6 +962,31 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
     return (String) query("getblock", blockHash, false);
   }
 
+  @Override
+  public byte[] getRawBlockBytes(String blockHash) throws GenericRpcException {
+    return queryStreaming("getblock", JSONReader::nextHex, blockHash, false);
+  }
+
+  /**
+   * Decodes a serialized block straight into the buffer, starting at its position.
+   *
+   * @return the size of the block
+   * @throws java.nio.BufferOverflowException if the block does not fit in the buffer
+   */
+  public int getRawBlock(String blockHash, ByteBuffer target) throws GenericRpcException {
+    Integer size = queryStreaming("getblock", reader -> reader.nextHex(target), blockHash, false);
+    return size == null ? 0 : size;
+  }
+
+  /**
+   * Fetches a block in the serialization format and decodes it into a {@link BinaryBlock} view, bound to this client.
+   * This transfers about half the bytes of {@link #getBlock(String)} and parses a fraction of them, but leaves out
+   * the information not part of the serialization, like confirmations, script disassembly and addresses.
+   */
+  public BinaryBlock getBinaryBlock(String blockHash) throws GenericRpcException {
+    return BinaryBlock.decode(ByteBuffer.wrap(getRawBlockBytes(blockHash)), this);
+  }
+
   @Override
   public String getBlockHash(int height) throws GenericRpcException {
     return (String) query("getblockhash", height);
@@ -509,7 +995,7 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   @Override
   @SuppressWarnings({ "unchecked" })
   public BlockChainInfo getBlockChainInfo() throws GenericRpcException {
-    return new BlockChainInfoMapWrapper((Map<String, ?>) query("getblockchaininfo"));
+    return toBlockChainInfo(query("getblockchaininfo"));
   }
 
   @Override
@@ -532,7 +1018,7 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   @Override
   @SuppressWarnings({ "unchecked" })
   public NetworkInfo getNetworkInfo() throws GenericRpcException {
-    return new NetworkInfoWrapper((Map<String, ?>) query("getnetworkinfo"));
+    return toNetworkInfo(query("getnetworkinfo"));
   }
 
   @Override
@@ -596,29 +1082,44 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
     return (String) query("getrawtransaction", txId);
   }
 
+  @Override
+  public byte[] getRawTransactionBytes(String txId) throws GenericRpcException {
+    return queryStreaming("getrawtransaction", JSONReader::nextHex, txId);
+  }
+
+  /**
+   * Like {@link #getBinaryBlock(String)}, for a single transaction.
+   */
+  public BinaryTransaction getBinaryTransaction(String txId) throws GenericRpcException {
+    return BinaryTransaction.decode(ByteBuffer.wrap(getRawTransactionBytes(txId)), this);
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public RawTransaction getRawTransaction(String txId) throws GenericRpcException {
-    return new RawTransactionImpl((Map<String, Object>) query("getrawtransaction", txId, 1));
+    return toRawTransaction(query("getrawtransaction", txId, 1));
   }
 
-  @SuppressWarnings("unchecked")
   public List<RawTransaction> getRawTransactions(List<String> txIds) throws GenericRpcException {
-    List<Object> rawTransactions = (List<Object>) batchQuery("getrawtransaction",
-            txIds.stream().map(txId -> new BatchParam(txId, new Object[]{txId, 1}))
-                    .collect(Collectors.toList()));
-
-    return rawTransactions.stream().<RawTransaction>map(rawTransaction -> {
-      if (rawTransaction instanceof BitcoinRPCException) {
+    RpcBatch batch = batch();
+    List<RpcBatch.Handle<RawTransaction>> handles = txIds.stream().map(batch::getRawTransaction).collect(Collectors.toList());
+    batch.execute();
+
+    List<RawTransaction> rawTransactions = new ArrayList<>(handles.size());
+    for (int i = 0; i < handles.size(); i++) {
+      RpcBatch.Handle<RawTransaction> handle = handles.get(i);
+      if (handle.isError()) {
         Map<String, Object> builtErroredTx = new LinkedHashMap<>();
-        BitcoinRPCError rpcError = ((BitcoinRPCException) rawTransaction).getRPCError();
-        builtErroredTx.put("txid", rpcError.getId());
-        builtErroredTx.put("error", rpcError.getMessage());
-        return new RawTransactionImpl(builtErroredTx);
+        RuntimeException error = handle.getError();
+        BitcoinRPCError rpcError = error instanceof BitcoinRPCException ? ((BitcoinRPCException) error).getRPCError() : null;
+        builtErroredTx.put("txid", txIds.get(i));
+        builtErroredTx.put("error", rpcError != null ? rpcError.getMessage() : error.getMessage());
+        rawTransactions.add(new RawTransactionImpl(builtErroredTx));
       } else {
-        return new RawTransactionImpl((Map<String, ?>) rawTransaction);
+        rawTransactions.add(handle.get());
       }
-    }).collect(Collectors.toList());
+    }
+    return rawTransactions;
   }
 
   @Override
@@ -708,7 +1209,7 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   @Override
   @SuppressWarnings("unchecked")
  public TransactionsSinceBlock listSinceBlock(String blockHash) throws GenericRpcException {
-    return new TransactionsSinceBlockImpl((Map<String, ?>) query("listsinceblock", blockHash));
+    return toTransactionsSinceBlock(query("listsinceblock", blockHash));
   }
 
   @Override
@@ -762,7 +1263,7 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   @Override
   @SuppressWarnings("unchecked")
   public List<Unspent> listUnspent(int minConf, int maxConf) throws GenericRpcException {
-    return new UnspentListWrapper((List<Map<String, ?>>) query("listunspent", minConf, maxConf));
+    return toUnspentList(query("listunspent", minConf, maxConf));
   }
 
   @Override
@@ -823,6 +1324,23 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
     return (String) query("sendrawtransaction", hex);
   }
 
+  @Override
+  public String sendMany(Map<String, BigDecimal> amounts) throws GenericRpcException {
+    return (String) query("sendmany", "", amounts);
+  }
+
+  @Override
+  public String sendMany(Map<String, BigDecimal> amounts, int minConf, String comment) throws GenericRpcException {
+    return (String) query("sendmany", "", amounts, minConf, comment);
+  }
+
+  @Override
+  public String sendMany(Map<String, BigDecimal> amounts, int minConf, String comment, List<String> subtractFeeFrom,
+      Boolean replaceable, Integer confTarget, String estimateMode) throws GenericRpcException {
+    return (String) query("sendmany", "", amounts, minConf, comment,
+        subtractFeeFrom == null ? Collections.emptyList() : subtractFeeFrom, replaceable, confTarget, estimateMode);
+  }
+
   @Override
   public String sendToAddress(String toAddress, BigDecimal amount) throws GenericRpcException {
     return (String) query("sendtoaddress", toAddress, amount);
@@ -919,9 +1437,7 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
 
   @SuppressWarnings("unchecked")
   public RawTransaction decodeRawTransaction(String hex) throws GenericRpcException {
-    Map<String, ?> result = (Map<String, ?>) query("decoderawtransaction", hex);
-    RawTransaction rawTransaction = new RawTransactionImpl(result);
-    return rawTransaction.vOut().get(0).transaction();
+    return toDecodedRawTransaction(query("decoderawtransaction", hex));
   }
 
   @Override
@@ -1142,36 +1658,23 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   @Override
   @SuppressWarnings("unchecked")
   public Transaction getTransaction(String txId) {
+    return toTransaction(txId, query("gettransaction", txId));
+  }
 
-    TransactionWrapper tx = new TransactionWrapper((Map<String, ?>) query("gettransaction", txId));
-
-    // [#88] Request for invalid Tx should fail
-    // https://github.com/Polve/JavaBitcoindRpcClient/issues/88
-    RawTransaction rawTx = tx.raw();
-    if (rawTx == null || rawTx.vIn().isEmpty() || rawTx.vOut().isEmpty()) {
-      throw new BitcoinRPCException("Invalid Tx: " + txId);
-    }
-
-    return tx;
+  @Override
+  public String getTransactionHex(String txId) throws GenericRpcException {
+    return (String) ((Map<?, ?>) query("gettransaction", txId)).get("hex");
   }
 
   @Override
   @SuppressWarnings("unchecked")
   public TxOut getTxOut(String txId, long vout) throws GenericRpcException {
-    TxOutWrapper txOut = new TxOutWrapper((Map<String, ?>) query("gettxout", txId, vout, true));
-    if (txOut.m == null) {
-      return null;
-    }
-    return txOut;
+    return toTxOut(query("gettxout", txId, vout, true));
   }
 
   @SuppressWarnings("unchecked")
   public TxOut getTxOut(String txId, long vout, boolean includemempool) throws GenericRpcException {
-    TxOutWrapper txOut = new TxOutWrapper((Map<String, ?>) query("gettxout", txId, vout, includemempool));
-    if (txOut.m == null) {
-      return null;
-    }
-    return txOut;
+    return toTxOut(query("gettxout", txId, vout, includemempool));
   }
 
   @SuppressWarnings("unchecked")
@@ -1705,6 +2208,19 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
     }
   }
 
+  @SuppressWarnings("serial")
+  private class BlockHeaderInfoMapWrapper extends BlockBaseMapWrapper implements BlockHeaderInfo, Serializable {
+
+    private BlockHeaderInfoMapWrapper(Map<String, ?> m) {
+      super(m);
+    }
+
+    @Override
+    public int nTx() {
+      return mapInt("nTx");
+    }
+  }
+
   private class BlockWithTxInfoMapWrapper extends BlockBaseMapWrapper implements BlockWithTxInfo, Serializable {
 
     private BlockWithTxInfoMapWrapper(Map<String, ?> m) {
@@ -2282,17 +2798,29 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
         return mapLong("sequence");
       }
 
+      private RawTransaction transaction;
+
       @Override
       public RawTransaction getTransaction() {
-        try {
-          return getRawTransaction(mapStr("txid"));
-        } catch (GenericRpcException ex) {
-          throw new RuntimeException(ex);
-        }
+        if (transaction == null)
+          try {
+            transaction = getRawTransaction(mapStr("txid"));
+          } catch (GenericRpcException ex) {
+            throw new RuntimeException(ex);
+          }
+        return transaction;
       }
 
       @Override
+      @SuppressWarnings("unchecked")
       public Out getTransactionOutput() {
+        // Included by getblock verbosity 3
+        Map<String, Object> prevout = (Map<String, Object>) m.get("prevout");
+        if (prevout != null) {
+          Map<String, Object> out = new LinkedHashMap<>(prevout);
+          out.put("n", mapInt("vout"));
+          return new OutImpl(out);
+        }
         return getTransaction().vOut().get(mapInt("vout"));
       }
 
@@ -2616,11 +3144,14 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
   private class TransactionsSinceBlockImpl implements TransactionsSinceBlock, Serializable {
 
     private final List<Transaction> transactions;
+    private final List<Transaction> removed;
     private final String lastBlock;
 
     @SuppressWarnings("unchecked")
     private TransactionsSinceBlockImpl(Map<String, ?> r) {
       this.transactions = new TransactionListMapWrapper((List<Map<String, ?>>) r.get("transactions"));
+      List<Map<String, ?>> removed = (List<Map<String, ?>>) r.get("removed");
+      this.removed = removed == null ? Collections.<Transaction>emptyList() : new TransactionListMapWrapper(removed);
       this.lastBlock = (String) r.get("lastblock");
     }
 
@@ -2629,6 +3160,11 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
       return transactions;
     }
 
+    @Override
+    public List<Transaction> removed() {
+      return removed;
+    }
+
     @Override
     public String lastBlock() {
       return lastBlock;
@@ -2707,6 +3243,10 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
 
     @Override
     public String hex() {
+      // Nested in scriptPubKey by bitcoind
+      Object scriptPubKey = m.get("scriptPubKey");
+      if (m.get("hex") == null && scriptPubKey instanceof Map)
+        return (String) ((Map<?, ?>) scriptPubKey).get("hex");
       return mapStr("hex");
     }
 
@@ -3006,17 +3546,6 @@ public class BitcoinJSONRPCClient implements BitcoindRpcClient {
 		}
 	}
 
-	private class BatchParam {
-      public final String id;
-      public final Object[] params;
-
-      BatchParam(String id, Object[] params) {
-        this.id=id;
-        this.params=params;
-      }
-    }
-
-
 	@SuppressWarnings("serial")
 	private class UnspentTxOutputWrapper extends MapWrapper implements UnspentTxOutput, Serializable {
 
@@ -27,4 +27,21 @@ public interface BitcoinPaymentListener {
     public void block(String blockHash);
     public void transaction(BitcoindRpcClient.Transaction transaction);
 
+    /**
+     * Called for each block leaving the main chain in a reorganization, from the former tip down, before
+     * {@link #block(String)} is called for the new tip.
+     */
+    public default void blockDisconnected(String blockHash) {
+    }
+
+    /**
+     * Called when a transaction already passed to {@link #transaction(BitcoindRpcClient.Transaction)} is no longer in
+     * the main chain. It is passed again to {@link #transaction(BitcoindRpcClient.Transaction)} if it gets included
+     * in the new chain.
+     *
+     * @param transaction the transaction as it was last delivered, with the block it was removed from
+     */
+    public default void transactionReverted(BitcoindRpcClient.Transaction transaction) {
+    }
+
 }
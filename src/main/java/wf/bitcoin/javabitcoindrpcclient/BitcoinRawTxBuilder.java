@@ -5,12 +5,19 @@
 package wf.bitcoin.javabitcoindrpcclient;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
+import wf.bitcoin.javabitcoindrpcclient.binary.Address;
+import wf.bitcoin.javabitcoindrpcclient.binary.TransactionSerializer;
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+
 /**
  *
  * @author azazar
@@ -25,6 +32,12 @@ public class BitcoinRawTxBuilder {
   public Set<BitcoindRpcClient.TxInput> inputs = new LinkedHashSet<>();
   public List<BitcoindRpcClient.TxOutput> outputs = new ArrayList<>();
   public List<String> privateKeys;
+  private CoinSelection coinSelection = new CoinSelection();
+  private WalletUtxoCache utxoCache;
+  private PrevoutResolver prevoutResolver;
+  private TransactionSerializer serializer = new TransactionSerializer();
+  private CoinSelection.Result selection;
+  private final HashMap<BitcoindRpcClient.TxInput, BigDecimal> inputValues = new HashMap<>();
 
   @SuppressWarnings("serial")
   private class Input extends BitcoindRpcClient.BasicTxInput {
@@ -49,7 +62,7 @@ public class BitcoinRawTxBuilder {
       if (!(obj instanceof BitcoindRpcClient.TxInput))
         return false;
       BitcoindRpcClient.TxInput other = (BitcoindRpcClient.TxInput) obj;
-      return vout == other.vout() && txid.equals(other.txid());
+      return Objects.equals(vout, other.vout()) && txid.equals(other.txid());
     }
 
   }
@@ -77,22 +90,135 @@ public class BitcoinRawTxBuilder {
     return in(value, 6);
   }
 
+  public CoinSelection getCoinSelection() {
+    return coinSelection;
+  }
+
+  /**
+   * @param coinSelection the selection used by {@link #in(BigDecimal, int)}, ignoring fees by default
+   */
+  public BitcoinRawTxBuilder setCoinSelection(CoinSelection coinSelection) {
+    this.coinSelection = coinSelection;
+    return this;
+  }
+
+  public WalletUtxoCache getUtxoCache() {
+    return utxoCache;
+  }
+
+  /**
+   * @param utxoCache the coins {@link #in(BigDecimal, int)} selects from, instead of calling listunspent each time
+   */
+  public BitcoinRawTxBuilder setUtxoCache(WalletUtxoCache utxoCache) {
+    this.utxoCache = utxoCache;
+    return this;
+  }
+
+  public PrevoutResolver getPrevoutResolver() {
+    return prevoutResolver;
+  }
+
+  /**
+   * @param prevoutResolver resolves the amounts of the inputs not added by {@link #in(BigDecimal, int)}, shared
+   * between builders
+   */
+  public BitcoinRawTxBuilder setPrevoutResolver(PrevoutResolver prevoutResolver) {
+    this.prevoutResolver = prevoutResolver;
+    return this;
+  }
+
+  public TransactionSerializer getSerializer() {
+    return serializer;
+  }
+
+  /**
+   * @param serializer serializes the transaction in {@link #create()}, with its version, locktime and sequences;
+   * null to call createrawtransaction instead. Unless the serializer has a chain, it gets the one of the node, so
+   * that addresses of other chains are rejected as createrawtransaction does
+   */
+  public BitcoinRawTxBuilder setSerializer(TransactionSerializer serializer) {
+    this.serializer = serializer;
+    return this;
+  }
+
+  /**
+   * @return the outcome of the last {@link #in(BigDecimal, int)}, with the fee and change it expects, or null
+   */
+  public CoinSelection.Result getSelection() {
+    return selection;
+  }
+
+  /**
+   * Adds unspent outputs of the wallet worth at least <code>value</code>, plus the fee of the transaction at the
+   * rate of the {@link #setCoinSelection coin selection}.
+   */
   public BitcoinRawTxBuilder in(BigDecimal value, int minConf) throws GenericRpcException {
-    List<BitcoindRpcClient.Unspent> unspent = bitcoin.listUnspent(minConf);
-    BigDecimal v = value;
+    List<? extends BitcoindRpcClient.Unspent> unspent = utxoCache != null ? utxoCache.snapshot().unspent(minConf)
+        : bitcoin.listUnspent(minConf);
+    BitcoindRpcClient.Unspent[] candidates = new BitcoindRpcClient.Unspent[unspent.size()];
+    long[] values = new long[candidates.length];
+    int[] vsizes = new int[candidates.length];
+    int count = 0;
     for (BitcoindRpcClient.Unspent o : unspent) {
-      if (!inputs.contains(new Input(o))) {
-        in(o);
-        v = v.subtract(o.amount());
+      if (inputs.contains(new Input(o)))
+        continue;
+      candidates[count] = o;
+      if (o instanceof WalletUtxoCache.Utxo) {
+        values[count] = ((WalletUtxoCache.Utxo) o).amountSats();
+        vsizes[count++] = ((WalletUtxoCache.Utxo) o).inputVsize();
+      } else {
+        values[count] = sats(o.amount());
+        vsizes[count++] = CoinSelection.inputVsize(o.scriptPubKey());
       }
-      if (v.compareTo(BigDecimal.ZERO) < 0)
-        break;
     }
-    if (BigDecimal.ZERO.compareTo(v) < 0)
-      throw new GenericRpcException("Not enough bitcoins (" + v + "/" + value + ")");
+    int baseVsize = CoinSelection.TX_OVERHEAD_VSIZE;
+    for (BitcoindRpcClient.TxOutput o : outputs)
+      baseVsize += outputVsize(o);
+    long target = value.movePointRight(8).setScale(0, RoundingMode.UP).longValueExact();
+    CoinSelection.Result result = coinSelection.select(Arrays.copyOf(values, count), Arrays.copyOf(vsizes, count), target,
+        baseVsize);
+    if (result == null) {
+      long available = 0;
+      for (int i = 0; i < count; i++)
+        available += values[i];
+      throw new GenericRpcException("Not enough bitcoins (" + value.subtract(btc(available)) + "/" + value + ")");
+    }
+    for (int i : result.selected()) {
+      BitcoindRpcClient.Unspent o = candidates[i];
+      in(o);
+      inputValues.put(new Input(o), o.amount());
+    }
+    selection = result;
     return this;
   }
 
+  private static long sats(BigDecimal btc) {
+    return btc.movePointRight(8).longValueExact();
+  }
+
+  private static BigDecimal btc(long sats) {
+    return BigDecimal.valueOf(sats, 8);
+  }
+
+  /**
+   * @return the virtual size of the output, as a P2PKH output if its address cannot be decoded
+   */
+  private static int outputVsize(BitcoindRpcClient.TxOutput o) {
+    int size = 0;
+    if (o.address() != null) {
+      int script = 25;
+      try {
+        script = Address.toScript(o.address()).length;
+      } catch (IllegalArgumentException ex) {
+        // keep the default
+      }
+      size += 9 + script;
+    }
+    if (o.data() != null)
+      size += 12 + o.data().length;
+    return size;
+  }
+
   private HashMap<String, BitcoindRpcClient.RawTransaction> txCache = new HashMap<>();
 
   private BitcoindRpcClient.RawTransaction tx(String txId) throws GenericRpcException {
@@ -109,9 +235,25 @@ public class BitcoinRawTxBuilder {
   }
 
   public BitcoinRawTxBuilder outChange(String address, BigDecimal fee) throws GenericRpcException {
+    List<BitcoindRpcClient.TxInput> unknown = new ArrayList<>();
+    for (BitcoindRpcClient.TxInput i : inputs)
+      if (!inputValues.containsKey(i))
+        unknown.add(i);
+    if (!unknown.isEmpty()) {
+      if (prevoutResolver == null && bitcoin instanceof BitcoinJSONRPCClient)
+        prevoutResolver = new PrevoutResolver((BitcoinJSONRPCClient) bitcoin);
+      if (prevoutResolver != null) {
+        List<PrevoutResolver.Prevout> prevouts = prevoutResolver.resolve(unknown);
+        for (int i = 0; i < prevouts.size(); i++)
+          inputValues.put(unknown.get(i), prevouts.get(i).value());
+      } else {
+        for (BitcoindRpcClient.TxInput i : unknown)
+          inputValues.put(i, tx(i.txid()).vOut().get(i.vout()).value());
+      }
+    }
     BigDecimal is = BigDecimal.ZERO;
     for (BitcoindRpcClient.TxInput i : inputs)
-      is = is.add(tx(i.txid()).vOut().get(i.vout()).value());
+      is = is.add(inputValues.get(i));
     BigDecimal os = fee;
     for (BitcoindRpcClient.TxOutput o : outputs)
       os = os.add(o.amount());
@@ -128,8 +270,19 @@ public class BitcoinRawTxBuilder {
 	  return this;
   }
 
+  /**
+   * @return the hex of the unsigned transaction
+   */
   public String create() throws GenericRpcException {
-    return bitcoin.createRawTransaction(new ArrayList<>(inputs), outputs);
+    if (serializer == null)
+      return bitcoin.createRawTransaction(new ArrayList<>(inputs), outputs);
+    if (serializer.getChain() == null)
+      serializer.setChain(Chain.fromName(bitcoin.getBlockChainInfo().chain()));
+    try {
+      return serializer.hex(new ArrayList<>(inputs), outputs);
+    } catch (IllegalArgumentException ex) {
+      throw new GenericRpcException(ex.getMessage(), ex);
+    }
   }
 
 	/**
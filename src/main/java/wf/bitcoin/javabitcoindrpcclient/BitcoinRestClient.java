@@ -0,0 +1,254 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxInput;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryBlock;
+import wf.bitcoin.javabitcoindrpcclient.binary.BlockHeader;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpRequest;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpResponse;
+import wf.bitcoin.krotjson.HexCoder;
+import wf.bitcoin.krotjson.JSON;
+
+/**
+ * Client of the bitcoind REST interface, for bulk reads served as binary payloads instead of hex encoded JSON.
+ * <br><br>
+ * Requests go to the host and port of the given RPC client, through its transport and with its timeouts and TLS
+ * settings, so a {@link wf.bitcoin.javabitcoindrpcclient.transport.PooledHttpTransport} is shared by both.
+ * The REST interface is disabled unless bitcoind runs with <code>-rest</code>: the first request answered
+ * like an unknown endpoint switches this client to the equivalent RPC calls, as does {@link #setRestEnabled(boolean)}.
+ * <br><br>
+ * Instances are thread safe.
+ */
+public class BitcoinRestClient {
+
+  private static final Logger logger = Logger.getLogger(BitcoindRpcClient.class.getPackage().getName());
+
+  /**
+   * Largest number of headers bitcoind returns in a single response
+   */
+  public static final int MAX_HEADERS = 2000;
+
+  /**
+   * Largest number of outpoints bitcoind checks in a single <code>getutxos</code> request
+   */
+  public static final int MAX_GETUTXOS_OUTPOINTS = 15;
+
+  private final BitcoinJSONRPCClient rpc;
+  private final String restURL;
+  private volatile boolean restEnabled = true;
+
+  public BitcoinRestClient(BitcoinJSONRPCClient rpc) {
+    this.rpc = rpc;
+    URL url = rpc.rpcURL;
+    this.restURL = url.getProtocol() + "://" + url.getHost() + (url.getPort() == -1 ? "" : ":" + url.getPort()) + "/rest/";
+  }
+
+  public BitcoinJSONRPCClient getRpcClient() {
+    return rpc;
+  }
+
+  /**
+   * @return false once requests are served by RPC, because REST was disabled here or found disabled on the node
+   */
+  public boolean isRestEnabled() {
+    return restEnabled;
+  }
+
+  public void setRestEnabled(boolean restEnabled) {
+    this.restEnabled = restEnabled;
+  }
+
+  /**
+   * @param blockHash The hash of the header of the block to get, encoded as hex in RPC byte order
+   * @return the serialized block
+   */
+  public byte[] getRawBlockBytes(String blockHash) throws GenericRpcException {
+    byte[] block = get("block/" + blockHash + ".bin");
+    return block != null ? block : rpc.getRawBlockBytes(blockHash);
+  }
+
+  /**
+   * @see BitcoindRpcClient#getRawBlock(String)
+   */
+  public String getRawBlock(String blockHash) throws GenericRpcException {
+    return HexCoder.encode(getRawBlockBytes(blockHash));
+  }
+
+  /**
+   * @see BitcoinJSONRPCClient#getBinaryBlock(String)
+   */
+  public BinaryBlock getBinaryBlock(String blockHash) throws GenericRpcException {
+    return BinaryBlock.decode(ByteBuffer.wrap(getRawBlockBytes(blockHash)), rpc);
+  }
+
+  /**
+   * Returns the serialized headers of up to <code>count</code> blocks of the active chain, starting with the given one.
+   * Fewer headers are returned at the tip of the chain, and only the given one if it is not in the active chain.
+   *
+   * @param count between 1 and {@link #MAX_HEADERS}
+   * @return consecutive 80 byte headers
+   */
+  public byte[] getHeadersBytes(int count, String blockHash) throws GenericRpcException {
+    if (count < 1 || count > MAX_HEADERS)
+      throw new IllegalArgumentException("Header count must be between 1 and " + MAX_HEADERS + ": " + count);
+    byte[] headers = get("headers/" + count + "/" + blockHash + ".bin");
+    return headers != null ? headers : rpcHeaders(count, blockHash);
+  }
+
+  /**
+   * Like {@link #getHeadersBytes(int, String)}, decoded into header views.
+   */
+  public List<BlockHeader> getHeaders(int count, String blockHash) throws GenericRpcException {
+    return BlockHeader.decodeAll(getHeadersBytes(count, blockHash));
+  }
+
+  /**
+   * Returns the hashes of up to <code>count</code> blocks of the active chain, starting with the given one, in a
+   * single request instead of one <code>getblockhash</code> call per block.
+   *
+   * @see #getHeadersBytes(int, String)
+   */
+  public List<String> getBlockHashes(int count, String blockHash) throws GenericRpcException {
+    List<BlockHeader> headers = getHeaders(count, blockHash);
+    List<String> hashes = new ArrayList<>(headers.size());
+    for (BlockHeader header : headers)
+      hashes.add(header.hash());
+    return hashes;
+  }
+
+  /**
+   * Checks which of the given outputs are unspent, {@link #MAX_GETUTXOS_OUTPOINTS} per request.
+   *
+   * @param checkMempool whether outputs spent by mempool transactions count as spent, and outputs of mempool
+   * transactions as unspent
+   * @return for each outpoint, whether it is unspent
+   */
+  public boolean[] areUnspent(List<? extends TxInput> outpoints, boolean checkMempool) throws GenericRpcException {
+    boolean[] unspent = new boolean[outpoints.size()];
+    for (int from = 0; from < outpoints.size(); from += MAX_GETUTXOS_OUTPOINTS) {
+      List<? extends TxInput> chunk = outpoints.subList(from, Math.min(outpoints.size(), from + MAX_GETUTXOS_OUTPOINTS));
+      StringBuilder path = new StringBuilder(16 + chunk.size() * 70).append("getutxos");
+      if (checkMempool)
+        path.append("/checkmempool");
+      for (TxInput outpoint : chunk)
+        path.append('/').append(outpoint.txid()).append('-').append(outpoint.vout());
+      byte[] response = get(path.append(".bin").toString());
+      if (response == null)
+        rpcUnspent(chunk, checkMempool, unspent, from);
+      else
+        readBitmap(response, chunk.size(), unspent, from);
+    }
+    return unspent;
+  }
+
+  /**
+   * Returns the verbose mempool content, keyed by txid.
+   *
+   * @see <a href="https://developer.bitcoin.org/reference/rpc/getrawmempool.html">getrawmempool</a>
+   */
+  @SuppressWarnings("unchecked")
+  public Map<String, Map<String, Object>> getMempoolContents() throws GenericRpcException {
+    byte[] contents = get("mempool/contents.json");
+    if (contents == null)
+      return (Map<String, Map<String, Object>>) rpc.query("getrawmempool", true);
+    try {
+      return (Map<String, Map<String, Object>>) JSON.parse(contents);
+    } catch (IllegalArgumentException | ClassCastException ex) {
+      throw new BitcoinRPCException("Invalid REST response for mempool/contents.json", ex);
+    }
+  }
+
+  /**
+   * Sends a GET request for the given path under <code>/rest/</code>.
+   *
+   * @return the response body, or null if the request must be served by RPC instead
+   */
+  private byte[] get(String path) throws GenericRpcException {
+    if (!restEnabled)
+      return null;
+    HttpRequest request;
+    try {
+      request = rpc.newGetRequest(new URL(restURL + path));
+    } catch (MalformedURLException ex) {
+      throw new IllegalArgumentException(path, ex);
+    }
+    try (HttpResponse response = rpc.getTransport().execute(request)) {
+      int code = response.getCode();
+      if (code == 200)
+        return BitcoinJSONRPCClient.loadStream(response.getBody(), response.getContentLength());
+      String body = BitcoinJSONRPCClient.readErrorBody(response);
+      if (code == 404 && (body == null || body.trim().isEmpty())) {
+        // Unknown endpoints get an empty 404, while missing blocks and transactions are reported in the body
+        logger.log(Level.INFO, "REST interface is disabled on the node, using RPC instead");
+        restEnabled = false;
+        return null;
+      }
+      throw new BitcoinRPCException("REST request failed (GET /rest/" + path + ", response code: " + code
+          + " responseMessage " + response.getMessage() + ", response: " + body + ")");
+    } catch (IOException ex) {
+      throw new BitcoinRPCException("REST request failed (GET /rest/" + path + ")", ex);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private byte[] rpcHeaders(int count, String blockHash) {
+    Map<String, ?> first = (Map<String, ?>) rpc.query("getblockheader", blockHash, true);
+    int confirmations = ((Number) first.get("confirmations")).intValue();
+    int height = ((Number) first.get("height")).intValue();
+    int n = confirmations < 1 ? 1 : Math.min(count, confirmations);
+
+    List<RpcBatch.Handle<String>> hashes = new ArrayList<>(n);
+    if (n > 1) {
+      RpcBatch batch = rpc.batch();
+      for (int i = 1; i < n; i++)
+        hashes.add(batch.getBlockHash(height + i));
+      batch.execute();
+    }
+    RpcBatch batch = rpc.batch();
+    List<RpcBatch.Handle<Object>> headers = new ArrayList<>(n);
+    headers.add(batch.query("getblockheader", blockHash, false));
+    for (RpcBatch.Handle<String> hash : hashes)
+      headers.add(batch.query("getblockheader", hash.get(), false));
+    batch.execute();
+
+    byte[] result = new byte[n * BlockHeader.SIZE];
+    for (int i = 0; i < n; i++) {
+      byte[] header = HexCoder.decode((String) headers.get(i).get());
+      System.arraycopy(header, 0, result, i * BlockHeader.SIZE, BlockHeader.SIZE);
+    }
+    return result;
+  }
+
+  private void rpcUnspent(List<? extends TxInput> outpoints, boolean checkMempool, boolean[] unspent, int offset) {
+    RpcBatch batch = rpc.batch();
+    List<RpcBatch.Handle<Object>> outs = new ArrayList<>(outpoints.size());
+    for (TxInput outpoint : outpoints)
+      outs.add(batch.query("gettxout", outpoint.txid(), outpoint.vout(), checkMempool));
+    batch.execute();
+    for (int i = 0; i < outs.size(); i++)
+      unspent[offset + i] = outs.get(i).get() != null;
+  }
+
+  /**
+   * Reads the bitmap of a binary <code>getutxos</code> response: chain height, chain tip hash, then one bit per
+   * outpoint, set if it is unspent.
+   */
+  private static void readBitmap(byte[] response, int count, boolean[] unspent, int offset) {
+    int pos = 4 + 32;
+    int length = response.length > pos ? response[pos] & 0xFF : -1;
+    pos++;
+    if (length < (count + 7) / 8 || length >= 0xFD || response.length < pos + length)
+      throw new BitcoinRPCException("Invalid REST getutxos response of " + response.length + " bytes for " + count + " outpoints");
+    for (int i = 0; i < count; i++)
+      unspent[offset + i] = (response[pos + i / 8] & (1 << (i % 8))) != 0;
+  }
+}
@@ -38,7 +38,6 @@ public interface BitcoindRpcClient {
    * 
    * Missing methods supported in 0.17.0 are ...
    * 
-   * getblockheader "hash" ( verbose )
    * getblockstats hash_or_height ( stats )
    * getchaintips
    * getchaintxstats ( nblocks blockhash )
@@ -79,6 +78,15 @@ public interface BitcoindRpcClient {
    * @see <a href="https://bitcoin.org/en/developer-reference#getblock">getblock</a>
    */
   Block getBlock(String blockHash) throws GenericRpcException;
+
+  /**
+   * The getblockheader RPC gets the header of a block, without the list of its transactions.
+   * 
+   * @param blockHash The hash of the header of the block to get, encoded as hex in RPC byte order
+   * 
+   * @see <a href="https://bitcoin.org/en/developer-reference#getblockheader">getblockheader</a>
+   */
+  BlockHeaderInfo getBlockHeader(String blockHash) throws GenericRpcException;
   
   /**
    * The getblock (with verbosity = 2) RPC gets a block (Containing information about each transaction) with a
@@ -99,6 +107,13 @@ public interface BitcoindRpcClient {
    */
   String getRawBlock(String blockHash) throws GenericRpcException;
 
+  /**
+   * Like {@link #getRawBlock(String)}, but returns the serialized block as bytes, decoded without building its hex string.
+   *
+   * @param blockHash The hash of the header of the block to get, encoded as hex in RPC byte order
+   */
+  byte[] getRawBlockBytes(String blockHash) throws GenericRpcException;
+
   /**
    * The getblockchaininfo RPC provides information about the current state of the block chain.
    * 
@@ -417,6 +432,7 @@ public interface BitcoindRpcClient {
   /**
    * The createrawtransaction RPC creates an unsigned serialized transaction that spends a previous output to a new output with a P2PKH or P2SH address. 
    * The transaction is not stored in the wallet or transmitted to the network.
+   * {@link wf.bitcoin.javabitcoindrpcclient.binary.TransactionSerializer} serializes the same transaction locally.
    * 
    * @param inputs An array of objects, each one to be used as an input to the transaction
    * @param outputs The addresses and amounts to pay
@@ -465,6 +481,13 @@ public interface BitcoindRpcClient {
    */
   String getRawTransactionHex(String txId) throws GenericRpcException;
 
+  /**
+   * Like {@link #getRawTransactionHex(String)}, but returns the serialized transaction as bytes, decoded without building its hex string.
+   *
+   * @param txId The TXID of the transaction to get, encoded as hex in RPC byte order
+   */
+  byte[] getRawTransactionBytes(String txId) throws GenericRpcException;
+
   /**
    * The sendrawtransaction RPC validates a transaction and broadcasts it to the peer-to-peer network.
    * 
@@ -576,7 +599,6 @@ public interface BitcoindRpcClient {
    * loadwallet "filename"
    * removeprunedfunds "txid"
    * rescanblockchain ("start_height") ("stop_height")
-   * sendmany "" {"address":amount,...} ( minconf "comment" ["address",...] replaceable conf_target "estimate_mode")
    * sethdseed ( "newkeypool" "seed" )
    * signrawtransactionwithwallet "hexstring" ( [{"txid":"id","vout":n,"scriptPubKey":"hex","redeemScript":"hex"},...] sighashtype )
    * unloadwallet ( "wallet_name" )
@@ -785,6 +807,17 @@ public interface BitcoindRpcClient {
    * @see <a href="https://bitcoin.org/en/developer-reference#gettransaction">gettransaction</a>
    */
   Transaction getTransaction(String txId);
+
+  /**
+   * The gettransaction RPC, returning only the serialized in-wallet transaction.
+   * Unlike {@link #getTransaction(String)}, it does not call getrawtransaction, so it works on confirmed transactions without -txindex.
+   *
+   * @param txId The TXID of the transaction to get
+   * @return The transaction in serialized transaction format encoded as hex
+   *
+   * @see <a href="https://bitcoin.org/en/developer-reference#gettransaction">gettransaction</a>
+   */
+  String getTransactionHex(String txId) throws GenericRpcException;
   
   /**
    * The getunconfirmedbalance RPC returns the wallet’s total unconfirmed balance.
@@ -1231,6 +1264,48 @@ public interface BitcoindRpcClient {
   */
  String sendToAddress(String toAddress, BigDecimal amount, String comment, String commentTo) throws GenericRpcException;
 
+ /**
+  * The sendmany RPC creates and broadcasts a transaction which sends outputs to multiple addresses.
+  * 
+  * @param amounts The amount to spend to each address, in bitcoins
+  * 
+  * @return The TXID of the sent transaction, encoded as hex in RPC byte order
+  * 
+  * @see <a href="https://bitcoin.org/en/developer-reference#sendmany">sendmany</a>
+  */
+ String sendMany(Map<String, BigDecimal> amounts) throws GenericRpcException;
+
+ /**
+  * The sendmany RPC creates and broadcasts a transaction which sends outputs to multiple addresses.
+  * 
+  * @param amounts The amount to spend to each address, in bitcoins
+  * @param minConf Only use the balance confirmed at least this many times
+  * @param comment A locally-stored (not broadcast) comment assigned to this transaction.
+  * 
+  * @return The TXID of the sent transaction, encoded as hex in RPC byte order
+  * 
+  * @see <a href="https://bitcoin.org/en/developer-reference#sendmany">sendmany</a>
+  */
+ String sendMany(Map<String, BigDecimal> amounts, int minConf, String comment) throws GenericRpcException;
+
+ /**
+  * The sendmany RPC creates and broadcasts a transaction which sends outputs to multiple addresses.
+  * 
+  * @param amounts The amount to spend to each address, in bitcoins
+  * @param minConf Only use the balance confirmed at least this many times
+  * @param comment A locally-stored (not broadcast) comment assigned to this transaction.
+  * @param subtractFeeFrom The addresses paying the fee, in equal parts; null or empty if the sender pays it
+  * @param replaceable Whether the transaction signals BIP125 replaceability, null for the wallet default
+  * @param confTarget Confirmation target in blocks, null for the wallet default
+  * @param estimateMode The fee estimate mode, "unset", "economical" or "conservative", null for the default
+  * 
+  * @return The TXID of the sent transaction, encoded as hex in RPC byte order
+  * 
+  * @see <a href="https://bitcoin.org/en/developer-reference#sendmany">sendmany</a>
+  */
+ String sendMany(Map<String, BigDecimal> amounts, int minConf, String comment, List<String> subtractFeeFrom, Boolean replaceable,
+     Integer confTarget, String estimateMode) throws GenericRpcException;
+
  /**
   * The settxfee RPC sets the transaction fee per kilobyte paid by transactions created by this wallet.
   * 
@@ -1564,6 +1639,34 @@ public interface BitcoindRpcClient {
 
  static interface Block extends BlockBase<Block, String>, MapWrapperType, Serializable {
  }
+
+ static interface BlockHeaderInfo extends MapWrapperType, Serializable {
+   String hash();
+
+   int confirmations();
+
+   int height();
+
+   int version();
+
+   String merkleRoot();
+
+   Date time();
+
+   long nonce();
+
+   String bits();
+
+   BigDecimal difficulty();
+
+   String chainwork();
+
+   int nTx();
+
+   String previousHash();
+
+   String nextHash();
+ }
  
  static interface BlockWithTxInfo extends BlockBase<BlockWithTxInfo, RawTransaction>, MapWrapperType, Serializable {
  }
@@ -2012,6 +2115,12 @@ public interface BitcoindRpcClient {
 
     List<Transaction> transactions();
 
+    /**
+     * @return the transactions of the blocks removed from the main chain by a reorganization, when the block passed
+     * to listsinceblock is no longer in the main chain (bitcoind 0.16+, empty otherwise)
+     */
+    List<Transaction> removed();
+
     String lastBlock();
   }
 
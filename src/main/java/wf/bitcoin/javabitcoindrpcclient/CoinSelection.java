@@ -0,0 +1,486 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import wf.bitcoin.javabitcoindrpcclient.binary.ScriptType;
+import wf.bitcoin.krotjson.HexCoder;
+
+/**
+ * Chooses the coins funding a payment, working on satoshi amounts in primitive arrays so that wallets with hundreds
+ * of thousands of unspent outputs are handled in milliseconds.
+ * <br><br>
+ * Like bitcoind, each coin counts for its <i>effective value</i>, its amount minus the fee to spend it at the
+ * given fee rate, and the algorithms are tried in order:
+ * <ol>
+ * <li>branch and bound, looking for a set of coins matching the target closely enough to do without change;</li>
+ * <li>knapsack, approximating the smallest set of coins covering the target plus a change output;</li>
+ * <li>largest first, as a last resort.</li>
+ * </ol>
+ * Selections are compared by their <i>waste</i>: the extra fee paid for spending the inputs now rather than at the
+ * long term fee rate, plus the cost of the change output or, without change, the excess given to the miners.
+ * <br><br>
+ * Subclasses can replace any of the algorithms. Instances are immutable and thread safe.
+ */
+public class CoinSelection {
+
+  public enum Algorithm {
+    BRANCH_AND_BOUND, KNAPSACK, LARGEST_FIRST
+  }
+
+  /**
+   * Size of a transaction with no input and no output: version, locktime, counts and segwit marker
+   */
+  public static final int TX_OVERHEAD_VSIZE = 11;
+
+  /**
+   * Size of a P2WPKH output
+   */
+  public static final int CHANGE_OUTPUT_VSIZE = 31;
+
+  /**
+   * Size of an input spending a P2WPKH output
+   */
+  public static final int CHANGE_SPEND_VSIZE = 68;
+
+  /**
+   * Number of branches branch and bound explores before giving up, as in bitcoind
+   */
+  static final int BNB_TOTAL_TRIES = 100_000;
+
+  /**
+   * Bound of the coins visited by knapsack, fewer iterations are done on large wallets
+   */
+  static final int KNAPSACK_MAX_WORK = 5_000_000;
+
+  private final long feeRate;
+  private final long longTermFeeRate;
+  private final long minChange;
+
+  /**
+   * Selection ignoring fees, as done by {@link BitcoinRawTxBuilder#in(java.math.BigDecimal, int)} before fees were
+   * taken into account.
+   */
+  public CoinSelection() {
+    this(0, 0, 0);
+  }
+
+  /**
+   * @param feeRate fee rate of the transaction, in satoshis per 1000 virtual bytes
+   * @param longTermFeeRate fee rate expected to spend coins later, 10 sat/vB in bitcoind, in satoshis per 1000 vB
+   * @param minChange smallest change output worth creating, in satoshis; smaller change goes to the fee
+   */
+  public CoinSelection(long feeRate, long longTermFeeRate, long minChange) {
+    this.feeRate = feeRate;
+    this.longTermFeeRate = longTermFeeRate;
+    this.minChange = minChange;
+  }
+
+  public long getFeeRate() {
+    return feeRate;
+  }
+
+  public long getLongTermFeeRate() {
+    return longTermFeeRate;
+  }
+
+  public long getMinChange() {
+    return minChange;
+  }
+
+  /**
+   * @return the fee for <code>vsize</code> virtual bytes at the given rate, rounded up like bitcoind
+   */
+  public static long fee(long rate, long vsize) {
+    return (rate * vsize + 999) / 1000;
+  }
+
+  /**
+   * @param scriptPubKey hex of the script of the coin
+   * @return the virtual size of an input spending it, assuming single key scripts and P2SH wrapping P2WPKH
+   */
+  public static int inputVsize(String scriptPubKey) {
+    String type = scriptPubKey == null ? ScriptType.NONSTANDARD : ScriptType.of(HexCoder.decode(scriptPubKey));
+    switch (type) {
+      case ScriptType.WITNESS_V0_KEYHASH:
+        return 68;
+      case ScriptType.WITNESS_V1_TAPROOT:
+        return 58;
+      case ScriptType.SCRIPTHASH:
+        return 91;
+      case ScriptType.WITNESS_V0_SCRIPTHASH:
+        return 104;
+      case ScriptType.PUBKEY:
+        return 114;
+      default:
+        return 148;
+    }
+  }
+
+  /**
+   * The coins chosen, with the resulting fee and change.
+   */
+  public static final class Result {
+
+    private final Algorithm algorithm;
+    private final int[] selected;
+    private final long inputTotal;
+    private final long fee;
+    private final long change;
+    private final long waste;
+
+    Result(Algorithm algorithm, int[] selected, long inputTotal, long fee, long change, long waste) {
+      this.algorithm = algorithm;
+      this.selected = selected;
+      this.inputTotal = inputTotal;
+      this.fee = fee;
+      this.change = change;
+      this.waste = waste;
+    }
+
+    public Algorithm algorithm() {
+      return algorithm;
+    }
+
+    /**
+     * @return the indexes of the coins chosen, in the arrays passed to the selection
+     */
+    public int[] selected() {
+      return selected.clone();
+    }
+
+    public long inputTotal() {
+      return inputTotal;
+    }
+
+    /**
+     * @return the fee of the transaction, including any change below the minimum change
+     */
+    public long fee() {
+      return fee;
+    }
+
+    /**
+     * @return the amount of the change output, 0 if there is none
+     */
+    public long change() {
+      return change;
+    }
+
+    public long waste() {
+      return waste;
+    }
+
+    @Override
+    public String toString() {
+      return "CoinSelection.Result[" + algorithm + ", " + selected.length + " inputs, " + inputTotal + " in, fee " + fee
+          + ", change " + change + ", waste " + waste + "]";
+    }
+  }
+
+  /**
+   * Candidates sorted by decreasing effective value, the coins that cost more to spend than they are worth left out
+   */
+  protected static final class Candidates {
+    /**
+     * Effective value of the candidates, in decreasing order
+     */
+    public final long[] effective;
+    /**
+     * Index of each candidate in the arrays passed to the selection
+     */
+    public final int[] index;
+    public final int count;
+
+    Candidates(long[] values, int[] inputVsizes, long feeRate) {
+      long[] effective = new long[values.length];
+      int[] index = new int[values.length];
+      int count = 0;
+      for (int i = 0; i < values.length; i++) {
+        long value = values[i] - fee(feeRate, inputVsizes[i]);
+        if (value > 0) {
+          effective[count] = value;
+          index[count++] = i;
+        }
+      }
+      sortDescending(effective, index, 0, count - 1);
+      this.effective = effective;
+      this.index = index;
+      this.count = count;
+    }
+  }
+
+  /**
+   * Chooses coins for outputs worth <code>target</code> satoshis.
+   *
+   * @param values amount of each candidate coin, in satoshis
+   * @param inputVsizes virtual size of the input spending each coin, see {@link #inputVsize(String)}
+   * @param target amount of the outputs, in satoshis
+   * @param baseVsize virtual size of the transaction without inputs nor change, including the outputs and
+   * {@link #TX_OVERHEAD_VSIZE}
+   * @return the selection, or null if the coins are not enough
+   */
+  public Result select(long[] values, int[] inputVsizes, long target, int baseVsize) {
+    if (values.length != inputVsizes.length)
+      throw new IllegalArgumentException("values and inputVsizes differ in length");
+    Candidates candidates = new Candidates(values, inputVsizes, feeRate);
+    Result result = branchAndBound(candidates, values, inputVsizes, target, baseVsize);
+    if (result == null)
+      result = knapsack(candidates, values, inputVsizes, target, baseVsize);
+    if (result == null)
+      result = largestFirst(candidates, values, inputVsizes, target, baseVsize);
+    return result;
+  }
+
+  /**
+   * @return the cost of creating a change output now and spending it later
+   */
+  protected long costOfChange() {
+    return fee(feeRate, CHANGE_OUTPUT_VSIZE) + fee(longTermFeeRate, CHANGE_SPEND_VSIZE);
+  }
+
+  /**
+   * Depth first search for a set of coins whose effective value is within the cost of change above the target,
+   * including first the coins of higher value, as in bitcoind.
+   */
+  protected Result branchAndBound(Candidates c, long[] values, int[] inputVsizes, long target, int baseVsize) {
+    long actualTarget = target + fee(feeRate, baseVsize);
+    long upper = actualTarget + costOfChange();
+    long available = 0;
+    for (int i = 0; i < c.count; i++)
+      available += c.effective[i];
+    if (available < actualTarget)
+      return null;
+
+    // Waste of each input, (feeRate - longTermFeeRate) * vsize
+    long[] inputWaste = new long[c.count];
+    for (int i = 0; i < c.count; i++) {
+      int vsize = inputVsizes[c.index[i]];
+      inputWaste[i] = fee(feeRate, vsize) - fee(longTermFeeRate, vsize);
+    }
+
+    boolean[] included = new boolean[c.count];
+    boolean[] best = null;
+    long bestWaste = Long.MAX_VALUE;
+    long selected = 0;
+    long waste = 0;
+    int includedCount = 0;
+    int depth = 0;
+    boolean feesRising = feeRate > longTermFeeRate;
+    for (int tries = 0; tries < BNB_TOTAL_TRIES; tries++) {
+      boolean backtrack = false;
+      if (selected + available < actualTarget || selected > upper || (feesRising && waste > bestWaste)) {
+        backtrack = true;
+      } else if (selected >= actualTarget) {
+        long total = waste + selected - actualTarget;
+        if (total <= bestWaste) {
+          best = included.clone();
+          bestWaste = total;
+        }
+        backtrack = true;
+      }
+
+      if (backtrack) {
+        // Walk back to the last included coin and try without it
+        depth--;
+        while (depth >= 0 && !included[depth]) {
+          available += c.effective[depth];
+          depth--;
+        }
+        if (depth < 0)
+          break;
+        included[depth] = false;
+        includedCount--;
+        selected -= c.effective[depth];
+        waste -= inputWaste[depth];
+        depth++;
+      } else {
+        available -= c.effective[depth];
+        // Skip a coin equivalent to the one just excluded, the branch was explored already
+        if (includedCount > 0 && !included[depth - 1] && c.effective[depth] == c.effective[depth - 1]
+            && inputWaste[depth] == inputWaste[depth - 1]) {
+          included[depth] = false;
+        } else {
+          included[depth] = true;
+          includedCount++;
+          selected += c.effective[depth];
+          waste += inputWaste[depth];
+        }
+        depth++;
+      }
+    }
+    if (best == null)
+      return null;
+    return result(Algorithm.BRANCH_AND_BOUND, c, best, values, inputVsizes, target, baseVsize, false);
+  }
+
+  /**
+   * Stochastic approximation of the smallest subset of the coins smaller than the target covering it with change,
+   * compared with the smallest single coin large enough, as in bitcoind.
+   */
+  protected Result knapsack(Candidates c, long[] values, int[] inputVsizes, long target, int baseVsize) {
+    long actualTarget = target + fee(feeRate, baseVsize + CHANGE_OUTPUT_VSIZE) + minChange;
+    // Coins below the target, in decreasing order, and the smallest coin at or above it
+    int firstLower = 0;
+    while (firstLower < c.count && c.effective[firstLower] >= actualTarget)
+      firstLower++;
+    int smallestLarger = firstLower - 1;
+    long lowerTotal = 0;
+    for (int i = firstLower; i < c.count; i++)
+      lowerTotal += c.effective[i];
+
+    boolean[] best = null;
+    if (lowerTotal >= actualTarget) {
+      int lowers = c.count - firstLower;
+      boolean[] chosen = approximateBestSubset(c.effective, firstLower, lowers, lowerTotal, actualTarget);
+      long total = 0;
+      for (int i = 0; i < lowers; i++)
+        if (chosen[i])
+          total += c.effective[firstLower + i];
+      if (smallestLarger < 0 || total <= c.effective[smallestLarger]) {
+        best = new boolean[c.count];
+        System.arraycopy(chosen, 0, best, firstLower, lowers);
+      }
+    }
+    if (best == null && smallestLarger >= 0) {
+      best = new boolean[c.count];
+      best[smallestLarger] = true;
+    }
+    return best == null ? null : result(Algorithm.KNAPSACK, c, best, values, inputVsizes, target, baseVsize, true);
+  }
+
+  private static boolean[] approximateBestSubset(long[] effective, int from, int n, long total, long target) {
+    Random random = new Random(n * 31L + target);
+    boolean[] best = new boolean[n];
+    Arrays.fill(best, true);
+    long bestValue = total;
+    boolean[] included = new boolean[n];
+    int iterations = Math.max(10, Math.min(1000, KNAPSACK_MAX_WORK / Math.max(n, 1)));
+    for (int rep = 0; rep < iterations && bestValue != target; rep++) {
+      Arrays.fill(included, false);
+      long value = 0;
+      boolean reached = false;
+      for (int pass = 0; pass < 2 && !reached; pass++) {
+        long bits = 0;
+        for (int i = 0; i < n; i++) {
+          if ((i & 63) == 0)
+            bits = random.nextLong();
+          // First pass: include coins at random, second pass: the coins left out
+          if (pass == 0 ? (bits >>> (i & 63) & 1) != 0 : !included[i]) {
+            value += effective[from + i];
+            included[i] = true;
+            if (value >= target) {
+              reached = true;
+              if (value < bestValue) {
+                bestValue = value;
+                System.arraycopy(included, 0, best, 0, n);
+              }
+              value -= effective[from + i];
+              included[i] = false;
+            }
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Takes the coins of highest effective value until the target and a change output are covered.
+   */
+  protected Result largestFirst(Candidates c, long[] values, int[] inputVsizes, long target, int baseVsize) {
+    long actualTarget = target + fee(feeRate, baseVsize + CHANGE_OUTPUT_VSIZE);
+    boolean[] chosen = new boolean[c.count];
+    long total = 0;
+    for (int i = 0; i < c.count && total < actualTarget; i++) {
+      chosen[i] = true;
+      total += c.effective[i];
+    }
+    return total < actualTarget ? null : result(Algorithm.LARGEST_FIRST, c, chosen, values, inputVsizes, target, baseVsize, true);
+  }
+
+  private Result result(Algorithm algorithm, Candidates c, boolean[] chosen, long[] values, int[] inputVsizes, long target,
+      int baseVsize, boolean withChange) {
+    int count = 0;
+    for (boolean b : chosen)
+      if (b)
+        count++;
+    int[] selected = new int[count];
+    long inputTotal = 0;
+    long inputVsize = 0;
+    long waste = 0;
+    for (int i = 0, j = 0; i < chosen.length; i++) {
+      if (chosen[i]) {
+        int coin = c.index[i];
+        selected[j++] = coin;
+        inputTotal += values[coin];
+        inputVsize += inputVsizes[coin];
+        waste += fee(feeRate, inputVsizes[coin]) - fee(longTermFeeRate, inputVsizes[coin]);
+      }
+    }
+    long change = 0;
+    if (withChange) {
+      long excess = inputTotal - target - fee(feeRate, baseVsize + inputVsize + CHANGE_OUTPUT_VSIZE);
+      if (excess >= Math.max(minChange, 1))
+        change = excess;
+    }
+    if (change > 0)
+      waste += costOfChange();
+    else
+      waste += inputTotal - target - fee(feeRate, baseVsize + inputVsize);
+    return new Result(algorithm, selected, inputTotal, inputTotal - target - change, change, waste);
+  }
+
+  /**
+   * Sorts both arrays by decreasing key, without boxing.
+   */
+  static void sortDescending(long[] keys, int[] values, int lo, int hi) {
+    while (hi - lo > 16) {
+      long pivot = median(keys[lo], keys[(lo + hi) >>> 1], keys[hi]);
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (keys[i] > pivot)
+          i++;
+        while (keys[j] < pivot)
+          j--;
+        if (i <= j) {
+          swap(keys, values, i++, j--);
+        }
+      }
+      // Recurse into the smaller part, loop on the larger one
+      if (j - lo < hi - i) {
+        sortDescending(keys, values, lo, j);
+        lo = i;
+      } else {
+        sortDescending(keys, values, i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++) {
+      long key = keys[i];
+      int value = values[i];
+      int j = i - 1;
+      while (j >= lo && keys[j] < key) {
+        keys[j + 1] = keys[j];
+        values[j + 1] = values[j];
+        j--;
+      }
+      keys[j + 1] = key;
+      values[j + 1] = value;
+    }
+  }
+
+  private static long median(long a, long b, long c) {
+    return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+  }
+
+  private static void swap(long[] keys, int[] values, int i, int j) {
+    long key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+    int value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+  }
+}
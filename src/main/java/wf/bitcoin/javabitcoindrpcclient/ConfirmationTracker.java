@@ -0,0 +1,275 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+
+/**
+ * Payment listener computing confirmations from block heights, for wallets with many payments waiting to be
+ * confirmed.
+ * <br><br>
+ * The height of the block of each payment is looked up once, through a {@link HeaderChainCache}. Pending payments
+ * are queued by the height at which they reach their target confirmations, so a new tip only touches the payments
+ * it confirms, instead of waiting for each of them to be returned again with updated confirmations.
+ * <br><br>
+ * When the new tip is not a descendant of the previous one, the payments in the blocks above the fork point are
+ * moved back to the unconfirmed ones, until the acceptor reports them in their new block. Payments are confirmed
+ * once: a reorganization deeper than their target confirmations is not reported.
+ * <br><br>
+ * Conflicted payments, with negative confirmations, are dropped. Mempool payments not reported again for
+ * {@link #getUnconfirmedExpiry()} blocks, e.g. replaced or evicted ones, are dropped too; they are tracked again if
+ * they are reported in a block.
+ */
+public abstract class ConfirmationTracker implements BitcoinPaymentListener {
+
+  private static final Logger logger = Logger.getLogger(ConfirmationTracker.class.getName());
+
+  /**
+   * Longest reorganization looked for, beyond it every pending payment is considered reverted
+   */
+  static final int MAX_REORG_DEPTH = 1000;
+
+  public static final int DEFAULT_UNCONFIRMED_EXPIRY = 144;
+
+  private static final class Unconfirmed {
+    final Transaction transaction;
+    final int seenAt;
+
+    Unconfirmed(Transaction transaction, int seenAt) {
+      this.transaction = transaction;
+      this.seenAt = seenAt;
+    }
+  }
+
+  private static final class Pending {
+    final Transaction transaction;
+    final String blockHash;
+    final int height;
+    final int confirmedAt;
+    boolean removed;
+
+    Pending(Transaction transaction, String blockHash, int height, int target) {
+      this.transaction = transaction;
+      this.blockHash = blockHash;
+      this.height = height;
+      this.confirmedAt = height + target - 1;
+    }
+  }
+
+  public int minConf;
+  private final HeaderChainCache headers;
+  private final ProcessedTxTracker confirmed;
+  private final Map<String, Pending> pending = new HashMap<>();
+  /**
+   * Mempool payments, in the order they were last reported
+   */
+  private final LinkedHashMap<String, Unconfirmed> unconfirmed = new LinkedHashMap<>();
+  private final PriorityQueue<Pending> queue = new PriorityQueue<>((a, b) -> Integer.compare(a.confirmedAt, b.confirmedAt));
+  private final NavigableMap<Integer, List<Pending>> byHeight = new TreeMap<>();
+  private String tipHash;
+  private int tipHeight = -1;
+  private int unconfirmedExpiry = DEFAULT_UNCONFIRMED_EXPIRY;
+
+  public ConfirmationTracker(BitcoindRpcClient bitcoin, int minConf) {
+    this(new HeaderChainCache(bitcoin), minConf);
+  }
+
+  public ConfirmationTracker(HeaderChainCache headers, int minConf) {
+    this.headers = headers;
+    this.minConf = minConf;
+    this.confirmed = new ProcessedTxTracker(Math.max(ProcessedTxTracker.DEFAULT_EVICTION_DEPTH, minConf * 2));
+  }
+
+  /**
+   * Called once for each payment reaching its target confirmations.
+   */
+  public abstract void confirmed(Transaction transaction, int confirmations);
+
+  /**
+   * Called when the block of a pending payment is disconnected.
+   */
+  public void unconfirmed(Transaction transaction) {
+  }
+
+  /**
+   * @return the confirmations the payment needs, {@link #minConf} by default
+   */
+  protected int target(Transaction transaction) {
+    return minConf;
+  }
+
+  public synchronized int getUnconfirmedExpiry() {
+    return unconfirmedExpiry;
+  }
+
+  /**
+   * @param unconfirmedExpiry the number of blocks after which a mempool payment not reported again is dropped,
+   * {@link #DEFAULT_UNCONFIRMED_EXPIRY} by default
+   */
+  public synchronized void setUnconfirmedExpiry(int unconfirmedExpiry) {
+    this.unconfirmedExpiry = unconfirmedExpiry;
+  }
+
+  public synchronized int tipHeight() {
+    return tipHeight;
+  }
+
+  /**
+   * @return the number of payments waiting for confirmations, in a block or in the mempool
+   */
+  public synchronized int pendingCount() {
+    return pending.size() + unconfirmed.size();
+  }
+
+  @Override
+  public synchronized void transaction(Transaction transaction) {
+    String txId = transaction.txId();
+    if (confirmed.contains(txId))
+      return;
+    if (transaction.confirmations() < 0) {
+      // Conflicted, it will not confirm unless reported again in a block
+      unconfirmed.remove(txId);
+      Pending current = pending.get(txId);
+      if (current != null)
+        remove(current);
+      return;
+    }
+    String blockHash = transaction.blockHash();
+    if (blockHash == null || transaction.confirmations() == 0) {
+      if (!pending.containsKey(txId))
+        seen(transaction);
+      return;
+    }
+    Pending current = pending.get(txId);
+    if (current != null && current.blockHash.equals(blockHash))
+      return;
+    int height = headers.height(blockHash);
+    if (height < 0)
+      return;
+    if (current != null)
+      remove(current);
+    unconfirmed.remove(txId);
+    Pending p = new Pending(transaction, blockHash, height, Math.max(1, target(transaction)));
+    pending.put(txId, p);
+    queue.add(p);
+    byHeight.computeIfAbsent(height, h -> new ArrayList<>(2)).add(p);
+    if (tipHeight < 0) {
+      tipHeight = height + transaction.confirmations() - 1;
+    }
+    fire();
+  }
+
+  @Override
+  public synchronized void block(String blockHash) {
+    int height = headers.height(blockHash);
+    if (height < 0)
+      return;
+    // The tip height may already be known from the confirmations of a payment reported before the first tip
+    boolean first = tipHash == null;
+    if (!first && !tipHash.equals(blockHash)) {
+      String fork = headers.commonAncestor(tipHash, blockHash, MAX_REORG_DEPTH);
+      int forkHeight = fork == null ? -1 : headers.height(fork);
+      if (forkHeight < tipHeight)
+        revert(forkHeight);
+    }
+    int blocks = first ? 1 : height - tipHeight;
+    if (blocks > 0)
+      confirmed.advance(blocks);
+    tipHash = blockHash;
+    tipHeight = height;
+    expireUnconfirmed(first);
+    fire();
+  }
+
+  /**
+   * Records that a mempool payment was reported at the current tip.
+   */
+  private void seen(Transaction transaction) {
+    unconfirmed.remove(transaction.txId());
+    unconfirmed.put(transaction.txId(), new Unconfirmed(transaction, tipHeight));
+  }
+
+  /**
+   * Drops the mempool payments not reported for {@link #unconfirmedExpiry} blocks.
+   *
+   * @param first whether this is the first tip, the payments reported before are then stamped with it
+   */
+  private void expireUnconfirmed(boolean first) {
+    if (first) {
+      for (Map.Entry<String, Unconfirmed> e : unconfirmed.entrySet())
+        e.setValue(new Unconfirmed(e.getValue().transaction, tipHeight));
+      return;
+    }
+    for (Iterator<Unconfirmed> it = unconfirmed.values().iterator(); it.hasNext();) {
+      if (tipHeight - it.next().seenAt < unconfirmedExpiry)
+        break;
+      it.remove();
+    }
+  }
+
+  private void fire() {
+    while (!queue.isEmpty() && queue.peek().confirmedAt <= tipHeight) {
+      Pending p = queue.poll();
+      if (p.removed)
+        continue;
+      remove(p);
+      int confirmations = tipHeight - p.height + 1;
+      confirmed.markProcessed(p.transaction.txId(), confirmations);
+      try {
+        confirmed(p.transaction, confirmations);
+      } catch (Exception ex) {
+        logger.log(Level.SEVERE, null, ex);
+      }
+    }
+  }
+
+  private void remove(Pending p) {
+    p.removed = true;
+    pending.remove(p.transaction.txId());
+    List<Pending> atHeight = byHeight.get(p.height);
+    if (atHeight != null) {
+      atHeight.remove(p);
+      if (atHeight.isEmpty())
+        byHeight.remove(p.height);
+    }
+  }
+
+  @Override
+  public synchronized void transactionReverted(Transaction transaction) {
+    Pending p = pending.get(transaction.txId());
+    if (p != null && p.blockHash.equals(transaction.blockHash()))
+      unconfirm(p);
+  }
+
+  /**
+   * Moves the payments in blocks above the fork height back to the unconfirmed ones.
+   */
+  private void revert(int fork) {
+    NavigableMap<Integer, List<Pending>> reverted = byHeight.tailMap(fork, false);
+    List<Pending> payments = new ArrayList<>();
+    for (List<Pending> atHeight : reverted.values())
+      payments.addAll(atHeight);
+    for (Pending p : payments)
+      unconfirm(p);
+  }
+
+  private void unconfirm(Pending p) {
+    remove(p);
+    seen(p.transaction);
+    try {
+      unconfirmed(p.transaction);
+    } catch (Exception ex) {
+      logger.log(Level.SEVERE, null, ex);
+    }
+  }
+}
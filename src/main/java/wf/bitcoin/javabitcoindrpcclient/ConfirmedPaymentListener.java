@@ -3,9 +3,6 @@
  */
 package wf.bitcoin.javabitcoindrpcclient;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
 
 /**
@@ -16,18 +13,37 @@ public abstract class ConfirmedPaymentListener extends SimpleBitcoinPaymentListe
 
     public int minConf;
 
+    /**
+     * Transactions already confirmed, forgotten once they are deeper than its eviction depth
+     */
+    protected final ProcessedTxTracker tracker;
+
     public ConfirmedPaymentListener(int minConf) {
+        this(minConf, new ProcessedTxTracker());
+    }
+
+    public ConfirmedPaymentListener(int minConf, ProcessedTxTracker tracker) {
         this.minConf = minConf;
+        this.tracker = tracker;
     }
 
     public ConfirmedPaymentListener() {
         this(6);
     }
 
-    protected Set<String> processed = Collections.synchronizedSet(new HashSet<String>());
-
+    /**
+     * Marks a transaction as processed in {@link #tracker}, as if it had <code>minConf</code> confirmations: it is
+     * kept at least the eviction depth of the tracker.
+     *
+     * @return true if the transaction was not processed yet
+     */
     protected boolean markProcess(String txId) {
-        return processed.add(txId);
+        return tracker.markProcessed(txId, minConf);
+    }
+
+    @Override
+    public void block(String blockHash) {
+        tracker.advance();
     }
 
     @Override
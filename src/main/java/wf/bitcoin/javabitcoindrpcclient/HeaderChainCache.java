@@ -0,0 +1,134 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the parent links of recent blocks, to walk back from a block without a <code>getblockheader</code>
+ * call per step. Only blocks not seen before are fetched, so following the tip of the chain costs one call per
+ * new block. Entries are evicted in least recently used order.
+ * <br><br>
+ * Links never change, since a block hash commits to its parent; a reorganization just adds links to the cache.
+ * Instances are thread safe.
+ */
+public class HeaderChainCache {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private static final class Link {
+    final String previousHash;
+    final int height;
+
+    Link(String previousHash, int height) {
+      this.previousHash = previousHash;
+      this.height = height;
+    }
+  }
+
+  private final BitcoindRpcClient bitcoin;
+  private final Map<String, Link> links;
+  private long fetched;
+
+  public HeaderChainCache(BitcoindRpcClient bitcoin) {
+    this(bitcoin, DEFAULT_CAPACITY);
+  }
+
+  public HeaderChainCache(BitcoindRpcClient bitcoin, int capacity) {
+    this.bitcoin = bitcoin;
+    this.links = new LinkedHashMap<String, Link>(Math.min(capacity, DEFAULT_CAPACITY) * 4 / 3 + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Link> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Adds a link learned elsewhere, e.g. from a header downloaded through REST.
+   *
+   * @param previousHash null for the genesis block
+   */
+  public synchronized void put(String blockHash, String previousHash, int height) {
+    links.put(blockHash, new Link(previousHash, height));
+  }
+
+  /**
+   * @return the hash of the parent of the block, or null for the genesis block or an unknown block
+   */
+  public String previousHash(String blockHash) throws GenericRpcException {
+    Link link = link(blockHash);
+    return link == null ? null : link.previousHash;
+  }
+
+  /**
+   * @return the height of the block, or -1 for an unknown block
+   */
+  public int height(String blockHash) throws GenericRpcException {
+    Link link = link(blockHash);
+    return link == null ? -1 : link.height;
+  }
+
+  /**
+   * @return the hash of the ancestor <code>depth</code> blocks below the given block, or null if the chain is not
+   * that long
+   */
+  public String ancestor(String blockHash, int depth) throws GenericRpcException {
+    String hash = blockHash;
+    for (int i = 0; i < depth && hash != null; i++)
+      hash = previousHash(hash);
+    return hash;
+  }
+
+  /**
+   * @return the hash of the last block shared by the chains of the two blocks, or null if none was found within
+   * <code>maxDepth</code> blocks below the lower of them
+   */
+  public String commonAncestor(String a, String b, int maxDepth) throws GenericRpcException {
+    int heightA = height(a);
+    int heightB = height(b);
+    if (heightA < 0 || heightB < 0)
+      return null;
+    if (heightA > heightB)
+      a = ancestor(a, heightA - heightB);
+    else if (heightB > heightA)
+      b = ancestor(b, heightB - heightA);
+    for (int i = 0; a != null && b != null && !a.equals(b); i++) {
+      if (i == maxDepth)
+        return null;
+      a = previousHash(a);
+      b = previousHash(b);
+    }
+    return a == null || b == null ? null : a;
+  }
+
+  /**
+   * @return the number of blocks fetched from the node since the cache was created
+   */
+  public synchronized long getFetchCount() {
+    return fetched;
+  }
+
+  private Link link(String blockHash) throws GenericRpcException {
+    synchronized (this) {
+      Link link = links.get(blockHash);
+      if (link != null)
+        return link;
+    }
+    BitcoindRpcClient.BlockHeaderInfo header;
+    try {
+      header = bitcoin.getBlockHeader(blockHash);
+    } catch (BitcoinRPCException ex) {
+      if (ex.getRPCError() != null && ex.getRPCError().getCode() == BitcoinRPCErrorCode.RPC_INVALID_ADDRESS_OR_KEY)
+        return null; // Block not found
+      throw ex;
+    }
+    Link link = new Link(header.previousHash(), header.height());
+    synchronized (this) {
+      fetched++;
+      links.put(blockHash, link);
+    }
+    return link;
+  }
+}
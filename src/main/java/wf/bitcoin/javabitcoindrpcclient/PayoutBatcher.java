@@ -0,0 +1,331 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wf.bitcoin.javabitcoindrpcclient.binary.Address;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryTransaction;
+import wf.bitcoin.krotjson.HexCoder;
+
+/**
+ * Aggregates payouts into <code>sendmany</code> transactions, instead of a <code>sendtoaddress</code> transaction
+ * per payout.
+ * <br><br>
+ * Payouts are queued by {@link #submit(String, BigDecimal)} and sent by {@link #flush()}, called every flush
+ * interval once {@link #start() started}, or as soon as enough payouts are queued to fill a transaction. A
+ * transaction takes the payouts in submission order, up to the maximum number of outputs and the maximum weight;
+ * as <code>sendmany</code> pays each address once, a second payout to an address waits for the next transaction.
+ * <br><br>
+ * Once the transaction is sent, each payout is matched to its output, and its future completes with the txid and
+ * vout. When <code>sendmany</code> fails, the futures of the transaction complete with the error and the payouts
+ * are not retried: a timeout may hide a transaction that was sent.
+ */
+public class PayoutBatcher implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(PayoutBatcher.class.getName());
+
+  /**
+   * Largest standard transaction weight
+   */
+  public static final int MAX_STANDARD_WEIGHT = 400_000;
+
+  /**
+   * A payout sent, or waiting to be sent.
+   */
+  public static final class Payout {
+
+    private final String address;
+    private final BigDecimal amount;
+    private final byte[] script;
+    private final CompletableFuture<Payout> future = new CompletableFuture<>();
+    private volatile String txid;
+    private volatile int vout = -1;
+
+    Payout(String address, BigDecimal amount, byte[] script) {
+      this.address = address;
+      this.amount = amount;
+      this.script = script;
+    }
+
+    public String address() {
+      return address;
+    }
+
+    public BigDecimal amount() {
+      return amount;
+    }
+
+    /**
+     * @return the transaction of the payout, null until it is sent
+     */
+    public String txid() {
+      return txid;
+    }
+
+    /**
+     * @return the index of the output of the payout, -1 until it is sent or if it could not be found
+     */
+    public int vout() {
+      return vout;
+    }
+
+    @Override
+    public String toString() {
+      return "Payout[" + address + ", " + amount.toPlainString() + (txid == null ? "" : ", " + txid + ":" + vout) + "]";
+    }
+  }
+
+  private final BitcoindRpcClient wallet;
+  private final ScheduledExecutorService scheduler;
+  private final LinkedList<Payout> queue = new LinkedList<>();
+  private final Object sending = new Object();
+  private volatile long flushInterval = 10_000;
+  private volatile int maxOutputs = 500;
+  private volatile int maxWeight = MAX_STANDARD_WEIGHT;
+  private volatile int inputReserve = 20_000;
+  private volatile int minConf = 1;
+  private volatile Integer confTarget;
+  private volatile Boolean replaceable;
+  private ScheduledFuture<?> timer;
+
+  /**
+   * @param wallet client of the wallet paying, see {@link AcceptorGroup#walletClient(String)} for a named wallet
+   */
+  public PayoutBatcher(BitcoindRpcClient wallet) {
+    this.wallet = wallet;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "bitcoin-payout-batcher");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  /**
+   * @param flushInterval the longest time a payout waits for others, in milliseconds, 10 seconds by default
+   */
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+
+  public int getMaxOutputs() {
+    return maxOutputs;
+  }
+
+  /**
+   * @param maxOutputs the most payouts in a transaction, 500 by default
+   */
+  public void setMaxOutputs(int maxOutputs) {
+    if (maxOutputs < 1)
+      throw new IllegalArgumentException("maxOutputs: " + maxOutputs);
+    this.maxOutputs = maxOutputs;
+  }
+
+  public int getMaxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   * @param maxWeight the largest weight of a transaction, {@link #MAX_STANDARD_WEIGHT} by default
+   */
+  public void setMaxWeight(int maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  public int getInputReserve() {
+    return inputReserve;
+  }
+
+  /**
+   * @param inputReserve virtual size kept for the inputs, which the wallet only chooses when sending; 20000 vbytes,
+   * about 290 P2WPKH inputs, by default
+   */
+  public void setInputReserve(int inputReserve) {
+    this.inputReserve = inputReserve;
+  }
+
+  public int getMinConf() {
+    return minConf;
+  }
+
+  public void setMinConf(int minConf) {
+    this.minConf = minConf;
+  }
+
+  public Integer getConfTarget() {
+    return confTarget;
+  }
+
+  /**
+   * @param confTarget confirmation target of the fee estimation, null for the wallet default
+   */
+  public void setConfTarget(Integer confTarget) {
+    this.confTarget = confTarget;
+  }
+
+  public Boolean getReplaceable() {
+    return replaceable;
+  }
+
+  /**
+   * @param replaceable whether the transactions signal BIP125 replaceability, null for the wallet default
+   */
+  public void setReplaceable(Boolean replaceable) {
+    this.replaceable = replaceable;
+  }
+
+  /**
+   * Flushes the queue every flush interval.
+   */
+  public synchronized void start() {
+    if (timer != null)
+      return;
+    timer = scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues a payout.
+   *
+   * @return a future completed once the payout is sent
+   * @throws IllegalArgumentException if the address is not valid or the amount is not a positive amount of satoshis
+   */
+  public CompletableFuture<Payout> submit(String address, BigDecimal amount) {
+    byte[] script = Address.toScript(address);
+    if (amount.signum() <= 0 || amount.stripTrailingZeros().scale() > 8)
+      throw new IllegalArgumentException("Invalid amount: " + amount);
+    Payout payout = new Payout(address, amount, script);
+    boolean full;
+    synchronized (queue) {
+      queue.add(payout);
+      full = queue.size() >= maxOutputs;
+    }
+    if (full)
+      scheduler.execute(this::flushQuietly);
+    return payout.future;
+  }
+
+  /**
+   * @return the number of payouts waiting to be sent
+   */
+  public int getQueueSize() {
+    synchronized (queue) {
+      return queue.size();
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException ex) {
+      logger.log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Sends the queued payouts, in as many transactions as needed.
+   *
+   * @return the number of sendmany calls made, failed ones included
+   */
+  public int flush() {
+    int transactions = 0;
+    synchronized (sending) {
+      for (List<Payout> batch = nextBatch(); !batch.isEmpty(); batch = nextBatch()) {
+        send(batch);
+        transactions++;
+      }
+    }
+    return transactions;
+  }
+
+  /**
+   * Takes the payouts of the next transaction out of the queue.
+   */
+  private List<Payout> nextBatch() {
+    List<Payout> batch = new ArrayList<>();
+    Set<String> addresses = new HashSet<>();
+    int weight = 4 * (CoinSelection.TX_OVERHEAD_VSIZE + CoinSelection.CHANGE_OUTPUT_VSIZE + inputReserve);
+    synchronized (queue) {
+      for (Iterator<Payout> it = queue.iterator(); it.hasNext() && batch.size() < maxOutputs;) {
+        Payout p = it.next();
+        if (addresses.contains(p.address))
+          continue;
+        int outputWeight = 4 * (9 + p.script.length);
+        if (weight + outputWeight > maxWeight && !batch.isEmpty())
+          break;
+        weight += outputWeight;
+        batch.add(p);
+        addresses.add(p.address);
+        it.remove();
+      }
+    }
+    return batch;
+  }
+
+  private void send(List<Payout> batch) {
+    Map<String, BigDecimal> amounts = new LinkedHashMap<>();
+    for (Payout p : batch)
+      amounts.put(p.address, p.amount);
+    String txid;
+    try {
+      txid = wallet.sendMany(amounts, minConf, null, null, replaceable, confTarget, null);
+    } catch (RuntimeException ex) {
+      for (Payout p : batch)
+        p.future.completeExceptionally(ex);
+      return;
+    }
+    for (Payout p : batch)
+      p.txid = txid;
+    try {
+      assignOutputs(BinaryTransaction.decode(HexCoder.decode(wallet.getRawTransactionHex(txid))), batch);
+    } catch (RuntimeException ex) {
+      logger.log(Level.WARNING, "Could not find the outputs of the payouts in " + txid, ex);
+    }
+    for (Payout p : batch)
+      p.future.complete(p);
+  }
+
+  /**
+   * Matches each payout with an output of the same script and amount, the wallet may insert its change anywhere.
+   */
+  private static void assignOutputs(BinaryTransaction tx, List<Payout> batch) {
+    boolean[] used = new boolean[tx.vOut().size()];
+    for (Payout p : batch) {
+      long sats = p.amount.movePointRight(8).longValueExact();
+      for (int i = 0; i < used.length; i++) {
+        BinaryTransaction.Output out = tx.output(i);
+        if (!used[i] && out.valueSats() == sats && Arrays.equals(out.scriptBytes(), p.script)) {
+          used[i] = true;
+          p.vout = i;
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the timer, leaving the queued payouts unsent; call {@link #flush()} first to send them.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+}
@@ -0,0 +1,284 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxInput;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryTransaction;
+import wf.bitcoin.krotjson.HexCoder;
+
+/**
+ * Finds the outputs spent by transaction inputs, to compute fees or check the scripts being spent.
+ * <br><br>
+ * The inputs of a whole transaction or block are resolved together: the parent transactions missing from the cache
+ * are fetched with a single {@link RpcBatch} of <code>getrawtransaction</code> calls, decoded in binary form, and all
+ * their outputs are cached. Blocks are fetched with <code>getblock</code> verbosity 3, which carries the spent
+ * outputs since bitcoind 23; older nodes answer as with verbosity 2 and their inputs are resolved in one batch.
+ * <br><br>
+ * Fetching parent transactions needs <code>-txindex</code>, unless they are in the mempool. Spent outputs never
+ * change, so the cache only evicts entries in least recently used order. Instances are thread safe.
+ */
+public class PrevoutResolver {
+
+  public static final int DEFAULT_CAPACITY = 100_000;
+
+  /**
+   * An output spent by an input.
+   */
+  public static final class Prevout {
+
+    private final String txid;
+    private final int vout;
+    private final long valueSats;
+    private final String scriptPubKey;
+
+    Prevout(String txid, int vout, long valueSats, String scriptPubKey) {
+      this.txid = txid;
+      this.vout = vout;
+      this.valueSats = valueSats;
+      this.scriptPubKey = scriptPubKey;
+    }
+
+    public String txid() {
+      return txid;
+    }
+
+    public int vout() {
+      return vout;
+    }
+
+    public long valueSats() {
+      return valueSats;
+    }
+
+    public BigDecimal value() {
+      return BigDecimal.valueOf(valueSats, 8);
+    }
+
+    /**
+     * @return the hex of the output script
+     */
+    public String scriptPubKey() {
+      return scriptPubKey;
+    }
+
+    @Override
+    public String toString() {
+      return "Prevout[" + txid + ":" + vout + ", " + value().toPlainString() + "]";
+    }
+  }
+
+  private final BitcoinJSONRPCClient bitcoin;
+  private final Map<String, Prevout> cache;
+  private long hits;
+  private long fetched;
+
+  public PrevoutResolver(BitcoinJSONRPCClient bitcoin) {
+    this(bitcoin, DEFAULT_CAPACITY);
+  }
+
+  public PrevoutResolver(BitcoinJSONRPCClient bitcoin, int capacity) {
+    this.bitcoin = bitcoin;
+    this.cache = new LinkedHashMap<String, Prevout>(Math.min(capacity, DEFAULT_CAPACITY) * 4 / 3 + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Prevout> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  private static String outpoint(String txid, int vout) {
+    return txid + ":" + vout;
+  }
+
+  private static long sats(Object btc) {
+    return new BigDecimal(btc.toString()).movePointRight(8).longValueExact();
+  }
+
+  /**
+   * @return the number of outputs found in the cache
+   */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /**
+   * @return the number of parent transactions fetched
+   */
+  public synchronized long getFetchedCount() {
+    return fetched;
+  }
+
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  /**
+   * Adds the outputs of a transaction known elsewhere, e.g. from a {@link wf.bitcoin.javabitcoindrpcclient.binary.BinaryBlock}.
+   */
+  public void put(BinaryTransaction tx) {
+    Map<String, Prevout> outputs = new HashMap<>();
+    addOutputs(tx, outputs);
+    synchronized (this) {
+      cache.putAll(outputs);
+    }
+  }
+
+  private static void addOutputs(BinaryTransaction tx, Map<String, Prevout> outputs) {
+    String txid = tx.txId();
+    for (int i = 0; i < tx.vOut().size(); i++) {
+      BinaryTransaction.Output out = tx.output(i);
+      outputs.put(outpoint(txid, i), new Prevout(txid, i, out.valueSats(), HexCoder.encode(out.scriptBytes())));
+    }
+  }
+
+  public Prevout get(String txid, int vout) throws GenericRpcException {
+    return resolve(Collections.singletonList(new BitcoindRpcClient.BasicTxInput(txid, vout))).get(0);
+  }
+
+  /**
+   * @return the outputs spent by the inputs, in the same order, null for the input of a coinbase transaction
+   * @throws GenericRpcException if a parent transaction cannot be fetched
+   */
+  public List<Prevout> resolve(List<? extends TxInput> inputs) throws GenericRpcException {
+    Prevout[] prevouts = new Prevout[inputs.size()];
+    Set<String> missing = new LinkedHashSet<>();
+    synchronized (this) {
+      for (int i = 0; i < prevouts.length; i++) {
+        TxInput in = inputs.get(i);
+        if (isCoinbase(in))
+          continue;
+        prevouts[i] = cache.get(outpoint(in.txid(), in.vout()));
+        if (prevouts[i] != null)
+          hits++;
+        else
+          missing.add(in.txid());
+      }
+    }
+    if (!missing.isEmpty()) {
+      Map<String, Prevout> found = fetch(missing);
+      for (int i = 0; i < prevouts.length; i++) {
+        TxInput in = inputs.get(i);
+        if (prevouts[i] == null && !isCoinbase(in)) {
+          prevouts[i] = found.get(outpoint(in.txid(), in.vout()));
+          if (prevouts[i] == null)
+            throw new GenericRpcException("No output " + in.vout() + " in transaction " + in.txid());
+        }
+      }
+    }
+    return Arrays.asList(prevouts);
+  }
+
+  private static boolean isCoinbase(TxInput in) {
+    return in.txid() == null || (in instanceof BinaryTransaction.Input && ((BinaryTransaction.Input) in).isCoinbase());
+  }
+
+  /**
+   * @return the outputs spent by the inputs of the transaction
+   */
+  public List<Prevout> resolve(RawTransaction tx) throws GenericRpcException {
+    return resolve(tx.vIn());
+  }
+
+  /**
+   * @return the fee paid by the transaction, in satoshis, 0 for a coinbase transaction
+   */
+  public long fee(RawTransaction tx) throws GenericRpcException {
+    long fee = 0;
+    for (Prevout p : resolve(tx)) {
+      if (p == null)
+        return 0;
+      fee += p.valueSats;
+    }
+    for (RawTransaction.Out out : tx.vOut())
+      fee -= out.value().movePointRight(8).longValueExact();
+    return fee;
+  }
+
+  /**
+   * Fetches the parent transactions in one batch and caches all their outputs.
+   */
+  private Map<String, Prevout> fetch(Collection<String> txids) throws GenericRpcException {
+    RpcBatch batch = bitcoin.batch();
+    List<RpcBatch.Handle<String>> handles = new ArrayList<>(txids.size());
+    for (String txid : txids)
+      handles.add(batch.getRawTransactionHex(txid));
+    batch.execute();
+    Map<String, Prevout> found = new HashMap<>();
+    for (RpcBatch.Handle<String> handle : handles)
+      addOutputs(BinaryTransaction.decode(HexCoder.decode(handle.get())), found);
+    synchronized (this) {
+      fetched += handles.size();
+      cache.putAll(found);
+    }
+    return found;
+  }
+
+  /**
+   * Resolves the inputs of every transaction of a block.
+   *
+   * @return for each transaction of the block, in order, the outputs spent by its inputs; the list of the coinbase
+   * transaction holds a single null
+   */
+  @SuppressWarnings("unchecked")
+  public List<List<Prevout>> resolveBlock(String blockHash) throws GenericRpcException {
+    Map<String, ?> block = (Map<String, ?>) bitcoin.query("getblock", blockHash, 3);
+    List<Map<String, ?>> txs = (List<Map<String, ?>>) block.get("tx");
+
+    // Outputs created in the block, its transactions may spend them
+    Map<String, Prevout> inBlock = new HashMap<>();
+    List<List<Prevout>> result = new ArrayList<>(txs.size());
+    List<TxInput> unresolved = new ArrayList<>();
+    List<Prevout[]> unresolvedTargets = new ArrayList<>();
+    List<Integer> unresolvedIndexes = new ArrayList<>();
+    for (Map<String, ?> tx : txs) {
+      List<Map<String, ?>> vin = (List<Map<String, ?>>) tx.get("vin");
+      Prevout[] prevouts = new Prevout[vin.size()];
+      for (int i = 0; i < prevouts.length; i++) {
+        Map<String, ?> in = vin.get(i);
+        String txid = (String) in.get("txid");
+        if (txid == null)
+          continue;
+        int vout = ((Number) in.get("vout")).intValue();
+        Map<String, ?> prevout = (Map<String, ?>) in.get("prevout");
+        if (prevout != null) {
+          prevouts[i] = new Prevout(txid, vout, sats(prevout.get("value")),
+              (String) ((Map<String, ?>) prevout.get("scriptPubKey")).get("hex"));
+        } else {
+          prevouts[i] = inBlock.get(outpoint(txid, vout));
+          if (prevouts[i] == null) {
+            unresolved.add(new BitcoindRpcClient.BasicTxInput(txid, vout));
+            unresolvedTargets.add(prevouts);
+            unresolvedIndexes.add(i);
+          }
+        }
+      }
+      String txid = (String) tx.get("txid");
+      for (Map<String, ?> out : (List<Map<String, ?>>) tx.get("vout")) {
+        int n = ((Number) out.get("n")).intValue();
+        inBlock.put(outpoint(txid, n), new Prevout(txid, n, sats(out.get("value")),
+            (String) ((Map<String, ?>) out.get("scriptPubKey")).get("hex")));
+      }
+      result.add(Arrays.asList(prevouts));
+    }
+
+    if (!unresolved.isEmpty()) {
+      List<Prevout> resolved = resolve(unresolved);
+      for (int i = 0; i < resolved.size(); i++)
+        unresolvedTargets.get(i)[unresolvedIndexes.get(i)] = resolved.get(i);
+    }
+    return result;
+  }
+}
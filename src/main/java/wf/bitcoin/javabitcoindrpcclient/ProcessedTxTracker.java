@@ -0,0 +1,470 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Set of processed transactions which forgets them once they are buried deeper than a given number of blocks,
+ * for listeners which only see transactions within the window monitored by a {@link BitcoinAcceptor}.
+ * <br><br>
+ * Txids are packed in 32 bytes in an open addressing hash table. {@link #markProcessed(String, int)} claims
+ * table slots with compare-and-set, so concurrent calls do not block each other; they only wait while the table
+ * is rebuilt, when it grows or when {@link #advance()} reaches the expiry of an entry.
+ * <br><br>
+ * Depth is counted with {@link #advance()}, called for each new tip: an entry marked with <code>c</code>
+ * confirmations is evicted after <code>evictionDepth - c + 1</code> calls. Since an acceptor reports a single
+ * new tip when several blocks were found between two checks, entries are kept at least as long as configured.
+ * The eviction depth must therefore exceed the monitored window, or evicted transactions are processed again.
+ * <br><br>
+ * A tracker {@link #open(Path, int) opened on a file} appends every entry to a memory mapped log, and rewrites it
+ * when it holds too many evicted entries, so processed transactions survive a restart.
+ */
+public class ProcessedTxTracker implements Closeable {
+
+  public static final int DEFAULT_EVICTION_DEPTH = 1000;
+
+  private static final int EMPTY = 0;
+  private static final int WRITING = 1;
+  private static final int FULL = 2;
+
+  private static final int MIN_CAPACITY = 64;
+  private static final int FULL_TABLE = -2;
+
+  private static final int FILE_MAGIC = 0x50545854; // "PTXT"
+  private static final int FILE_VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int RECORD_SIZE = 40;
+  private static final int RECORD_MARKER = 0x7E57AB1E;
+
+  /**
+   * Open addressing table, replaced as a whole when it is rebuilt
+   */
+  private static final class Table {
+    final long[] keys;
+    final int[] expiry;
+    final AtomicIntegerArray state;
+    final int mask;
+
+    Table(int capacity) {
+      keys = new long[capacity * 4];
+      expiry = new int[capacity];
+      state = new AtomicIntegerArray(capacity);
+      mask = capacity - 1;
+    }
+
+    int capacity() {
+      return expiry.length;
+    }
+  }
+
+  private final int evictionDepth;
+  private final StampedLock lock = new StampedLock();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicInteger earliestExpiry = new AtomicInteger(Integer.MAX_VALUE);
+  private volatile Table table;
+  private volatile int blocks;
+
+  private final Path file;
+  private FileChannel channel;
+  private MappedByteBuffer log;
+  private final AtomicInteger logCount = new AtomicInteger();
+
+  public ProcessedTxTracker() {
+    this(DEFAULT_EVICTION_DEPTH);
+  }
+
+  public ProcessedTxTracker(int evictionDepth) {
+    this(evictionDepth, MIN_CAPACITY);
+  }
+
+  public ProcessedTxTracker(int evictionDepth, int initialCapacity) {
+    this(evictionDepth, initialCapacity, null);
+  }
+
+  private ProcessedTxTracker(int evictionDepth, int initialCapacity, Path file) {
+    if (evictionDepth < 1)
+      throw new IllegalArgumentException("Eviction depth must be positive: " + evictionDepth);
+    this.evictionDepth = evictionDepth;
+    this.table = new Table(tableCapacity(initialCapacity));
+    this.file = file;
+  }
+
+  /**
+   * Opens a tracker persisted to the given file, loading the entries it holds.
+   *
+   * @throws IOException if the file cannot be read or written, or is not a tracker file
+   */
+  public static ProcessedTxTracker open(Path file, int evictionDepth) throws IOException {
+    ProcessedTxTracker tracker = new ProcessedTxTracker(evictionDepth, MIN_CAPACITY, file);
+    if (Files.exists(file))
+      tracker.load();
+    tracker.rewrite();
+    return tracker;
+  }
+
+  public int getEvictionDepth() {
+    return evictionDepth;
+  }
+
+  /**
+   * @return the number of tracked transactions
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * @return the number of blocks counted by {@link #advance(int)}, persisted with the entries
+   */
+  public int blockCount() {
+    return blocks;
+  }
+
+  /**
+   * Marks a transaction as processed.
+   *
+   * @param txId the txid, as 64 hex digits
+   * @param confirmations the current confirmations of the transaction
+   * @return true if the transaction was not already marked
+   */
+  public boolean markProcessed(String txId, int confirmations) {
+    if (txId.length() != 64)
+      throw new IllegalArgumentException("Not a txid: " + txId);
+    long k0 = parse(txId, 0), k1 = parse(txId, 16), k2 = parse(txId, 32), k3 = parse(txId, 48);
+    for (;;) {
+      long stamp = lock.readLock();
+      int logIndex = -1;
+      try {
+        Table t = table;
+        if (find(t, k0, k1, k2, k3) >= 0)
+          return false;
+        if ((size.get() + 1) * 4L > t.capacity() * 3L || (log != null && (logIndex = reserveLogRecord()) < 0)) {
+          stamp = upgrade(stamp);
+          rebuild();
+          continue;
+        }
+        int expiry = blocks + evictionDepth - confirmations;
+        int slot = insert(t, k0, k1, k2, k3, expiry);
+        if (slot == FULL_TABLE) {
+          stamp = upgrade(stamp);
+          rebuild();
+          continue;
+        }
+        if (slot < 0)
+          return false;
+        size.incrementAndGet();
+        earliestExpiry.accumulateAndGet(expiry, Math::min);
+        if (logIndex >= 0)
+          writeLogRecord(logIndex, k0, k1, k2, k3, expiry);
+        return true;
+      } finally {
+        lock.unlock(stamp);
+      }
+    }
+  }
+
+  /**
+   * @return whether the transaction is marked as processed
+   */
+  public boolean contains(String txId) {
+    if (txId.length() != 64)
+      return false;
+    long stamp = lock.readLock();
+    try {
+      return find(table, parse(txId, 0), parse(txId, 16), parse(txId, 32), parse(txId, 48)) >= 0;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Counts a new tip of the chain, and evicts the entries now deeper than the eviction depth. The table is only
+   * rebuilt when an entry has expired.
+   */
+  public void advance() {
+    advance(1);
+  }
+
+  /**
+   * Counts <code>n</code> new blocks at once, rebuilding the table at most once.
+   */
+  public void advance(int n) {
+    if (n < 0)
+      throw new IllegalArgumentException("Negative block count: " + n);
+    long stamp = lock.writeLock();
+    try {
+      blocks += n;
+      if (earliestExpiry.get() < blocks)
+        rebuild();
+      else if (log != null)
+        log.putInt(8, blocks);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    long stamp = lock.writeLock();
+    try {
+      if (log != null) {
+        log.force();
+        log = null;
+        channel.close();
+        channel = null;
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  private long upgrade(long readStamp) {
+    long stamp = lock.tryConvertToWriteLock(readStamp);
+    if (stamp != 0)
+      return stamp;
+    lock.unlockRead(readStamp);
+    return lock.writeLock();
+  }
+
+  private static int hash(long k0, long k1, long k2, long k3) {
+    long h = (k0 ^ Long.rotateLeft(k1, 16) ^ Long.rotateLeft(k2, 32) ^ Long.rotateLeft(k3, 48)) * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * @return the slot holding the key, or -1
+   */
+  private static int find(Table t, long k0, long k1, long k2, long k3) {
+    for (int i = hash(k0, k1, k2, k3) & t.mask, probes = 0; probes < t.capacity(); i = (i + 1) & t.mask, probes++) {
+      int s = t.state.get(i);
+      while (s == WRITING) {
+        Thread.yield();
+        s = t.state.get(i);
+      }
+      if (s == EMPTY)
+        return -1;
+      if (matches(t, i, k0, k1, k2, k3))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Stores the key in the first empty slot of its probe sequence, unless it is found before.
+   *
+   * @return the slot, -1 if the key is already present, or {@link #FULL_TABLE} if no slot is empty
+   */
+  private static int insert(Table t, long k0, long k1, long k2, long k3, int expiry) {
+    for (int i = hash(k0, k1, k2, k3) & t.mask, probes = 0; probes <= t.capacity(); i = (i + 1) & t.mask, probes++) {
+      int s = t.state.get(i);
+      if (s == EMPTY) {
+        if (!t.state.compareAndSet(i, EMPTY, WRITING)) {
+          i = (i - 1) & t.mask; // lost the race, look at this slot again
+          probes--;
+          continue;
+        }
+        t.keys[i * 4] = k0;
+        t.keys[i * 4 + 1] = k1;
+        t.keys[i * 4 + 2] = k2;
+        t.keys[i * 4 + 3] = k3;
+        t.expiry[i] = expiry;
+        t.state.set(i, FULL);
+        return i;
+      }
+      while (s == WRITING) {
+        Thread.yield();
+        s = t.state.get(i);
+      }
+      if (matches(t, i, k0, k1, k2, k3))
+        return -1;
+    }
+    return FULL_TABLE;
+  }
+
+  private static boolean matches(Table t, int i, long k0, long k1, long k2, long k3) {
+    int k = i * 4;
+    return t.keys[k] == k0 && t.keys[k + 1] == k1 && t.keys[k + 2] == k2 && t.keys[k + 3] == k3;
+  }
+
+  /**
+   * Copies the live entries into a new table sized for them, and rewrites the file when it holds too many dead
+   * entries. Called with the write lock held.
+   */
+  private void rebuild() {
+    Table old = table;
+    int live = 0;
+    int earliest = Integer.MAX_VALUE;
+    for (int i = 0; i < old.capacity(); i++) {
+      if (old.state.get(i) == FULL && old.expiry[i] >= blocks) {
+        live++;
+        earliest = Math.min(earliest, old.expiry[i]);
+      }
+    }
+    Table t = new Table(tableCapacity(live + 1));
+    for (int i = 0; i < old.capacity(); i++) {
+      if (old.state.get(i) == FULL && old.expiry[i] >= blocks) {
+        int k = i * 4;
+        insert(t, old.keys[k], old.keys[k + 1], old.keys[k + 2], old.keys[k + 3], old.expiry[i]);
+      }
+    }
+    table = t;
+    size.set(live);
+    earliestExpiry.set(earliest);
+    if (log != null) {
+      log.putInt(8, blocks);
+      int records = logCount.get();
+      if (records >= logCapacity() || records - live > Math.max(live, MIN_CAPACITY)) {
+        try {
+          rewrite();
+        } catch (IOException ex) {
+          throw new IllegalStateException("Cannot rewrite " + file, ex);
+        }
+      }
+    }
+  }
+
+  private static int tableCapacity(int entries) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3L < entries * 4L + 4)
+      capacity <<= 1;
+    return capacity;
+  }
+
+  private int logCapacity() {
+    return (log.capacity() - HEADER_SIZE) / RECORD_SIZE;
+  }
+
+  /**
+   * @return the index of a free log record, or -1 if the log is full
+   */
+  private int reserveLogRecord() {
+    for (;;) {
+      int i = logCount.get();
+      if (i >= logCapacity())
+        return -1;
+      if (logCount.compareAndSet(i, i + 1))
+        return i;
+    }
+  }
+
+  private void writeLogRecord(int index, long k0, long k1, long k2, long k3, int expiry) {
+    int pos = HEADER_SIZE + index * RECORD_SIZE;
+    MappedByteBuffer l = log;
+    l.putLong(pos, k0);
+    l.putLong(pos + 8, k1);
+    l.putLong(pos + 16, k2);
+    l.putLong(pos + 24, k3);
+    l.putInt(pos + 32, expiry);
+    l.putInt(pos + 36, RECORD_MARKER);
+  }
+
+  private void load() throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer b = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()).order(ByteOrder.LITTLE_ENDIAN);
+      if (b.capacity() < HEADER_SIZE || b.getInt(0) != FILE_MAGIC)
+        throw new IOException("Not a processed transactions file: " + file);
+      if (b.getInt(4) != FILE_VERSION)
+        throw new IOException("Unsupported processed transactions file version " + b.getInt(4) + ": " + file);
+      blocks = b.getInt(8);
+      int records = (b.capacity() - HEADER_SIZE) / RECORD_SIZE;
+      int live = 0;
+      for (int i = 0; i < records; i++) {
+        int pos = HEADER_SIZE + i * RECORD_SIZE;
+        // Records reserved but never written, or torn by a crash, have no marker
+        if (b.getInt(pos + 36) != RECORD_MARKER || b.getInt(pos + 32) < blocks)
+          continue;
+        Table t = table;
+        if ((live + 1) * 4L > t.capacity() * 3L) {
+          rebuild();
+          live = size.get();
+          t = table;
+        }
+        int expiry = b.getInt(pos + 32);
+        if (insert(t, b.getLong(pos), b.getLong(pos + 8), b.getLong(pos + 16), b.getLong(pos + 24), expiry) >= 0) {
+          live = size.incrementAndGet();
+          earliestExpiry.accumulateAndGet(expiry, Math::min);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the live entries to a new file replacing the current one, and maps it with room for as many entries
+   * again. Called with the write lock held, or before the tracker is published.
+   */
+  private void rewrite() throws IOException {
+    Table t = table;
+    int live = 0;
+    for (int i = 0; i < t.capacity(); i++)
+      if (t.state.get(i) == FULL)
+        live++;
+    int capacity = Math.max(MIN_CAPACITY, live * 2);
+    Path dir = file.toAbsolutePath().getParent();
+    Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer b = out.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0, FILE_MAGIC);
+        b.putInt(4, FILE_VERSION);
+        b.putInt(8, blocks);
+        int n = 0;
+        for (int i = 0; i < t.capacity(); i++) {
+          if (t.state.get(i) == FULL) {
+            int pos = HEADER_SIZE + n++ * RECORD_SIZE;
+            b.putLong(pos, t.keys[i * 4]);
+            b.putLong(pos + 8, t.keys[i * 4 + 1]);
+            b.putLong(pos + 16, t.keys[i * 4 + 2]);
+            b.putLong(pos + 24, t.keys[i * 4 + 3]);
+            b.putInt(pos + 32, t.expiry[i]);
+            b.putInt(pos + 36, RECORD_MARKER);
+          }
+        }
+        b.force();
+        logCount.set(n);
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    if (channel != null)
+      channel.close();
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    log = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    log.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static long parse(String txId, int from) {
+    long value = 0;
+    if (txId.length() < from + 16)
+      throw new IllegalArgumentException("Not a txid: " + txId);
+    for (int i = from; i < from + 16; i++) {
+      int digit = Character.digit(txId.charAt(i), 16);
+      if (digit < 0)
+        throw new IllegalArgumentException("Not a txid: " + txId);
+      value = value << 4 | digit;
+    }
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "ProcessedTxTracker[" + size() + " transactions, eviction depth " + evictionDepth + "]";
+  }
+}
@@ -0,0 +1,118 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Merges concurrent {@link BitcoinJSONRPCClient#query(String, Object...)} calls into JSON-RPC batch requests.
+ * <br><br>
+ * The first call reaching an empty batch becomes its leader: it waits for the coalescing window and then sends
+ * the batch, unless another call fills the batch up to its maximum size first, in which case that call sends it.
+ * All other callers just wait for their own result, so no extra thread is needed.
+ * A batch holding a single call is sent as a plain request.
+ */
+class RequestCoalescer {
+
+  private final BitcoinJSONRPCClient client;
+  private final long windowNanos;
+  private final int maxBatchSize;
+  private final Object lock = new Object();
+  private Batch current = new Batch(); // guarded by lock
+
+  RequestCoalescer(BitcoinJSONRPCClient client, long windowNanos, int maxBatchSize) {
+    if (maxBatchSize < 1)
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    this.client = client;
+    this.windowNanos = windowNanos;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  long getWindowNanos() {
+    return windowNanos;
+  }
+
+  int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  Object query(String method, Object... params) throws GenericRpcException {
+    Batch batch;
+    RpcBatch.Call<Object> call;
+    Batch full = null;
+    synchronized (lock) {
+      batch = current;
+      call = new RpcBatch.Call<>(String.valueOf(batch.calls.size()), method, params, Function.identity());
+      batch.calls.add(call);
+      if (batch.calls.size() >= maxBatchSize) {
+        full = batch;
+        current = new Batch();
+        lock.notifyAll();
+      }
+    }
+
+    if (full != null)
+      send(full);
+    else if (call.id.equals("0"))
+      lead(batch);
+
+    return call.handle.join();
+  }
+
+  /**
+   * Waits for the window to elapse and sends the batch, unless it was already sent because it became full.
+   */
+  private void lead(Batch batch) {
+    long deadline = System.nanoTime() + windowNanos;
+    boolean interrupted = false;
+    synchronized (lock) {
+      long remaining;
+      while (current == batch && (remaining = deadline - System.nanoTime()) > 0) {
+        try {
+          lock.wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+        } catch (InterruptedException ex) {
+          // Other callers depend on this batch being sent, so finish the job and restore the flag
+          interrupted = true;
+        }
+      }
+      if (current != batch)
+        batch = null;
+      else
+        current = new Batch();
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+    if (batch != null)
+      send(batch);
+  }
+
+  private void send(Batch batch) {
+    List<RpcBatch.Call<?>> calls = batch.calls;
+    if (calls.size() == 1) {
+      RpcBatch.Call<?> call = calls.get(0);
+      Object result;
+      try {
+        result = client.send(call.method, call.params);
+      } catch (RuntimeException ex) {
+        result = ex;
+      }
+      call.complete(result);
+      return;
+    }
+
+    List<Object> results;
+    try {
+      results = client.batchQuery(calls);
+    } catch (RuntimeException ex) {
+      for (RpcBatch.Call<?> call : calls)
+        call.complete(ex);
+      return;
+    }
+    for (int i = 0; i < calls.size(); i++)
+      calls.get(i).complete(results.get(i));
+  }
+
+  private static final class Batch {
+    final List<RpcBatch.Call<?>> calls = new ArrayList<>();
+  }
+}
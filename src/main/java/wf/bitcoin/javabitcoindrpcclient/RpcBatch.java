@@ -0,0 +1,285 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Block;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BlockChainInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BlockWithTxInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.NetworkInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.SmartFeeResult;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TransactionsSinceBlock;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxOut;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Unspent;
+
+/**
+ * Collects calls to different RPC methods and sends them to bitcoind in a single JSON-RPC batch request.
+ * <br><br>
+ * Each call returns a {@link Handle}, whose result is available once {@link #execute()} returned:
+ * <pre>
+ * RpcBatch batch = client.batch();
+ * Handle&lt;Integer&gt; count = batch.getBlockCount();
+ * Handle&lt;SmartFeeResult&gt; fee = batch.estimateSmartFee(6);
+ * batch.execute();
+ * System.out.println(count.get() + " " + fee.get().feeRate());
+ * </pre>
+ * An RPC error affects only its own call: {@link Handle#get()} throws it, while the other handles hold their result.
+ * <br><br>
+ * A batch is not thread safe and can be executed only once.
+ */
+public class RpcBatch {
+
+  private final BitcoinJSONRPCClient client;
+  private final List<Call<?>> calls = new ArrayList<>();
+  private boolean executed;
+
+  RpcBatch(BitcoinJSONRPCClient client) {
+    this.client = client;
+  }
+
+  /**
+   * Adds an arbitrary call to the batch.
+   *
+   * @param converter converts the raw <code>result</code> of the response into the handle value
+   */
+  public <T> Handle<T> call(Function<Object, T> converter, String method, Object... params) {
+    if (executed)
+      throw new IllegalStateException("Batch already executed");
+    Call<T> call = new Call<>(String.valueOf(calls.size()), method, params, converter);
+    calls.add(call);
+    return call.handle;
+  }
+
+  /**
+   * Adds an arbitrary call to the batch, the handle holds the raw <code>result</code> of the response.
+   */
+  public Handle<Object> query(String method, Object... params) {
+    return call(Function.identity(), method, params);
+  }
+
+  public Handle<String> getBestBlockHash() {
+    return call(String.class::cast, "getbestblockhash");
+  }
+
+  public Handle<Integer> getBlockCount() {
+    return call(r -> ((Number) r).intValue(), "getblockcount");
+  }
+
+  public Handle<String> getBlockHash(int height) {
+    return call(String.class::cast, "getblockhash", height);
+  }
+
+  public Handle<Block> getBlock(String blockHash) {
+    return call(client::toBlock, "getblock", blockHash);
+  }
+
+  public Handle<BlockWithTxInfo> getBlockWithTxInfo(String blockHash) {
+    return call(client::toBlockWithTxInfo, "getblock", blockHash, 2);
+  }
+
+  public Handle<String> getRawBlock(String blockHash) {
+    return call(String.class::cast, "getblock", blockHash, false);
+  }
+
+  public Handle<BlockChainInfo> getBlockChainInfo() {
+    return call(client::toBlockChainInfo, "getblockchaininfo");
+  }
+
+  public Handle<NetworkInfo> getNetworkInfo() {
+    return call(client::toNetworkInfo, "getnetworkinfo");
+  }
+
+  @SuppressWarnings("unchecked")
+  public Handle<List<String>> getRawMemPool() {
+    return call(r -> (List<String>) r, "getrawmempool");
+  }
+
+  public Handle<String> getRawTransactionHex(String txId) {
+    return call(String.class::cast, "getrawtransaction", txId);
+  }
+
+  public Handle<RawTransaction> getRawTransaction(String txId) {
+    return call(client::toRawTransaction, "getrawtransaction", txId, 1);
+  }
+
+  public Handle<RawTransaction> decodeRawTransaction(String hex) {
+    return call(client::toDecodedRawTransaction, "decoderawtransaction", hex);
+  }
+
+  public Handle<Transaction> getTransaction(String txId) {
+    return call(r -> client.toTransaction(txId, r), "gettransaction", txId);
+  }
+
+  /**
+   * @return the hex of a wallet transaction, which needs no transaction index
+   */
+  public Handle<String> getTransactionHex(String txId) {
+    return call(r -> (String) ((Map<?, ?>) r).get("hex"), "gettransaction", txId);
+  }
+
+  public Handle<TxOut> getTxOut(String txId, long vout) {
+    return getTxOut(txId, vout, true);
+  }
+
+  public Handle<TxOut> getTxOut(String txId, long vout, boolean includemempool) {
+    return call(client::toTxOut, "gettxout", txId, vout, includemempool);
+  }
+
+  public Handle<SmartFeeResult> estimateSmartFee(int blocks) {
+    return call(client::toSmartFeeResult, "estimatesmartfee", blocks);
+  }
+
+  public Handle<String> sendRawTransaction(String hex) {
+    return call(String.class::cast, "sendrawtransaction", hex);
+  }
+
+  public Handle<List<Unspent>> listUnspent(int minConf, int maxConf) {
+    return call(client::toUnspentList, "listunspent", minConf, maxConf);
+  }
+
+  public Handle<TransactionsSinceBlock> listSinceBlock(String blockHash) {
+    return call(client::toTransactionsSinceBlock, "listsinceblock", blockHash);
+  }
+
+  /**
+   * @return the number of calls in this batch
+   */
+  public int size() {
+    return calls.size();
+  }
+
+  public boolean isExecuted() {
+    return executed;
+  }
+
+  /**
+   * Sends all calls in one request and completes their handles.
+   *
+   * @throws GenericRpcException if the request as a whole failed (e.g. connection or authentication errors),
+   * in which case every handle holds the same exception
+   */
+  public void execute() throws GenericRpcException {
+    if (executed)
+      throw new IllegalStateException("Batch already executed");
+    executed = true;
+    if (calls.isEmpty())
+      return;
+
+    List<Object> results;
+    try {
+      results = client.batchQuery(Collections.unmodifiableList(calls));
+    } catch (RuntimeException ex) {
+      for (Call<?> call : calls)
+        call.handle.future.completeExceptionally(ex);
+      throw ex;
+    }
+    for (int i = 0; i < calls.size(); i++)
+      calls.get(i).complete(results.get(i));
+  }
+
+  /**
+   * A single call of the batch.
+   */
+  static final class Call<T> {
+    final String id;
+    final String method;
+    final Object[] params;
+    final Function<Object, T> converter;
+    final Handle<T> handle = new Handle<>();
+
+    Call(String id, String method, Object[] params, Function<Object, T> converter) {
+      this.id = id;
+      this.method = method;
+      this.params = params;
+      this.converter = converter;
+    }
+
+    /**
+     * @param result the raw result, or the exception of a failed call
+     */
+    void complete(Object result) {
+      if (result instanceof RuntimeException) {
+        handle.future.completeExceptionally((RuntimeException) result);
+        return;
+      }
+      try {
+        handle.future.complete(converter.apply(result));
+      } catch (RuntimeException ex) {
+        handle.future.completeExceptionally(ex);
+      }
+    }
+  }
+
+  /**
+   * The result of a call, available once the batch has been executed.
+   */
+  public static final class Handle<T> {
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    Handle() {
+    }
+
+    public boolean isDone() {
+      return future.isDone();
+    }
+
+    /**
+     * @return true if the call failed, {@link #get()} then throws the error
+     */
+    public boolean isError() {
+      return future.isCompletedExceptionally();
+    }
+
+    /**
+     * @return the result of the call
+     * @throws GenericRpcException the error returned by bitcoind for this call
+     * @throws IllegalStateException if the batch has not been executed yet
+     */
+    public T get() throws GenericRpcException {
+      if (!future.isDone())
+        throw new IllegalStateException("Batch not executed yet");
+      return join();
+    }
+
+    /**
+     * Waits for the batch to be executed by another thread.
+     */
+    T join() throws GenericRpcException {
+      try {
+        return future.join();
+      } catch (CompletionException ex) {
+        if (ex.getCause() instanceof RuntimeException)
+          throw (RuntimeException) ex.getCause();
+        throw ex;
+      }
+    }
+
+    /**
+     * @return the error of a failed call, or null
+     */
+    public RuntimeException getError() {
+      if (!isError())
+        return null;
+      try {
+        future.join();
+        return null;
+      } catch (CompletionException ex) {
+        return ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+      }
+    }
+
+    /**
+     * @return a future completed together with this handle
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+      return future.thenApply(Function.identity());
+    }
+  }
+}
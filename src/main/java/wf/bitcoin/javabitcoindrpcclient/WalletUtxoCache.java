@@ -0,0 +1,575 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.LockedUnspent;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TransactionsSinceBlock;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxOut;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Unspent;
+import wf.bitcoin.javabitcoindrpcclient.binary.Address;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryTransaction;
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+import wf.bitcoin.javabitcoindrpcclient.zmq.ZmqSubscriber;
+import wf.bitcoin.krotjson.HexCoder;
+
+/**
+ * The unspent outputs of a wallet, loaded once with <code>listunspent</code> and then kept current from
+ * <code>listsinceblock</code>, so that balances and coin selection do not transfer the whole set at each call.
+ * <br><br>
+ * {@link #refresh()} asks for the wallet transactions since the last block seen. The coins spent by each new
+ * transaction are removed, and its outputs belonging to the wallet, including change, are fetched with a single
+ * <code>listunspent</code> filtered on their addresses. The {@link #zmqListener() ZMQ listener} applies
+ * <code>rawtx</code> notifications as they come: spent coins are removed at once, and outputs paying a script the
+ * wallet already received on are added; outputs to new addresses wait for the next refresh.
+ * <br><br>
+ * New transactions are fetched with one {@link RpcBatch} of <code>gettransaction</code> calls when the client is a
+ * {@link BitcoinJSONRPCClient}. Coinbase outputs, left out by <code>listunspent</code> until they mature and not
+ * listed again by <code>listsinceblock</code> then, are fetched once their block is {@link #COINBASE_MATURITY}
+ * deep; those still immature at {@link #load()} wait for the next load.
+ * <br><br>
+ * Readers work on immutable {@link Snapshot}s, rebuilt only after a change. Outputs locked through {@link #lock}
+ * or locked before the {@link #load()} are kept, but not offered by {@link Snapshot#unspent(int)}.
+ * <br><br>
+ * The spends of a transaction removed by a reorganization or conflicted are not undone: its outputs are moved back
+ * to the mempool or dropped, and {@link #load()} restores the coins it spent.
+ */
+public class WalletUtxoCache {
+
+  /**
+   * Number of blocks over the block of a coinbase transaction before its outputs can be spent
+   */
+  public static final int COINBASE_MATURITY = 100;
+
+  private final BitcoindRpcClient bitcoin;
+  private Chain chain;
+  private String lastBlock;
+  private int tipHeight;
+  private final Map<String, Map<Integer, Utxo>> byTxid = new HashMap<>();
+  private final Map<String, Utxo> scripts = new HashMap<>();
+  private final Set<String> locked = new HashSet<>();
+  /**
+   * Unconfirmed transactions already applied, listsinceblock returns them at each refresh until they confirm
+   */
+  private final Set<String> mempool = new HashSet<>();
+  /**
+   * Addresses paid by immature coinbase transactions, by the height at which they mature
+   */
+  private final NavigableMap<Integer, Set<String>> maturing = new TreeMap<>();
+  private volatile Snapshot snapshot;
+
+  /**
+   * @param bitcoin client of the wallet, see {@link AcceptorGroup#walletClient(String)} for a named wallet
+   */
+  public WalletUtxoCache(BitcoindRpcClient bitcoin) {
+    this.bitcoin = bitcoin;
+  }
+
+  private static String outpoint(String txid, int vout) {
+    return txid + ":" + vout;
+  }
+
+  /**
+   * Replaces the content of the cache with the unspent and locked outputs of the wallet.
+   */
+  public synchronized void load() throws GenericRpcException {
+    BitcoindRpcClient.BlockChainInfo info = bitcoin.getBlockChainInfo();
+    chain = Chain.fromName(info.chain());
+    lastBlock = info.bestBlockHash();
+    tipHeight = info.blocks();
+    byTxid.clear();
+    scripts.clear();
+    locked.clear();
+    mempool.clear();
+    maturing.clear();
+    for (Unspent u : bitcoin.listUnspent(0))
+      put(new Utxo(u, height(u.confirmations())));
+    // listunspent leaves out the locked outputs
+    for (LockedUnspent l : bitcoin.listLockUnspent()) {
+      TxOut out = bitcoin.getTxOut(l.txId(), l.vout());
+      if (out == null)
+        continue;
+      String address = Address.fromScript(HexCoder.decode(out.hex()), chain);
+      Utxo template = scripts.get(out.hex());
+      put(new Utxo(l.txId(), l.vout(), address, out.hex(), out.value(), template, height((int) out.confirmations())));
+      locked.add(outpoint(l.txId(), l.vout()));
+    }
+    snapshot = null;
+  }
+
+  private int height(Integer confirmations) {
+    return confirmations == null || confirmations <= 0 ? 0 : tipHeight - confirmations + 1;
+  }
+
+  private void put(Utxo utxo) {
+    byTxid.computeIfAbsent(utxo.txid, k -> new HashMap<>()).put(utxo.vout, utxo);
+    scripts.putIfAbsent(utxo.scriptPubKey, utxo);
+  }
+
+  private boolean remove(String txid, int vout) {
+    Map<Integer, Utxo> outputs = byTxid.get(txid);
+    if (outputs == null || outputs.remove(vout) == null)
+      return false;
+    if (outputs.isEmpty())
+      byTxid.remove(txid);
+    locked.remove(outpoint(txid, vout));
+    return true;
+  }
+
+  private void setHeight(String txid, int height) {
+    Map<Integer, Utxo> outputs = byTxid.get(txid);
+    if (outputs != null)
+      for (Map.Entry<Integer, Utxo> e : outputs.entrySet())
+        if (e.getValue().height != height)
+          e.setValue(new Utxo(e.getValue(), height, 0));
+  }
+
+  /**
+   * Applies the wallet transactions since the last block seen, {@link #load() loading} the cache first if needed.
+   *
+   * @return true if the cache changed
+   */
+  public synchronized boolean refresh() throws GenericRpcException {
+    if (lastBlock == null) {
+      load();
+      return true;
+    }
+    TransactionsSinceBlock since = bitcoin.listSinceBlock(lastBlock);
+    String newTip = since.lastBlock();
+    boolean changed = false;
+    if (!newTip.equals(lastBlock)) {
+      tipHeight = bitcoin.getBlockHeader(newTip).height();
+      lastBlock = newTip;
+      changed = true;
+    }
+    for (BitcoindRpcClient.Transaction t : since.removed()) {
+      setHeight(t.txId(), 0);
+      mempool.remove(t.txId());
+      changed = true;
+    }
+
+    Map<String, Integer> heights = new LinkedHashMap<>();
+    for (BitcoindRpcClient.Transaction t : since.transactions())
+      heights.put(t.txId(), t.confirmations());
+    List<String> fetched = new ArrayList<>();
+    for (Map.Entry<String, Integer> e : heights.entrySet())
+      if (e.getValue() >= 0 && !mempool.contains(e.getKey()))
+        fetched.add(e.getKey());
+    Map<String, String> hexes = transactionHexes(fetched);
+    Set<String> addresses = new LinkedHashSet<>();
+    for (Map.Entry<Integer, Set<String>> e : maturing.headMap(tipHeight, true).entrySet())
+      addresses.addAll(e.getValue());
+    maturing.headMap(tipHeight, true).clear();
+    for (Map.Entry<String, Integer> e : heights.entrySet()) {
+      String txid = e.getKey();
+      int confirmations = e.getValue();
+      if (confirmations < 0) {
+        // Conflicted, its outputs will never be spendable
+        Map<Integer, Utxo> outputs = byTxid.remove(txid);
+        changed |= outputs != null;
+        mempool.remove(txid);
+        continue;
+      }
+      int height = height(confirmations);
+      if (!mempool.contains(txid)) {
+        BinaryTransaction tx = BinaryTransaction.decode(HexCoder.decode(hexes.get(txid)));
+        spend(tx);
+        Set<String> paid = tx.isCoinbase() && height > 0 && tipHeight < height + COINBASE_MATURITY
+            ? maturing.computeIfAbsent(height + COINBASE_MATURITY, h -> new LinkedHashSet<>()) : addresses;
+        for (int i = 0; i < tx.vOut().size(); i++) {
+          String address = Address.fromScript(tx.output(i).scriptBytes(), chain);
+          if (address != null)
+            paid.add(address);
+        }
+        changed = true;
+      }
+      if (height == 0)
+        mempool.add(txid);
+      else
+        mempool.remove(txid);
+      setHeight(txid, height);
+    }
+    if (!addresses.isEmpty()) {
+      for (Unspent u : bitcoin.listUnspent(0, 9_999_999, addresses.toArray(new String[0])))
+        if (!locked.contains(outpoint(u.txid(), u.vout())))
+          put(new Utxo(u, height(u.confirmations())));
+    }
+    if (changed)
+      snapshot = null;
+    return changed;
+  }
+
+  /**
+   * @return the hex of the wallet transactions, by txid
+   */
+  private Map<String, String> transactionHexes(List<String> txids) throws GenericRpcException {
+    Map<String, String> hexes = new HashMap<>();
+    if (txids.size() > 1 && bitcoin instanceof BitcoinJSONRPCClient) {
+      RpcBatch batch = ((BitcoinJSONRPCClient) bitcoin).batch();
+      List<RpcBatch.Handle<String>> handles = new ArrayList<>(txids.size());
+      for (String txid : txids)
+        handles.add(batch.getTransactionHex(txid));
+      batch.execute();
+      for (int i = 0; i < txids.size(); i++)
+        hexes.put(txids.get(i), handles.get(i).get());
+    } else {
+      for (String txid : txids)
+        hexes.put(txid, bitcoin.getTransactionHex(txid));
+    }
+    return hexes;
+  }
+
+  private boolean spend(BinaryTransaction tx) {
+    boolean spent = false;
+    if (!tx.isCoinbase())
+      for (int i = 0; i < tx.vIn().size(); i++)
+        spent |= remove(tx.input(i).txid(), tx.input(i).vout());
+    return spent;
+  }
+
+  /**
+   * Applies a transaction entering the mempool: removes the coins it spends and adds its outputs paying scripts the
+   * wallet is known to own.
+   *
+   * @return true if the transaction affects the wallet
+   */
+  public synchronized boolean transaction(BinaryTransaction tx) {
+    if (lastBlock == null)
+      return false;
+    boolean changed = spend(tx);
+    String txid = null;
+    for (int i = 0; i < tx.vOut().size(); i++) {
+      byte[] script = tx.output(i).scriptBytes();
+      Utxo template = scripts.get(HexCoder.encode(script));
+      if (template != null) {
+        if (txid == null)
+          txid = tx.txId();
+        put(new Utxo(txid, i, template.address, template.scriptPubKey, tx.output(i).value(), template, 0));
+        changed = true;
+      }
+    }
+    if (changed)
+      snapshot = null;
+    return changed;
+  }
+
+  /**
+   * @return a listener applying the <code>rawtx</code> notifications of a {@link ZmqSubscriber}
+   */
+  public ZmqSubscriber.Listener zmqListener() {
+    return (topic, body, sequence) -> {
+      if (ZmqSubscriber.RAWTX.equals(topic))
+        transaction(BinaryTransaction.decode(body));
+    };
+  }
+
+  /**
+   * Locks the output in the wallet, so that bitcoind does not spend it either.
+   *
+   * @return true if the output was locked
+   */
+  public boolean lock(String txid, int vout) throws GenericRpcException {
+    if (!bitcoin.lockUnspent(false, txid, vout))
+      return false;
+    synchronized (this) {
+      if (locked.add(outpoint(txid, vout)))
+        snapshot = null;
+    }
+    return true;
+  }
+
+  public boolean unlock(String txid, int vout) throws GenericRpcException {
+    if (!bitcoin.lockUnspent(true, txid, vout))
+      return false;
+    synchronized (this) {
+      if (locked.remove(outpoint(txid, vout)))
+        snapshot = null;
+    }
+    return true;
+  }
+
+  /**
+   * @return the current content of the cache, {@link #load() loading} it first if needed
+   */
+  public Snapshot snapshot() throws GenericRpcException {
+    Snapshot s = snapshot;
+    if (s != null)
+      return s;
+    synchronized (this) {
+      if (lastBlock == null)
+        load();
+      if (snapshot == null) {
+        Map<String, Utxo> utxos = new LinkedHashMap<>();
+        for (Map<Integer, Utxo> outputs : byTxid.values())
+          for (Utxo u : outputs.values())
+            utxos.put(outpoint(u.txid, u.vout), new Utxo(u, u.height, u.height == 0 ? 0 : tipHeight - u.height + 1));
+        snapshot = new Snapshot(lastBlock, tipHeight, utxos, new HashSet<>(locked));
+      }
+      return snapshot;
+    }
+  }
+
+  /**
+   * The unspent outputs of the wallet at a given block, with their confirmations at that block.
+   */
+  public static final class Snapshot {
+
+    private final String blockHash;
+    private final int height;
+    private final Map<String, Utxo> byOutpoint;
+    private final List<Utxo> utxos;
+    private final List<Utxo> unlocked;
+    private final Set<String> locked;
+
+    Snapshot(String blockHash, int height, Map<String, Utxo> byOutpoint, Set<String> locked) {
+      this.blockHash = blockHash;
+      this.height = height;
+      this.byOutpoint = byOutpoint;
+      this.utxos = Collections.unmodifiableList(new ArrayList<>(byOutpoint.values()));
+      this.locked = locked;
+      List<Utxo> unlocked = new ArrayList<>(utxos.size());
+      for (Map.Entry<String, Utxo> e : byOutpoint.entrySet())
+        if (!locked.contains(e.getKey()))
+          unlocked.add(e.getValue());
+      this.unlocked = unlocked;
+    }
+
+    public String blockHash() {
+      return blockHash;
+    }
+
+    public int height() {
+      return height;
+    }
+
+    /**
+     * @return every unspent output, locked ones included
+     */
+    public List<Utxo> all() {
+      return utxos;
+    }
+
+    public boolean isLocked(String txid, int vout) {
+      return locked.contains(outpoint(txid, vout));
+    }
+
+    /**
+     * @return the outputs with at least <code>minConf</code> confirmations that are not locked, like
+     * {@link BitcoindRpcClient#listUnspent(int)}
+     */
+    public List<Utxo> unspent(int minConf) {
+      List<Utxo> unspent = new ArrayList<>();
+      for (Utxo u : unlocked)
+        if (u.confirmations >= minConf)
+          unspent.add(u);
+      return unspent;
+    }
+
+    /**
+     * @return the total of the outputs with at least <code>minConf</code> confirmations, locked ones included
+     */
+    public BigDecimal balance(int minConf) {
+      long sats = 0;
+      for (Utxo u : utxos)
+        if (u.confirmations >= minConf)
+          sats += u.amountSats;
+      return BigDecimal.valueOf(sats, 8);
+    }
+
+    /**
+     * @return the output, or null if it is not an unspent output of the wallet
+     */
+    public Utxo get(String txid, int vout) {
+      return byOutpoint.get(outpoint(txid, vout));
+    }
+  }
+
+  /**
+   * An unspent output of the wallet.
+   */
+  @SuppressWarnings("serial")
+  public static final class Utxo implements Unspent {
+
+    private final String txid;
+    private final int vout;
+    private final String address;
+    private final String label;
+    private final String scriptPubKey;
+    private final String redeemScript;
+    private final String witnessScript;
+    private final long amountSats;
+    private final Boolean spendable;
+    private final Boolean solvable;
+    private final String desc;
+    private final Boolean safe;
+    private final int inputVsize;
+    private final int height;
+    private final int confirmations;
+
+    Utxo(Unspent u, int height) {
+      this.txid = u.txid();
+      this.vout = u.vout();
+      this.address = u.address();
+      this.label = u.label();
+      this.scriptPubKey = u.scriptPubKey();
+      this.redeemScript = u.redeemScript();
+      this.witnessScript = u.witnessScript();
+      this.amountSats = u.amount().movePointRight(8).longValueExact();
+      this.spendable = u.spendable();
+      this.solvable = u.solvable();
+      this.desc = u.desc();
+      this.safe = u.safe();
+      this.inputVsize = CoinSelection.inputVsize(scriptPubKey);
+      this.height = height;
+      this.confirmations = u.confirmations() == null ? 0 : u.confirmations();
+    }
+
+    /**
+     * An output paying the script of <code>template</code>, if not null
+     */
+    Utxo(String txid, int vout, String address, String scriptPubKey, BigDecimal amount, Utxo template, int height) {
+      this.txid = txid;
+      this.vout = vout;
+      this.address = address;
+      this.scriptPubKey = scriptPubKey;
+      this.amountSats = amount.movePointRight(8).longValueExact();
+      this.label = template == null ? null : template.label;
+      this.redeemScript = template == null ? null : template.redeemScript;
+      this.witnessScript = template == null ? null : template.witnessScript;
+      this.spendable = template == null ? null : template.spendable;
+      this.solvable = template == null ? null : template.solvable;
+      this.desc = template == null ? null : template.desc;
+      this.safe = template == null ? null : template.safe;
+      this.inputVsize = CoinSelection.inputVsize(scriptPubKey);
+      this.height = height;
+      this.confirmations = 0;
+    }
+
+    Utxo(Utxo u, int height, int confirmations) {
+      this.txid = u.txid;
+      this.vout = u.vout;
+      this.address = u.address;
+      this.label = u.label;
+      this.scriptPubKey = u.scriptPubKey;
+      this.redeemScript = u.redeemScript;
+      this.witnessScript = u.witnessScript;
+      this.amountSats = u.amountSats;
+      this.spendable = u.spendable;
+      this.solvable = u.solvable;
+      this.desc = u.desc;
+      this.safe = u.safe;
+      this.inputVsize = u.inputVsize;
+      this.height = height;
+      this.confirmations = confirmations;
+    }
+
+    @Override
+    public String txid() {
+      return txid;
+    }
+
+    @Override
+    public Integer vout() {
+      return vout;
+    }
+
+    @Override
+    public String address() {
+      return address;
+    }
+
+    @Override
+    public String label() {
+      return label;
+    }
+
+    @Override
+    @Deprecated
+    public String account() {
+      return null;
+    }
+
+    @Override
+    public String scriptPubKey() {
+      return scriptPubKey;
+    }
+
+    @Override
+    public String redeemScript() {
+      return redeemScript;
+    }
+
+    @Override
+    public String witnessScript() {
+      return witnessScript;
+    }
+
+    @Override
+    public BigDecimal amount() {
+      return BigDecimal.valueOf(amountSats, 8);
+    }
+
+    public long amountSats() {
+      return amountSats;
+    }
+
+    /**
+     * @return the estimated virtual size of an input spending the output, see {@link CoinSelection#inputVsize(String)}
+     */
+    public int inputVsize() {
+      return inputVsize;
+    }
+
+    /**
+     * @return the height of the block of the output, 0 if it is unconfirmed
+     */
+    public int height() {
+      return height;
+    }
+
+    @Override
+    public Integer confirmations() {
+      return confirmations;
+    }
+
+    @Override
+    public Boolean spendable() {
+      return spendable;
+    }
+
+    @Override
+    public Boolean solvable() {
+      return solvable;
+    }
+
+    @Override
+    public String desc() {
+      return desc;
+    }
+
+    @Override
+    public Boolean safe() {
+      return safe;
+    }
+
+    @Override
+    public byte[] data() {
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "Utxo[" + txid + ":" + vout + ", " + amount().toPlainString() + ", " + confirmations + " confirmations]";
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Locale;
+
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+
+/**
+ * Conversions between addresses and the output scripts they stand for, without a call to bitcoind: base58check
+ * P2PKH and P2SH addresses, and bech32 (BIP173) or bech32m (BIP350) segwit addresses.
+ */
+public final class Address {
+
+  private static final String BASE58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+  private static final String BECH32 = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
+  private static final int BECH32_CONST = 1;
+  private static final int BECH32M_CONST = 0x2bc830a3;
+
+  private static final int[] BASE58_INDEX = new int[128];
+  private static final int[] BECH32_INDEX = new int[128];
+
+  static {
+    Arrays.fill(BASE58_INDEX, -1);
+    for (int i = 0; i < BASE58.length(); i++)
+      BASE58_INDEX[BASE58.charAt(i)] = i;
+    Arrays.fill(BECH32_INDEX, -1);
+    for (int i = 0; i < BECH32.length(); i++)
+      BECH32_INDEX[BECH32.charAt(i)] = i;
+  }
+
+  private Address() {
+  }
+
+  private static String hrp(Chain chain) {
+    switch (chain) {
+      case MAIN:
+        return "bc";
+      case TEST:
+        return "tb";
+      default:
+        return "bcrt";
+    }
+  }
+
+  private static int pubKeyHashVersion(Chain chain) {
+    return chain == Chain.MAIN ? 0x00 : 0x6f;
+  }
+
+  private static int scriptHashVersion(Chain chain) {
+    return chain == Chain.MAIN ? 0x05 : 0xc4;
+  }
+
+  /**
+   * @return the scriptPubKey paying to the address, of any chain
+   * @throws IllegalArgumentException if the address is not valid
+   */
+  public static byte[] toScript(String address) {
+    int separator = address.lastIndexOf('1');
+    if (separator > 0) {
+      String hrp = address.substring(0, separator).toLowerCase(Locale.ROOT);
+      if (hrp.equals("bc") || hrp.equals("tb") || hrp.equals("bcrt"))
+        return segwitScript(address, separator);
+    }
+    byte[] payload = base58CheckDecode(address);
+    if (payload.length != 21)
+      throw new IllegalArgumentException("Invalid address length: " + address);
+    int version = payload[0] & 0xFF;
+    byte[] script;
+    if (version == 0x00 || version == 0x6f) {
+      script = new byte[25];
+      script[0] = 0x76; // OP_DUP
+      script[1] = (byte) 0xa9; // OP_HASH160
+      script[2] = 20;
+      System.arraycopy(payload, 1, script, 3, 20);
+      script[23] = (byte) 0x88; // OP_EQUALVERIFY
+      script[24] = (byte) 0xac; // OP_CHECKSIG
+    } else if (version == 0x05 || version == 0xc4) {
+      script = new byte[23];
+      script[0] = (byte) 0xa9; // OP_HASH160
+      script[1] = 20;
+      System.arraycopy(payload, 1, script, 2, 20);
+      script[22] = (byte) 0x87; // OP_EQUAL
+    } else {
+      throw new IllegalArgumentException("Unknown address version " + version + ": " + address);
+    }
+    return script;
+  }
+
+  /**
+   * @return the scriptPubKey paying to the address
+   * @throws IllegalArgumentException if the address is not valid or belongs to another chain; testnet and regtest
+   * share their base58 versions, so their P2PKH and P2SH addresses are accepted for both
+   */
+  public static byte[] toScript(String address, Chain chain) {
+    byte[] script = toScript(address);
+    int separator = address.lastIndexOf('1');
+    String hrp = separator > 0 ? address.substring(0, separator).toLowerCase(Locale.ROOT) : null;
+    boolean segwit = hrp != null && (hrp.equals("bc") || hrp.equals("tb") || hrp.equals("bcrt"));
+    if (segwit ? !hrp.equals(hrp(chain)) : !address.equals(fromScript(script, chain)))
+      throw new IllegalArgumentException("Address of another chain than " + chain + ": " + address);
+    return script;
+  }
+
+  /**
+   * @return the address of a P2PKH, P2SH or segwit output script, or null for other scripts
+   */
+  public static String fromScript(byte[] script, Chain chain) {
+    return fromScript(script, 0, script.length, chain);
+  }
+
+  /**
+   * @return the address of the script in <code>length</code> bytes at <code>offset</code>, or null if it has none
+   */
+  public static String fromScript(byte[] b, int offset, int length, Chain chain) {
+    if (length == 25 && b[offset] == 0x76 && b[offset + 1] == (byte) 0xa9 && b[offset + 2] == 20
+        && b[offset + 23] == (byte) 0x88 && b[offset + 24] == (byte) 0xac)
+      return base58Check(pubKeyHashVersion(chain), b, offset + 3);
+    if (length == 23 && b[offset] == (byte) 0xa9 && b[offset + 1] == 20 && b[offset + 22] == (byte) 0x87)
+      return base58Check(scriptHashVersion(chain), b, offset + 2);
+    int op = b[offset] & 0xFF;
+    int programLength = length - 2;
+    if (length >= 4 && length <= 42 && (op == 0 || (op >= 0x51 && op <= 0x60)) && (b[offset + 1] & 0xFF) == programLength) {
+      int version = op == 0 ? 0 : op - 0x50;
+      if (version == 0 && programLength != 20 && programLength != 32)
+        return null;
+      return bech32(hrp(chain), version, b, offset + 2, programLength);
+    }
+    return null;
+  }
+
+  private static String base58Check(int version, byte[] b, int offset) {
+    byte[] payload = new byte[25];
+    payload[0] = (byte) version;
+    System.arraycopy(b, offset, payload, 1, 20);
+    MessageDigest digest = Bytes.sha256();
+    digest.update(payload, 0, 21);
+    System.arraycopy(Bytes.doubleSha256(digest), 0, payload, 21, 4);
+
+    int zeros = 0;
+    while (zeros < payload.length && payload[zeros] == 0)
+      zeros++;
+    // Repeated division of the big endian number by 58
+    byte[] number = payload.clone();
+    char[] encoded = new char[payload.length * 2];
+    int pos = encoded.length;
+    for (int start = zeros; start < number.length;) {
+      int remainder = 0;
+      for (int i = start; i < number.length; i++) {
+        int value = remainder * 256 + (number[i] & 0xFF);
+        number[i] = (byte) (value / 58);
+        remainder = value % 58;
+      }
+      encoded[--pos] = BASE58.charAt(remainder);
+      while (start < number.length && number[start] == 0)
+        start++;
+    }
+    for (int i = 0; i < zeros; i++)
+      encoded[--pos] = '1';
+    return new String(encoded, pos, encoded.length - pos);
+  }
+
+  private static byte[] base58CheckDecode(String address) {
+    byte[] number = new byte[address.length()];
+    int length = 0;
+    for (int i = 0; i < address.length(); i++) {
+      char c = address.charAt(i);
+      int digit = c < 128 ? BASE58_INDEX[c] : -1;
+      if (digit < 0)
+        throw new IllegalArgumentException("Invalid base58 character '" + c + "': " + address);
+      // number = number * 58 + digit, little endian
+      int carry = digit;
+      for (int j = 0; j < length; j++) {
+        carry += (number[j] & 0xFF) * 58;
+        number[j] = (byte) carry;
+        carry >>>= 8;
+      }
+      while (carry > 0) {
+        number[length++] = (byte) carry;
+        carry >>>= 8;
+      }
+    }
+    int zeros = 0;
+    while (zeros < address.length() && address.charAt(zeros) == '1')
+      zeros++;
+    byte[] decoded = new byte[zeros + length];
+    for (int i = 0; i < length; i++)
+      decoded[decoded.length - 1 - i] = number[i];
+    if (decoded.length < 5)
+      throw new IllegalArgumentException("Invalid address: " + address);
+    MessageDigest digest = Bytes.sha256();
+    digest.update(decoded, 0, decoded.length - 4);
+    byte[] checksum = Bytes.doubleSha256(digest);
+    for (int i = 0; i < 4; i++)
+      if (checksum[i] != decoded[decoded.length - 4 + i])
+        throw new IllegalArgumentException("Invalid address checksum: " + address);
+    return Arrays.copyOf(decoded, decoded.length - 4);
+  }
+
+  private static int polymod(int chk, int value) {
+    int top = chk >>> 25;
+    chk = (chk & 0x1ffffff) << 5 ^ value;
+    if ((top & 1) != 0)
+      chk ^= 0x3b6a57b2;
+    if ((top & 2) != 0)
+      chk ^= 0x26508e6d;
+    if ((top & 4) != 0)
+      chk ^= 0x1ea119fa;
+    if ((top & 8) != 0)
+      chk ^= 0x3d4233dd;
+    if ((top & 16) != 0)
+      chk ^= 0x2a1462b3;
+    return chk;
+  }
+
+  private static int hrpChecksum(String hrp) {
+    int chk = 1;
+    for (int i = 0; i < hrp.length(); i++)
+      chk = polymod(chk, hrp.charAt(i) >> 5);
+    chk = polymod(chk, 0);
+    for (int i = 0; i < hrp.length(); i++)
+      chk = polymod(chk, hrp.charAt(i) & 31);
+    return chk;
+  }
+
+  private static String bech32(String hrp, int version, byte[] b, int offset, int length) {
+    ByteArrayOutputStream data = new ByteArrayOutputStream(1 + (length * 8 + 4) / 5);
+    data.write(version);
+    int acc = 0;
+    int bits = 0;
+    for (int i = 0; i < length; i++) {
+      acc = acc << 8 | (b[offset + i] & 0xFF);
+      bits += 8;
+      while (bits >= 5) {
+        bits -= 5;
+        data.write(acc >>> bits & 31);
+      }
+    }
+    if (bits > 0)
+      data.write(acc << (5 - bits) & 31);
+    byte[] values = data.toByteArray();
+
+    int chk = hrpChecksum(hrp);
+    StringBuilder sb = new StringBuilder(hrp.length() + 1 + values.length + 6).append(hrp).append('1');
+    for (byte value : values) {
+      chk = polymod(chk, value);
+      sb.append(BECH32.charAt(value));
+    }
+    for (int i = 0; i < 6; i++)
+      chk = polymod(chk, 0);
+    chk ^= version == 0 ? BECH32_CONST : BECH32M_CONST;
+    for (int i = 0; i < 6; i++)
+      sb.append(BECH32.charAt(chk >>> 5 * (5 - i) & 31));
+    return sb.toString();
+  }
+
+  private static byte[] segwitScript(String address, int separator) {
+    String lower = address.toLowerCase(Locale.ROOT);
+    if (!lower.equals(address) && !address.toUpperCase(Locale.ROOT).equals(address))
+      throw new IllegalArgumentException("Mixed case address: " + address);
+    if (address.length() > 90 || address.length() - separator - 1 < 7)
+      throw new IllegalArgumentException("Invalid bech32 address length: " + address);
+    int chk = hrpChecksum(lower.substring(0, separator));
+    int[] values = new int[lower.length() - separator - 1];
+    for (int i = 0; i < values.length; i++) {
+      char c = lower.charAt(separator + 1 + i);
+      values[i] = c < 128 ? BECH32_INDEX[c] : -1;
+      if (values[i] < 0)
+        throw new IllegalArgumentException("Invalid bech32 character '" + c + "': " + address);
+      chk = polymod(chk, values[i]);
+    }
+    int version = values[0];
+    if (version > 16 || chk != (version == 0 ? BECH32_CONST : BECH32M_CONST))
+      throw new IllegalArgumentException("Invalid bech32 checksum: " + address);
+
+    ByteArrayOutputStream program = new ByteArrayOutputStream(40);
+    int acc = 0;
+    int bits = 0;
+    for (int i = 1; i < values.length - 6; i++) {
+      acc = acc << 5 | values[i];
+      bits += 5;
+      if (bits >= 8) {
+        bits -= 8;
+        program.write(acc >>> bits & 0xFF);
+      }
+    }
+    if (bits >= 5 || (acc & ((1 << bits) - 1)) != 0)
+      throw new IllegalArgumentException("Invalid bech32 padding: " + address);
+    int length = program.size();
+    if (length < 2 || length > 40 || (version == 0 && length != 20 && length != 32))
+      throw new IllegalArgumentException("Invalid witness program length " + length + ": " + address);
+
+    byte[] script = new byte[2 + length];
+    script[0] = (byte) (version == 0 ? 0 : 0x50 + version);
+    script[1] = (byte) length;
+    System.arraycopy(program.toByteArray(), 0, script, 2, length);
+    return script;
+  }
+}
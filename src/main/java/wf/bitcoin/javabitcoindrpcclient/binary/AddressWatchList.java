@@ -0,0 +1,402 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoinPaymentListener;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+
+/**
+ * Detects payments to a large set of addresses in blocks and mempool transactions, without importing the
+ * addresses into a bitcoind wallet.
+ * <br><br>
+ * Each watched address is stored as a 64 bit hash of its output script, in an open addressing table of
+ * <code>long</code>, in front of which a blocked Bloom filter of about 10 bits per address rejects most other
+ * scripts with a single memory access. Scripts are hashed in place in the bytes of a {@link BinaryBlock}, so
+ * matching a block allocates nothing but the reported payments. Two scripts with the same 64 bit hash are
+ * indistinguishable; with millions of addresses the odds of a false match remain below one in 10<sup>12</sup>
+ * per output.
+ * <br><br>
+ * Matching outputs are reported to the listeners as <code>receive</code> {@link Transaction}s, one per output,
+ * followed by {@link BitcoinPaymentListener#block(String)} for blocks. The watch list is not thread safe: add
+ * addresses from the thread matching blocks, or before publishing the instance to it.
+ * <br><br>
+ * Each payment is reported once, when its block or transaction is matched, with 1 or 0 confirmations that never
+ * grow. Listeners waiting for more confirmations must count them from the height of the block, as
+ * {@link wf.bitcoin.javabitcoindrpcclient.ConfirmationTracker} does; a
+ * {@link wf.bitcoin.javabitcoindrpcclient.ConfirmedPaymentListener} only fires with a <code>minConf</code> of 1 or
+ * less. As in <code>listsinceblock</code>, a transaction paying several watched outputs is reported once per
+ * output, with the same {@link Transaction#txId()}: listeners keeping payments by transaction id, as both of these
+ * do, only see the first output of each transaction, the others are told apart by {@link Payment#vout()}.
+ * <pre>
+ * AddressWatchList watchList = new AddressWatchList(Chain.MAIN, addresses.size());
+ * addresses.forEach(watchList::add);
+ * watchList.addListener(listener);
+ * watchList.match(restClient.getBinaryBlock(blockHash));
+ * </pre>
+ * As a {@link wf.bitcoin.javabitcoindrpcclient.zmq.ZmqAcceptorDriver#setTransactionFilter transaction filter},
+ * <code>watchList::matches</code> restricts wallet checks to the mempool transactions paying a watched address.
+ */
+public class AddressWatchList {
+
+  private static final Logger logger = Logger.getLogger(AddressWatchList.class.getName());
+
+  private static final long EMPTY = 0;
+  private static final int BLOOM_BITS_PER_ENTRY = 10;
+
+  private final Chain chain;
+  private final LinkedHashSet<BitcoinPaymentListener> listeners = new LinkedHashSet<>();
+  private long[] table;
+  private int shift;
+  private int size;
+  private long[] bloom;
+  private int bloomMask;
+
+  public AddressWatchList(Chain chain) {
+    this(chain, 1024);
+  }
+
+  /**
+   * @param expectedSize number of addresses to size the structures for, more can be added
+   */
+  public AddressWatchList(Chain chain, int expectedSize) {
+    this.chain = chain;
+    allocate(Math.max(expectedSize, 16));
+  }
+
+  private void allocate(int entries) {
+    int slots = Integer.highestOneBit(Math.max(entries * 2 - 1, 16)) << 1;
+    table = new long[slots];
+    shift = 64 - Integer.numberOfTrailingZeros(slots);
+    int words = Integer.highestOneBit(Math.max((int) Math.min((long) entries * BLOOM_BITS_PER_ENTRY / 64, 1 << 28), 1)) << 1;
+    bloom = new long[words];
+    bloomMask = words - 1;
+  }
+
+  public Chain getChain() {
+    return chain;
+  }
+
+  public void addListener(BitcoinPaymentListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(BitcoinPaymentListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * @return the number of distinct scripts watched
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return true if the address was not watched yet
+   * @throws IllegalArgumentException if the address is not valid
+   */
+  public boolean add(String address) {
+    return addScript(Address.toScript(address));
+  }
+
+  /**
+   * @return true if the output script was not watched yet
+   */
+  public boolean addScript(byte[] script) {
+    long h = hash(script, 0, script.length);
+    if (contains(h))
+      return false;
+    if ((size + 1) * 2 > table.length) {
+      long[] old = table;
+      allocate(size * 2);
+      for (long key : old)
+        if (key != EMPTY)
+          insert(key);
+    }
+    insert(h);
+    size++;
+    return true;
+  }
+
+  public boolean contains(String address) {
+    byte[] script = Address.toScript(address);
+    return contains(hash(script, 0, script.length));
+  }
+
+  private void insert(long h) {
+    bloom[(int) (h >>> 32) & bloomMask] |= bloomBits(h);
+    int mask = table.length - 1;
+    for (int i = slot(h);; i = (i + 1) & mask) {
+      if (table[i] == EMPTY) {
+        table[i] = h;
+        return;
+      }
+    }
+  }
+
+  private boolean contains(long h) {
+    long bits = bloomBits(h);
+    if ((bloom[(int) (h >>> 32) & bloomMask] & bits) != bits)
+      return false;
+    int mask = table.length - 1;
+    for (int i = slot(h);; i = (i + 1) & mask) {
+      long key = table[i];
+      if (key == h)
+        return true;
+      if (key == EMPTY)
+        return false;
+    }
+  }
+
+  private int slot(long h) {
+    return (int) ((h * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  /**
+   * @return four bits of a 64 bit word, taken from the low 24 bits of the hash
+   */
+  private static long bloomBits(long h) {
+    return 1L << (h & 63) | 1L << (h >>> 6 & 63) | 1L << (h >>> 12 & 63) | 1L << (h >>> 18 & 63);
+  }
+
+  /**
+   * @return a non zero 64 bit hash of the bytes
+   */
+  static long hash(byte[] b, int offset, int length) {
+    long h = 0x27D4EB2F165667C5L ^ length;
+    int i = offset;
+    int end = offset + length;
+    for (; i + 8 <= end; i += 8) {
+      long k = (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16 | (b[i + 3] & 0xFFL) << 24
+          | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40 | (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+      h = Long.rotateLeft(h ^ k * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+    }
+    long k = 0;
+    for (int shift = 0; i < end; i++, shift += 8)
+      k |= (b[i] & 0xFFL) << shift;
+    h = Long.rotateLeft(h ^ k * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+    // murmur3 finalizer
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h == EMPTY ? 1 : h;
+  }
+
+  private boolean matches(BinaryTransaction tx, int output) {
+    return contains(hash(tx.buffer(), tx.scriptOffset(output), tx.scriptLength(output)));
+  }
+
+  /**
+   * @return true if an output of the transaction pays a watched address
+   */
+  public boolean matches(BinaryTransaction tx) {
+    for (int o = 0; o < tx.outputCount(); o++)
+      if (matches(tx, o))
+        return true;
+    return false;
+  }
+
+  /**
+   * Reports the outputs of the block paying watched addresses, then the block itself.
+   *
+   * @return the number of matching outputs
+   */
+  public int match(BinaryBlock block) {
+    int matched = 0;
+    for (int t = 0; t < block.transactionCount(); t++) {
+      BinaryTransaction tx = block.transaction(t);
+      for (int o = 0; o < tx.outputCount(); o++) {
+        if (matches(tx, o)) {
+          matched++;
+          report(new Payment(tx, o, t, chain));
+        }
+      }
+    }
+    String hash = block.hash();
+    for (BitcoinPaymentListener listener : listeners) {
+      try {
+        listener.block(hash);
+      } catch (Exception ex) {
+        logger.log(Level.SEVERE, null, ex);
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Reports the outputs of a mempool transaction paying watched addresses, with no confirmations.
+   *
+   * @return the number of matching outputs
+   */
+  public int match(BinaryTransaction tx) {
+    int matched = 0;
+    for (int o = 0; o < tx.outputCount(); o++) {
+      if (matches(tx, o)) {
+        matched++;
+        report(new Payment(tx, o, -1, chain));
+      }
+    }
+    return matched;
+  }
+
+  private void report(Payment payment) {
+    for (BitcoinPaymentListener listener : listeners) {
+      try {
+        listener.transaction(payment);
+      } catch (Exception ex) {
+        logger.log(Level.SEVERE, null, ex);
+      }
+    }
+  }
+
+  /**
+   * An output paying a watched address, in the form of a wallet <code>receive</code> transaction.
+   */
+  @SuppressWarnings("serial")
+  public static class Payment extends FieldView implements Transaction {
+
+    private final BinaryTransaction tx;
+    private final int vout;
+    private final int blockIndex;
+    private final Chain chain;
+
+    Payment(BinaryTransaction tx, int vout, int blockIndex, Chain chain) {
+      this.tx = tx;
+      this.vout = vout;
+      this.blockIndex = blockIndex;
+      this.chain = chain;
+    }
+
+    public int vout() {
+      return vout;
+    }
+
+    public long amountSats() {
+      return tx.output(vout).valueSats();
+    }
+
+    public byte[] scriptPubKey() {
+      return tx.output(vout).scriptBytes();
+    }
+
+    @Override
+    public String account() {
+      return null;
+    }
+
+    @Override
+    public String address() {
+      return Address.fromScript(tx.buffer(), tx.scriptOffset(vout), tx.scriptLength(vout), chain);
+    }
+
+    @Override
+    public String category() {
+      return "receive";
+    }
+
+    @Override
+    public BigDecimal amount() {
+      return Bytes.btc(amountSats());
+    }
+
+    @Override
+    public BigDecimal fee() {
+      return null;
+    }
+
+    /**
+     * @return 1 for an output of a block, 0 for a mempool transaction, whatever the blocks found since
+     */
+    @Override
+    public int confirmations() {
+      return tx.blockHash() == null ? 0 : 1;
+    }
+
+    @Override
+    public String blockHash() {
+      return tx.blockHash();
+    }
+
+    @Override
+    public int blockIndex() {
+      return blockIndex;
+    }
+
+    @Override
+    public Date blockTime() {
+      return tx.time();
+    }
+
+    @Override
+    public String txId() {
+      return tx.txId();
+    }
+
+    @Override
+    public Date time() {
+      return tx.time();
+    }
+
+    @Override
+    public Date timeReceived() {
+      return tx.time();
+    }
+
+    @Override
+    public String comment() {
+      return null;
+    }
+
+    @Override
+    public String commentTo() {
+      return null;
+    }
+
+    @Override
+    public boolean generated() {
+      return tx.isCoinbase();
+    }
+
+    @Override
+    public RawTransaction raw() {
+      return tx;
+    }
+
+    @Override
+    Object field(String key) {
+      switch (key) {
+        case "address":
+          return address();
+        case "category":
+          return category();
+        case "amount":
+          return amount();
+        case "vout":
+          return vout;
+        case "confirmations":
+          return confirmations();
+        case "blockhash":
+          return blockHash();
+        case "blockindex":
+          return blockIndex;
+        case "txid":
+          return txId();
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Payment[" + txId() + ":" + vout + ", " + address() + ", " + amount().toPlainString() + "]";
+    }
+  }
+}
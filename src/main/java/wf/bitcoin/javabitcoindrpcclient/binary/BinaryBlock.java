@@ -0,0 +1,287 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.List;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BlockWithTxInfo;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.javabitcoindrpcclient.GenericRpcException;
+
+/**
+ * View of a block in the Bitcoin serialization format, as returned by <code>getblock &lt;hash&gt; 0</code>, giving
+ * the same information as <code>getblock &lt;hash&gt; 2</code> for a fraction of the transfer and parsing cost.
+ * <br><br>
+ * Decoding walks the block once to find where each transaction starts; transactions are {@link BinaryTransaction}
+ * views over the same bytes. The header hash is computed on first use.
+ * <br><br>
+ * Chain context is not part of the serialization: {@link #confirmations()} is -1, {@link #nextHash()} and
+ * {@link #chainwork()} are null, and {@link #height()} is read from the coinbase (BIP34), or -1 for blocks
+ * older than version 2. {@link #previous()} and {@link #next()} need the view to be bound to a client.
+ */
+@SuppressWarnings("serial")
+public class BinaryBlock extends FieldView implements BlockWithTxInfo {
+
+  private final byte[] b;
+  private final int offset;
+  private final int end;
+  private final BlockHeader header;
+  private final BinaryTransaction[] txs;
+  private final transient BitcoindRpcClient client;
+
+  private BinaryBlock(byte[] b, int offset, int limit, BitcoindRpcClient client) {
+    this.b = b;
+    this.offset = offset;
+    this.client = client;
+    this.header = new BlockHeader(b, offset);
+    try {
+      int pos = offset + BlockHeader.SIZE;
+      int n = Bytes.length(b, pos, limit);
+      pos += Bytes.varIntSize(b, pos);
+      txs = new BinaryTransaction[n];
+      for (int i = 0; i < n; i++) {
+        txs[i] = new BinaryTransaction(b, pos, limit, this, client);
+        pos = txs[i].end();
+      }
+      end = pos;
+    } catch (ArrayIndexOutOfBoundsException ex) {
+      throw new IllegalArgumentException("Truncated block", ex);
+    }
+  }
+
+  public static BinaryBlock decode(byte[] block) {
+    return decode(ByteBuffer.wrap(block), null);
+  }
+
+  public static BinaryBlock decode(ByteBuffer block) {
+    return decode(block, null);
+  }
+
+  /**
+   * Decodes the remaining bytes of the buffer, without copying them when it is backed by an array.
+   *
+   * @param client used to navigate to other blocks and the transactions spent by the inputs, may be null
+   */
+  public static BinaryBlock decode(ByteBuffer block, BitcoindRpcClient client) {
+    byte[] b;
+    int offset;
+    if (block.hasArray()) {
+      b = block.array();
+      offset = block.arrayOffset() + block.position();
+    } else {
+      b = new byte[block.remaining()];
+      block.duplicate().get(b);
+      offset = 0;
+    }
+    if (block.remaining() < BlockHeader.SIZE + 1)
+      throw new IllegalArgumentException("Truncated block");
+    BinaryBlock decoded = new BinaryBlock(b, offset, offset + block.remaining(), client);
+    if (decoded.end != offset + block.remaining())
+      throw new IllegalArgumentException("Unexpected data after block");
+    return decoded;
+  }
+
+  public BlockHeader header() {
+    return header;
+  }
+
+  /**
+   * @return the serialized block
+   */
+  public ByteBuffer bytes() {
+    return ByteBuffer.wrap(b, offset, end - offset).slice();
+  }
+
+  /**
+   * @return the block hash in internal byte order
+   */
+  public byte[] hashBytes() {
+    return header.hashBytes();
+  }
+
+  @Override
+  public String hash() {
+    return header.hash();
+  }
+
+  @Override
+  public int confirmations() {
+    return -1;
+  }
+
+  @Override
+  public int size() {
+    return end - offset;
+  }
+
+  /**
+   * @return the size of the block without witness data
+   */
+  public int strippedSize() {
+    int size = end - offset;
+    for (BinaryTransaction tx : txs)
+      size -= tx.size() - tx.strippedSize();
+    return size;
+  }
+
+  public int weight() {
+    return strippedSize() * 3 + size();
+  }
+
+  @Override
+  public int height() {
+    if (version() < 2 || txs.length == 0)
+      return -1;
+    byte[] script = txs[0].input(0).scriptSigBytes();
+    if (script.length == 0)
+      return -1;
+    int op = script[0] & 0xFF;
+    if (op == 0x00)
+      return 0;
+    if (op >= 0x51 && op <= 0x60)
+      return op - 0x50;
+    if (op > 4 || script.length < 1 + op)
+      return -1;
+    int height = 0;
+    for (int i = op; i >= 1; i--)
+      height = (height << 8) | (script[i] & 0xFF);
+    return height;
+  }
+
+  @Override
+  public int version() {
+    return header.version();
+  }
+
+  @Override
+  public String merkleRoot() {
+    return header.merkleRoot();
+  }
+
+  @Override
+  public List<RawTransaction> tx() {
+    return new AbstractList<RawTransaction>() {
+      @Override
+      public RawTransaction get(int index) {
+        return txs[index];
+      }
+
+      @Override
+      public int size() {
+        return txs.length;
+      }
+    };
+  }
+
+  public BinaryTransaction transaction(int index) {
+    return txs[index];
+  }
+
+  public int transactionCount() {
+    return txs.length;
+  }
+
+  long timeSeconds() {
+    return header.timeSeconds();
+  }
+
+  @Override
+  public Date time() {
+    return header.time();
+  }
+
+  @Override
+  public long nonce() {
+    return header.nonce();
+  }
+
+  @Override
+  public String bits() {
+    return header.bits();
+  }
+
+  @Override
+  public BigDecimal difficulty() {
+    return header.difficulty();
+  }
+
+  @Override
+  public String previousHash() {
+    return header.previousHash();
+  }
+
+  @Override
+  public String nextHash() {
+    return null;
+  }
+
+  @Override
+  public String chainwork() {
+    return null;
+  }
+
+  @Override
+  public BlockWithTxInfo previous() throws GenericRpcException {
+    String previousHash = previousHash();
+    if (previousHash == null)
+      return null;
+    return decode(ByteBuffer.wrap(client().getRawBlockBytes(previousHash)), client);
+  }
+
+  @Override
+  public BlockWithTxInfo next() throws GenericRpcException {
+    String nextHash = client().getBlock(hash()).nextHash();
+    if (nextHash == null)
+      return null;
+    return decode(ByteBuffer.wrap(client.getRawBlockBytes(nextHash)), client);
+  }
+
+  private BitcoindRpcClient client() {
+    if (client == null)
+      throw new IllegalStateException("Decoded block is not bound to a client");
+    return client;
+  }
+
+  @Override
+  Object field(String key) {
+    switch (key) {
+      case "hash":
+        return hash();
+      case "size":
+        return size();
+      case "strippedsize":
+        return strippedSize();
+      case "weight":
+        return weight();
+      case "version":
+        return version();
+      case "merkleroot":
+        return merkleRoot();
+      case "time":
+        return timeSeconds();
+      case "nonce":
+        return nonce();
+      case "bits":
+        return bits();
+      case "difficulty":
+        return difficulty();
+      case "previousblockhash":
+        return previousHash();
+      case "nTx":
+        return txs.length;
+      case "height":
+        int height = height();
+        return height < 0 ? null : height;
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BinaryBlock[" + hash() + "]";
+  }
+}
@@ -0,0 +1,563 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BasicTxInput;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxInput;
+
+/**
+ * Flyweight view of a transaction in the Bitcoin serialization format, as returned by <code>getrawtransaction</code>
+ * or contained in a raw block.
+ * <br><br>
+ * Decoding only records where each input and output starts; fields are read from the underlying bytes when
+ * accessed and the txid is hashed on first use. Inputs and outputs are views as well.
+ * <br><br>
+ * Fields that are not part of the serialization are not available: <code>confirmations()</code> is null, scripts
+ * have no <code>asm</code> and outputs no addresses. The block hash and times are known for transactions of a
+ * {@link BinaryBlock}. Methods fetching previous transactions need the view to be bound to a client.
+ */
+@SuppressWarnings("serial")
+public class BinaryTransaction extends FieldView implements RawTransaction {
+
+  private final byte[] b;
+  private final int offset;
+  private final int end;
+  private final boolean segwit;
+  private final int[] inputs; // offset of each input
+  private final int[] outputs; // offset of each output
+  private final int[] witnesses; // offset of the witness of each input, or null
+  private final int witnessStart; // end of the outputs
+  private final int lockTimeOffset;
+  private final BinaryBlock block;
+  private final transient BitcoindRpcClient client;
+  private transient volatile String txId;
+
+  BinaryTransaction(byte[] b, int offset, int limit, BinaryBlock block, BitcoindRpcClient client) {
+    this.b = b;
+    this.offset = offset;
+    this.block = block;
+    this.client = client;
+    try {
+      int pos = offset + 4;
+      segwit = b[pos] == 0 && b[pos + 1] != 0;
+      if (segwit)
+        pos += 2;
+
+      int nIn = Bytes.length(b, pos, limit);
+      pos += Bytes.varIntSize(b, pos);
+      inputs = new int[nIn];
+      for (int i = 0; i < nIn; i++) {
+        inputs[i] = pos;
+        pos += 36;
+        int scriptLength = Bytes.length(b, pos, limit);
+        pos += Bytes.varIntSize(b, pos) + scriptLength + 4;
+      }
+
+      int nOut = Bytes.length(b, pos, limit);
+      pos += Bytes.varIntSize(b, pos);
+      outputs = new int[nOut];
+      for (int i = 0; i < nOut; i++) {
+        outputs[i] = pos;
+        pos += 8;
+        int scriptLength = Bytes.length(b, pos, limit);
+        pos += Bytes.varIntSize(b, pos) + scriptLength;
+      }
+
+      witnessStart = pos;
+      if (segwit) {
+        witnesses = new int[nIn];
+        for (int i = 0; i < nIn; i++) {
+          witnesses[i] = pos;
+          int items = Bytes.length(b, pos, limit);
+          pos += Bytes.varIntSize(b, pos);
+          for (int j = 0; j < items; j++) {
+            int itemLength = Bytes.length(b, pos, limit);
+            pos += Bytes.varIntSize(b, pos) + itemLength;
+          }
+        }
+      } else {
+        witnesses = null;
+      }
+
+      lockTimeOffset = pos;
+      end = pos + 4;
+      if (end > limit)
+        throw new IllegalArgumentException("Truncated transaction");
+    } catch (ArrayIndexOutOfBoundsException ex) {
+      throw new IllegalArgumentException("Truncated transaction", ex);
+    }
+  }
+
+  public static BinaryTransaction decode(byte[] tx) {
+    return decode(ByteBuffer.wrap(tx), null);
+  }
+
+  public static BinaryTransaction decode(ByteBuffer tx) {
+    return decode(tx, null);
+  }
+
+  /**
+   * Decodes the remaining bytes of the buffer, without copying them when it is backed by an array.
+   *
+   * @param client used to fetch the transactions spent by the inputs, may be null
+   */
+  public static BinaryTransaction decode(ByteBuffer tx, BitcoindRpcClient client) {
+    byte[] b;
+    int offset;
+    if (tx.hasArray()) {
+      b = tx.array();
+      offset = tx.arrayOffset() + tx.position();
+    } else {
+      b = new byte[tx.remaining()];
+      tx.duplicate().get(b);
+      offset = 0;
+    }
+    BinaryTransaction decoded = new BinaryTransaction(b, offset, offset + tx.remaining(), null, client);
+    if (decoded.end != offset + tx.remaining())
+      throw new IllegalArgumentException("Unexpected data after transaction");
+    return decoded;
+  }
+
+  int end() {
+    return end;
+  }
+
+  byte[] buffer() {
+    return b;
+  }
+
+  int outputCount() {
+    return outputs.length;
+  }
+
+  /**
+   * @return the offset in {@link #buffer()} of the script of an output
+   */
+  int scriptOffset(int index) {
+    int pos = outputs[index] + 8;
+    return pos + Bytes.varIntSize(b, pos);
+  }
+
+  int scriptLength(int index) {
+    return (int) Bytes.varInt(b, outputs[index] + 8);
+  }
+
+  /**
+   * @return the serialized transaction
+   */
+  public ByteBuffer bytes() {
+    return ByteBuffer.wrap(b, offset, end - offset).slice();
+  }
+
+  public boolean isSegwit() {
+    return segwit;
+  }
+
+  public boolean isCoinbase() {
+    return inputs.length == 1 && outputIndex(inputs[0]) == 0xFFFFFFFFL && isNullHash(inputs[0]);
+  }
+
+  /**
+   * @return the txid in internal byte order
+   */
+  public byte[] txIdBytes() {
+    MessageDigest digest = Bytes.sha256();
+    if (segwit) {
+      digest.update(b, offset, 4);
+      digest.update(b, offset + 6, witnessStart - offset - 6);
+      digest.update(b, lockTimeOffset, 4);
+    } else {
+      digest.update(b, offset, end - offset);
+    }
+    return Bytes.doubleSha256(digest);
+  }
+
+  /**
+   * @return the size of the transaction without witness data
+   */
+  public int strippedSize() {
+    return segwit ? witnessStart - offset + 2 : end - offset;
+  }
+
+  public int weight() {
+    return strippedSize() * 3 + (end - offset);
+  }
+
+  @Override
+  public String error() {
+    return null;
+  }
+
+  @Override
+  public String hex() {
+    return Bytes.hex(b, offset, end - offset);
+  }
+
+  @Override
+  public String txId() {
+    String id = txId;
+    if (id == null) {
+      byte[] hash = txIdBytes();
+      txId = id = Bytes.reversedHex(hash, 0, hash.length);
+    }
+    return id;
+  }
+
+  @Override
+  public String hash() {
+    if (!segwit)
+      return txId();
+    MessageDigest digest = Bytes.sha256();
+    digest.update(b, offset, end - offset);
+    byte[] hash = Bytes.doubleSha256(digest);
+    return Bytes.reversedHex(hash, 0, hash.length);
+  }
+
+  @Override
+  public int version() {
+    return Bytes.int32(b, offset);
+  }
+
+  @Override
+  public long lockTime() {
+    return Bytes.uint32(b, lockTimeOffset);
+  }
+
+  @Override
+  public long size() {
+    return end - offset;
+  }
+
+  @Override
+  public long vsize() {
+    return (weight() + 3) / 4;
+  }
+
+  @Override
+  public List<In> vIn() {
+    return new AbstractList<In>() {
+      @Override
+      public In get(int index) {
+        return new Input(index);
+      }
+
+      @Override
+      public int size() {
+        return inputs.length;
+      }
+    };
+  }
+
+  @Override
+  public List<Out> vOut() {
+    return new AbstractList<Out>() {
+      @Override
+      public Out get(int index) {
+        return new Output(index);
+      }
+
+      @Override
+      public int size() {
+        return outputs.length;
+      }
+    };
+  }
+
+  /**
+   * @return the typed view of an output, with access to its value in satoshis and its script bytes
+   */
+  public Output output(int index) {
+    if (index < 0 || index >= outputs.length)
+      throw new IndexOutOfBoundsException("Output " + index + " of " + outputs.length);
+    return new Output(index);
+  }
+
+  public Input input(int index) {
+    if (index < 0 || index >= inputs.length)
+      throw new IndexOutOfBoundsException("Input " + index + " of " + inputs.length);
+    return new Input(index);
+  }
+
+  @Override
+  public String blockHash() {
+    return block == null ? null : block.hash();
+  }
+
+  @Override
+  public Integer confirmations() {
+    return null;
+  }
+
+  @Override
+  public Date time() {
+    return block == null ? null : block.time();
+  }
+
+  @Override
+  public Date blocktime() {
+    return time();
+  }
+
+  @Override
+  Object field(String key) {
+    switch (key) {
+      case "txid":
+        return txId();
+      case "hash":
+        return hash();
+      case "hex":
+        return hex();
+      case "version":
+        return version();
+      case "size":
+        return size();
+      case "vsize":
+        return vsize();
+      case "weight":
+        return weight();
+      case "locktime":
+        return lockTime();
+      case "blockhash":
+        return blockHash();
+      case "time":
+      case "blocktime":
+        return block == null ? null : block.timeSeconds();
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BinaryTransaction[" + txId() + "]";
+  }
+
+  private long outputIndex(int input) {
+    return Bytes.uint32(b, input + 32);
+  }
+
+  private boolean isNullHash(int input) {
+    for (int i = 0; i < 32; i++)
+      if (b[input + i] != 0)
+        return false;
+    return true;
+  }
+
+  private RawTransaction fetch(String txid) {
+    if (client == null)
+      throw new IllegalStateException("Decoded transaction is not bound to a client");
+    return client.getRawTransaction(txid);
+  }
+
+  public class Input implements In {
+
+    private final int index;
+
+    Input(int index) {
+      this.index = index;
+    }
+
+    private int scriptOffset() {
+      return inputs[index] + 36;
+    }
+
+    public boolean isCoinbase() {
+      return BinaryTransaction.this.isCoinbase();
+    }
+
+    @Override
+    public String txid() {
+      return isCoinbase() ? null : Bytes.reversedHex(b, inputs[index], 32);
+    }
+
+    @Override
+    public Integer vout() {
+      return isCoinbase() ? null : (int) outputIndex(inputs[index]);
+    }
+
+    /**
+     * @return the script of the input, the coinbase data for a coinbase input
+     */
+    public byte[] scriptSigBytes() {
+      int pos = scriptOffset();
+      int length = (int) Bytes.varInt(b, pos);
+      pos += Bytes.varIntSize(b, pos);
+      byte[] script = new byte[length];
+      System.arraycopy(b, pos, script, 0, length);
+      return script;
+    }
+
+    @Override
+    public Map<String, Object> scriptSig() {
+      if (isCoinbase())
+        return null;
+      byte[] script = scriptSigBytes();
+      return Collections.singletonMap("hex", Bytes.hex(script, 0, script.length));
+    }
+
+    @Override
+    public long sequence() {
+      int pos = scriptOffset();
+      return Bytes.uint32(b, pos + Bytes.varIntSize(b, pos) + (int) Bytes.varInt(b, pos));
+    }
+
+    /**
+     * @return the witness stack of the input, empty for legacy transactions
+     */
+    public List<byte[]> witness() {
+      if (witnesses == null)
+        return Collections.emptyList();
+      int pos = witnesses[index];
+      int items = (int) Bytes.varInt(b, pos);
+      pos += Bytes.varIntSize(b, pos);
+      List<byte[]> stack = new ArrayList<>(items);
+      for (int i = 0; i < items; i++) {
+        int length = (int) Bytes.varInt(b, pos);
+        pos += Bytes.varIntSize(b, pos);
+        byte[] item = new byte[length];
+        System.arraycopy(b, pos, item, 0, length);
+        stack.add(item);
+        pos += length;
+      }
+      return stack;
+    }
+
+    @Override
+    public RawTransaction getTransaction() {
+      return fetch(txid());
+    }
+
+    @Override
+    public Out getTransactionOutput() {
+      return getTransaction().vOut().get(vout());
+    }
+
+    @Override
+    public String scriptPubKey() {
+      return null;
+    }
+
+    @Override
+    public BigDecimal amount() {
+      return null;
+    }
+  }
+
+  public class Output extends FieldView implements Out {
+
+    private final int index;
+
+    Output(int index) {
+      this.index = index;
+    }
+
+    public long valueSats() {
+      return Bytes.int64(b, outputs[index]);
+    }
+
+    public byte[] scriptBytes() {
+      int pos = outputs[index] + 8;
+      int length = (int) Bytes.varInt(b, pos);
+      pos += Bytes.varIntSize(b, pos);
+      byte[] script = new byte[length];
+      System.arraycopy(b, pos, script, 0, length);
+      return script;
+    }
+
+    @Override
+    public BigDecimal value() {
+      return Bytes.btc(valueSats());
+    }
+
+    @Override
+    public int n() {
+      return index;
+    }
+
+    @Override
+    public ScriptPubKey scriptPubKey() {
+      return new Script(scriptBytes());
+    }
+
+    @Override
+    public TxInput toInput() {
+      return new BasicTxInput(txId(), index);
+    }
+
+    @Override
+    public RawTransaction transaction() {
+      return BinaryTransaction.this;
+    }
+
+    @Override
+    Object field(String key) {
+      switch (key) {
+        case "value":
+          return value();
+        case "n":
+          return index;
+        default:
+          return null;
+      }
+    }
+  }
+
+  static final class Script extends FieldView implements RawTransaction.Out.ScriptPubKey {
+
+    private final byte[] script;
+
+    Script(byte[] script) {
+      this.script = script;
+    }
+
+    @Override
+    public String asm() {
+      return null;
+    }
+
+    @Override
+    public String hex() {
+      return Bytes.hex(script, 0, script.length);
+    }
+
+    @Override
+    public int reqSigs() {
+      String type = type();
+      if (type.equals("multisig"))
+        return (script[0] & 0xFF) - 0x50;
+      return type.equals("nonstandard") || type.equals("nulldata") || type.equals("witness_unknown") ? 0 : 1;
+    }
+
+    @Override
+    public String type() {
+      return ScriptType.of(script);
+    }
+
+    @Override
+    public List<String> addresses() {
+      return null;
+    }
+
+    @Override
+    Object field(String key) {
+      switch (key) {
+        case "hex":
+          return hex();
+        case "type":
+          return type();
+        default:
+          return null;
+      }
+    }
+  }
+}
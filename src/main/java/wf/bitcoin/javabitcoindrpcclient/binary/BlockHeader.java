@@ -0,0 +1,144 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * View of an 80 byte block header in the Bitcoin serialization format, as returned by
+ * <code>getblockheader &lt;hash&gt; false</code> or the <code>/rest/headers</code> endpoint.
+ * The hash is computed on first use.
+ */
+public final class BlockHeader implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int SIZE = 80;
+
+  private final byte[] b;
+  private final int offset;
+  private transient volatile String hash;
+
+  BlockHeader(byte[] b, int offset) {
+    this.b = b;
+    this.offset = offset;
+  }
+
+  public static BlockHeader decode(byte[] header) {
+    if (header.length != SIZE)
+      throw new IllegalArgumentException("Block header of " + header.length + " bytes");
+    return new BlockHeader(header, 0);
+  }
+
+  /**
+   * @param headers consecutive serialized headers
+   * @return views over the headers, without copying them
+   */
+  public static List<BlockHeader> decodeAll(byte[] headers) {
+    if (headers.length % SIZE != 0)
+      throw new IllegalArgumentException("Block headers of " + headers.length + " bytes");
+    class Headers extends AbstractList<BlockHeader> implements RandomAccess {
+      @Override
+      public BlockHeader get(int index) {
+        if (index < 0 || index >= size())
+          throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return new BlockHeader(headers, index * SIZE);
+      }
+
+      @Override
+      public int size() {
+        return headers.length / SIZE;
+      }
+    }
+    return new Headers();
+  }
+
+  public byte[] bytes() {
+    byte[] header = new byte[SIZE];
+    System.arraycopy(b, offset, header, 0, SIZE);
+    return header;
+  }
+
+  /**
+   * @return the block hash in internal byte order
+   */
+  public byte[] hashBytes() {
+    MessageDigest digest = Bytes.sha256();
+    digest.update(b, offset, SIZE);
+    return Bytes.doubleSha256(digest);
+  }
+
+  public String hash() {
+    String h = hash;
+    if (h == null) {
+      byte[] bytes = hashBytes();
+      hash = h = Bytes.reversedHex(bytes, 0, bytes.length);
+    }
+    return h;
+  }
+
+  public int version() {
+    return Bytes.int32(b, offset);
+  }
+
+  /**
+   * @return the hash of the previous block, or null for the genesis block
+   */
+  public String previousHash() {
+    for (int i = 4; i < 36; i++)
+      if (b[offset + i] != 0)
+        return Bytes.reversedHex(b, offset + 4, 32);
+    return null;
+  }
+
+  public String merkleRoot() {
+    return Bytes.reversedHex(b, offset + 36, 32);
+  }
+
+  public long timeSeconds() {
+    return Bytes.uint32(b, offset + 68);
+  }
+
+  public Date time() {
+    return Bytes.date(timeSeconds());
+  }
+
+  /**
+   * @return the compact encoding of the target
+   */
+  public long compactBits() {
+    return Bytes.uint32(b, offset + 72);
+  }
+
+  public String bits() {
+    return String.format("%08x", compactBits());
+  }
+
+  public BigDecimal difficulty() {
+    long bits = compactBits();
+    int shift = (int) (bits >>> 24) & 0xFF;
+    double difficulty = (double) 0x0000FFFF / (double) (bits & 0x00FFFFFF);
+    while (shift < 29) {
+      difficulty *= 256.0;
+      shift++;
+    }
+    while (shift > 29) {
+      difficulty /= 256.0;
+      shift--;
+    }
+    return new BigDecimal(difficulty);
+  }
+
+  public long nonce() {
+    return Bytes.uint32(b, offset + 76);
+  }
+
+  @Override
+  public String toString() {
+    return "BlockHeader[" + hash() + "]";
+  }
+}
@@ -0,0 +1,123 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+/**
+ * Little endian reads and hashing over the Bitcoin serialization format.
+ */
+final class Bytes {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private Bytes() {
+  }
+
+  static int uint16(byte[] b, int pos) {
+    return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8;
+  }
+
+  static long uint32(byte[] b, int pos) {
+    return int32(b, pos) & 0xFFFFFFFFL;
+  }
+
+  static int int32(byte[] b, int pos) {
+    return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8 | (b[pos + 2] & 0xFF) << 16 | (b[pos + 3] & 0xFF) << 24;
+  }
+
+  static long int64(byte[] b, int pos) {
+    return uint32(b, pos) | (uint32(b, pos + 4) << 32);
+  }
+
+  /**
+   * @return the value of the CompactSize integer at <code>pos</code>
+   */
+  static long varInt(byte[] b, int pos) {
+    int first = b[pos] & 0xFF;
+    switch (first) {
+      case 0xFD:
+        return uint16(b, pos + 1);
+      case 0xFE:
+        return uint32(b, pos + 1);
+      case 0xFF:
+        return int64(b, pos + 1);
+      default:
+        return first;
+    }
+  }
+
+  /**
+   * @return the size in bytes of the CompactSize integer at <code>pos</code>
+   */
+  static int varIntSize(byte[] b, int pos) {
+    switch (b[pos] & 0xFF) {
+      case 0xFD:
+        return 3;
+      case 0xFE:
+        return 5;
+      case 0xFF:
+        return 9;
+      default:
+        return 1;
+    }
+  }
+
+  /**
+   * Reads a CompactSize used as a count or length, which must fit in the remaining data.
+   */
+  static int length(byte[] b, int pos, int end) {
+    long n = varInt(b, pos);
+    if (n < 0 || n > end - pos)
+      throw new IllegalArgumentException("Invalid length " + n + " at offset " + pos);
+    return (int) n;
+  }
+
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Finishes a double SHA-256 whose first round was fed to <code>digest</code>.
+   */
+  static byte[] doubleSha256(MessageDigest digest) {
+    byte[] first = digest.digest();
+    return digest.digest(first);
+  }
+
+  /**
+   * @return the hex of <code>length</code> bytes in reverse order, as hashes are displayed
+   */
+  static String reversedHex(byte[] b, int pos, int length) {
+    char[] chars = new char[length * 2];
+    for (int i = 0; i < length; i++) {
+      int v = b[pos + length - 1 - i] & 0xFF;
+      chars[i * 2] = HEX[v >>> 4];
+      chars[i * 2 + 1] = HEX[v & 0x0F];
+    }
+    return new String(chars);
+  }
+
+  static String hex(byte[] b, int pos, int length) {
+    char[] chars = new char[length * 2];
+    for (int i = 0; i < length; i++) {
+      int v = b[pos + i] & 0xFF;
+      chars[i * 2] = HEX[v >>> 4];
+      chars[i * 2 + 1] = HEX[v & 0x0F];
+    }
+    return new String(chars);
+  }
+
+  static BigDecimal btc(long satoshis) {
+    return BigDecimal.valueOf(satoshis, 8);
+  }
+
+  static Date date(long seconds) {
+    return new Date(seconds * 1000);
+  }
+}
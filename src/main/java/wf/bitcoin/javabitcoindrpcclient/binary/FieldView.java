@@ -0,0 +1,63 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import wf.bitcoin.javabitcoindrpcclient.MapWrapperType;
+import wf.bitcoin.krotjson.HexCoder;
+
+/**
+ * Implements the {@link MapWrapperType} accessors of a binary view from the fields it can compute, named like the
+ * keys of the matching bitcoind JSON result.
+ */
+abstract class FieldView implements MapWrapperType {
+
+  /**
+   * @return the value bitcoind would return under this key, or null if it is not available in the serialization
+   */
+  abstract Object field(String key);
+
+  @Override
+  public Boolean mapBool(String key) {
+    Object val = field(key);
+    return val instanceof Boolean ? (Boolean) val : null;
+  }
+
+  @Override
+  public Integer mapInt(String key) {
+    Object val = field(key);
+    return val instanceof Number ? ((Number) val).intValue() : null;
+  }
+
+  @Override
+  public Long mapLong(String key) {
+    Object val = field(key);
+    return val instanceof Number ? ((Number) val).longValue() : null;
+  }
+
+  @Override
+  public String mapStr(String key) {
+    Object val = field(key);
+    return val == null ? null : val.toString();
+  }
+
+  @Override
+  public Date mapDate(String key) {
+    Long val = mapLong(key);
+    return val == null ? null : new Date(val * 1000);
+  }
+
+  @Override
+  public BigDecimal mapBigDecimal(String key) {
+    Object val = field(key);
+    if (val instanceof BigDecimal)
+      return (BigDecimal) val;
+    return val == null ? null : new BigDecimal(val.toString());
+  }
+
+  @Override
+  public byte[] mapHex(String key) {
+    String val = mapStr(key);
+    return val == null ? null : HexCoder.decode(val);
+  }
+}
@@ -0,0 +1,79 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+/**
+ * Classifies output scripts with the type names bitcoind uses in <code>scriptPubKey.type</code>.
+ */
+public final class ScriptType {
+
+  public static final String PUBKEY = "pubkey";
+  public static final String PUBKEYHASH = "pubkeyhash";
+  public static final String SCRIPTHASH = "scripthash";
+  public static final String MULTISIG = "multisig";
+  public static final String NULLDATA = "nulldata";
+  public static final String WITNESS_V0_KEYHASH = "witness_v0_keyhash";
+  public static final String WITNESS_V0_SCRIPTHASH = "witness_v0_scripthash";
+  public static final String WITNESS_V1_TAPROOT = "witness_v1_taproot";
+  public static final String WITNESS_UNKNOWN = "witness_unknown";
+  public static final String NONSTANDARD = "nonstandard";
+
+  private static final int OP_0 = 0x00;
+  private static final int OP_1 = 0x51;
+  private static final int OP_16 = 0x60;
+  private static final int OP_RETURN = 0x6a;
+  private static final int OP_DUP = 0x76;
+  private static final int OP_EQUAL = 0x87;
+  private static final int OP_EQUALVERIFY = 0x88;
+  private static final int OP_HASH160 = 0xa9;
+  private static final int OP_CHECKSIG = 0xac;
+  private static final int OP_CHECKMULTISIG = 0xae;
+
+  private ScriptType() {
+  }
+
+  public static String of(byte[] s) {
+    int n = s.length;
+    if (n == 25 && op(s, 0) == OP_DUP && op(s, 1) == OP_HASH160 && op(s, 2) == 20 && op(s, 23) == OP_EQUALVERIFY && op(s, 24) == OP_CHECKSIG)
+      return PUBKEYHASH;
+    if (n == 23 && op(s, 0) == OP_HASH160 && op(s, 1) == 20 && op(s, 22) == OP_EQUAL)
+      return SCRIPTHASH;
+    if (n == 22 && op(s, 0) == OP_0 && op(s, 1) == 20)
+      return WITNESS_V0_KEYHASH;
+    if (n == 34 && op(s, 0) == OP_0 && op(s, 1) == 32)
+      return WITNESS_V0_SCRIPTHASH;
+    if (n == 34 && op(s, 0) == OP_1 && op(s, 1) == 32)
+      return WITNESS_V1_TAPROOT;
+    if (n >= 4 && n <= 42 && op(s, 0) >= OP_1 && op(s, 0) <= OP_16 && op(s, 1) == n - 2)
+      return WITNESS_UNKNOWN;
+    if (n > 0 && op(s, 0) == OP_RETURN)
+      return NULLDATA;
+    if ((n == 35 && op(s, 0) == 33 || n == 67 && op(s, 0) == 65) && op(s, n - 1) == OP_CHECKSIG)
+      return PUBKEY;
+    if (isMultisig(s))
+      return MULTISIG;
+    return NONSTANDARD;
+  }
+
+  private static boolean isMultisig(byte[] s) {
+    int n = s.length;
+    if (n < 3 || op(s, n - 1) != OP_CHECKMULTISIG)
+      return false;
+    int required = op(s, 0) - OP_1 + 1;
+    int keys = op(s, n - 2) - OP_1 + 1;
+    if (required < 1 || required > 16 || keys < required || keys > 16)
+      return false;
+    int pos = 1;
+    for (int i = 0; i < keys; i++) {
+      if (pos >= n - 2)
+        return false;
+      int length = op(s, pos);
+      if (length != 33 && length != 65)
+        return false;
+      pos += 1 + length;
+    }
+    return pos == n - 2;
+  }
+
+  private static int op(byte[] s, int i) {
+    return s[i] & 0xFF;
+  }
+}
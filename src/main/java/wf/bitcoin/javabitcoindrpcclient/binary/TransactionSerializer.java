@@ -0,0 +1,274 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxInput;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxOutput;
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+import wf.bitcoin.krotjson.HexCoder;
+
+/**
+ * Serializes unsigned transactions locally, as <code>createrawtransaction</code> does.
+ * <br><br>
+ * The result is byte-identical to bitcoind's for the same inputs and outputs: version 2, the sequence derived from
+ * the locktime and replaceability unless set per input, empty input scripts, and for each output its address
+ * script, then an <code>OP_RETURN</code> output of value 0 for its data. Transactions are serialized without
+ * witness, as bitcoind does for unsigned ones, unless witness stacks are set; then the segwit marker and flag are
+ * written.
+ * <br><br>
+ * Addresses are checked against the chain set with {@link #setChain(Chain)}, as bitcoind does against its own;
+ * without one, addresses of any chain are accepted. Invalid parameters throw {@link IllegalArgumentException}.
+ */
+public final class TransactionSerializer {
+
+  public static final int DEFAULT_VERSION = 2;
+
+  /**
+   * Sequence of a final input, which disables the locktime unless another input enables it
+   */
+  public static final long SEQUENCE_FINAL = 0xFFFFFFFFL;
+
+  /**
+   * Sequence enabling the locktime, without BIP125 replaceability
+   */
+  public static final long SEQUENCE_NONFINAL = 0xFFFFFFFEL;
+
+  /**
+   * Highest sequence signaling BIP125 replaceability
+   */
+  public static final long SEQUENCE_REPLACEABLE = 0xFFFFFFFDL;
+
+  private Chain chain;
+  private int version = DEFAULT_VERSION;
+  private long lockTime;
+  private boolean replaceable;
+  private final Map<Integer, Long> sequences = new HashMap<>();
+  private final Map<Integer, byte[][]> witnesses = new HashMap<>();
+
+  public Chain getChain() {
+    return chain;
+  }
+
+  /**
+   * @param chain the chain of the output addresses, addresses of other chains are rejected; null to accept any
+   */
+  public TransactionSerializer setChain(Chain chain) {
+    this.chain = chain;
+    return this;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public TransactionSerializer setVersion(int version) {
+    this.version = version;
+    return this;
+  }
+
+  public long getLockTime() {
+    return lockTime;
+  }
+
+  /**
+   * @param lockTime block height, or timestamp from 500000000, before which the transaction cannot be mined
+   */
+  public TransactionSerializer setLockTime(long lockTime) {
+    if (lockTime < 0 || lockTime > 0xFFFFFFFFL)
+      throw new IllegalArgumentException("Invalid locktime: " + lockTime);
+    this.lockTime = lockTime;
+    return this;
+  }
+
+  public boolean isReplaceable() {
+    return replaceable;
+  }
+
+  /**
+   * @param replaceable whether the inputs without a sequence of their own signal BIP125 replaceability
+   */
+  public TransactionSerializer setReplaceable(boolean replaceable) {
+    this.replaceable = replaceable;
+    return this;
+  }
+
+  /**
+   * Sets the sequence of one input, overriding the one derived from the locktime and replaceability.
+   */
+  public TransactionSerializer setSequence(int input, long sequence) {
+    if (sequence < 0 || sequence > 0xFFFFFFFFL)
+      throw new IllegalArgumentException("Invalid sequence: " + sequence);
+    sequences.put(input, sequence);
+    return this;
+  }
+
+  /**
+   * Sets the witness stack of one input; the transaction is then serialized with the segwit marker.
+   */
+  public TransactionSerializer setWitness(int input, byte[]... stack) {
+    witnesses.put(input, stack.clone());
+    return this;
+  }
+
+  /**
+   * @return the sequence an input gets when none is set for it
+   */
+  public long defaultSequence() {
+    if (replaceable)
+      return SEQUENCE_REPLACEABLE;
+    return lockTime != 0 ? SEQUENCE_NONFINAL : SEQUENCE_FINAL;
+  }
+
+  public String hex(List<? extends TxInput> inputs, List<? extends TxOutput> outputs) {
+    byte[] tx = serialize(inputs, outputs);
+    return Bytes.hex(tx, 0, tx.length);
+  }
+
+  /**
+   * @throws IllegalArgumentException if an input, address or amount is not valid, or an address or data is
+   * repeated, which bitcoind rejects too
+   */
+  public byte[] serialize(List<? extends TxInput> inputs, List<? extends TxOutput> outputs) {
+    for (Integer i : sequences.keySet())
+      checkIndex(i, inputs);
+    for (Integer i : witnesses.keySet())
+      checkIndex(i, inputs);
+
+    ByteArrayOutputStream b = new ByteArrayOutputStream(10 + inputs.size() * 41 + outputs.size() * 43);
+    int32(b, version);
+    boolean segwit = !witnesses.isEmpty();
+    if (segwit) {
+      b.write(0x00);
+      b.write(0x01);
+    }
+
+    varInt(b, inputs.size());
+    long defaultSequence = defaultSequence();
+    for (int i = 0; i < inputs.size(); i++) {
+      TxInput in = inputs.get(i);
+      if (in.txid() == null || in.txid().length() != 64 || in.vout() == null || in.vout() < 0)
+        throw new IllegalArgumentException("Invalid input " + in.txid() + ":" + in.vout());
+      byte[] txid = HexCoder.decode(in.txid());
+      for (int j = 31; j >= 0; j--)
+        b.write(txid[j]);
+      int32(b, in.vout());
+      varInt(b, 0);
+      Long sequence = sequences.get(i);
+      int32(b, (int) (sequence != null ? sequence : defaultSequence));
+    }
+
+    int count = 0;
+    for (TxOutput out : outputs)
+      count += (out.address() != null ? 1 : 0) + (out.data() != null ? 1 : 0);
+    varInt(b, count);
+    Set<String> addresses = new HashSet<>();
+    boolean data = false;
+    for (TxOutput out : outputs) {
+      if (out.address() != null) {
+        if (!addresses.add(out.address()))
+          throw new IllegalArgumentException("Duplicated address: " + out.address());
+        int64(b, sats(out.amount()));
+        bytes(b, chain == null ? Address.toScript(out.address()) : Address.toScript(out.address(), chain));
+      }
+      if (out.data() != null) {
+        if (data)
+          throw new IllegalArgumentException("Duplicated data output");
+        data = true;
+        int64(b, 0);
+        bytes(b, nullData(out.data()));
+      }
+    }
+
+    if (segwit) {
+      for (int i = 0; i < inputs.size(); i++) {
+        byte[][] stack = witnesses.get(i);
+        if (stack == null) {
+          varInt(b, 0);
+          continue;
+        }
+        varInt(b, stack.length);
+        for (byte[] item : stack)
+          bytes(b, item);
+      }
+    }
+    int32(b, (int) lockTime);
+    return b.toByteArray();
+  }
+
+  private static void checkIndex(int input, List<?> inputs) {
+    if (input < 0 || input >= inputs.size())
+      throw new IllegalArgumentException("No input " + input);
+  }
+
+  private static long sats(BigDecimal amount) {
+    if (amount == null || amount.signum() < 0)
+      throw new IllegalArgumentException("Invalid amount: " + amount);
+    try {
+      return amount.movePointRight(8).longValueExact();
+    } catch (ArithmeticException ex) {
+      throw new IllegalArgumentException("Invalid amount: " + amount, ex);
+    }
+  }
+
+  /**
+   * @return <code>OP_RETURN</code> followed by the push of <code>data</code>, with the smallest push opcode
+   */
+  static byte[] nullData(byte[] data) {
+    ByteArrayOutputStream b = new ByteArrayOutputStream(data.length + 6);
+    b.write(0x6a); // OP_RETURN
+    if (data.length < 0x4c) {
+      b.write(data.length);
+    } else if (data.length <= 0xFF) {
+      b.write(0x4c); // OP_PUSHDATA1
+      b.write(data.length);
+    } else if (data.length <= 0xFFFF) {
+      b.write(0x4d); // OP_PUSHDATA2
+      b.write(data.length);
+      b.write(data.length >>> 8);
+    } else {
+      b.write(0x4e); // OP_PUSHDATA4
+      int32(b, data.length);
+    }
+    b.write(data, 0, data.length);
+    return b.toByteArray();
+  }
+
+  private static void int32(ByteArrayOutputStream b, int v) {
+    b.write(v);
+    b.write(v >>> 8);
+    b.write(v >>> 16);
+    b.write(v >>> 24);
+  }
+
+  private static void int64(ByteArrayOutputStream b, long v) {
+    int32(b, (int) v);
+    int32(b, (int) (v >>> 32));
+  }
+
+  private static void varInt(ByteArrayOutputStream b, long n) {
+    if (n < 0xFD) {
+      b.write((int) n);
+    } else if (n <= 0xFFFF) {
+      b.write(0xFD);
+      b.write((int) n);
+      b.write((int) (n >>> 8));
+    } else if (n <= 0xFFFFFFFFL) {
+      b.write(0xFE);
+      int32(b, (int) n);
+    } else {
+      b.write(0xFF);
+      int64(b, n);
+    }
+  }
+
+  private static void bytes(ByteArrayOutputStream b, byte[] bytes) {
+    varInt(b, bytes.length);
+    b.write(bytes, 0, bytes.length);
+  }
+}
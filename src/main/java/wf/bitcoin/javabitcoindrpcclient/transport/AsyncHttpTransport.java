@@ -0,0 +1,23 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link HttpTransport}, used by {@link wf.bitcoin.javabitcoindrpcclient.AsyncBitcoinJSONRPCClient}.
+ *
+ * @see NioHttpTransport
+ */
+public interface AsyncHttpTransport extends Closeable {
+
+  /**
+   * Sends the request without blocking the calling thread.
+   * <br><br>
+   * The returned future completes once the whole response has been received,
+   * so reading the body of the response never blocks.
+   */
+  CompletableFuture<HttpResponse> execute(HttpRequest request);
+
+  @Override
+  void close();
+}
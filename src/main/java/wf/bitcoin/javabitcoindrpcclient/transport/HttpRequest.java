@@ -0,0 +1,149 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A single HTTP request, together with the connection settings of the client that issued it.
+ */
+public class HttpRequest {
+
+  private final String method;
+  private final URL url;
+  private String authorization;
+  private String contentType = "application/json";
+  private byte[] body;
+  private int bodyLength;
+  private int connectTimeout;
+  private int readTimeout;
+  private SSLSocketFactory sslSocketFactory;
+  private HostnameVerifier hostnameVerifier;
+
+  public HttpRequest(String method, URL url) {
+    this.method = method;
+    this.url = url;
+  }
+
+  public static HttpRequest post(URL url, byte[] body) {
+    return new HttpRequest("POST", url).body(body);
+  }
+
+  public static HttpRequest get(URL url) {
+    return new HttpRequest("GET", url);
+  }
+
+  public HttpRequest authorization(String authorization) {
+    this.authorization = authorization;
+    return this;
+  }
+
+  public HttpRequest contentType(String contentType) {
+    this.contentType = contentType;
+    return this;
+  }
+
+  public HttpRequest body(byte[] body) {
+    return body(body, body == null ? 0 : body.length);
+  }
+
+  /**
+   * @param body buffer holding the request body, it is not copied
+   * @param length number of bytes of the buffer to send
+   */
+  public HttpRequest body(byte[] body, int length) {
+    this.body = body;
+    this.bodyLength = length;
+    return this;
+  }
+
+  public HttpRequest connectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+    return this;
+  }
+
+  public HttpRequest readTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+    return this;
+  }
+
+  public HttpRequest sslSocketFactory(SSLSocketFactory sslSocketFactory) {
+    this.sslSocketFactory = sslSocketFactory;
+    return this;
+  }
+
+  public HttpRequest hostnameVerifier(HostnameVerifier hostnameVerifier) {
+    this.hostnameVerifier = hostnameVerifier;
+    return this;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public URL getUrl() {
+    return url;
+  }
+
+  public String getAuthorization() {
+    return authorization;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+
+  public int getBodyLength() {
+    return bodyLength;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  public SSLSocketFactory getSslSocketFactory() {
+    return sslSocketFactory;
+  }
+
+  public HostnameVerifier getHostnameVerifier() {
+    return hostnameVerifier;
+  }
+
+  /**
+   * Encodes the HTTP/1.1 request line and headers, used by the transports writing to raw sockets.
+   */
+  byte[] encodeHead() {
+    String path = url.getFile();
+    StringBuilder h = new StringBuilder(256);
+    h.append(method).append(' ').append(path.isEmpty() ? "/" : path).append(" HTTP/1.1\r\n");
+    h.append("Host: ").append(url.getHost());
+    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+      h.append(':').append(url.getPort());
+    h.append("\r\n");
+    if (authorization != null)
+      h.append("Authorization: ").append(authorization).append("\r\n");
+    if (body != null) {
+      h.append("Content-Type: ").append(contentType).append("\r\n");
+      h.append("Content-Length: ").append(bodyLength).append("\r\n");
+    } else if ("POST".equals(method)) {
+      h.append("Content-Length: 0\r\n");
+    }
+    h.append("\r\n");
+    return h.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  @Override
+  public String toString() {
+    return method + " " + url;
+  }
+}
@@ -0,0 +1,95 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The status line, headers and body of an HTTP response.
+ * <br><br>
+ * Closing the response closes the body, which gives the connection back to the transport.
+ */
+public class HttpResponse implements Closeable {
+
+  private final int code;
+  private final String message;
+  private final Map<String, String> headers;
+  private final InputStream body;
+
+  /**
+   * @param headers header values keyed by lower case header name
+   * @param body the response body, may be null if the server did not send one
+   */
+  public HttpResponse(int code, String message, Map<String, String> headers, InputStream body) {
+    this.code = code;
+    this.message = message;
+    this.headers = headers == null ? Collections.<String, String>emptyMap() : headers;
+    this.body = body;
+  }
+
+  public int getCode() {
+    return code;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public String getHeader(String name) {
+    return headers.get(name.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * @return header values keyed by lower case header name
+   */
+  public Map<String, String> getHeaders() {
+    return Collections.unmodifiableMap(headers);
+  }
+
+  /**
+   * @return the value of the Content-Length header, or -1 if it was not sent
+   */
+  public long getContentLength() {
+    String value = getHeader("content-length");
+    if (value == null)
+      return -1;
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return the response body, or null if there is none
+   */
+  public InputStream getBody() {
+    return body;
+  }
+
+  /**
+   * Reads the whole body, mainly useful for error responses.
+   *
+   * @return the body bytes, or null if there is no body
+   */
+  public byte[] readBody() throws IOException {
+    if (body == null)
+      return null;
+    ByteArrayOutputStream o = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int nr;
+    while ((nr = body.read(buffer)) != -1)
+      o.write(buffer, 0, nr);
+    return o.toByteArray();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (body != null)
+      body.close();
+  }
+}
@@ -0,0 +1,29 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sends HTTP requests on behalf of a {@link wf.bitcoin.javabitcoindrpcclient.BitcoinJSONRPCClient}.
+ * <br><br>
+ * Implementations must be thread safe. A single transport can be shared by several clients
+ * (e.g. one client per wallet endpoint of the same node).
+ *
+ * @see UrlConnectionTransport
+ * @see PooledHttpTransport
+ */
+public interface HttpTransport extends Closeable {
+
+  /**
+   * Executes the request and returns the response once the status line and headers have been received.
+   * <br><br>
+   * The caller must close the returned response, which releases the underlying connection.
+   */
+  HttpResponse execute(HttpRequest request) throws IOException;
+
+  /**
+   * Releases the resources held by this transport (e.g. pooled connections).
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,604 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking HTTP/1.1 transport running on a single event loop thread.
+ * <br><br>
+ * Any number of requests can be in flight: they are queued per node and sent as soon as one of at most
+ * {@link #getMaxConnectionsPerNode()} keep-alive connections is free, so no thread is parked while waiting for bitcoind.
+ * Futures are completed on the callback executor (the common fork join pool by default), never on the event loop.
+ * <br><br>
+ * TLS is not handled by the event loop: https requests are executed on a blocking {@link HttpTransport}
+ * (a {@link PooledHttpTransport} unless {@link #setHttpsTransport(HttpTransport)} is used) on the callback executor.
+ */
+public class NioHttpTransport implements AsyncHttpTransport {
+
+  private static final Logger logger = Logger.getLogger(NioHttpTransport.class.getName());
+
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_NODE = 4;
+
+  private static final long MAX_SELECT_TIMEOUT = 100;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_LINE_LENGTH = 8192;
+
+  private final int maxConnectionsPerNode;
+  private final long idleTimeout;
+  private final Executor callbackExecutor;
+  private final Selector selector;
+  private final Thread eventLoop;
+  private final ConcurrentLinkedQueue<Exchange> submitted = new ConcurrentLinkedQueue<>();
+  private final Map<String, Node> nodes = new HashMap<>(); // event loop only
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE); // event loop only
+  private volatile HttpTransport httpsTransport;
+  private volatile boolean closed;
+  private volatile PoolStats stats = new PoolStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+  public NioHttpTransport() throws IOException {
+    this(DEFAULT_MAX_CONNECTIONS_PER_NODE, PooledHttpTransport.DEFAULT_IDLE_TIMEOUT, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param maxConnectionsPerNode maximum number of open connections to a single node
+   * @param idleTimeout milliseconds after which an unused connection is closed
+   * @param callbackExecutor executor completing the returned futures
+   */
+  public NioHttpTransport(int maxConnectionsPerNode, long idleTimeout, Executor callbackExecutor) throws IOException {
+    if (maxConnectionsPerNode <= 0)
+      throw new IllegalArgumentException("maxConnectionsPerNode must be positive");
+    this.maxConnectionsPerNode = maxConnectionsPerNode;
+    this.idleTimeout = idleTimeout;
+    this.callbackExecutor = callbackExecutor;
+    this.selector = Selector.open();
+    this.eventLoop = new Thread(this::run, "bitcoind-rpc-event-loop");
+    this.eventLoop.setDaemon(true);
+    this.eventLoop.start();
+  }
+
+  public int getMaxConnectionsPerNode() {
+    return maxConnectionsPerNode;
+  }
+
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  public void setHttpsTransport(HttpTransport httpsTransport) {
+    this.httpsTransport = httpsTransport;
+  }
+
+  /**
+   * @return statistics summed up over all nodes, refreshed by the event loop at least every 100 ms
+   */
+  public PoolStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public CompletableFuture<HttpResponse> execute(HttpRequest request) {
+    CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+    if (closed) {
+      future.completeExceptionally(new IllegalStateException("Transport is closed"));
+      return future;
+    }
+
+    URL url = request.getUrl();
+    if ("https".equalsIgnoreCase(url.getProtocol()))
+      return executeBlocking(request);
+    if (!"http".equalsIgnoreCase(url.getProtocol())) {
+      future.completeExceptionally(new IllegalArgumentException("Unsupported protocol: " + url.getProtocol()));
+      return future;
+    }
+
+    submitted.add(new Exchange(request, future));
+    if (closed) {
+      // The event loop may have drained the submitted exchanges already
+      future.completeExceptionally(new IllegalStateException("Transport is closed"));
+      return future;
+    }
+    selector.wakeup();
+    return future;
+  }
+
+  private CompletableFuture<HttpResponse> executeBlocking(HttpRequest request) {
+    HttpTransport transport = httpsTransport;
+    if (transport == null) {
+      synchronized (this) {
+        if (httpsTransport == null)
+          httpsTransport = new PooledHttpTransport(maxConnectionsPerNode, idleTimeout);
+        transport = httpsTransport;
+      }
+    }
+    HttpTransport blocking = transport;
+    return CompletableFuture.supplyAsync(() -> {
+      try (HttpResponse response = blocking.execute(request)) {
+        byte[] body = response.readBody();
+        return new HttpResponse(response.getCode(), response.getMessage(), response.getHeaders(),
+                                body == null ? null : new ByteArrayInputStream(body));
+      } catch (IOException ex) {
+        throw new CompletionException(ex);
+      }
+    }, callbackExecutor);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    selector.wakeup();
+    HttpTransport transport = httpsTransport;
+    if (transport != null)
+      transport.close();
+  }
+
+  private Node node(URL url) {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    return nodes.computeIfAbsent(url.getHost().toLowerCase(Locale.ROOT) + ":" + port, k -> new Node(url.getHost(), port));
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        selector.select(MAX_SELECT_TIMEOUT);
+        Exchange exchange;
+        while ((exchange = submitted.poll()) != null)
+          submit(exchange);
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          Connection conn = (Connection) key.attachment();
+          try {
+            if (key.isValid() && key.isConnectable())
+              conn.finishConnect();
+            if (key.isValid() && key.isWritable())
+              conn.write();
+            if (key.isValid() && key.isReadable())
+              conn.read();
+          } catch (IOException | RuntimeException ex) {
+            conn.fail(ex);
+          }
+        }
+
+        long now = System.currentTimeMillis();
+        PoolStats total = new PoolStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+        for (Node node : nodes.values()) {
+          node.checkTimeouts(now);
+          total = total.add(node.stats());
+        }
+        stats = total;
+      }
+    } catch (IOException | ClosedSelectorException ex) {
+      logger.log(Level.SEVERE, "Event loop failure", ex);
+    } finally {
+      shutdown();
+    }
+  }
+
+  private void shutdown() {
+    closed = true;
+    IOException ex = new IOException("Transport is closed");
+    Exchange exchange;
+    while ((exchange = submitted.poll()) != null)
+      submit(exchange);
+    for (Node node : nodes.values())
+      node.shutdown(ex);
+    try {
+      selector.close();
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Error closing selector", e);
+    }
+  }
+
+  /**
+   * Hands an exchange to its node, failing only that exchange if it cannot be started.
+   */
+  private void submit(Exchange exchange) {
+    try {
+      node(exchange.request.getUrl()).submit(exchange);
+    } catch (RuntimeException ex) {
+      fail(exchange.future, ex);
+    }
+  }
+
+  private void complete(CompletableFuture<HttpResponse> future, HttpResponse response) {
+    callbackExecutor.execute(() -> future.complete(response));
+  }
+
+  private void fail(CompletableFuture<HttpResponse> future, Throwable ex) {
+    callbackExecutor.execute(() -> future.completeExceptionally(ex));
+  }
+
+  private static final class Exchange {
+    final HttpRequest request;
+    final CompletableFuture<HttpResponse> future;
+    final ByteBuffer data;
+
+    Exchange(HttpRequest request, CompletableFuture<HttpResponse> future) {
+      this.request = request;
+      this.future = future;
+      byte[] head = request.encodeHead();
+      int bodyLength = request.getBody() == null ? 0 : request.getBodyLength();
+      this.data = ByteBuffer.allocate(head.length + bodyLength);
+      this.data.put(head);
+      if (bodyLength > 0)
+        this.data.put(request.getBody(), 0, bodyLength);
+      this.data.flip();
+    }
+  }
+
+  /**
+   * Requests and connections of a single node. Only accessed by the event loop.
+   */
+  private final class Node {
+    final String host;
+    final int port;
+    final ArrayDeque<Exchange> queue = new ArrayDeque<>();
+    final ArrayDeque<Connection> idle = new ArrayDeque<>(); // most recently used first
+    final List<Connection> connections = new ArrayList<>();
+    long requests, created, reused, closedCount, expired, stale;
+
+    Node(String host, int port) {
+      this.host = host;
+      this.port = port;
+    }
+
+    void submit(Exchange exchange) {
+      if (closed) {
+        fail(exchange.future, new IOException("Transport is closed"));
+        return;
+      }
+      requests++;
+      queue.add(exchange);
+      dispatch();
+    }
+
+    void dispatch() {
+      while (!queue.isEmpty()) {
+        Connection conn = idle.pollFirst();
+        if (conn != null) {
+          reused++;
+          conn.start(queue.poll());
+        } else if (connections.size() < maxConnectionsPerNode) {
+          Exchange exchange = queue.poll();
+          try {
+            conn = new Connection(this, exchange.request.getConnectTimeout());
+            created++;
+            connections.add(conn);
+            conn.start(exchange);
+          } catch (IOException | RuntimeException ex) {
+            fail(exchange.future, ex);
+          }
+        } else {
+          break;
+        }
+      }
+    }
+
+    void checkTimeouts(long now) {
+      for (Connection conn : new ArrayList<>(connections)) {
+        if (conn.exchange == null) {
+          if (now - conn.lastUsed >= idleTimeout) {
+            expired++;
+            conn.close();
+          }
+        } else if (conn.deadline > 0 && now >= conn.deadline) {
+          conn.fail(new SocketTimeoutException((conn.connected ? "Read" : "Connect") + " timed out: " + conn.exchange.request));
+        }
+      }
+    }
+
+    void shutdown(IOException ex) {
+      Exchange exchange;
+      while ((exchange = queue.poll()) != null)
+        fail(exchange.future, ex);
+      for (Connection conn : new ArrayList<>(connections))
+        conn.fail(ex);
+    }
+
+    PoolStats stats() {
+      return new PoolStats(maxConnectionsPerNode, connections.size() - idle.size(), idle.size(), queue.size(),
+                           requests, created, reused, closedCount, expired, stale);
+    }
+  }
+
+  private final class Connection {
+    final Node node;
+    final SocketChannel channel;
+    final SelectionKey key;
+    boolean connected;
+    Exchange exchange;
+    ByteBuffer out;
+    ResponseParser parser;
+    long deadline;
+    long lastUsed;
+
+    Connection(Node node, int connectTimeout) throws IOException {
+      this.node = node;
+      this.channel = SocketChannel.open();
+      try {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        connected = channel.connect(new InetSocketAddress(node.host, node.port));
+        key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, this);
+      } catch (IOException | RuntimeException ex) {
+        channel.close();
+        throw ex;
+      }
+      deadline = connectTimeout > 0 ? System.currentTimeMillis() + connectTimeout : 0;
+    }
+
+    void start(Exchange exchange) {
+      this.exchange = exchange;
+      this.out = exchange.data.duplicate();
+      this.parser = new ResponseParser("HEAD".equals(exchange.request.getMethod()));
+      if (connected) {
+        key.interestOps(SelectionKey.OP_WRITE);
+        touch();
+      }
+    }
+
+    void finishConnect() throws IOException {
+      if (channel.finishConnect()) {
+        connected = true;
+        key.interestOps(SelectionKey.OP_WRITE);
+        touch();
+      }
+    }
+
+    private void touch() {
+      int readTimeout = exchange.request.getReadTimeout();
+      deadline = readTimeout > 0 ? System.currentTimeMillis() + readTimeout : 0;
+    }
+
+    void write() throws IOException {
+      channel.write(out);
+      if (!out.hasRemaining())
+        key.interestOps(SelectionKey.OP_READ);
+      touch();
+    }
+
+    void read() throws IOException {
+      if (exchange == null) {
+        // An idle connection is readable only when the node closed it
+        node.stale++;
+        close();
+        return;
+      }
+      touch();
+      for (;;) {
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n == 0)
+          return;
+        if (n == -1) {
+          if (parser.endOfStream())
+            finish(false);
+          else
+            throw new EOFException("Connection closed before the end of the response: " + exchange.request);
+          return;
+        }
+        readBuffer.flip();
+        if (parser.feed(readBuffer)) {
+          finish(parser.keepAlive && !readBuffer.hasRemaining());
+          return;
+        }
+      }
+    }
+
+    private void finish(boolean keepAlive) {
+      Exchange done = exchange;
+      exchange = null;
+      out = null;
+      deadline = 0;
+      complete(done.future, parser.response());
+      parser = null;
+      if (keepAlive && !closed) {
+        lastUsed = System.currentTimeMillis();
+        key.interestOps(SelectionKey.OP_READ);
+        node.idle.addFirst(this);
+      } else {
+        close();
+      }
+      node.dispatch();
+    }
+
+    void fail(Throwable ex) {
+      Exchange failed = exchange;
+      exchange = null;
+      close();
+      if (failed != null)
+        NioHttpTransport.this.fail(failed.future, ex);
+      node.dispatch();
+    }
+
+    void close() {
+      if (!node.connections.remove(this))
+        return;
+      node.idle.remove(this);
+      node.closedCount++;
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        logger.log(Level.FINE, "Error closing connection", ex);
+      }
+    }
+  }
+
+  /**
+   * Incremental HTTP/1.1 response parser, fed with whatever the socket returned.
+   */
+  private static final class ResponseParser {
+    private static final int STATUS = 0, HEADERS = 1, BODY = 2, CHUNK_SIZE = 3, CHUNK_DATA = 4, CHUNK_END = 5,
+        TRAILERS = 6, UNTIL_EOF = 7, DONE = 8;
+
+    final boolean head;
+    final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    int state = STATUS;
+    String statusLine;
+    int code;
+    Map<String, String> headers = new LinkedHashMap<>();
+    long remaining;
+    boolean keepAlive;
+
+    ResponseParser(boolean head) {
+      this.head = head;
+    }
+
+    /**
+     * @return true once the response is complete
+     */
+    boolean feed(ByteBuffer buf) throws IOException {
+      while (buf.hasRemaining() && state != DONE) {
+        switch (state) {
+          case BODY:
+          case CHUNK_DATA: {
+            int n = (int) Math.min(remaining, buf.remaining());
+            body.write(buf.array(), buf.arrayOffset() + buf.position(), n);
+            buf.position(buf.position() + n);
+            remaining -= n;
+            if (remaining == 0)
+              state = state == BODY ? DONE : CHUNK_END;
+            break;
+          }
+          case UNTIL_EOF:
+            body.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+            break;
+          default:
+            String l = readLine(buf);
+            if (l != null)
+              onLine(l);
+        }
+      }
+      return state == DONE;
+    }
+
+    boolean endOfStream() {
+      if (state == UNTIL_EOF)
+        state = DONE;
+      return state == DONE;
+    }
+
+    private String readLine(ByteBuffer buf) throws IOException {
+      while (buf.hasRemaining()) {
+        byte b = buf.get();
+        if (b == '\n') {
+          byte[] bytes = line.toByteArray();
+          line.reset();
+          int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+          return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        if (line.size() >= MAX_LINE_LENGTH)
+          throw new IOException("HTTP header line too long");
+        line.write(b);
+      }
+      return null;
+    }
+
+    private void onLine(String l) throws IOException {
+      switch (state) {
+        case STATUS:
+          if (l.isEmpty())
+            return;
+          if (!l.startsWith("HTTP/") || l.length() < 12)
+            throw new IOException("Invalid HTTP status line: " + l);
+          try {
+            code = Integer.parseInt(l.substring(9, 12));
+          } catch (NumberFormatException ex) {
+            throw new IOException("Invalid HTTP status line: " + l);
+          }
+          statusLine = l;
+          state = HEADERS;
+          return;
+        case HEADERS:
+          if (!l.isEmpty()) {
+            int i = l.indexOf(':');
+            if (i > 0)
+              headers.put(l.substring(0, i).trim().toLowerCase(Locale.ROOT), l.substring(i + 1).trim());
+          } else if (code >= 100 && code < 200) {
+            headers = new LinkedHashMap<>();
+            state = STATUS;
+          } else {
+            startBody();
+          }
+          return;
+        case CHUNK_SIZE: {
+          int ext = l.indexOf(';');
+          try {
+            remaining = Long.parseLong((ext == -1 ? l : l.substring(0, ext)).trim(), 16);
+          } catch (NumberFormatException ex) {
+            throw new IOException("Invalid chunk size: " + l);
+          }
+          state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+          return;
+        }
+        case CHUNK_END:
+          state = CHUNK_SIZE;
+          return;
+        case TRAILERS:
+          if (l.isEmpty())
+            state = DONE;
+          return;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+
+    private void startBody() {
+      String connection = headers.get("connection");
+      keepAlive = statusLine.startsWith("HTTP/1.1")
+          ? connection == null || !connection.toLowerCase(Locale.ROOT).contains("close")
+          : connection != null && connection.toLowerCase(Locale.ROOT).contains("keep-alive");
+      String transferEncoding = headers.get("transfer-encoding");
+      String contentLength = headers.get("content-length");
+      if (head || code == 204 || code == 304) {
+        state = DONE;
+      } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+        state = CHUNK_SIZE;
+      } else if (contentLength != null) {
+        remaining = Long.parseLong(contentLength.trim());
+        state = remaining == 0 ? DONE : BODY;
+      } else {
+        keepAlive = false;
+        state = UNTIL_EOF;
+      }
+    }
+
+    HttpResponse response() {
+      String message = statusLine.length() > 13 ? statusLine.substring(13) : "";
+      return new HttpResponse(code, message, headers, new ByteArrayInputStream(body.toByteArray()));
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+/**
+ * Point in time statistics of a {@link PooledHttpTransport}, either for a single node or summed up over all nodes.
+ */
+public class PoolStats {
+
+  private final int maxConnections;
+  private final int leased;
+  private final int idle;
+  private final int pending;
+  private final long requests;
+  private final long created;
+  private final long reused;
+  private final long closed;
+  private final long expired;
+  private final long failedHealthChecks;
+
+  public PoolStats(int maxConnections, int leased, int idle, int pending, long requests, long created, long reused,
+                   long closed, long expired, long failedHealthChecks) {
+    this.maxConnections = maxConnections;
+    this.leased = leased;
+    this.idle = idle;
+    this.pending = pending;
+    this.requests = requests;
+    this.created = created;
+    this.reused = reused;
+    this.closed = closed;
+    this.expired = expired;
+    this.failedHealthChecks = failedHealthChecks;
+  }
+
+  PoolStats add(PoolStats other) {
+    return new PoolStats(maxConnections + other.maxConnections, leased + other.leased, idle + other.idle,
+                         pending + other.pending, requests + other.requests, created + other.created,
+                         reused + other.reused, closed + other.closed, expired + other.expired,
+                         failedHealthChecks + other.failedHealthChecks);
+  }
+
+  /**
+   * @return the maximum number of open connections
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * @return the number of connections currently executing a request
+   */
+  public int getLeased() {
+    return leased;
+  }
+
+  /**
+   * @return the number of open connections waiting to be reused
+   */
+  public int getIdle() {
+    return idle;
+  }
+
+  /**
+   * @return the number of threads waiting for a connection to become available
+   */
+  public int getPending() {
+    return pending;
+  }
+
+  public long getRequests() {
+    return requests;
+  }
+
+  /**
+   * @return the number of connections opened so far (TCP and, if used, TLS handshakes)
+   */
+  public long getCreated() {
+    return created;
+  }
+
+  /**
+   * @return the number of requests that were served by an already open connection
+   */
+  public long getReused() {
+    return reused;
+  }
+
+  public long getClosed() {
+    return closed;
+  }
+
+  /**
+   * @return the number of idle connections closed because they exceeded the idle timeout
+   */
+  public long getExpired() {
+    return expired;
+  }
+
+  /**
+   * @return the number of idle connections found closed or broken before reuse
+   */
+  public long getFailedHealthChecks() {
+    return failedHealthChecks;
+  }
+
+  @Override
+  public String toString() {
+    return "PoolStats [max=" + maxConnections + ", leased=" + leased + ", idle=" + idle + ", pending=" + pending
+        + ", requests=" + requests + ", created=" + created + ", reused=" + reused + ", closed=" + closed
+        + ", expired=" + expired + ", failedHealthChecks=" + failedHealthChecks + "]";
+  }
+}
@@ -0,0 +1,606 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HTTP/1.1 transport keeping a pool of persistent (keep-alive) connections for each node.
+ * <br><br>
+ * Idle connections are closed once they exceed the idle timeout, which by default is below the 30 s
+ * <code>rpcservertimeout</code> of bitcoind, and connections idle for longer than
+ * {@link #setValidateAfterInactivity(long)} are checked before being reused.
+ * <br><br>
+ * For https nodes the TLS session is resumed whenever a new connection is opened with the same
+ * {@link SSLSocketFactory}, since sessions are cached by the factory's SSL context per host and port.
+ * Connections are never shared between requests using different socket factories or hostname verifiers.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+  private static final Logger logger = Logger.getLogger(PooledHttpTransport.class.getName());
+
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_NODE = 8;
+  public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(15);
+  public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = TimeUnit.SECONDS.toMillis(2);
+
+  private static final int MAX_LINE_LENGTH = 8192;
+  private static final int MAX_DRAIN_ON_CLOSE = 64 * 1024;
+
+  private final ConcurrentHashMap<Route, RoutePool> pools = new ConcurrentHashMap<>();
+  private final int maxConnectionsPerNode;
+  private volatile long idleTimeout;
+  private volatile long validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+  private volatile long connectionRequestTimeout = -1;
+  private volatile boolean closed;
+
+  public PooledHttpTransport() {
+    this(DEFAULT_MAX_CONNECTIONS_PER_NODE, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * @param maxConnectionsPerNode maximum number of open connections to a single node (scheme, host and port)
+   * @param idleTimeout milliseconds after which an unused connection is closed
+   */
+  public PooledHttpTransport(int maxConnectionsPerNode, long idleTimeout) {
+    if (maxConnectionsPerNode <= 0)
+      throw new IllegalArgumentException("maxConnectionsPerNode must be positive");
+    this.maxConnectionsPerNode = maxConnectionsPerNode;
+    this.idleTimeout = idleTimeout;
+  }
+
+  public int getMaxConnectionsPerNode() {
+    return maxConnectionsPerNode;
+  }
+
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  public void setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  public long getValidateAfterInactivity() {
+    return validateAfterInactivity;
+  }
+
+  /**
+   * Idle connections unused for longer than this are checked for a closed or broken socket before being reused.
+   *
+   * @param validateAfterInactivity milliseconds, 0 checks every connection before reuse
+   */
+  public void setValidateAfterInactivity(long validateAfterInactivity) {
+    this.validateAfterInactivity = validateAfterInactivity;
+  }
+
+  public long getConnectionRequestTimeout() {
+    return connectionRequestTimeout;
+  }
+
+  /**
+   * @param connectionRequestTimeout milliseconds to wait for a free connection when all connections to a node are in use,
+   * a negative value (the default) uses the connect timeout of the request, 0 waits forever
+   */
+  public void setConnectionRequestTimeout(long connectionRequestTimeout) {
+    this.connectionRequestTimeout = connectionRequestTimeout;
+  }
+
+  /**
+   * @return statistics summed up over all nodes
+   */
+  public PoolStats getStats() {
+    PoolStats total = new PoolStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    for (RoutePool pool : pools.values())
+      total = total.add(pool.stats());
+    return total;
+  }
+
+  /**
+   * @return statistics keyed by node, formatted as <code>scheme://host:port</code>
+   */
+  public Map<String, PoolStats> getStatsPerNode() {
+    Map<String, PoolStats> stats = new LinkedHashMap<>();
+    for (RoutePool pool : pools.values())
+      stats.merge(pool.route.toString(), pool.stats(), PoolStats::add);
+    return stats;
+  }
+
+  /**
+   * Closes the idle connections that exceeded the idle timeout. This also happens lazily whenever a connection is leased.
+   */
+  public void closeExpiredConnections() {
+    long now = System.currentTimeMillis();
+    for (RoutePool pool : pools.values())
+      pool.closeExpired(now);
+  }
+
+  public void closeIdleConnections() {
+    for (RoutePool pool : pools.values())
+      pool.closeIdle();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    closeIdleConnections();
+  }
+
+  @Override
+  public HttpResponse execute(HttpRequest request) throws IOException {
+    if (closed)
+      throw new IllegalStateException("Transport is closed");
+
+    Route route = new Route(request);
+    RoutePool pool = pools.computeIfAbsent(route, RoutePool::new);
+    Connection conn = pool.lease(request);
+    try {
+      conn.socket.setSoTimeout(request.getReadTimeout());
+      writeRequest(conn, request);
+      return readResponse(conn, pool, request);
+    } catch (IOException | RuntimeException ex) {
+      pool.release(conn, false);
+      throw ex;
+    }
+  }
+
+  private static void writeRequest(Connection conn, HttpRequest request) throws IOException {
+    conn.out.write(request.encodeHead());
+    if (request.getBody() != null)
+      conn.out.write(request.getBody(), 0, request.getBodyLength());
+    conn.out.flush();
+  }
+
+  private static HttpResponse readResponse(Connection conn, RoutePool pool, HttpRequest request) throws IOException {
+    String statusLine;
+    int code;
+    Map<String, String> headers;
+    do {
+      statusLine = readLine(conn.in);
+      if (statusLine == null)
+        throw new EOFException("Connection to " + pool.route + " closed before a response was received");
+      code = parseStatusCode(statusLine);
+      headers = readHeaders(conn.in);
+    } while (code >= 100 && code < 200);
+
+    String message = statusLine.length() > 13 ? statusLine.substring(13) : "";
+    String connection = headers.get("connection");
+    boolean keepAlive = statusLine.startsWith("HTTP/1.1")
+        ? connection == null || !connection.toLowerCase(Locale.ROOT).contains("close")
+        : connection != null && connection.toLowerCase(Locale.ROOT).contains("keep-alive");
+
+    String transferEncoding = headers.get("transfer-encoding");
+    String contentLength = headers.get("content-length");
+    ResponseBody body;
+    if ("HEAD".equals(request.getMethod()) || code == 204 || code == 304)
+      body = new ResponseBody(pool, conn, keepAlive, false, 0);
+    else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked"))
+      body = new ResponseBody(pool, conn, keepAlive, true, 0);
+    else if (contentLength != null)
+      body = new ResponseBody(pool, conn, keepAlive, false, Long.parseLong(contentLength.trim()));
+    else
+      body = new ResponseBody(pool, conn, false, false, -1);
+
+    return new HttpResponse(code, message, headers, body);
+  }
+
+  private static int parseStatusCode(String statusLine) throws IOException {
+    // HTTP/1.1 200 OK
+    if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12)
+      throw new IOException("Invalid HTTP status line: " + statusLine);
+    try {
+      return Integer.parseInt(statusLine.substring(9, 12));
+    } catch (NumberFormatException ex) {
+      throw new IOException("Invalid HTTP status line: " + statusLine);
+    }
+  }
+
+  private static Map<String, String> readHeaders(InputStream in) throws IOException {
+    Map<String, String> headers = new LinkedHashMap<>();
+    String line;
+    while ((line = readLine(in)) != null && !line.isEmpty()) {
+      int i = line.indexOf(':');
+      if (i > 0)
+        headers.put(line.substring(0, i).trim().toLowerCase(Locale.ROOT), line.substring(i + 1).trim());
+    }
+    if (line == null)
+      throw new EOFException("Connection closed while reading response headers");
+    return headers;
+  }
+
+  /**
+   * @return the line without its terminator, or null if the stream ended before any byte was read
+   */
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+    int b;
+    while ((b = in.read()) != -1) {
+      if (b == '\n')
+        break;
+      if (line.size() >= MAX_LINE_LENGTH)
+        throw new IOException("HTTP header line too long");
+      line.write(b);
+    }
+    if (b == -1 && line.size() == 0)
+      return null;
+    byte[] bytes = line.toByteArray();
+    int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+    return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      logger.log(Level.FINE, "Error closing connection", ex);
+    }
+  }
+
+  /**
+   * Connections are only shared between requests with the same node and the same TLS settings.
+   */
+  private static final class Route {
+    final String scheme;
+    final String host;
+    final int port;
+    final SSLSocketFactory sslSocketFactory;
+    final HostnameVerifier hostnameVerifier;
+
+    Route(HttpRequest request) {
+      URL url = request.getUrl();
+      this.scheme = url.getProtocol().toLowerCase(Locale.ROOT);
+      this.host = url.getHost();
+      this.port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+      boolean secure = isSecure();
+      this.sslSocketFactory = secure ? request.getSslSocketFactory() : null;
+      this.hostnameVerifier = secure ? request.getHostnameVerifier() : null;
+    }
+
+    boolean isSecure() {
+      return "https".equals(scheme);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Route))
+        return false;
+      Route other = (Route) obj;
+      return port == other.port && scheme.equals(other.scheme) && host.equalsIgnoreCase(other.host)
+          && sslSocketFactory == other.sslSocketFactory && hostnameVerifier == other.hostnameVerifier;
+    }
+
+    @Override
+    public int hashCode() {
+      return (scheme.hashCode() * 31 + host.toLowerCase(Locale.ROOT).hashCode()) * 31 + port;
+    }
+
+    @Override
+    public String toString() {
+      return scheme + "://" + host + ":" + port;
+    }
+  }
+
+  private static final class Connection {
+    final Socket socket;
+    final BufferedInputStream in;
+    final OutputStream out;
+    long lastUsed;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+      this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+      this.lastUsed = System.currentTimeMillis();
+    }
+  }
+
+  private final class RoutePool {
+    final Route route;
+    final Semaphore permits = new Semaphore(maxConnectionsPerNode, true);
+    final ArrayDeque<Connection> idle = new ArrayDeque<>(); // most recently used first, guarded by this
+    final AtomicInteger leased = new AtomicInteger();
+    final AtomicInteger pending = new AtomicInteger();
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong created = new AtomicLong();
+    final AtomicLong reused = new AtomicLong();
+    final AtomicLong closedCount = new AtomicLong();
+    final AtomicLong expired = new AtomicLong();
+    final AtomicLong failedHealthChecks = new AtomicLong();
+
+    RoutePool(Route route) {
+      this.route = route;
+    }
+
+    Connection lease(HttpRequest request) throws IOException {
+      acquirePermit(request);
+      requests.incrementAndGet();
+      try {
+        Connection conn;
+        while ((conn = pollIdle()) != null) {
+          if (isHealthy(conn)) {
+            reused.incrementAndGet();
+            leased.incrementAndGet();
+            return conn;
+          }
+          failedHealthChecks.incrementAndGet();
+          discard(conn);
+        }
+        conn = connect(request);
+        created.incrementAndGet();
+        leased.incrementAndGet();
+        return conn;
+      } catch (IOException | RuntimeException ex) {
+        permits.release();
+        throw ex;
+      }
+    }
+
+    private void acquirePermit(HttpRequest request) throws IOException {
+      long timeout = connectionRequestTimeout >= 0 ? connectionRequestTimeout : request.getConnectTimeout();
+      pending.incrementAndGet();
+      try {
+        if (timeout == 0)
+          permits.acquire();
+        else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+          throw new SocketTimeoutException("Timeout waiting for a free connection to " + route + " (max " + maxConnectionsPerNode + ")");
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a connection to " + route);
+      } finally {
+        pending.decrementAndGet();
+      }
+    }
+
+    private Connection connect(HttpRequest request) throws IOException {
+      Socket socket = new Socket();
+      try {
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.connect(new InetSocketAddress(route.host, route.port), request.getConnectTimeout());
+        if (route.isSecure())
+          socket = startTls(socket, request);
+        return new Connection(socket);
+      } catch (IOException | RuntimeException ex) {
+        closeQuietly(socket);
+        throw ex;
+      }
+    }
+
+    private Socket startTls(Socket plain, HttpRequest request) throws IOException {
+      SSLSocketFactory factory = route.sslSocketFactory != null ? route.sslSocketFactory : (SSLSocketFactory) SSLSocketFactory.getDefault();
+      SSLSocket socket = (SSLSocket) factory.createSocket(plain, route.host, route.port, true);
+      if (route.hostnameVerifier == null) {
+        SSLParameters params = socket.getSSLParameters();
+        params.setEndpointIdentificationAlgorithm("HTTPS");
+        socket.setSSLParameters(params);
+      }
+      socket.setSoTimeout(request.getConnectTimeout());
+      socket.startHandshake();
+      if (route.hostnameVerifier != null && !route.hostnameVerifier.verify(route.host, socket.getSession()))
+        throw new SSLPeerUnverifiedException("Hostname " + route.host + " not verified");
+      return socket;
+    }
+
+    private Connection pollIdle() {
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+        evictExpired(now);
+        return idle.pollFirst();
+      }
+    }
+
+    private boolean isHealthy(Connection conn) {
+      Socket socket = conn.socket;
+      if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown())
+        return false;
+      if (System.currentTimeMillis() - conn.lastUsed < validateAfterInactivity)
+        return true;
+      try {
+        // Any pending byte on an idle connection is either EOF or data we are not expecting
+        if (conn.in.available() > 0)
+          return false;
+        int timeout = socket.getSoTimeout();
+        socket.setSoTimeout(1);
+        try {
+          conn.in.read();
+          return false;
+        } catch (SocketTimeoutException ex) {
+          return true;
+        } finally {
+          socket.setSoTimeout(timeout);
+        }
+      } catch (IOException ex) {
+        return false;
+      }
+    }
+
+    void release(Connection conn, boolean reusable) {
+      leased.decrementAndGet();
+      boolean pooled = false;
+      if (reusable && !closed && !conn.socket.isClosed()) {
+        conn.lastUsed = System.currentTimeMillis();
+        synchronized (this) {
+          idle.addFirst(conn);
+        }
+        pooled = true;
+      }
+      if (!pooled)
+        discard(conn);
+      permits.release();
+    }
+
+    private void discard(Connection conn) {
+      closedCount.incrementAndGet();
+      closeQuietly(conn.socket);
+    }
+
+    /** Must hold the lock on this. */
+    private void evictExpired(long now) {
+      long timeout = idleTimeout;
+      Iterator<Connection> it = idle.descendingIterator();
+      while (it.hasNext()) {
+        Connection conn = it.next();
+        if (now - conn.lastUsed < timeout)
+          break;
+        it.remove();
+        expired.incrementAndGet();
+        discard(conn);
+      }
+    }
+
+    synchronized void closeExpired(long now) {
+      evictExpired(now);
+    }
+
+    synchronized void closeIdle() {
+      Connection conn;
+      while ((conn = idle.pollFirst()) != null)
+        discard(conn);
+    }
+
+    synchronized PoolStats stats() {
+      return new PoolStats(maxConnectionsPerNode, leased.get(), idle.size(), pending.get(), requests.get(), created.get(),
+                           reused.get(), closedCount.get(), expired.get(), failedHealthChecks.get());
+    }
+  }
+
+  /**
+   * Delimits the response body (by Content-Length, chunked encoding or connection close)
+   * and gives the connection back to the pool once the body has been read or closed.
+   */
+  private static final class ResponseBody extends InputStream {
+    private final RoutePool pool;
+    private final Connection conn;
+    private final boolean keepAlive;
+    private final boolean chunked;
+    private long remaining; // -1 reads until the connection is closed
+    private boolean firstChunk = true;
+    private boolean eof;
+    private boolean released;
+
+    ResponseBody(RoutePool pool, Connection conn, boolean keepAlive, boolean chunked, long length) throws IOException {
+      this.pool = pool;
+      this.conn = conn;
+      this.keepAlive = keepAlive;
+      this.chunked = chunked;
+      this.remaining = length;
+      if (!chunked && length == 0)
+        finish(keepAlive);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (eof)
+        return -1;
+      if (len == 0)
+        return 0;
+      try {
+        if (chunked && remaining == 0 && !nextChunk()) {
+          finish(keepAlive);
+          return -1;
+        }
+        int max = remaining < 0 ? len : (int) Math.min(len, remaining);
+        int n = conn.in.read(b, off, max);
+        if (n == -1) {
+          if (remaining < 0) {
+            finish(false);
+            return -1;
+          }
+          throw new EOFException("Connection closed before the end of the response body");
+        }
+        if (remaining > 0)
+          remaining -= n;
+        if (!chunked && remaining == 0)
+          finish(keepAlive);
+        return n;
+      } catch (IOException | RuntimeException ex) {
+        finish(false);
+        throw ex;
+      }
+    }
+
+    @Override
+    public int available() throws IOException {
+      if (eof)
+        return 0;
+      int available = conn.in.available();
+      return remaining < 0 ? available : (int) Math.min(available, remaining);
+    }
+
+    private boolean nextChunk() throws IOException {
+      if (!firstChunk)
+        readLine(conn.in); // CRLF terminating the previous chunk
+      firstChunk = false;
+      String line = readLine(conn.in);
+      if (line == null)
+        throw new EOFException("Connection closed before the end of the chunked response body");
+      int ext = line.indexOf(';');
+      long size = Long.parseLong((ext == -1 ? line : line.substring(0, ext)).trim(), 16);
+      if (size == 0) {
+        readHeaders(conn.in); // trailers
+        return false;
+      }
+      remaining = size;
+      return true;
+    }
+
+    private void finish(boolean reusable) {
+      eof = true;
+      if (!released) {
+        released = true;
+        pool.release(conn, reusable);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (released)
+        return;
+      // Try to consume what is left of a small body, so that the connection can be reused
+      byte[] buffer = new byte[4096];
+      int drained = 0;
+      try {
+        int n;
+        while (drained < MAX_DRAIN_ON_CLOSE && (n = read(buffer, 0, buffer.length)) != -1)
+          drained += n;
+      } catch (IOException ex) {
+        logger.log(Level.FINE, "Error draining response body", ex);
+      }
+      finish(false);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package wf.bitcoin.javabitcoindrpcclient.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Transport based on {@link HttpURLConnection}: connection reuse is left to the JDK keep-alive cache.
+ * <br><br>
+ * This is the default transport of {@link wf.bitcoin.javabitcoindrpcclient.BitcoinJSONRPCClient}.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+  @Override
+  public HttpResponse execute(HttpRequest request) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) request.getUrl().openConnection();
+
+    conn.setRequestMethod(request.getMethod());
+    conn.setDoOutput(request.getBody() != null);
+    conn.setDoInput(true);
+
+    conn.setConnectTimeout(request.getConnectTimeout());
+    conn.setReadTimeout(request.getReadTimeout());
+
+    if (conn instanceof HttpsURLConnection) {
+      if (request.getHostnameVerifier() != null)
+        ((HttpsURLConnection) conn).setHostnameVerifier(request.getHostnameVerifier());
+      if (request.getSslSocketFactory() != null)
+        ((HttpsURLConnection) conn).setSSLSocketFactory(request.getSslSocketFactory());
+    }
+    if (request.getAuthorization() != null)
+      conn.setRequestProperty("Authorization", request.getAuthorization());
+
+    if (request.getBody() != null) {
+      conn.setRequestProperty("Content-Type", request.getContentType());
+      conn.setFixedLengthStreamingMode(request.getBodyLength());
+      try (OutputStream out = conn.getOutputStream()) {
+        out.write(request.getBody(), 0, request.getBodyLength());
+      }
+    }
+
+    int code = conn.getResponseCode();
+    Map<String, String> headers = new LinkedHashMap<>();
+    for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+      if (header.getKey() != null && !header.getValue().isEmpty())
+        headers.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue().get(0));
+    }
+    return new HttpResponse(code, conn.getResponseMessage(), headers, code >= 400 ? conn.getErrorStream() : conn.getInputStream());
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -10,4 +10,21 @@ public enum Chain
 	MAIN,
 	TEST,
 	REGTEST;
+
+	/**
+	 * @param name the "chain" property of getblockchaininfo
+	 * @return the chain, TEST for test chains other than regtest, such as signet
+	 */
+	public static Chain fromName(String name)
+	{
+		switch (name)
+		{
+			case "main":
+				return MAIN;
+			case "regtest":
+				return REGTEST;
+			default:
+				return TEST;
+		}
+	}
 }
@@ -0,0 +1,130 @@
+package wf.bitcoin.javabitcoindrpcclient.zmq;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoinAcceptor;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryTransaction;
+
+/**
+ * Drives a {@link BitcoinAcceptor} from bitcoind ZMQ notifications instead of polling: the acceptor is woken up as
+ * soon as a block is connected or disconnected, and checks for payments with <code>listsinceblock</code>.
+ * <br><br>
+ * Every (re)connection and every gap in the sequence numbers of a topic also wakes the acceptor up, so payments
+ * notified while the subscriber was disconnected or lagging are reconciled. The check interval of the acceptor
+ * remains a safety net for a connection silently lost, and can be raised to a minute or more.
+ * <br><br>
+ * Mempool transactions are ignored by default, since waking up on each of them would cost a check per
+ * transaction of the network. Set a {@link #setTransactionFilter(Predicate) transaction filter}, such as
+ * {@link wf.bitcoin.javabitcoindrpcclient.binary.AddressWatchList#matches(BinaryTransaction)}, to also wake up on
+ * the mempool transactions which may pay the wallet.
+ * <pre>
+ * ZmqSubscriber subscriber = new ZmqSubscriber("tcp://127.0.0.1:28332");
+ * new ZmqAcceptorDriver(acceptor, subscriber);
+ * subscriber.start();
+ * new Thread(acceptor).start();
+ * </pre>
+ */
+public class ZmqAcceptorDriver implements ZmqSubscriber.Listener {
+
+  private static final Logger logger = Logger.getLogger(ZmqAcceptorDriver.class.getName());
+
+  private final BitcoinAcceptor acceptor;
+  private final ZmqSubscriber subscriber;
+  private volatile Predicate<BinaryTransaction> transactionFilter;
+  private final AtomicLong notifications = new AtomicLong();
+  private final AtomicLong gaps = new AtomicLong();
+
+  /**
+   * Subscribes to the <code>hashblock</code> and <code>sequence</code> topics, which bitcoind publishes when started
+   * with the corresponding <code>-zmqpub</code> options.
+   */
+  public ZmqAcceptorDriver(BitcoinAcceptor acceptor, ZmqSubscriber subscriber) {
+    this.acceptor = acceptor;
+    this.subscriber = subscriber;
+    subscriber.subscribe(ZmqSubscriber.HASHBLOCK).subscribe(ZmqSubscriber.SEQUENCE);
+    subscriber.addListener(this);
+  }
+
+  public Predicate<BinaryTransaction> getTransactionFilter() {
+    return transactionFilter;
+  }
+
+  /**
+   * Subscribes to the <code>rawtx</code> topic, to be called before the subscriber is started.
+   *
+   * @param transactionFilter tells whether a mempool transaction may pay the wallet and is worth a check, null to
+   * ignore mempool transactions
+   */
+  public void setTransactionFilter(Predicate<BinaryTransaction> transactionFilter) {
+    this.transactionFilter = transactionFilter;
+    if (transactionFilter != null)
+      subscriber.subscribe(ZmqSubscriber.RAWTX);
+  }
+
+  /**
+   * @return the number of notifications which woke the acceptor up
+   */
+  public long getNotificationCount() {
+    return notifications.get();
+  }
+
+  /**
+   * @return the number of sequence gaps detected
+   */
+  public long getGapCount() {
+    return gaps.get();
+  }
+
+  @Override
+  public void connected() {
+    acceptor.wakeUp();
+  }
+
+  @Override
+  public void gap(String topic, long expected, long received) {
+    logger.log(Level.WARNING, "Missed {0} ZMQ notifications: expected sequence {1}, received {2}",
+        new Object[] { topic, expected, received });
+    gaps.incrementAndGet();
+    acceptor.wakeUp();
+  }
+
+  @Override
+  public void message(String topic, byte[] body, long sequence) {
+    switch (topic) {
+      case ZmqSubscriber.HASHBLOCK:
+        wakeUp();
+        break;
+      case ZmqSubscriber.RAWTX:
+        Predicate<BinaryTransaction> filter = transactionFilter;
+        if (filter == null)
+          break;
+        BinaryTransaction tx;
+        try {
+          tx = BinaryTransaction.decode(body);
+        } catch (IllegalArgumentException ex) {
+          logger.log(Level.WARNING, "Invalid rawtx notification", ex);
+          wakeUp();
+          break;
+        }
+        if (filter.test(tx))
+          wakeUp();
+        break;
+      case ZmqSubscriber.SEQUENCE:
+        // 32 byte hash, then C or D for blocks connected or disconnected, A or R for mempool transactions
+        // added or removed; additions are handled through rawtx, which carries the transaction
+        if (body.length >= 33 && (body[32] == 'C' || body[32] == 'D'))
+          wakeUp();
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void wakeUp() {
+    notifications.incrementAndGet();
+    acceptor.wakeUp();
+  }
+}
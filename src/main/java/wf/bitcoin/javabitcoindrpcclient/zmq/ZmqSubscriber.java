@@ -0,0 +1,402 @@
+package wf.bitcoin.javabitcoindrpcclient.zmq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Subscriber for the ZeroMQ notifications published by bitcoind (<code>-zmqpubhashblock</code>,
+ * <code>-zmqpubrawtx</code>, <code>-zmqpubsequence</code>, ...), speaking ZMTP 3.0 over TCP without native libraries.
+ * <br><br>
+ * bitcoind publishes each notification as a message of three frames: the topic, the body and a 4 byte little endian
+ * sequence number, incremented for each message of the topic. Notifications are lost when the subscriber is slow or
+ * disconnected, so listeners are told about every connection and every hole in the sequence of a topic, to reconcile
+ * their state through RPC.
+ * <br><br>
+ * {@link #run()} connects, and reconnects after failures until {@link #close()} is called; listeners are called on
+ * the thread running it. Topics must be subscribed before connecting.
+ */
+public class ZmqSubscriber implements Runnable, Closeable {
+
+  private static final Logger logger = Logger.getLogger(ZmqSubscriber.class.getName());
+
+  public static final String HASHBLOCK = "hashblock";
+  public static final String HASHTX = "hashtx";
+  public static final String RAWBLOCK = "rawblock";
+  public static final String RAWTX = "rawtx";
+  public static final String SEQUENCE = "sequence";
+
+  public static final long DEFAULT_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(1);
+  public static final long MAX_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Largest frame accepted, above the size of any block
+   */
+  static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+  private static final int FLAG_MORE = 1;
+  private static final int FLAG_LONG = 2;
+  private static final int FLAG_COMMAND = 4;
+
+  /**
+   * Receives the notifications of a {@link ZmqSubscriber}.
+   */
+  public interface Listener {
+
+    /**
+     * @param sequence the sequence number of the message within its topic, or -1 if it has none
+     */
+    void message(String topic, byte[] body, long sequence);
+
+    /**
+     * Called when a connection is established, notifications published before were missed.
+     */
+    default void connected() {
+    }
+
+    /**
+     * Called before a message whose sequence number is not the one following the previous message of its topic.
+     */
+    default void gap(String topic, long expected, long received) {
+    }
+  }
+
+  private final String host;
+  private final int port;
+  private final Set<String> topics = new CopyOnWriteArraySet<>();
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final Map<String, Long> nextSequence = new HashMap<>();
+  private volatile int connectTimeout = 5000;
+  private volatile long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+  private volatile boolean closed;
+  private volatile Socket socket;
+
+  /**
+   * @param endpoint address the notifications are published on, in the <code>tcp://host:port</code> format of the
+   * bitcoind options
+   */
+  public ZmqSubscriber(String endpoint) {
+    URI uri = URI.create(endpoint);
+    if (!"tcp".equals(uri.getScheme()) || uri.getHost() == null || uri.getPort() == -1)
+      throw new IllegalArgumentException("Unsupported ZMQ endpoint: " + endpoint);
+    this.host = uri.getHost();
+    this.port = uri.getPort();
+  }
+
+  public ZmqSubscriber(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  public ZmqSubscriber subscribe(String topic) {
+    topics.add(topic);
+    return this;
+  }
+
+  public Set<String> getTopics() {
+    return topics;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public long getReconnectDelay() {
+    return reconnectDelay;
+  }
+
+  /**
+   * Sets the delay before the first reconnection attempt, it doubles after each failed attempt up to
+   * {@link #MAX_RECONNECT_DELAY}.
+   */
+  public void setReconnectDelay(long reconnectDelay) {
+    this.reconnectDelay = reconnectDelay;
+  }
+
+  /**
+   * @return whether a connection is established
+   */
+  public boolean isConnected() {
+    Socket s = socket;
+    return s != null && s.isConnected() && !s.isClosed();
+  }
+
+  /**
+   * Starts receiving notifications on a new daemon thread.
+   */
+  public Thread start() {
+    Thread thread = new Thread(this, "zmq-subscriber-" + host + ":" + port);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  @Override
+  public void run() {
+    long delay = reconnectDelay;
+    while (!closed && !Thread.currentThread().isInterrupted()) {
+      try (Socket s = new Socket()) {
+        socket = s;
+        if (closed)
+          break;
+        s.setKeepAlive(true);
+        s.setTcpNoDelay(true);
+        s.connect(new InetSocketAddress(host, port), connectTimeout);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+        OutputStream out = new BufferedOutputStream(s.getOutputStream());
+        handshake(in, out);
+        delay = reconnectDelay;
+        nextSequence.clear();
+        for (Listener listener : listeners) {
+          try {
+            listener.connected();
+          } catch (RuntimeException ex) {
+            logger.log(Level.SEVERE, "ZMQ listener failed on connection", ex);
+          }
+        }
+        receive(in);
+      } catch (IOException ex) {
+        if (closed)
+          break;
+        logger.log(Level.WARNING, "ZMQ connection to " + host + ":" + port + " failed, reconnecting in " + delay + " ms", ex);
+      } finally {
+        socket = null;
+      }
+      if (closed)
+        break;
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException ex) {
+        break;
+      }
+      delay = Math.min(delay * 2, MAX_RECONNECT_DELAY);
+    }
+  }
+
+  /**
+   * Stops receiving notifications, interrupting a blocked read.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    Socket s = socket;
+    if (s != null)
+      try {
+        s.close();
+      } catch (IOException ex) {
+        logger.log(Level.FINE, null, ex);
+      }
+  }
+
+  /**
+   * Exchanges the greeting and the NULL security handshake, then subscribes to the topics.
+   */
+  private void handshake(DataInputStream in, OutputStream out) throws IOException {
+    out.write(greeting());
+    out.flush();
+
+    byte[] peer = new byte[64];
+    in.readFully(peer);
+    if ((peer[0] & 0xFF) != 0xFF || peer[9] != 0x7F)
+      throw new IOException("Not a ZMTP peer");
+    if (peer[10] < 3)
+      throw new IOException("Unsupported ZMTP version " + peer[10]);
+    String mechanism = new String(peer, 12, 20, StandardCharsets.US_ASCII).trim();
+    if (!"NULL".equals(mechanism))
+      throw new IOException("Unsupported ZMTP security mechanism " + mechanism);
+
+    out.write(command("READY", "Socket-Type", "SUB"));
+    out.flush();
+    byte[] ready = readCommand(in);
+    if (ready == null || !isCommand(ready, "READY"))
+      throw new IOException("Expected READY command");
+    if (!"PUB".equals(property(ready, "Socket-Type")) && !"XPUB".equals(property(ready, "Socket-Type")))
+      throw new IOException("Peer is not a publisher");
+
+    // ZMTP 3.0 subscriptions are messages starting with 1 followed by the topic prefix
+    for (String topic : topics) {
+      byte[] t = topic.getBytes(StandardCharsets.US_ASCII);
+      byte[] body = new byte[t.length + 1];
+      body[0] = 1;
+      System.arraycopy(t, 0, body, 1, t.length);
+      writeFrame(out, 0, body);
+    }
+    out.flush();
+  }
+
+  private void receive(DataInputStream in) throws IOException {
+    List<byte[]> parts = new ArrayList<>(3);
+    while (!closed) {
+      int flags = in.readUnsignedByte();
+      byte[] frame = readFrameBody(in, flags);
+      if ((flags & FLAG_COMMAND) != 0)
+        continue;
+      parts.add(frame);
+      if ((flags & FLAG_MORE) != 0)
+        continue;
+      if (parts.size() >= 2)
+        dispatch(parts);
+      parts.clear();
+    }
+  }
+
+  private void dispatch(List<byte[]> parts) {
+    String topic = new String(parts.get(0), StandardCharsets.US_ASCII);
+    byte[] body = parts.get(1);
+    long sequence = -1;
+    if (parts.size() >= 3 && parts.get(2).length == 4) {
+      byte[] s = parts.get(2);
+      sequence = (s[0] & 0xFFL) | (s[1] & 0xFFL) << 8 | (s[2] & 0xFFL) << 16 | (s[3] & 0xFFL) << 24;
+      Long expected = nextSequence.put(topic, (sequence + 1) & 0xFFFFFFFFL);
+      if (expected != null && expected != sequence) {
+        for (Listener listener : listeners) {
+          try {
+            listener.gap(topic, expected, sequence);
+          } catch (RuntimeException ex) {
+            logger.log(Level.SEVERE, "ZMQ listener failed on " + topic + " sequence gap", ex);
+          }
+        }
+      }
+    }
+    for (Listener listener : listeners) {
+      try {
+        listener.message(topic, body, sequence);
+      } catch (RuntimeException ex) {
+        logger.log(Level.SEVERE, "ZMQ listener failed on " + topic + " notification", ex);
+      }
+    }
+  }
+
+  static byte[] greeting() {
+    byte[] greeting = new byte[64];
+    greeting[0] = (byte) 0xFF;
+    greeting[9] = 0x7F;
+    greeting[10] = 3; // version 3.0
+    greeting[11] = 0;
+    byte[] mechanism = "NULL".getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(mechanism, 0, greeting, 12, mechanism.length);
+    return greeting;
+  }
+
+  /**
+   * Encodes a command frame with a single property.
+   */
+  static byte[] command(String name, String property, String value) {
+    byte[] n = name.getBytes(StandardCharsets.US_ASCII);
+    byte[] p = property.getBytes(StandardCharsets.US_ASCII);
+    byte[] v = value.getBytes(StandardCharsets.US_ASCII);
+    int size = 1 + n.length + 1 + p.length + 4 + v.length;
+    byte[] frame = new byte[2 + size];
+    int pos = 0;
+    frame[pos++] = FLAG_COMMAND;
+    frame[pos++] = (byte) size;
+    frame[pos++] = (byte) n.length;
+    System.arraycopy(n, 0, frame, pos, n.length);
+    pos += n.length;
+    frame[pos++] = (byte) p.length;
+    System.arraycopy(p, 0, frame, pos, p.length);
+    pos += p.length;
+    pos += 3;
+    frame[pos++] = (byte) v.length;
+    System.arraycopy(v, 0, frame, pos, v.length);
+    return frame;
+  }
+
+  static void writeFrame(OutputStream out, int flags, byte[] body) throws IOException {
+    if (body.length > 255) {
+      out.write(flags | FLAG_LONG);
+      long size = body.length;
+      for (int shift = 56; shift >= 0; shift -= 8)
+        out.write((int) (size >>> shift));
+    } else {
+      out.write(flags);
+      out.write(body.length);
+    }
+    out.write(body);
+  }
+
+  /**
+   * @return the body of the next frame, or null if it is not a command
+   */
+  static byte[] readCommand(DataInputStream in) throws IOException {
+    int flags = in.readUnsignedByte();
+    byte[] body = readFrameBody(in, flags);
+    return (flags & FLAG_COMMAND) != 0 ? body : null;
+  }
+
+  static byte[] readFrameBody(DataInputStream in, int flags) throws IOException {
+    long size = (flags & FLAG_LONG) != 0 ? in.readLong() : in.readUnsignedByte();
+    if (size < 0 || size > MAX_FRAME_SIZE)
+      throw new IOException("ZMTP frame of " + size + " bytes");
+    byte[] body = new byte[(int) size];
+    try {
+      in.readFully(body);
+    } catch (EOFException ex) {
+      throw new IOException("Connection closed in the middle of a frame", ex);
+    }
+    return body;
+  }
+
+  static boolean isCommand(byte[] command, String name) {
+    int length = command.length > 0 ? command[0] & 0xFF : -1;
+    return length == name.length() && command.length > length
+        && name.equals(new String(command, 1, length, StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * @return the value of a property of a command, or null
+   */
+  static String property(byte[] command, String name) {
+    int pos = 1 + (command[0] & 0xFF);
+    while (pos < command.length) {
+      int nameLength = command[pos++] & 0xFF;
+      if (pos + nameLength + 4 > command.length)
+        return null;
+      String n = new String(command, pos, nameLength, StandardCharsets.US_ASCII);
+      pos += nameLength;
+      int valueLength = (command[pos] & 0xFF) << 24 | (command[pos + 1] & 0xFF) << 16 | (command[pos + 2] & 0xFF) << 8 | (command[pos + 3] & 0xFF);
+      pos += 4;
+      if (valueLength < 0 || pos + valueLength > command.length)
+        return null;
+      if (n.equalsIgnoreCase(name))
+        return new String(command, pos, valueLength, StandardCharsets.US_ASCII);
+      pos += valueLength;
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return "ZmqSubscriber[tcp://" + host + ":" + port + " " + topics + "]";
+  }
+}
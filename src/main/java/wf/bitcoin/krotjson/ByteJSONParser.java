@@ -0,0 +1,348 @@
+package wf.bitcoin.krotjson;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON parser working directly on the UTF-8 bytes of a document.
+ * <br><br>
+ * Produces the same model as {@link CrippledJavaScriptParser}: objects become {@link LinkedHashMap}s, arrays
+ * {@link ArrayList}s, integers {@link Long}s and other numbers {@link BigDecimal}s. Unlike that parser, it only
+ * accepts standard JSON and never copies the remaining input: the document is scanned once with index arithmetic,
+ * and strings are built straight from the bytes.
+ * <br><br>
+ * Instances are cheap but not thread safe; object keys are cached per instance, since bitcoind repeats the same
+ * few keys thousands of times in large responses.
+ */
+public class ByteJSONParser {
+
+    private static final int KEY_CACHE_SIZE = 256; // power of 2
+    private static final int MAX_CACHED_KEY_LENGTH = 32;
+    private static final int MAX_FAST_DIGITS = 18;
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+    private String[] keyCache;
+    private char[] chars;
+
+    public ByteJSONParser(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public ByteJSONParser(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    public static Object parse(byte[] buf) {
+        return new ByteJSONParser(buf).parseDocument();
+    }
+
+    public static Object parse(byte[] buf, int offset, int length) {
+        return new ByteJSONParser(buf, offset, length).parseDocument();
+    }
+
+    /**
+     * Parses the remaining bytes of the buffer, without copying them when the buffer is backed by an array.
+     */
+    public static Object parse(ByteBuffer buffer) {
+        if (buffer.hasArray())
+            return parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return parse(copy);
+    }
+
+    /**
+     * Parses a single value, which must be followed only by whitespace.
+     */
+    public Object parseDocument() {
+        Object value = parseValue();
+        skipWhitespace();
+        if (pos < end)
+            throw error("Unexpected data after JSON value");
+        return value;
+    }
+
+    public Object parseValue() {
+        skipWhitespace();
+        if (pos >= end)
+            throw error("Unexpected end of JSON input");
+        byte b = buf[pos];
+        switch (b) {
+            case '{':
+                return parseObject();
+            case '[':
+                return parseArray();
+            case '"':
+                pos++;
+                return parseString(false);
+            case 't':
+                expectKeyword("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectKeyword("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectKeyword("null");
+                return null;
+            default:
+                if (b == '-' || (b >= '0' && b <= '9'))
+                    return parseNumber();
+                throw error("Unexpected character '" + (char) (b & 0xFF) + "'");
+        }
+    }
+
+    private Map<String, Object> parseObject() {
+        pos++; // {
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        skipWhitespace();
+        if (pos < end && buf[pos] == '}') {
+            pos++;
+            return map;
+        }
+        for (;;) {
+            skipWhitespace();
+            if (pos >= end || buf[pos] != '"')
+                throw error("Expected object key");
+            pos++;
+            String key = parseString(true);
+            skipWhitespace();
+            if (pos >= end || buf[pos] != ':')
+                throw error("Expected ':'");
+            pos++;
+            map.put(key, parseValue());
+            skipWhitespace();
+            if (pos >= end)
+                throw error("Unterminated object");
+            byte b = buf[pos++];
+            if (b == '}')
+                return map;
+            if (b != ',')
+                throw error("Expected ',' or '}'");
+        }
+    }
+
+    private List<Object> parseArray() {
+        pos++; // [
+        ArrayList<Object> list = new ArrayList<>();
+        skipWhitespace();
+        if (pos < end && buf[pos] == ']') {
+            pos++;
+            return list;
+        }
+        for (;;) {
+            list.add(parseValue());
+            skipWhitespace();
+            if (pos >= end)
+                throw error("Unterminated array");
+            byte b = buf[pos++];
+            if (b == ']')
+                return list;
+            if (b != ',')
+                throw error("Expected ',' or ']'");
+        }
+    }
+
+    /**
+     * Parses a string whose opening quote has already been consumed.
+     */
+    private String parseString(boolean key) {
+        int start = pos;
+        boolean ascii = true;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b == '"') {
+                pos = i + 1;
+                if (!ascii)
+                    return new String(buf, start, i - start, StandardCharsets.UTF_8);
+                return key ? cachedKey(start, i - start) : new String(buf, start, i - start, StandardCharsets.ISO_8859_1);
+            }
+            if (b == '\\')
+                return parseEscapedString(start);
+            if (b < 0)
+                ascii = false;
+        }
+        throw error("Unterminated string");
+    }
+
+    private String cachedKey(int start, int length) {
+        if (length > MAX_CACHED_KEY_LENGTH)
+            return new String(buf, start, length, StandardCharsets.ISO_8859_1);
+        int hash = 0;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + buf[i];
+        int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+        if (keyCache == null)
+            keyCache = new String[KEY_CACHE_SIZE];
+        String cached = keyCache[slot];
+        if (cached != null && cached.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length; i++) {
+                if (cached.charAt(i) != buf[start + i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same)
+                return cached;
+        }
+        String key = new String(buf, start, length, StandardCharsets.ISO_8859_1);
+        keyCache[slot] = key;
+        return key;
+    }
+
+    private String parseEscapedString(int start) {
+        // Start over from the opening quote, decoding char by char
+        pos = start;
+        int length = 0;
+        if (chars == null || chars.length < 64)
+            chars = new char[64];
+        while (pos < end) {
+            int b = buf[pos] & 0xFF;
+            if (b == '"') {
+                pos++;
+                return new String(chars, 0, length);
+            }
+            if (length + 2 > chars.length) {
+                char[] bigger = new char[chars.length * 2];
+                System.arraycopy(chars, 0, bigger, 0, length);
+                chars = bigger;
+            }
+            if (b == '\\') {
+                if (pos + 1 >= end)
+                    break;
+                byte e = buf[pos + 1];
+                pos += 2;
+                switch (e) {
+                    case '"': chars[length++] = '"'; break;
+                    case '\\': chars[length++] = '\\'; break;
+                    case '/': chars[length++] = '/'; break;
+                    case 'b': chars[length++] = '\b'; break;
+                    case 'f': chars[length++] = '\f'; break;
+                    case 'n': chars[length++] = '\n'; break;
+                    case 'r': chars[length++] = '\r'; break;
+                    case 't': chars[length++] = '\t'; break;
+                    case 'u':
+                        if (pos + 4 > end)
+                            throw error("Truncated unicode escape");
+                        int c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int d = Character.digit(buf[pos + i], 16);
+                            if (d < 0)
+                                throw error("Invalid unicode escape");
+                            c = (c << 4) | d;
+                        }
+                        pos += 4;
+                        chars[length++] = (char) c;
+                        break;
+                    default:
+                        throw error("Invalid escape '\\" + (char) (e & 0xFF) + "'");
+                }
+            } else if (b < 0x80) {
+                chars[length++] = (char) b;
+                pos++;
+            } else {
+                length = decodeUtf8(b, length);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Decodes one multi-byte UTF-8 sequence into {@link #chars}, which has room for two chars.
+     */
+    private int decodeUtf8(int b, int length) {
+        int n = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        if (n == 1 || pos + n > end) {
+            chars[length++] = '\uFFFD';
+            pos++;
+            return length;
+        }
+        String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+        for (int i = 0; i < s.length(); i++)
+            chars[length++] = s.charAt(i);
+        pos += n;
+        return length;
+    }
+
+    private Object parseNumber() {
+        int start = pos;
+        boolean negative = buf[pos] == '-';
+        if (negative)
+            pos++;
+        long unscaled = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        boolean exp = false;
+        for (; pos < end; pos++) {
+            byte b = buf[pos];
+            if (b >= '0' && b <= '9') {
+                if (!exp) {
+                    unscaled = unscaled * 10 + (b - '0');
+                    if (unscaled != 0 || dot)
+                        digits++;
+                    if (dot)
+                        scale++;
+                }
+            } else if (b == '.' && !dot && !exp) {
+                dot = true;
+            } else if ((b == 'e' || b == 'E') && !exp) {
+                exp = true;
+            } else if ((b == '-' || b == '+') && (buf[pos - 1] == 'e' || buf[pos - 1] == 'E')) {
+                // exponent sign
+            } else {
+                break;
+            }
+        }
+        int length = pos - start;
+        if (length == (negative ? 1 : 0))
+            throw error("Invalid number");
+
+        if (!exp && digits <= MAX_FAST_DIGITS) {
+            long value = negative ? -unscaled : unscaled;
+            return dot ? (Object) BigDecimal.valueOf(value, scale) : (Object) value;
+        }
+        String text = new String(buf, start, length, StandardCharsets.ISO_8859_1);
+        try {
+            if (!dot && !exp)
+                return Long.parseLong(text);
+            return new BigDecimal(text);
+        } catch (NumberFormatException ex) {
+            if (!dot && !exp)
+                return new BigDecimal(text);
+            throw error("Invalid number " + text);
+        }
+    }
+
+    private void expectKeyword(String keyword) {
+        int length = keyword.length();
+        if (pos + length > end)
+            throw error("Unexpected end of JSON input");
+        for (int i = 0; i < length; i++)
+            if (buf[pos + i] != keyword.charAt(i))
+                throw error("Unexpected token");
+        pos += length;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+                return;
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+}
@@ -16,13 +16,35 @@
 
 package wf.bitcoin.krotjson;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
 * A Hex encoder/decoder.
+* <br><br>
+* Decoding is table driven and accepts both cases. The buffer based variants allocate nothing, so large payloads
+* such as raw blocks can be converted straight between the JSON response and their destination.
 */
 public final class HexCoder {
 
   private final static char[] hexArray = "0123456789abcdef".toCharArray();
 
+  // Value of each hex digit by character, -1 for anything else
+  private final static byte[] DIGITS = new byte[128];
+
+  static {
+    Arrays.fill(DIGITS, (byte) -1);
+    for (int i = 0; i < 10; i++)
+      DIGITS['0' + i] = (byte) i;
+    for (int i = 0; i < 6; i++) {
+      DIGITS['a' + i] = (byte) (10 + i);
+      DIGITS['A' + i] = (byte) (10 + i);
+    }
+  }
+
   // Hide ctor
   private HexCoder() {
   }
@@ -37,23 +59,89 @@ public final class HexCoder {
     return new String(hexChars);
   }
 
-  public static byte[] decode(String encoded) {
-    char[] hexChars = encoded.toLowerCase().toCharArray();
-    byte[] bytes = new byte[hexChars.length / 2];
-    for (int i = 0; i < bytes.length; i++) {
-      char v1 = hexChars[2 * i];
-      if ('0' <= v1 && v1 <= '9') {
-        bytes[i] = (byte) (16 * (v1 - '0'));
-      } else {
-        bytes[i] = (byte) (16 * (10 + v1 - 'a'));
-      }
-      char v2 = hexChars[2 * i + 1];
-      if ('0' <= v2 && v2 <= '9') {
-        bytes[i] += (byte) (v2 - '0');
-      } else {
-        bytes[i] += (byte) (10 + v2 - 'a');
+  /**
+   * Appends the remaining bytes of the buffer as lower case hex, consuming them.
+   *
+   * @return <code>out</code>
+   */
+  public static <A extends Appendable> A encode(ByteBuffer bytes, A out) {
+    try {
+      while (bytes.hasRemaining()) {
+        int v = bytes.get() & 0xFF;
+        out.append(hexArray[v >>> 4]);
+        out.append(hexArray[v & 0x0F]);
       }
+      return out;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
     }
+  }
+
+  /**
+   * @throws IllegalArgumentException if the string has an odd length or contains a non hex character
+   */
+  public static byte[] decode(String encoded) {
+    byte[] bytes = new byte[checkLength(encoded.length()) / 2];
+    decode(encoded, ByteBuffer.wrap(bytes));
     return bytes;
   }
+
+  /**
+   * Decodes hex characters into the buffer, starting at its position.
+   *
+   * @return the number of bytes written
+   * @throws BufferOverflowException if the decoded bytes do not fit in the buffer
+   */
+  public static int decode(CharSequence encoded, ByteBuffer dst) {
+    int n = checkLength(encoded.length()) / 2;
+    if (dst.remaining() < n)
+      throw new BufferOverflowException();
+    if (dst.hasArray()) {
+      byte[] a = dst.array();
+      int offset = dst.arrayOffset() + dst.position();
+      for (int i = 0; i < n; i++)
+        a[offset + i] = (byte) ((digit(encoded.charAt(2 * i)) << 4) | digit(encoded.charAt(2 * i + 1)));
+      dst.position(dst.position() + n);
+    } else {
+      for (int i = 0; i < n; i++)
+        dst.put((byte) ((digit(encoded.charAt(2 * i)) << 4) | digit(encoded.charAt(2 * i + 1))));
+    }
+    return n;
+  }
+
+  /**
+   * Decodes ASCII hex digits, such as a string inside a JSON response, into the buffer.
+   *
+   * @return the number of bytes written
+   * @throws BufferOverflowException if the decoded bytes do not fit in the buffer
+   */
+  public static int decode(byte[] encoded, int offset, int length, ByteBuffer dst) {
+    int n = checkLength(length) / 2;
+    if (dst.remaining() < n)
+      throw new BufferOverflowException();
+    if (dst.hasArray()) {
+      byte[] a = dst.array();
+      int out = dst.arrayOffset() + dst.position();
+      for (int i = 0; i < n; i++, offset += 2)
+        a[out + i] = (byte) ((digit(encoded[offset]) << 4) | digit(encoded[offset + 1]));
+      dst.position(dst.position() + n);
+    } else {
+      for (int i = 0; i < n; i++, offset += 2)
+        dst.put((byte) ((digit(encoded[offset]) << 4) | digit(encoded[offset + 1])));
+    }
+    return n;
+  }
+
+  private static int checkLength(int length) {
+    if ((length & 1) != 0)
+      throw new IllegalArgumentException("Odd number of hex digits: " + length);
+    return length;
+  }
+
+  private static int digit(int c) {
+    int d = c < 128 && c >= 0 ? DIGITS[c] : -1;
+    if (d < 0)
+      throw new IllegalArgumentException("Invalid hex digit: '" + (char) (c & 0xFFFF) + "'");
+    return d;
+  }
 }
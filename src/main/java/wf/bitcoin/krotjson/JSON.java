@@ -18,6 +18,7 @@
 
 package wf.bitcoin.krotjson;
 
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.Map;
 
@@ -94,8 +95,8 @@ public class JSON {
     public static String stringify(String s) {
         StringBuilder b = new StringBuilder(s.length() + 2);
         b.append('"');
-        for(; !s.isEmpty(); s = s.substring(1)) {
-            char c = s.charAt(0);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
             switch (c) {
                 case '\t':
                     b.append("\\t");
@@ -129,6 +130,23 @@ public class JSON {
         return CrippledJavaScriptParser.parseJSExpr(s);
     }
 
+    /**
+     * Parses a standard JSON document encoded in UTF-8.
+     *
+     * @see ByteJSONParser
+     */
+    public static Object parse(byte[] b) {
+        return ByteJSONParser.parse(b);
+    }
+
+    public static Object parse(byte[] b, int offset, int length) {
+        return ByteJSONParser.parse(b, offset, length);
+    }
+
+    public static Object parse(ByteBuffer b) {
+        return ByteJSONParser.parse(b);
+    }
+
 //    public static void main(String[] args) {
 //        String test =
 //                  "[ { 'x': 'y', 'y': 'z', id: 'value' }, { 1:2 }, {3:2, 4:[null,1,2,3,null,-1,111,-111,null]} ];";
@@ -0,0 +1,638 @@
+package wf.bitcoin.krotjson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull reader streaming a JSON document token by token from a UTF-8 {@link InputStream}.
+ * <br><br>
+ * Only a fixed size buffer is kept in memory, so arrays of any length can be processed element by element while
+ * they are still being downloaded. Use {@link #readValue()} to materialize a single element with the same model as
+ * {@link ByteJSONParser}, and {@link #skipValue()} to jump over the parts that are not needed. String values are
+ * only read when consumed, so skipped strings cost no allocation and {@link #nextHex()} decodes raw blocks and
+ * transactions without ever building their hex string.
+ * <br><br>
+ * Malformed input causes an {@link IllegalArgumentException} reporting the offset in the stream; asking for a token
+ * of the wrong kind causes an {@link IllegalStateException}. Instances are not thread safe.
+ */
+public class JSONReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int KEY_CACHE_SIZE = 256; // power of 2
+    private static final int MAX_CACHED_KEY_LENGTH = 32;
+    private static final int MAX_FAST_DIGITS = 18;
+
+    private final InputStream in;
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+    private long bufferOffset; // stream offset of buf[0]
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+
+    private Token peeked;
+    private String nameValue;
+    private boolean stringPending; // a STRING token was peeked, but its content not read yet
+    private Object numberValue;
+    private boolean booleanValue;
+
+    private final StringBuilder sb = new StringBuilder();
+    private final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+    public JSONReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JSONReader(InputStream in, int bufferSize) {
+        if (bufferSize < 8)
+            throw new IllegalArgumentException("bufferSize must be at least 8");
+        this.in = in;
+        this.buf = new byte[bufferSize];
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Reads a document already held in memory.
+     */
+    public JSONReader(byte[] data) {
+        this.in = null;
+        this.buf = data;
+        this.limit = data.length;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return the kind of the next token, without consuming it
+     */
+    public Token peek() throws IOException {
+        if (peeked != null)
+            return peeked;
+
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    pos++;
+                    depth--;
+                    return peeked = Token.END_ARRAY;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    pos++;
+                    depth--;
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',')
+                    throw error("Expected ',' or ']'");
+                pos++;
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    pos++;
+                    depth--;
+                    return peeked = Token.END_OBJECT;
+                }
+                if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',')
+                        throw error("Expected ',' or '}'");
+                    pos++;
+                    c = nextNonWhitespace();
+                }
+                if (c != '"')
+                    throw error("Expected object key");
+                pos++;
+                stack[depth - 1] = DANGLING_NAME;
+                nameValue = readString(true);
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':')
+                    throw error("Expected ':'");
+                pos++;
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[0] = NONEMPTY_DOCUMENT;
+                break;
+            default: // NONEMPTY_DOCUMENT
+                if (nextNonWhitespace() != -1)
+                    throw error("Unexpected data after JSON value");
+                return peeked = Token.END_DOCUMENT;
+        }
+        return peeked = peekValue();
+    }
+
+    private Token peekValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case -1:
+                throw error("Unexpected end of JSON input");
+            case '{':
+                pos++;
+                push(EMPTY_OBJECT);
+                return Token.BEGIN_OBJECT;
+            case '[':
+                pos++;
+                push(EMPTY_ARRAY);
+                return Token.BEGIN_ARRAY;
+            case '"':
+                pos++;
+                stringPending = true;
+                return Token.STRING;
+            case 't':
+                expectKeyword("true");
+                booleanValue = true;
+                return Token.BOOLEAN;
+            case 'f':
+                expectKeyword("false");
+                booleanValue = false;
+                return Token.BOOLEAN;
+            case 'n':
+                expectKeyword("null");
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    numberValue = readNumber();
+                    return Token.NUMBER;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+    }
+
+    public String nextName() throws IOException {
+        consume(Token.NAME);
+        return nameValue;
+    }
+
+    public String nextString() throws IOException {
+        consume(Token.STRING);
+        stringPending = false;
+        return readString(false);
+    }
+
+    /**
+     * Decodes the next string, which must hold hex digits, straight from the stream without building a String.
+     */
+    public byte[] nextHex() throws IOException {
+        consume(Token.STRING);
+        stringPending = false;
+        ByteBuffer out = readHex(ByteBuffer.allocate(Math.max(64, (limit - pos) / 2)), true);
+        return out.position() == out.capacity() ? out.array() : Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Decodes the next string, which must hold hex digits, into the buffer.
+     *
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the decoded bytes do not fit in the buffer
+     */
+    public int nextHex(ByteBuffer dst) throws IOException {
+        consume(Token.STRING);
+        stringPending = false;
+        int start = dst.position();
+        readHex(dst, false);
+        return dst.position() - start;
+    }
+
+    /**
+     * @return the next number, as a {@link Long} for integers and a {@link BigDecimal} otherwise
+     */
+    public Object nextNumber() throws IOException {
+        consume(Token.NUMBER);
+        return numberValue;
+    }
+
+    public long nextLong() throws IOException {
+        Object number = nextNumber();
+        return number instanceof Long ? (Long) number : ((BigDecimal) number).longValueExact();
+    }
+
+    public BigDecimal nextBigDecimal() throws IOException {
+        Object number = nextNumber();
+        return number instanceof Long ? BigDecimal.valueOf((Long) number) : (BigDecimal) number;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        consume(Token.BOOLEAN);
+        return booleanValue;
+    }
+
+    public void nextNull() throws IOException {
+        consume(Token.NULL);
+    }
+
+    /**
+     * Reads the next value and everything it contains, with the same model as {@link ByteJSONParser}.
+     */
+    public Object readValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (hasNext()) {
+                    String name = nextName();
+                    map.put(name, readValue());
+                }
+                endObject();
+                return map;
+            case BEGIN_ARRAY:
+                beginArray();
+                List<Object> list = new ArrayList<>();
+                while (hasNext())
+                    list.add(readValue());
+                endArray();
+                return list;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return nextNumber();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw new IllegalStateException("Expected a value but was " + peeked + " at offset " + offset());
+        }
+    }
+
+    /**
+     * Skips the next value, or the next name together with its value.
+     */
+    public void skipValue() throws IOException {
+        int count = 0;
+        Token token;
+        do {
+            token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    count++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    if (count == 0)
+                        throw new IllegalStateException("Expected a value but was " + token + " at offset " + offset());
+                    count--;
+                    break;
+                case END_DOCUMENT:
+                    throw new IllegalStateException("Expected a value but was " + token);
+                case STRING:
+                    stringPending = false;
+                    skipString();
+                    break;
+                default:
+                    break;
+            }
+            peeked = null;
+        } while (count > 0 || token == Token.NAME);
+    }
+
+    /**
+     * @return the number of bytes consumed from the stream so far
+     */
+    public long offset() {
+        return bufferOffset + pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+    }
+
+    private void consume(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected)
+            throw new IllegalStateException("Expected " + expected + " but was " + token + " at offset " + offset());
+        peeked = null;
+    }
+
+    private ByteBuffer readHex(ByteBuffer dst, boolean grow) throws IOException {
+        for (;;) {
+            if (pos == limit && !require(1))
+                throw error("Unterminated string");
+            int stop = pos;
+            while (stop < limit && buf[stop] != '"')
+                stop++;
+            int length = (stop - pos) & ~1;
+            if (stop < limit && length != stop - pos)
+                throw error("Odd number of hex digits");
+            if (grow && dst.remaining() < length / 2) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(dst.capacity() * 2, dst.position() + length / 2));
+                dst.flip();
+                dst = bigger.put(dst);
+            }
+            try {
+                HexCoder.decode(buf, pos, length, dst);
+            } catch (IllegalArgumentException ex) {
+                throw error(ex.getMessage());
+            }
+            pos += length;
+            if (pos == stop && stop < limit) {
+                pos++;
+                return dst;
+            }
+            // A single digit is left at the end of the buffer, wait for the next one
+            if (pos < limit && !require(2))
+                throw error("Unterminated string");
+        }
+    }
+
+    /**
+     * Skips a string whose opening quote has already been consumed.
+     */
+    private void skipString() throws IOException {
+        for (;;) {
+            if (pos == limit && !require(1))
+                throw error("Unterminated string");
+            byte b = buf[pos++];
+            if (b == '"')
+                return;
+            if (b == '\\') {
+                if (pos == limit && !require(1))
+                    throw error("Unterminated string");
+                pos++;
+            }
+        }
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            int[] bigger = new int[depth * 2];
+            System.arraycopy(stack, 0, bigger, 0, depth);
+            stack = bigger;
+        }
+        stack[depth++] = scope;
+    }
+
+    /**
+     * Makes sure at least <code>n</code> bytes are buffered, moving the unread bytes to the start of the buffer.
+     *
+     * @return false if the stream ended first
+     */
+    private boolean require(int n) throws IOException {
+        if (limit - pos >= n)
+            return true;
+        if (in == null)
+            return false;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            bufferOffset += pos;
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < n) {
+            int nr = in.read(buf, limit, buf.length - limit);
+            if (nr == -1)
+                return false;
+            if (nr == 0)
+                throw new IOException("Read timed out");
+            limit += nr;
+        }
+        return true;
+    }
+
+    /**
+     * @return the next non whitespace byte, without consuming it, or -1 at the end of the stream
+     */
+    private int nextNonWhitespace() throws IOException {
+        for (;;) {
+            if (pos == limit && !require(1))
+                return -1;
+            int b = buf[pos] & 0xFF;
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+                return b;
+            pos++;
+        }
+    }
+
+    /**
+     * Reads a string whose opening quote has already been consumed.
+     */
+    private String readString(boolean key) throws IOException {
+        // Fast path: the whole string is buffered and contains only ASCII without escapes
+        for (int i = pos; i < limit; i++) {
+            byte b = buf[i];
+            if (b == '"') {
+                int start = pos;
+                pos = i + 1;
+                return key ? cachedKey(start, i - start) : new String(buf, start, i - start, StandardCharsets.ISO_8859_1);
+            }
+            if (b == '\\' || b < 0)
+                break;
+        }
+
+        sb.setLength(0);
+        for (;;) {
+            if (pos == limit && !require(1))
+                throw error("Unterminated string");
+            int b = buf[pos] & 0xFF;
+            if (b == '"') {
+                pos++;
+                return sb.toString();
+            }
+            if (b == '\\') {
+                if (!require(2))
+                    throw error("Unterminated string");
+                byte e = buf[pos + 1];
+                pos += 2;
+                switch (e) {
+                    case '"': sb.append('"'); break;
+                    case '\\': sb.append('\\'); break;
+                    case '/': sb.append('/'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (!require(4))
+                            throw error("Truncated unicode escape");
+                        int c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int d = Character.digit(buf[pos + i], 16);
+                            if (d < 0)
+                                throw error("Invalid unicode escape");
+                            c = (c << 4) | d;
+                        }
+                        pos += 4;
+                        sb.append((char) c);
+                        break;
+                    default:
+                        throw error("Invalid escape '\\" + (char) (e & 0xFF) + "'");
+                }
+            } else if (b < 0x80) {
+                sb.append((char) b);
+                pos++;
+            } else {
+                readUtf8(b);
+            }
+        }
+    }
+
+    /**
+     * Decodes one multi-byte UTF-8 sequence, replacing invalid ones with U+FFFD.
+     */
+    private void readUtf8(int b) throws IOException {
+        int n = b >= 0xF8 ? 0 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 0;
+        if (n == 0 || !require(n)) {
+            sb.append('\uFFFD');
+            pos++;
+            return;
+        }
+        int cp = b & (0xFF >> (n + 1));
+        for (int i = 1; i < n; i++) {
+            int next = buf[pos + i] & 0xFF;
+            if ((next & 0xC0) != 0x80) {
+                sb.append('\uFFFD');
+                pos++;
+                return;
+            }
+            cp = (cp << 6) | (next & 0x3F);
+        }
+        pos += n;
+        if (Character.isValidCodePoint(cp))
+            sb.appendCodePoint(cp);
+        else
+            sb.append('\uFFFD');
+    }
+
+    private String cachedKey(int start, int length) {
+        if (length > MAX_CACHED_KEY_LENGTH)
+            return new String(buf, start, length, StandardCharsets.ISO_8859_1);
+        int hash = 0;
+        for (int i = start; i < start + length; i++)
+            hash = 31 * hash + buf[i];
+        int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+        String cached = keyCache[slot];
+        if (cached != null && cached.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length; i++) {
+                if (cached.charAt(i) != buf[start + i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same)
+                return cached;
+        }
+        String key = new String(buf, start, length, StandardCharsets.ISO_8859_1);
+        keyCache[slot] = key;
+        return key;
+    }
+
+    private Object readNumber() throws IOException {
+        sb.setLength(0);
+        boolean negative = false;
+        long unscaled = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        boolean exp = false;
+        for (;;) {
+            if (pos == limit && !require(1))
+                break;
+            byte b = buf[pos];
+            if (b >= '0' && b <= '9') {
+                if (!exp) {
+                    unscaled = unscaled * 10 + (b - '0');
+                    if (unscaled != 0 || dot)
+                        digits++;
+                    if (dot)
+                        scale++;
+                }
+            } else if (b == '-' && sb.length() == 0) {
+                negative = true;
+            } else if (b == '.' && !dot && !exp) {
+                dot = true;
+            } else if ((b == 'e' || b == 'E') && !exp) {
+                exp = true;
+            } else if ((b == '-' || b == '+') && (sb.charAt(sb.length() - 1) == 'e' || sb.charAt(sb.length() - 1) == 'E')) {
+                // exponent sign
+            } else {
+                break;
+            }
+            sb.append((char) b);
+            pos++;
+        }
+        if (sb.length() == (negative ? 1 : 0))
+            throw error("Invalid number");
+
+        if (!exp && digits <= MAX_FAST_DIGITS) {
+            long value = negative ? -unscaled : unscaled;
+            return dot ? (Object) BigDecimal.valueOf(value, scale) : (Object) value;
+        }
+        String text = sb.toString();
+        try {
+            if (!dot && !exp)
+                return Long.parseLong(text);
+            return new BigDecimal(text);
+        } catch (NumberFormatException ex) {
+            if (!dot && !exp)
+                return new BigDecimal(text);
+            throw error("Invalid number " + text);
+        }
+    }
+
+    private void expectKeyword(String keyword) throws IOException {
+        int length = keyword.length();
+        if (!require(length))
+            throw error("Unexpected end of JSON input");
+        for (int i = 0; i < length; i++)
+            if (buf[pos + i] != keyword.charAt(i))
+                throw error("Unexpected token");
+        pos += length;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + offset());
+    }
+}
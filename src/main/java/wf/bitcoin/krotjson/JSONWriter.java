@@ -0,0 +1,258 @@
+package wf.bitcoin.krotjson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Single pass JSON writer producing UTF-8 bytes into a growable buffer.
+ * <br><br>
+ * Values are serialized like {@link JSON#stringify(Object)}, without building intermediate strings: characters
+ * that need no escaping, such as the hex payloads of raw transactions and blocks, are copied straight to the buffer.
+ * Commas are inserted automatically between the members of objects and arrays.
+ * <br><br>
+ * A writer can be {@link #reset() reset} and reused to avoid reallocating its buffer. Instances are not thread safe.
+ */
+public class JSONWriter {
+
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int count;
+
+    // One bit per nesting level, set once the level holds a member
+    private long[] nonEmpty = new long[1];
+    private int depth;
+    private boolean afterName;
+
+    public JSONWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public JSONWriter(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public JSONWriter beginObject() {
+        separate();
+        write('{');
+        push();
+        return this;
+    }
+
+    public JSONWriter endObject() {
+        pop();
+        write('}');
+        return this;
+    }
+
+    public JSONWriter beginArray() {
+        separate();
+        write('[');
+        push();
+        return this;
+    }
+
+    public JSONWriter endArray() {
+        pop();
+        write(']');
+        return this;
+    }
+
+    public JSONWriter name(String name) {
+        separate();
+        string(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Writes any value supported by {@link JSON#stringify(Object)}: maps, iterables and arrays are written
+     * recursively, other objects as strings.
+     */
+    @SuppressWarnings("rawtypes")
+    public JSONWriter value(Object o) {
+        if (o instanceof String) {
+            separate();
+            string((String) o);
+        } else if (o == null) {
+            separate();
+            ascii("null");
+        } else if (o instanceof Number || o instanceof Boolean) {
+            separate();
+            ascii(String.valueOf(o));
+        } else if (o instanceof Date) {
+            separate();
+            ascii("new Date(" + ((Date) o).getTime() + ")");
+        } else if (o instanceof Map) {
+            beginObject();
+            for (Map.Entry e : ((Map<?, ?>) o).entrySet())
+                name(e.getKey().toString()).value(e.getValue());
+            endObject();
+        } else if (o instanceof Iterable) {
+            beginArray();
+            for (Object item : (Iterable) o)
+                value(item);
+            endArray();
+        } else if (o instanceof Object[]) {
+            beginArray();
+            for (Object item : (Object[]) o)
+                value(item);
+            endArray();
+        } else {
+            separate();
+            string(String.valueOf(o));
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the internal buffer, holding {@link #size()} bytes of output; it is invalidated by further writes
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * Discards the output, keeping the buffer for the next document unless it grew very large.
+     */
+    public void reset() {
+        if (buf.length > MAX_RETAINED_CAPACITY)
+            buf = new byte[DEFAULT_CAPACITY];
+        count = 0;
+        depth = 0;
+        afterName = false;
+        Arrays.fill(nonEmpty, 0);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, StandardCharsets.UTF_8);
+    }
+
+    private void push() {
+        depth++;
+        if ((depth >>> 6) >= nonEmpty.length)
+            nonEmpty = Arrays.copyOf(nonEmpty, nonEmpty.length * 2);
+        nonEmpty[depth >>> 6] &= ~(1L << depth);
+    }
+
+    private void pop() {
+        if (depth == 0)
+            throw new IllegalStateException("No open object or array");
+        depth--;
+    }
+
+    /**
+     * Writes the comma preceding a member, unless it is the first one or the value of a name.
+     */
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        long bit = 1L << depth;
+        if ((nonEmpty[depth >>> 6] & bit) != 0)
+            write(',');
+        else
+            nonEmpty[depth >>> 6] |= bit;
+    }
+
+    private void string(String s) {
+        int length = s.length();
+        ensure(length + 2);
+        byte[] b = buf;
+        int n = count;
+        b[n++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\') {
+                b[n++] = (byte) c;
+                continue;
+            }
+            // Room for the longest encoding of this char, the rest of the string and the closing quote
+            count = n;
+            ensure(6 + length - i);
+            b = buf;
+            n = count;
+            switch (c) {
+                case '"': b[n++] = '\\'; b[n++] = '"'; break;
+                case '\\': b[n++] = '\\'; b[n++] = '\\'; break;
+                case '\t': b[n++] = '\\'; b[n++] = 't'; break;
+                case '\r': b[n++] = '\\'; b[n++] = 'r'; break;
+                case '\n': b[n++] = '\\'; b[n++] = 'n'; break;
+                case '\f': b[n++] = '\\'; b[n++] = 'f'; break;
+                case '\b': b[n++] = '\\'; b[n++] = 'b'; break;
+                default:
+                    if (c < 0x20 || c == 0x7F) {
+                        n = unicodeEscape(c, b, n);
+                    } else if (c < 0x800) {
+                        b[n++] = (byte) (0xC0 | (c >> 6));
+                        b[n++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, s.charAt(++i));
+                        b[n++] = (byte) (0xF0 | (cp >> 18));
+                        b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        b[n++] = (byte) (0x80 | (cp & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        n = unicodeEscape(c, b, n);
+                    } else {
+                        b[n++] = (byte) (0xE0 | (c >> 12));
+                        b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        b[n++] = (byte) (0x80 | (c & 0x3F));
+                    }
+            }
+        }
+        b[n++] = '"';
+        count = n;
+    }
+
+    private static int unicodeEscape(char c, byte[] b, int n) {
+        b[n++] = '\\';
+        b[n++] = 'u';
+        b[n++] = HEX[(c >> 12) & 0xF];
+        b[n++] = HEX[(c >> 8) & 0xF];
+        b[n++] = HEX[(c >> 4) & 0xF];
+        b[n++] = HEX[c & 0xF];
+        return n;
+    }
+
+    private void ascii(String s) {
+        int length = s.length();
+        ensure(length);
+        for (int i = 0; i < length; i++)
+            buf[count++] = (byte) s.charAt(i);
+    }
+
+    private void write(char c) {
+        ensure(1);
+        buf[count++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+        if (count + extra > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+    }
+}
@@ -0,0 +1,338 @@
+package wf.bitcoin.krotjson;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Lazy JSON model: keeps the bytes of a document together with a structural index, and decodes values only when
+ * they are accessed.
+ * <br><br>
+ * Parsing makes a single pass recording, for every value and object key, its byte offset and where its subtree
+ * ends. Objects and arrays are then exposed as read-only {@link Map} and {@link java.util.List} views over the index;
+ * strings and numbers are decoded by {@link ByteJSONParser} each time they are read, with the same model.
+ * This is much cheaper than a full parse when only a few fields of a large document are used, but every view keeps
+ * the whole document in memory.
+ * <br><br>
+ * The structure is validated while indexing; a malformed number or literal is only reported when it is accessed.
+ * Views are immutable and safe to share between threads.
+ */
+public final class LazyJSON implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EXPECT_VALUE = 0;
+    private static final int EXPECT_KEY = 1;
+    private static final int EXPECT_COLON = 2;
+    private static final int EXPECT_SEPARATOR = 3;
+    private static final int EXPECT_END = 4;
+
+    private final byte[] buf;
+    private final int end;
+    private int[] offsets; // byte offset of each node
+    private int[] next; // index of the first node after the subtree of each node
+    private int count;
+
+    private LazyJSON(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.end = offset + length;
+        int capacity = Math.max(16, length / 16);
+        this.offsets = new int[capacity];
+        this.next = new int[capacity];
+        index(offset);
+    }
+
+    /**
+     * @return a lazy {@link Map} for objects, a lazy {@link java.util.List} for arrays, or the decoded scalar
+     */
+    public static Object parse(byte[] buf) {
+        return parse(buf, 0, buf.length);
+    }
+
+    public static Object parse(byte[] buf, int offset, int length) {
+        return new LazyJSON(buf, offset, length).value(0);
+    }
+
+    private void index(int pos) {
+        int[] stack = new int[32];
+        int depth = 0;
+        int expect = EXPECT_VALUE;
+        boolean opened = false; // a container was just opened and may be closed right away
+
+        for (;;) {
+            while (pos < end && (buf[pos] == ' ' || buf[pos] == '\n' || buf[pos] == '\r' || buf[pos] == '\t'))
+                pos++;
+            if (pos == end)
+                break;
+            byte b = buf[pos];
+
+            if (b == '}' || b == ']') {
+                if (depth == 0 || (!opened && expect != EXPECT_SEPARATOR) || buf[offsets[stack[depth - 1]]] != (b == '}' ? '{' : '['))
+                    throw error("Unexpected '" + (char) b + "'", pos);
+                int node = stack[--depth];
+                next[node] = count;
+                pos++;
+                opened = false;
+                expect = depth == 0 ? EXPECT_END : EXPECT_SEPARATOR;
+                continue;
+            }
+
+            switch (expect) {
+                case EXPECT_KEY:
+                    if (b != '"')
+                        throw error("Expected object key", pos);
+                    pos = addString(pos);
+                    expect = EXPECT_COLON;
+                    break;
+                case EXPECT_COLON:
+                    if (b != ':')
+                        throw error("Expected ':'", pos);
+                    pos++;
+                    expect = EXPECT_VALUE;
+                    break;
+                case EXPECT_SEPARATOR:
+                    if (b != ',')
+                        throw error("Expected ',' or end of container", pos);
+                    pos++;
+                    expect = buf[offsets[stack[depth - 1]]] == '{' ? EXPECT_KEY : EXPECT_VALUE;
+                    break;
+                case EXPECT_END:
+                    throw error("Unexpected data after JSON value", pos);
+                default: // EXPECT_VALUE
+                    if (b == '{' || b == '[') {
+                        if (depth == stack.length) {
+                            int[] bigger = new int[depth * 2];
+                            System.arraycopy(stack, 0, bigger, 0, depth);
+                            stack = bigger;
+                        }
+                        stack[depth++] = addNode(pos);
+                        pos++;
+                        expect = b == '{' ? EXPECT_KEY : EXPECT_VALUE;
+                        opened = true;
+                        continue;
+                    }
+                    if (b == '"') {
+                        pos = addString(pos);
+                    } else {
+                        int node = addNode(pos);
+                        int start = pos;
+                        while (pos < end && isScalarByte(buf[pos]))
+                            pos++;
+                        if (pos == start)
+                            throw error("Unexpected character '" + (char) (b & 0xFF) + "'", pos);
+                        next[node] = count;
+                    }
+                    expect = depth == 0 ? EXPECT_END : EXPECT_SEPARATOR;
+                    break;
+            }
+            opened = false;
+        }
+
+        if (depth > 0 || expect != EXPECT_END)
+            throw error("Unexpected end of JSON input", pos);
+    }
+
+    private static boolean isScalarByte(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '-' || b == '+' || b == '.';
+    }
+
+    private int addNode(int pos) {
+        if (count == offsets.length) {
+            int[] biggerOffsets = new int[count * 2];
+            int[] biggerNext = new int[count * 2];
+            System.arraycopy(offsets, 0, biggerOffsets, 0, count);
+            System.arraycopy(next, 0, biggerNext, 0, count);
+            offsets = biggerOffsets;
+            next = biggerNext;
+        }
+        offsets[count] = pos;
+        return count++;
+    }
+
+    /**
+     * Indexes the string starting at the quote at <code>pos</code>.
+     *
+     * @return the position after the closing quote
+     */
+    private int addString(int pos) {
+        int node = addNode(pos);
+        next[node] = count;
+        for (int i = pos + 1; i < end; i++) {
+            byte b = buf[i];
+            if (b == '"')
+                return i + 1;
+            if (b == '\\')
+                i++;
+        }
+        throw error("Unterminated string", pos);
+    }
+
+    Object value(int node) {
+        int pos = offsets[node];
+        byte b = buf[pos];
+        if (b == '{')
+            return new LazyObject(this, node);
+        if (b == '[')
+            return new LazyArray(this, node);
+        if (b == '"') {
+            for (int i = pos + 1; ; i++) {
+                byte c = buf[i];
+                if (c == '"')
+                    return new String(buf, pos + 1, i - pos - 1, StandardCharsets.ISO_8859_1);
+                if (c == '\\' || c < 0)
+                    return new ByteJSONParser(buf, pos, end - pos).parseValue();
+            }
+        }
+        int scalarEnd = pos;
+        while (scalarEnd < end && isScalarByte(buf[scalarEnd]))
+            scalarEnd++;
+        return ByteJSONParser.parse(buf, pos, scalarEnd - pos);
+    }
+
+    /**
+     * Compares an object key with a string, decoding it only when it contains escapes or non ASCII characters.
+     */
+    boolean keyEquals(int node, String key) {
+        int pos = offsets[node] + 1;
+        int length = key.length();
+        for (int i = 0; i < length; i++) {
+            byte b = buf[pos + i];
+            if (b == '\\' || b < 0)
+                return key.equals(value(node));
+            if (b == '"' || b != key.charAt(i))
+                return false;
+        }
+        return buf[pos + length] == '"';
+    }
+
+    private static IllegalArgumentException error(String message, int pos) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+
+    private static final class LazyObject extends AbstractMap<String, Object> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LazyJSON doc;
+        private final int node;
+
+        LazyObject(LazyJSON doc, int node) {
+            this.doc = doc;
+            this.node = node;
+        }
+
+        /**
+         * @return the node of the value of the given key, or -1
+         */
+        private int find(Object key) {
+            if (!(key instanceof String))
+                return -1;
+            String k = (String) key;
+            int end = doc.next[node];
+            for (int i = node + 1; i < end; i = doc.next[i + 1])
+                if (doc.keyEquals(i, k))
+                    return i + 1;
+            return -1;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int value = find(key);
+            return value < 0 ? null : doc.value(value);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return find(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            int end = doc.next[node];
+            for (int i = node + 1; i < end; i = doc.next[i + 1])
+                size++;
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int member = node + 1;
+
+                        @Override
+                        public boolean hasNext() {
+                            return member < doc.next[node];
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            int key = member;
+                            member = doc.next[key + 1];
+                            return new SimpleImmutableEntry<>((String) doc.value(key), doc.value(key + 1));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return LazyObject.this.size();
+                }
+            };
+        }
+    }
+
+    private static final class LazyArray extends AbstractList<Object> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LazyJSON doc;
+        private final int node;
+        private volatile int[] elements;
+
+        LazyArray(LazyJSON doc, int node) {
+            this.doc = doc;
+            this.node = node;
+        }
+
+        private int[] elements() {
+            int[] e = elements;
+            if (e == null) {
+                int end = doc.next[node];
+                int size = 0;
+                for (int i = node + 1; i < end; i = doc.next[i])
+                    size++;
+                e = new int[size];
+                for (int i = node + 1, j = 0; i < end; i = doc.next[i])
+                    e[j++] = i;
+                elements = e;
+            }
+            return e;
+        }
+
+        @Override
+        public Object get(int index) {
+            int[] e = elements();
+            if (index < 0 || index >= e.length)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + e.length);
+            return doc.value(e[index]);
+        }
+
+        @Override
+        public int size() {
+            return elements().length;
+        }
+    }
+}
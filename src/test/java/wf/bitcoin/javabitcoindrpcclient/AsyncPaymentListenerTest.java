@@ -0,0 +1,135 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.AsyncPaymentListener.Backpressure;
+
+public class AsyncPaymentListenerTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  /**
+   * A listener recording the blocks, stuck on the first one until {@link #release} is counted down
+   */
+  private final BitcoinPaymentListener slow = new SimpleBitcoinPaymentListener() {
+    @Override
+    public void block(String blockHash) {
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        throw new IllegalStateException(ex);
+      }
+      received.add(blockHash);
+    }
+  };
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void eventsKeepTheirOrder() throws Exception {
+    List<String> expected = new ArrayList<>();
+    AsyncPaymentListener listener = new AsyncPaymentListener(new SimpleBitcoinPaymentListener() {
+      @Override
+      public void block(String blockHash) {
+        received.add(blockHash);
+      }
+    }, executor, 16, Backpressure.BLOCK);
+    for (int i = 0; i < 1000; i++) {
+      expected.add("b" + i);
+      listener.block("b" + i);
+    }
+    Assert.assertTrue(listener.awaitIdle(10, TimeUnit.SECONDS));
+    Assert.assertEquals(expected, received);
+    Assert.assertEquals(1000, listener.getDeliveredCount());
+    Assert.assertTrue(listener.getMaxQueueDepth() <= 16);
+  }
+
+  @Test(timeout = 10_000)
+  public void errorsDoNotStopDelivery() throws Exception {
+    AsyncPaymentListener listener = new AsyncPaymentListener(new SimpleBitcoinPaymentListener() {
+      @Override
+      public void block(String blockHash) {
+        if (blockHash.equals("b0"))
+          throw new AssertionError(blockHash);
+        received.add(blockHash);
+      }
+    }, executor, 1, Backpressure.BLOCK);
+    listener.block("b0");
+    listener.block("b1");
+    listener.block("b2");
+    Assert.assertTrue(listener.awaitIdle(10, TimeUnit.SECONDS));
+    Assert.assertEquals(Arrays.asList("b1", "b2"), received);
+    Assert.assertEquals(1, listener.getFailedCount());
+  }
+
+  @Test
+  public void dropOldestKeepsRecentEvents() throws Exception {
+    AsyncPaymentListener listener = new AsyncPaymentListener(slow, executor, 2, Backpressure.DROP_OLDEST);
+    listener.block("b0");
+    while (listener.getQueueDepth() > 0)
+      Thread.sleep(1);
+    for (int i = 1; i <= 5; i++)
+      listener.block("b" + i);
+    Assert.assertEquals(3, listener.getDroppedCount());
+    release.countDown();
+    Assert.assertTrue(listener.awaitIdle(10, TimeUnit.SECONDS));
+    Assert.assertEquals(Arrays.asList("b0", "b4", "b5"), received);
+  }
+
+  @Test
+  public void failRejectsWhenFull() throws Exception {
+    AsyncPaymentListener listener = new AsyncPaymentListener(slow, executor, 1, Backpressure.FAIL);
+    listener.block("b0");
+    while (listener.getQueueDepth() > 0)
+      Thread.sleep(1);
+    listener.block("b1");
+    try {
+      listener.block("b2");
+      Assert.fail();
+    } catch (RejectedExecutionException ex) {
+      // expected
+    }
+    Assert.assertEquals(1, listener.getRejectedCount());
+    release.countDown();
+    Assert.assertTrue(listener.awaitIdle(10, TimeUnit.SECONDS));
+    Assert.assertEquals(Arrays.asList("b0", "b1"), received);
+  }
+
+  @Test
+  public void slowListenerDoesNotDelayOthers() throws Exception {
+    BitcoinAcceptor acceptor = new BitcoinAcceptor(null);
+    List<String> fast = new ArrayList<>();
+    AsyncPaymentListener async = acceptor.addAsyncListener(slow, executor, 4, Backpressure.BLOCK);
+    acceptor.addListener(new SimpleBitcoinPaymentListener() {
+      @Override
+      public void block(String blockHash) {
+        fast.add(blockHash);
+      }
+    });
+    for (BitcoinPaymentListener listener : acceptor.getListeners())
+      listener.block("b0");
+    Assert.assertEquals(Collections.singletonList("b0"), fast);
+    Assert.assertTrue(received.isEmpty());
+    release.countDown();
+    Assert.assertTrue(async.awaitIdle(10, TimeUnit.SECONDS));
+    Assert.assertEquals(Collections.singletonList("b0"), received);
+    Assert.assertTrue(async.getMaxHandlerNanos() > 0);
+  }
+}
@@ -0,0 +1,183 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+
+public class BitcoinAcceptorTest {
+
+  private static final String TX = "aa00000000000000000000000000000000000000000000000000000000000001";
+
+  private String tipHash = branchHash('a', 10);
+  private String txBlock = branchHash('a', 9);
+
+  /**
+   * @return the hash of a block of branch 'a', or of branch 'b' forking from 'a' above height 8
+   */
+  private static String branchHash(char branch, int height) {
+    return String.format("%c%063x", branch, height);
+  }
+
+  private static String hash(int height) {
+    return branchHash('a', height);
+  }
+
+  /**
+   * A node whose chain ends with {@link #tipHash}, and a wallet with a single receive transaction in
+   * {@link #txBlock}, or none if it is null
+   */
+  private final CannedTransport node = CannedTransport.answering(call -> {
+    if ("getblockheader".equals(call.method)) {
+      String hash = (String) call.param(0);
+      char branch = hash.charAt(0);
+      int height = Integer.parseInt(hash.substring(1), 16);
+      return "{\"hash\":\"" + hash + "\",\"height\":" + height
+          + (height > 0 ? ",\"previousblockhash\":\"" + branchHash(height == 9 ? 'a' : branch, height - 1) + "\"" : "") + "}";
+    }
+    return "{\"transactions\":[" + (txBlock == null ? "" : "{\"txid\":\"" + TX
+        + "\",\"category\":\"receive\",\"confirmations\":2,\"amount\":0.1,\"blockhash\":\"" + txBlock + "\"}")
+        + "],\"lastblock\":\"" + tipHash + "\"}";
+  });
+
+  private BitcoinAcceptor recordingAcceptor(List<String> events) {
+    return new BitcoinAcceptor(node.client(), null, 3, new BitcoinPaymentListener() {
+      @Override
+      public void block(String blockHash) {
+        events.add("block " + blockHash.charAt(0) + Integer.parseInt(blockHash.substring(1), 16));
+      }
+
+      @Override
+      public void transaction(Transaction transaction) {
+        events.add("tx " + transaction.blockHash().charAt(0));
+      }
+
+      @Override
+      public void blockDisconnected(String blockHash) {
+        events.add("disconnected " + blockHash.charAt(0) + Integer.parseInt(blockHash.substring(1), 16));
+      }
+
+      @Override
+      public void transactionReverted(Transaction transaction) {
+        events.add("reverted " + transaction.blockHash().charAt(0));
+      }
+    });
+  }
+
+  @Test
+  public void reorganizationDisconnectsBlocks() {
+    List<String> events = new ArrayList<>();
+    BitcoinAcceptor acceptor = recordingAcceptor(events);
+    acceptor.checkPayments();
+    Assert.assertEquals(Arrays.asList("tx a", "block a10"), events);
+
+    // The transaction is mined again in the new branch
+    events.clear();
+    tipHash = branchHash('b', 11);
+    txBlock = branchHash('b', 10);
+    acceptor.checkPayments();
+    Assert.assertEquals(Arrays.asList("tx b", "disconnected a10", "disconnected a9", "block b11"), events);
+
+    // A plain extension of the chain disconnects nothing
+    events.clear();
+    tipHash = branchHash('b', 12);
+    acceptor.checkPayments();
+    Assert.assertEquals(Arrays.asList("tx b", "block b12"), events);
+  }
+
+  @Test
+  public void reorganizationRevertsTransactions() {
+    List<String> events = new ArrayList<>();
+    BitcoinAcceptor acceptor = recordingAcceptor(events);
+    acceptor.checkPayments();
+
+    events.clear();
+    tipHash = branchHash('b', 10);
+    txBlock = null;
+    acceptor.checkPayments();
+    Assert.assertEquals(Arrays.asList("disconnected a10", "disconnected a9", "reverted a", "block b10"), events);
+  }
+
+  private BitcoinAcceptor acceptor(Path checkpoint, List<String> delivered) throws IOException {
+    BitcoinAcceptor acceptor = new BitcoinAcceptor(node.client(), null, 3, new SimpleBitcoinPaymentListener() {
+      @Override
+      public void transaction(Transaction transaction) {
+        delivered.add(transaction.txId());
+      }
+    });
+    acceptor.setCheckpointFile(checkpoint);
+    return acceptor;
+  }
+
+  private String last() {
+    return node.calls.get(node.calls.size() - 1).toString();
+  }
+
+  @Test
+  public void acceptorResumesFromCheckpoint() throws Exception {
+    Path dir = Files.createTempDirectory("acceptor");
+    Path checkpoint = dir.resolve("acceptor.checkpoint");
+    try {
+      tipHash = hash(9);
+      txBlock = hash(8);
+      List<String> delivered = new ArrayList<>();
+      BitcoinAcceptor first = acceptor(checkpoint, delivered);
+      first.checkPayments();
+      first.checkPayments();
+      Assert.assertEquals(Arrays.asList(TX, TX), delivered);
+      Assert.assertEquals("listsinceblock [" + hash(6) + "]", last());
+
+      node.calls.clear();
+      delivered.clear();
+      BitcoinAcceptor restarted = acceptor(checkpoint, delivered);
+      Assert.assertEquals(hash(9), restarted.getLastBlock());
+      restarted.checkPayments();
+      Assert.assertEquals(Collections.emptyList(), delivered);
+      Assert.assertEquals("listsinceblock [" + hash(6) + "]", last());
+      Assert.assertEquals(3, node.count("getblockheader"));
+
+      // A new block costs a single getblockheader, the rest of the window is cached
+      tipHash = hash(10);
+      restarted.checkPayments();
+      Assert.assertEquals(4, node.count("getblockheader"));
+      restarted.checkPayments();
+      Assert.assertEquals("listsinceblock [" + hash(7) + "]", last());
+      Assert.assertEquals(Collections.singletonList(TX), delivered);
+      Assert.assertEquals(Collections.singleton(TX), AcceptorCheckpoint.load(checkpoint).delivered());
+    } finally {
+      Files.deleteIfExists(checkpoint);
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void checkpointRoundTrip() throws Exception {
+    Path file = Files.createTempFile("acceptor", ".checkpoint");
+    try {
+      new AcceptorCheckpoint(hash(5), new LinkedHashSet<>(Arrays.asList(TX, hash(1)))).save(file);
+      Assert.assertEquals(4 + 1 + 1 + 32 + 4 + 2 * 32, Files.size(file));
+      AcceptorCheckpoint loaded = AcceptorCheckpoint.load(file);
+      Assert.assertEquals(hash(5), loaded.lastBlock());
+      Assert.assertEquals(Arrays.asList(TX, hash(1)), new ArrayList<>(loaded.delivered()));
+
+      Files.write(file, new byte[] { 1, 2, 3 });
+      try {
+        AcceptorCheckpoint.load(file);
+        Assert.fail();
+      } catch (IOException ex) {
+        // expected
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.ByteArrayInputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.Assert;
+
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpRequest;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpResponse;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpTransport;
+import wf.bitcoin.krotjson.JSON;
+
+/**
+ * Fake node for tests, answering each request with a canned response, or each JSON-RPC call, single or batched,
+ * through a {@link Responder}. Requests and calls are recorded.
+ */
+class CannedTransport implements HttpTransport {
+
+  /**
+   * A JSON-RPC call received
+   */
+  static final class Call {
+    final String path;
+    final String method;
+    final List<?> params;
+
+    Call(String path, String method, List<?> params) {
+      this.path = path;
+      this.method = method;
+      this.params = params;
+    }
+
+    Object param(int index) {
+      return params.get(index);
+    }
+
+    @Override
+    public String toString() {
+      return method + " " + params;
+    }
+  }
+
+  interface Responder {
+    /**
+     * @return the JSON text of the result, see {@link CannedTransport#error(int, String)} to fail the call
+     */
+    String result(Call call);
+  }
+
+  /**
+   * Thrown by a {@link Responder} to answer with an error
+   */
+  static final class RpcError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int code;
+
+    RpcError(int code, String message) {
+      super(message);
+      this.code = code;
+    }
+  }
+
+  /**
+   * <code>method url</code> of each request
+   */
+  final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+  /**
+   * Calls answered by the responder, in order
+   */
+  final List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+  /**
+   * Number of calls in each request answered by the responder, 1 for a single call
+   */
+  final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+  private final Function<HttpRequest, HttpResponse> server;
+  private final Responder responder;
+
+  private CannedTransport(Function<HttpRequest, HttpResponse> server, Responder responder) {
+    this.server = server;
+    this.responder = responder;
+  }
+
+  CannedTransport(Function<HttpRequest, HttpResponse> server) {
+    this(server, null);
+  }
+
+  /**
+   * Answers every request with the given response.
+   */
+  CannedTransport(String response) {
+    this(request -> response(200, response));
+  }
+
+  /**
+   * Answers every batch with the given response, checking that the request was a batch of the expected size.
+   */
+  CannedTransport(int expectedCalls, String response) {
+    this(request -> {
+      Assert.assertEquals(expectedCalls, ((List<?>) parse(request)).size());
+      return response(200, response);
+    });
+  }
+
+  static CannedTransport answering(Responder responder) {
+    return new CannedTransport(null, responder);
+  }
+
+  static RpcError error(int code, String message) {
+    return new RpcError(code, message);
+  }
+
+  static HttpResponse response(int code, byte[] body) {
+    return new HttpResponse(code, code == 200 ? "OK" : "Not Found", null, new ByteArrayInputStream(body));
+  }
+
+  static HttpResponse response(int code, String body) {
+    return response(code, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Object parse(HttpRequest request) {
+    return JSON.parse(new String(request.getBody(), 0, request.getBodyLength(), StandardCharsets.UTF_8));
+  }
+
+  private HttpResponse answer(HttpRequest request) {
+    Object parsed = parse(request);
+    String path = request.getUrl().getPath();
+    if (!(parsed instanceof List)) {
+      batchSizes.add(1);
+      return response(200, answer(path, (Map<?, ?>) parsed));
+    }
+    List<?> batch = (List<?>) parsed;
+    batchSizes.add(batch.size());
+    StringBuilder body = new StringBuilder("[");
+    for (Object call : batch)
+      body.append(body.length() == 1 ? "" : ",").append(answer(path, (Map<?, ?>) call));
+    return response(200, body.append("]").toString());
+  }
+
+  private String answer(String path, Map<?, ?> request) {
+    Call call = new Call(path, (String) request.get("method"), (List<?>) request.get("params"));
+    calls.add(call);
+    String id = ",\"id\":\"" + request.get("id") + "\"}";
+    try {
+      return "{\"result\":" + responder.result(call) + ",\"error\":null" + id;
+    } catch (RpcError ex) {
+      return "{\"result\":null,\"error\":{\"code\":" + ex.code + ",\"message\":\"" + ex.getMessage() + "\"}" + id;
+    }
+  }
+
+  /**
+   * @return the number of calls of the method
+   */
+  long count(String method) {
+    synchronized (calls) {
+      return calls.stream().filter(c -> c.method.equals(method)).count();
+    }
+  }
+
+  BitcoinJSONRPCClient client() {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    client.setTransport(this);
+    return client;
+  }
+
+  BitcoinJSONRPCClient client(String url) throws MalformedURLException {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(url);
+    client.setTransport(this);
+    return client;
+  }
+
+  @Override
+  public HttpResponse execute(HttpRequest request) {
+    requests.add(request.getMethod() + " " + request.getUrl());
+    return server != null ? server.apply(request) : answer(request);
+  }
+
+  @Override
+  public void close() {
+  }
+}
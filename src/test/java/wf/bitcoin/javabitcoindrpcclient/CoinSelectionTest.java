@@ -0,0 +1,115 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.CoinSelection.Algorithm;
+import wf.bitcoin.javabitcoindrpcclient.CoinSelection.Result;
+
+public class CoinSelectionTest {
+
+  private static int[] vsizes(int count) {
+    int[] vsizes = new int[count];
+    Arrays.fill(vsizes, 68);
+    return vsizes;
+  }
+
+  private static long total(long[] values, Result result) {
+    long total = 0;
+    for (int i : result.selected())
+      total += values[i];
+    return total;
+  }
+
+  @Test
+  public void branchAndBoundFindsExactMatch() {
+    long[] values = { 100_000, 70_000, 50_000, 30_000, 20_000, 5_000 };
+    Result result = new CoinSelection().select(values, vsizes(values.length), 75_000, 0);
+    Assert.assertEquals(Algorithm.BRANCH_AND_BOUND, result.algorithm());
+    Assert.assertEquals(75_000, result.inputTotal());
+    Assert.assertEquals(0, result.change());
+    Assert.assertEquals(0, result.fee());
+    Assert.assertEquals(0, result.waste());
+    Assert.assertEquals(75_000, total(values, result));
+  }
+
+  @Test
+  public void branchAndBoundAccountsForFees() {
+    // 10 sat/vB: each input costs 680 sat, the transaction 1000 sat
+    CoinSelection selection = new CoinSelection(10_000, 10_000, 10_000);
+    long[] values = { 500_000, 201_680, 100_680, 50_000 };
+    Result result = selection.select(values, vsizes(values.length), 300_000, 100);
+    Assert.assertEquals(Algorithm.BRANCH_AND_BOUND, result.algorithm());
+    Assert.assertArrayEquals(new int[] { 1, 2 }, result.selected());
+    Assert.assertEquals(0, result.change());
+    Assert.assertEquals(2_360, result.fee());
+  }
+
+  @Test
+  public void fallsBackToKnapsackWithChange() {
+    CoinSelection selection = new CoinSelection(1_000, 1_000, 1_000);
+    long[] values = { 40_000, 40_000, 40_000, 40_000 };
+    Result result = selection.select(values, vsizes(values.length), 50_000, 50);
+    Assert.assertEquals(Algorithm.KNAPSACK, result.algorithm());
+    Assert.assertEquals(2, result.selected().length);
+    Assert.assertEquals(80_000, result.inputTotal());
+    long fee = CoinSelection.fee(1_000, 50 + 2 * 68 + CoinSelection.CHANGE_OUTPUT_VSIZE);
+    Assert.assertEquals(fee, result.fee());
+    Assert.assertEquals(80_000 - 50_000 - fee, result.change());
+  }
+
+  @Test
+  public void insufficientFunds() {
+    CoinSelection selection = new CoinSelection(10_000, 10_000, 0);
+    long[] values = { 30_000, 20_000, 500 };
+    // The last coin costs more than it is worth
+    Assert.assertNull(selection.select(values, vsizes(values.length), 49_000, 11));
+    Assert.assertNotNull(new CoinSelection().select(values, vsizes(values.length), 50_500, 11));
+    Assert.assertNull(new CoinSelection().select(values, vsizes(values.length), 50_501, 11));
+  }
+
+  @Test
+  public void largeWallet() {
+    Random random = new Random(1);
+    long[] values = new long[200_000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = 1_000 + random.nextInt(10_000_000);
+    int[] vsizes = vsizes(values.length);
+    CoinSelection selection = new CoinSelection(5_000, 10_000, 1_000);
+    long target = 123_456_789;
+    Result result = selection.select(values, vsizes, target, 100);
+    Assert.assertNotNull(result);
+    Assert.assertEquals(result.inputTotal(), total(values, result));
+    Assert.assertEquals(target, result.inputTotal() - result.fee() - result.change());
+    Assert.assertTrue(result.fee() >= CoinSelection.fee(5_000, 100 + 68 * result.selected().length));
+    Assert.assertTrue(result.selected().length < 100);
+  }
+
+  @Test
+  public void sortsDescending() {
+    Random random = new Random(2);
+    long[] keys = new long[10_000];
+    int[] values = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = random.nextInt(1_000);
+      values[i] = i;
+    }
+    long[] original = keys.clone();
+    CoinSelection.sortDescending(keys, values, 0, keys.length - 1);
+    for (int i = 0; i < keys.length; i++) {
+      Assert.assertEquals(original[values[i]], keys[i]);
+      if (i > 0)
+        Assert.assertTrue(keys[i - 1] >= keys[i]);
+    }
+  }
+
+  @Test
+  public void highVoutInputsAreNotDuplicated() {
+    String txid = String.format("%064x", 1);
+    BitcoinRawTxBuilder builder = new BitcoinRawTxBuilder(null).in(txid, 200).in(txid, 200).in(txid, 201);
+    Assert.assertEquals(2, builder.inputs.size());
+  }
+}
@@ -0,0 +1,192 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+import wf.bitcoin.krotjson.HexCoder;
+
+public class ConfirmationTrackerTest {
+
+  private final HeaderChainCache headers = new HeaderChainCache(null);
+  private final List<String> events = new ArrayList<>();
+
+  private static String hash(char fork, int height) {
+    return String.format("%c%063x", fork, height);
+  }
+
+  /**
+   * Adds the blocks of a branch, the first one extending the given parent branch
+   */
+  private void branch(char fork, char parent, int from, int to) {
+    for (int height = from; height <= to; height++)
+      headers.put(hash(fork, height), height == 0 ? null : hash(height == from ? parent : fork, height - 1), height);
+  }
+
+  /**
+   * @return a txid ending with the hex encoding of the name
+   */
+  private static String txId(String name) {
+    String hex = HexCoder.encode(name.getBytes(StandardCharsets.US_ASCII));
+    return String.format("%064d", 0).substring(hex.length()) + hex;
+  }
+
+  private static String name(String txId) {
+    return new String(HexCoder.decode(txId.replaceFirst("^(00)+", "")), StandardCharsets.US_ASCII);
+  }
+
+  private static Transaction tx(String name, String blockHash, int confirmations) {
+    String txId = txId(name);
+    return (Transaction) Proxy.newProxyInstance(Transaction.class.getClassLoader(), new Class<?>[] { Transaction.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "txId":
+              return txId;
+            case "blockHash":
+              return blockHash;
+            case "confirmations":
+              return confirmations;
+            case "toString":
+              return txId;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private ConfirmationTracker tracker(int minConf) {
+    return new ConfirmationTracker(headers, minConf) {
+      @Override
+      public void confirmed(Transaction transaction, int confirmations) {
+        events.add(name(transaction.txId()) + ":" + confirmations);
+      }
+
+      @Override
+      public void unconfirmed(Transaction transaction) {
+        events.add(name(transaction.txId()) + ":reverted");
+      }
+
+      @Override
+      protected int target(Transaction transaction) {
+        return name(transaction.txId()).equals("fast") ? 1 : minConf;
+      }
+    };
+  }
+
+  @Test
+  public void paymentsConfirmByHeight() {
+    branch('a', 'a', 0, 20);
+    ConfirmationTracker tracker = tracker(3);
+    tracker.block(hash('a', 10));
+    tracker.transaction(tx("t1", hash('a', 9), 2));
+    tracker.transaction(tx("t2", hash('a', 10), 1));
+    tracker.transaction(tx("fast", hash('a', 10), 1));
+    tracker.transaction(tx("mempool", null, 0));
+    Assert.assertEquals(Collections.singletonList("fast:1"), events);
+    Assert.assertEquals(3, tracker.pendingCount());
+
+    tracker.block(hash('a', 11));
+    Assert.assertEquals(Arrays.asList("fast:1", "t1:3"), events);
+    // Payments returned again by the acceptor are neither queued nor confirmed twice
+    tracker.transaction(tx("t1", hash('a', 9), 3));
+    tracker.transaction(tx("fast", hash('a', 10), 2));
+    tracker.block(hash('a', 14));
+    Assert.assertEquals(Arrays.asList("fast:1", "t1:3", "t2:5"), events);
+    Assert.assertEquals(1, tracker.pendingCount());
+    Assert.assertEquals(14, tracker.tipHeight());
+  }
+
+  @Test
+  public void reorganizationRevertsPaymentsAboveFork() {
+    branch('a', 'a', 0, 12);
+    branch('b', 'a', 11, 13);
+    ConfirmationTracker tracker = tracker(3);
+    tracker.block(hash('a', 12));
+    tracker.transaction(tx("t1", hash('a', 10), 3));
+    tracker.transaction(tx("t2", hash('a', 11), 2));
+    tracker.transaction(tx("t3", hash('a', 12), 1));
+    Assert.assertEquals(Collections.singletonList("t1:3"), events);
+
+    tracker.block(hash('b', 13));
+    Assert.assertEquals(Arrays.asList("t1:3", "t2:reverted", "t3:reverted"), events);
+    Assert.assertEquals(2, tracker.pendingCount());
+
+    tracker.transaction(tx("t2", hash('b', 12), 2));
+    Assert.assertEquals(3, events.size());
+    branch('b', 'b', 14, 14);
+    tracker.block(hash('b', 14));
+    Assert.assertEquals(Arrays.asList("t1:3", "t2:reverted", "t3:reverted", "t2:3"), events);
+    Assert.assertEquals(1, tracker.pendingCount());
+  }
+
+  @Test
+  public void staleMempoolPaymentsAreDropped() {
+    branch('a', 'a', 0, 20);
+    ConfirmationTracker tracker = tracker(3);
+    tracker.setUnconfirmedExpiry(5);
+    tracker.transaction(tx("early", null, 0));
+    tracker.block(hash('a', 10));
+    tracker.transaction(tx("replaced", null, 0));
+    tracker.transaction(tx("kept", null, 0));
+    tracker.transaction(tx("conflicted", null, 0));
+    tracker.transaction(tx("conflicted", null, -1));
+    Assert.assertEquals(3, tracker.pendingCount());
+
+    tracker.block(hash('a', 14));
+    tracker.transaction(tx("kept", null, 0));
+    tracker.block(hash('a', 15));
+    Assert.assertEquals(1, tracker.pendingCount());
+
+    // A dropped payment reported in a block is tracked again
+    tracker.transaction(tx("replaced", hash('a', 15), 1));
+    tracker.block(hash('a', 17));
+    Assert.assertEquals(Collections.singletonList("replaced:3"), events);
+  }
+
+  @Test
+  public void mempoolPaymentsReportedBeforeTheFirstTipAreKept() {
+    // The acceptor reports the payments before the tip, in the order of listsinceblock
+    branch('a', 'a', 0, 400);
+    ConfirmationTracker tracker = tracker(3);
+    tracker.transaction(tx("mempool", null, 0));
+    tracker.transaction(tx("t1", hash('a', 199), 2));
+    tracker.block(hash('a', 200));
+    Assert.assertEquals(2, tracker.pendingCount());
+
+    tracker.block(hash('a', 201));
+    Assert.assertEquals(Collections.singletonList("t1:3"), events);
+    Assert.assertEquals(1, tracker.pendingCount());
+    tracker.block(hash('a', 343));
+    Assert.assertEquals(1, tracker.pendingCount());
+    tracker.block(hash('a', 344));
+    Assert.assertEquals(0, tracker.pendingCount());
+  }
+
+  @Test
+  public void unknownBlocksAreIgnored() {
+    HeaderChainCache node = new HeaderChainCache(CannedTransport.answering(call -> {
+      throw CannedTransport.error(-5, "Block not found");
+    }).client());
+    Assert.assertEquals(-1, node.height(hash('a', 1)));
+    Assert.assertNull(node.previousHash(hash('a', 1)));
+
+    ConfirmationTracker tracker = new ConfirmationTracker(node, 1) {
+      @Override
+      public void confirmed(Transaction transaction, int confirmations) {
+        events.add(name(transaction.txId()));
+      }
+    };
+    tracker.transaction(tx("t1", hash('a', 1), 1));
+    tracker.block(hash('a', 1));
+    Assert.assertEquals(0, tracker.pendingCount());
+    Assert.assertEquals(-1, tracker.tipHeight());
+    Assert.assertTrue(events.isEmpty());
+  }
+}
@@ -1,5 +1,9 @@
 package wf.bitcoin.javabitcoindrpcclient;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -24,4 +28,33 @@ public class HexCoderTest {
     Assert.assertArrayEquals(bytes, res);
     Assert.assertEquals(str, new String(res));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testBufferVariants() {
+    ByteBuffer bytes = ByteBuffer.allocate(7);
+    bytes.put((byte) 0x01);
+    Assert.assertEquals(4, HexCoder.decode("DEADbeef", bytes));
+    Assert.assertEquals(2, HexCoder.decode("\"ff00\"".getBytes(StandardCharsets.US_ASCII), 1, 4, bytes));
+    Assert.assertFalse(bytes.hasRemaining());
+
+    bytes.flip();
+    Assert.assertEquals("01deadbeefff00", HexCoder.encode(bytes, new StringBuilder()).toString());
+    Assert.assertFalse(bytes.hasRemaining());
+  }
+
+  @Test
+  public void testInvalidInput() {
+    for (String invalid : new String[] { "abc", "zz", "0g", "\u00e9a" }) {
+      try {
+        HexCoder.decode(invalid);
+        Assert.fail(invalid);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+    try {
+      HexCoder.decode("aabb", ByteBuffer.allocate(1));
+      Assert.fail();
+    } catch (BufferOverflowException expected) {
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.PayoutBatcher.Payout;
+import wf.bitcoin.javabitcoindrpcclient.binary.Address;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryTransaction;
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+import wf.bitcoin.krotjson.HexCoder;
+
+public class PayoutBatcherTest {
+
+  private final List<Map<?, ?>> sent = new ArrayList<>();
+  private final Map<String, String> transactions = new HashMap<>();
+  private volatile boolean failing;
+
+  private static String address(int n) {
+    return Address.fromScript(HexCoder.decode(String.format("0014%040x", n)), Chain.REGTEST);
+  }
+
+  private static void output(ByteArrayOutputStream b, long sats, byte[] script) {
+    for (int i = 0; i < 8; i++)
+      b.write((int) (sats >>> 8 * i));
+    b.write(script.length);
+    b.write(script, 0, script.length);
+  }
+
+  /**
+   * A transaction paying the amounts in reverse order, after a change output
+   */
+  private String sendMany(Map<?, ?> amounts) {
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    b.write(2);
+    b.write(0);
+    b.write(0);
+    b.write(0);
+    b.write(1);
+    for (int i = 0; i < 32; i++)
+      b.write(transactions.size());
+    for (int i = 0; i < 4 + 1 + 4; i++)
+      b.write(0);
+    b.write(amounts.size() + 1);
+    output(b, 12345, HexCoder.decode(String.format("0014%040x", 999)));
+    List<Object> addresses = new ArrayList<>(amounts.keySet());
+    for (int i = addresses.size() - 1; i >= 0; i--) {
+      Object amount = amounts.get(addresses.get(i));
+      output(b, new BigDecimal(amount.toString()).movePointRight(8).longValueExact(), Address.toScript((String) addresses.get(i)));
+    }
+    for (int i = 0; i < 4; i++)
+      b.write(0);
+    BinaryTransaction tx = BinaryTransaction.decode(b.toByteArray());
+    transactions.put(tx.txId(), tx.hex());
+    return tx.txId();
+  }
+
+  private BitcoindRpcClient wallet() {
+    return CannedTransport.answering(call -> {
+      synchronized (this) {
+        if (!"sendmany".equals(call.method))
+          return "\"" + transactions.get(call.param(0)) + "\"";
+        Map<?, ?> amounts = (Map<?, ?>) call.param(1);
+        sent.add(amounts);
+        if (failing)
+          throw CannedTransport.error(-6, "Insufficient funds");
+        return "\"" + sendMany(amounts) + "\"";
+      }
+    }).client();
+  }
+
+  @Test
+  public void payoutsShareTransactions() throws Exception {
+    try (PayoutBatcher batcher = new PayoutBatcher(wallet())) {
+      List<CompletableFuture<Payout>> futures = new ArrayList<>();
+      futures.add(batcher.submit(address(1), new BigDecimal("0.1")));
+      futures.add(batcher.submit(address(2), new BigDecimal("0.2")));
+      // Same address again, waits for the next transaction
+      futures.add(batcher.submit(address(1), new BigDecimal("0.3")));
+      futures.add(batcher.submit(address(3), new BigDecimal("0.1")));
+      Assert.assertEquals(2, batcher.flush());
+      Assert.assertEquals(0, batcher.getQueueSize());
+
+      Assert.assertEquals(3, sent.get(0).size());
+      Assert.assertEquals(1, sent.get(1).size());
+      Payout first = futures.get(0).get(0, TimeUnit.SECONDS);
+      Payout second = futures.get(1).get(0, TimeUnit.SECONDS);
+      Payout third = futures.get(2).get(0, TimeUnit.SECONDS);
+      Payout fourth = futures.get(3).get(0, TimeUnit.SECONDS);
+      Assert.assertEquals(first.txid(), second.txid());
+      Assert.assertEquals(first.txid(), fourth.txid());
+      Assert.assertNotEquals(first.txid(), third.txid());
+      Assert.assertEquals(3, first.vout());
+      Assert.assertEquals(2, second.vout());
+      Assert.assertEquals(1, fourth.vout());
+      Assert.assertEquals(1, third.vout());
+    }
+  }
+
+  @Test
+  public void weightLimitsTransactions() {
+    try (PayoutBatcher batcher = new PayoutBatcher(wallet())) {
+      batcher.setInputReserve(0);
+      // Overhead, change and two P2WPKH outputs
+      batcher.setMaxWeight(4 * (11 + 31 + 2 * 31));
+      for (int i = 1; i <= 5; i++)
+        batcher.submit(address(i), new BigDecimal("0.01"));
+      Assert.assertEquals(3, batcher.flush());
+      Assert.assertEquals(2, sent.get(0).size());
+      Assert.assertEquals(1, sent.get(2).size());
+    }
+  }
+
+  @Test
+  public void fullQueueIsFlushed() throws Exception {
+    try (PayoutBatcher batcher = new PayoutBatcher(wallet())) {
+      batcher.setMaxOutputs(2);
+      batcher.submit(address(1), new BigDecimal("0.01"));
+      Payout payout = batcher.submit(address(2), new BigDecimal("0.02")).get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(1, payout.vout());
+    }
+  }
+
+  @Test
+  public void failedSendFailsItsPayouts() throws Exception {
+    failing = true;
+    try (PayoutBatcher batcher = new PayoutBatcher(wallet())) {
+      CompletableFuture<Payout> future = batcher.submit(address(1), new BigDecimal("0.01"));
+      batcher.flush();
+      try {
+        future.get(0, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException ex) {
+        Assert.assertTrue(ex.getCause() instanceof BitcoinRPCException);
+      }
+      try {
+        batcher.submit(address(1), new BigDecimal("0.000000001"));
+        Assert.fail();
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+  }
+}
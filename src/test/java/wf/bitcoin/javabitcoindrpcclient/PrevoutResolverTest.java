@@ -0,0 +1,114 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.PrevoutResolver.Prevout;
+import wf.bitcoin.javabitcoindrpcclient.binary.BinaryTransaction;
+import wf.bitcoin.krotjson.HexCoder;
+
+public class PrevoutResolverTest {
+
+  private static final String SCRIPT = String.format("0014%040x", 1);
+
+  private final Map<String, String> rawTransactions = new HashMap<>();
+  private String block;
+
+  /**
+   * A transaction spending the given outpoints, with one output per value
+   */
+  private static BinaryTransaction tx(String[] spent, long... values) {
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    b.write(1);
+    b.write(0);
+    b.write(0);
+    b.write(0);
+    b.write(spent.length);
+    for (String outpoint : spent) {
+      byte[] txid = HexCoder.decode(outpoint.substring(0, 64));
+      for (int i = 31; i >= 0; i--)
+        b.write(txid[i]);
+      int vout = Integer.parseInt(outpoint.substring(65));
+      for (int i = 0; i < 4; i++)
+        b.write(vout >>> 8 * i);
+      b.write(0);
+      for (int i = 0; i < 4; i++)
+        b.write(0xFF);
+    }
+    b.write(values.length);
+    for (long value : values) {
+      for (int i = 0; i < 8; i++)
+        b.write((int) (value >>> 8 * i));
+      b.write(22);
+      byte[] script = HexCoder.decode(SCRIPT);
+      b.write(script, 0, script.length);
+    }
+    for (int i = 0; i < 4; i++)
+      b.write(0);
+    return BinaryTransaction.decode(b.toByteArray());
+  }
+
+  private String parent(long... values) {
+    BinaryTransaction tx = tx(new String[] { String.format("%064x:0", rawTransactions.size() + 1) }, values);
+    rawTransactions.put(tx.txId(), tx.hex());
+    return tx.txId();
+  }
+
+  private final CannedTransport node = CannedTransport.answering(
+      call -> "getblock".equals(call.method) ? block : "\"" + rawTransactions.get(call.param(0)) + "\"");
+
+  @Test
+  public void resolvesTransactionInOneBatch() {
+    String p1 = parent(50_000, 70_000);
+    String p2 = parent(30_000);
+    BinaryTransaction child = tx(new String[] { p1 + ":1", p2 + ":0", p1 + ":0" }, 140_000);
+    PrevoutResolver resolver = new PrevoutResolver(node.client());
+
+    List<Prevout> prevouts = resolver.resolve(child);
+    Assert.assertEquals(1, node.batchSizes.size());
+    Assert.assertEquals(2, node.batchSizes.get(0).intValue());
+    Assert.assertEquals(70_000, prevouts.get(0).valueSats());
+    Assert.assertEquals(p2, prevouts.get(1).txid());
+    Assert.assertEquals(SCRIPT, prevouts.get(2).scriptPubKey());
+    Assert.assertEquals(10_000, resolver.fee(child));
+    Assert.assertEquals(1, node.batchSizes.size());
+    Assert.assertEquals(2, resolver.getFetchedCount());
+    Assert.assertEquals(3, resolver.getHitCount());
+    Assert.assertEquals(new BigDecimal("0.00030000"), resolver.get(p2, 0).value());
+  }
+
+  @Test
+  public void resolvesBlock() {
+    String p1 = parent(80_000);
+    String p2 = parent(60_000);
+    String t1 = String.format("%064x", 0x71);
+    String t2 = String.format("%064x", 0x72);
+    String out = "\"vout\":[{\"n\":0,\"value\":0.0005,\"scriptPubKey\":{\"hex\":\"" + SCRIPT + "\"}}]";
+    block = "{\"hash\":\"00\",\"tx\":["
+        + "{\"txid\":\"" + String.format("%064x", 0x70) + "\",\"vin\":[{\"coinbase\":\"03\"}]," + out + "},"
+        // Spent output included, as with verbosity 3
+        + "{\"txid\":\"" + t1 + "\",\"vin\":[{\"txid\":\"" + p1 + "\",\"vout\":0,"
+        + "\"prevout\":{\"value\":0.0008,\"scriptPubKey\":{\"hex\":\"" + SCRIPT + "\"}}}]," + out + "},"
+        // Spent outputs left out, as with verbosity 2: one from the block, one fetched
+        + "{\"txid\":\"" + t2 + "\",\"vin\":[{\"txid\":\"" + t1 + "\",\"vout\":0},{\"txid\":\"" + p2 + "\",\"vout\":0}],"
+        + out + "}]}";
+
+    PrevoutResolver resolver = new PrevoutResolver(node.client());
+    List<List<Prevout>> prevouts = resolver.resolveBlock("00");
+    Assert.assertEquals(3, prevouts.size());
+    Assert.assertNull(prevouts.get(0).get(0));
+    Assert.assertEquals(80_000, prevouts.get(1).get(0).valueSats());
+    Assert.assertEquals(50_000, prevouts.get(2).get(0).valueSats());
+    Assert.assertEquals(t1, prevouts.get(2).get(0).txid());
+    Assert.assertEquals(60_000, prevouts.get(2).get(1).valueSats());
+    // getblock, then one batch for the only parent not in the block
+    Assert.assertEquals(2, node.batchSizes.size());
+    Assert.assertEquals(1, resolver.getFetchedCount());
+  }
+}
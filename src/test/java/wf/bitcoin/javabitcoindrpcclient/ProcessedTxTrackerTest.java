@@ -0,0 +1,130 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.krotjson.HexCoder;
+
+public class ProcessedTxTrackerTest {
+
+  private static final String[] TX_IDS = new String[10_001];
+
+  static {
+    Random random = new Random(1);
+    byte[] id = new byte[32];
+    for (int i = 0; i < TX_IDS.length; i++) {
+      random.nextBytes(id);
+      TX_IDS[i] = HexCoder.encode(id);
+    }
+  }
+
+  private static String txId(int i) {
+    return TX_IDS[i];
+  }
+
+  @Test
+  public void entriesAreEvictedOnceDeepEnough() {
+    ProcessedTxTracker tracker = new ProcessedTxTracker(10);
+    Assert.assertTrue(tracker.markProcessed(txId(1), 6));
+    Assert.assertFalse(tracker.markProcessed(txId(1), 6));
+    Assert.assertTrue(tracker.markProcessed(txId(2), 1));
+
+    for (int i = 0; i < 4; i++)
+      tracker.advance();
+    Assert.assertTrue(tracker.contains(txId(1)));
+    tracker.advance();
+    Assert.assertFalse(tracker.contains(txId(1)));
+    Assert.assertTrue(tracker.contains(txId(2)));
+    Assert.assertEquals(1, tracker.size());
+
+    // Several blocks at once
+    tracker.advance(4);
+    Assert.assertTrue(tracker.contains(txId(2)));
+    tracker.advance(1);
+    Assert.assertFalse(tracker.contains(txId(2)));
+    Assert.assertEquals(10, tracker.blockCount());
+  }
+
+  @Test
+  public void tableGrows() {
+    ProcessedTxTracker tracker = new ProcessedTxTracker(10);
+    for (int i = 0; i < 10_000; i++)
+      Assert.assertTrue(tracker.markProcessed(txId(i), 1));
+    for (int i = 0; i < 10_000; i++)
+      Assert.assertTrue(tracker.contains(txId(i)));
+    Assert.assertFalse(tracker.contains(txId(10_000)));
+    Assert.assertEquals(10_000, tracker.size());
+  }
+
+  @Test
+  public void idsSharingWordsAreToldApart() {
+    ProcessedTxTracker tracker = new ProcessedTxTracker(10);
+    for (int i = 1; i <= 1_000; i++) {
+      // Differing only in the last word, or only in the first one
+      Assert.assertTrue(tracker.markProcessed(String.format("%064x", i), 1));
+      Assert.assertTrue(tracker.markProcessed(String.format("%016x%048x", i, 0), 1));
+    }
+    Assert.assertEquals(2_000, tracker.size());
+    Assert.assertTrue(tracker.contains(String.format("%016x%048x", 1_000, 0)));
+  }
+
+  @Test
+  public void concurrentMarksSucceedOncePerTransaction() throws Exception {
+    ProcessedTxTracker tracker = new ProcessedTxTracker(10);
+    AtomicInteger marked = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException ex) {
+          return;
+        }
+        for (int i = 0; i < 5_000; i++)
+          if (tracker.markProcessed(txId(i), 1))
+            marked.incrementAndGet();
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads)
+      thread.join();
+    Assert.assertEquals(5_000, marked.get());
+    Assert.assertEquals(5_000, tracker.size());
+  }
+
+  @Test
+  public void persistedEntriesSurviveRestart() throws Exception {
+    Path dir = Files.createTempDirectory("tracker");
+    Path file = dir.resolve("processed.bin");
+    try {
+      try (ProcessedTxTracker tracker = ProcessedTxTracker.open(file, 10)) {
+        for (int i = 0; i < 500; i++)
+          tracker.markProcessed(txId(i), i < 100 ? 10 : 1);
+        tracker.advance();
+      }
+      try (ProcessedTxTracker tracker = ProcessedTxTracker.open(file, 10)) {
+        Assert.assertEquals(1, tracker.blockCount());
+        Assert.assertEquals(400, tracker.size());
+        Assert.assertFalse(tracker.contains(txId(0)));
+        Assert.assertTrue(tracker.contains(txId(499)));
+        Assert.assertFalse(tracker.markProcessed(txId(499), 1));
+        Assert.assertTrue(tracker.markProcessed(txId(0), 1));
+      }
+    } finally {
+      for (Path p : Files.newDirectoryStream(dir))
+        Files.delete(p);
+      Files.delete(dir);
+    }
+  }
+}
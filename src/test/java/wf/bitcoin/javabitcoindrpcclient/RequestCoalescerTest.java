@@ -0,0 +1,113 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpRequest;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpResponse;
+import wf.bitcoin.javabitcoindrpcclient.transport.HttpTransport;
+import wf.bitcoin.krotjson.JSON;
+
+public class RequestCoalescerTest {
+
+  /**
+   * Answers each call with its first parameter, or with an error when the parameter is negative.
+   */
+  static class EchoTransport implements HttpTransport {
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger batches = new AtomicInteger();
+
+    @Override
+    public HttpResponse execute(HttpRequest request) {
+      requests.incrementAndGet();
+      Object parsed = JSON.parse(new String(request.getBody(), 0, request.getBodyLength(), StandardCharsets.ISO_8859_1));
+      Object response;
+      if (parsed instanceof List) {
+        batches.incrementAndGet();
+        List<Object> items = new ArrayList<>();
+        for (Object call : (List<?>) parsed)
+          items.add(answer((Map<?, ?>) call));
+        response = items;
+      } else {
+        response = answer((Map<?, ?>) parsed);
+      }
+      byte[] body = JSON.stringify(response).getBytes(StandardCharsets.ISO_8859_1);
+      return new HttpResponse(200, "OK", null, new ByteArrayInputStream(body));
+    }
+
+    private Map<String, Object> answer(Map<?, ?> call) {
+      Number value = (Number) ((List<?>) call.get("params")).get(0);
+      Map<String, Object> item = new LinkedHashMap<>();
+      if (value.longValue() < 0) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", -8);
+        error.put("message", "Block height out of range");
+        item.put("result", null);
+        item.put("error", error);
+      } else {
+        item.put("result", value);
+        item.put("error", null);
+      }
+      item.put("id", call.get("id"));
+      return item;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void concurrentCallsShareRequests() throws Exception {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    EchoTransport transport = new EchoTransport();
+    client.setTransport(transport);
+    client.setCoalescing(200, TimeUnit.MILLISECONDS, 10);
+
+    ExecutorService executor = Executors.newFixedThreadPool(40);
+    try {
+      List<Future<Object>> results = new ArrayList<>();
+      for (int i = 0; i < 40; i++) {
+        long value = i == 7 ? -1 : i;
+        results.add(executor.submit(() -> client.query("getblockhash", value)));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        try {
+          Object result = results.get(i).get(10, TimeUnit.SECONDS);
+          Assert.assertEquals((long) i, ((Number) result).longValue());
+        } catch (ExecutionException ex) {
+          Assert.assertEquals(7, i);
+          Assert.assertEquals(-8, ((BitcoinRPCException) ex.getCause()).getRPCError().getCode());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertTrue("requests: " + transport.requests.get(), transport.requests.get() < 40);
+    Assert.assertTrue(transport.batches.get() > 0);
+  }
+
+  @Test
+  public void singleCallIsSentAsPlainRequest() {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    EchoTransport transport = new EchoTransport();
+    client.setTransport(transport);
+    client.setCoalescing(1, TimeUnit.MILLISECONDS, 10);
+
+    Assert.assertEquals(5L, ((Number) client.query("getblockhash", 5)).longValue());
+    Assert.assertEquals(0, transport.batches.get());
+  }
+}
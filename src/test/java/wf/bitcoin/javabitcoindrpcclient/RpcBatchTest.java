@@ -0,0 +1,150 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.SmartFeeResult;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxOut;
+
+public class RpcBatchTest {
+
+  @Test
+  public void mixedCallsInOneRequest() {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    // Responses deliberately out of order, the third call fails
+    client.setTransport(new CannedTransport(4,
+        "[{\"result\":{\"feerate\":0.0001,\"blocks\":6},\"error\":null,\"id\":\"3\"}," +
+        "{\"result\":\"000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f\",\"error\":null,\"id\":\"1\"}," +
+        "{\"result\":null,\"error\":{\"code\":-8,\"message\":\"Block height out of range\"},\"id\":\"2\"}," +
+        "{\"result\":800000,\"error\":null,\"id\":\"0\"}]"));
+
+    RpcBatch batch = client.batch();
+    RpcBatch.Handle<Integer> count = batch.getBlockCount();
+    RpcBatch.Handle<String> genesis = batch.getBlockHash(0);
+    RpcBatch.Handle<String> future = batch.getBlockHash(9999999);
+    RpcBatch.Handle<SmartFeeResult> fee = batch.estimateSmartFee(6);
+    batch.execute();
+
+    Assert.assertEquals(800000, count.get().intValue());
+    Assert.assertEquals("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f", genesis.get());
+    Assert.assertEquals(new BigDecimal("0.0001"), fee.get().feeRate());
+    Assert.assertTrue(future.isError());
+    try {
+      future.get();
+      Assert.fail();
+    } catch (BitcoinRPCException ex) {
+      Assert.assertEquals(-8, ex.getRPCError().getCode());
+    }
+  }
+
+  @Test
+  public void nullResultIsNotAnError() {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    client.setTransport(new CannedTransport(1, "[{\"result\":null,\"error\":null,\"id\":\"0\"}]"));
+
+    RpcBatch batch = client.batch();
+    RpcBatch.Handle<TxOut> spent = batch.getTxOut("aa", 0);
+    batch.execute();
+
+    Assert.assertFalse(spent.isError());
+    Assert.assertNull(spent.get());
+  }
+
+  @Test
+  public void getRawTransactionsKeepsFailedIds() {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    client.setTransport(new CannedTransport(2,
+        "[{\"result\":null,\"error\":{\"code\":-5,\"message\":\"No such mempool or blockchain transaction\"},\"id\":\"1\"}," +
+        "{\"result\":{\"txid\":\"aa\",\"vin\":[],\"vout\":[]},\"error\":null,\"id\":\"0\"}]"));
+
+    List<BitcoindRpcClient.RawTransaction> txs = client.getRawTransactions(Arrays.asList("aa", "bb"));
+
+    Assert.assertEquals("aa", txs.get(0).txId());
+    Assert.assertEquals("bb", txs.get(1).txId());
+    Assert.assertEquals("No such mempool or blockchain transaction", txs.get(1).mapStr("error"));
+  }
+
+  @Test
+  public void getTransactionIsCheckedWithoutRawTransaction() {
+    String hex = "02000000" + "01" + "3ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a" + "01000000" + "00"
+        + "ffffffff" + "01" + "8096980000000000" + "160014751e76e8199196d454941c45d1b3a323f1433bd6" + "00000000";
+    CannedTransport node = CannedTransport.answering(
+        call -> "{\"txid\":\"" + call.param(0) + "\",\"hex\":\"" + ("aa".equals(call.param(0)) ? hex : "00") + "\"}");
+
+    RpcBatch batch = node.client().batch();
+    RpcBatch.Handle<BitcoindRpcClient.Transaction> valid = batch.getTransaction("aa");
+    RpcBatch.Handle<BitcoindRpcClient.Transaction> invalid = batch.getTransaction("bb");
+    batch.execute();
+
+    Assert.assertEquals("aa", valid.get().txId());
+    try {
+      invalid.get();
+      Assert.fail();
+    } catch (BitcoinRPCException ex) {
+      Assert.assertEquals("Invalid Tx: bb", ex.getMessage());
+    }
+    Assert.assertEquals(Arrays.asList(2), node.batchSizes);
+    Assert.assertEquals(0, node.count("getrawtransaction"));
+  }
+
+  @Test
+  public void lazyParsingServesTypedResults() {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    client.setLazyParsing(true);
+    client.setTransport(new CannedTransport(2,
+        "[{\"result\":{\"bestblock\":\"00aa\",\"confirmations\":3,\"value\":0.00012000,\"scriptPubKey\":{\"type\":\"witness_v0_keyhash\"},\"coinbase\":false},\"error\":null,\"id\":\"0\"}," +
+        "{\"result\":null,\"error\":{\"code\":-8,\"message\":\"Block height out of range\"},\"id\":\"1\"}]"));
+
+    RpcBatch batch = client.batch();
+    RpcBatch.Handle<TxOut> out = batch.getTxOut("aa", 0);
+    RpcBatch.Handle<String> hash = batch.getBlockHash(-1);
+    batch.execute();
+
+    Assert.assertEquals(3, out.get().confirmations());
+    Assert.assertEquals(new BigDecimal("0.00012000"), out.get().value());
+    Assert.assertEquals("00aa", out.get().bestBlock());
+    Assert.assertTrue(hash.isError());
+  }
+
+  @Test
+  public void largeBatchIsSplitIntoChunks() {
+    BitcoinJSONRPCClient client = new BitcoinJSONRPCClient(false);
+    RequestCoalescerTest.EchoTransport transport = new RequestCoalescerTest.EchoTransport();
+    client.setTransport(transport);
+    client.setBatchChunkSize(3);
+
+    RpcBatch batch = client.batch();
+    List<RpcBatch.Handle<Object>> handles = new ArrayList<>();
+    for (int i = 0; i < 10; i++)
+      handles.add(batch.query("getblockhash", i == 4 ? -1 : i));
+    batch.execute();
+
+    Assert.assertEquals(4, transport.batches.get());
+    for (int i = 0; i < 10; i++) {
+      if (i == 4)
+        Assert.assertTrue(handles.get(i).isError());
+      else
+        Assert.assertEquals((long) i, ((Number) handles.get(i).get()).longValue());
+    }
+  }
+
+  @Test
+  public void adaptiveChunkSizeFollowsLatencyAndPayload() {
+    BatchChunker chunker = BatchChunker.adaptive(10, 1000, TimeUnit.MILLISECONDS.toNanos(100), 1 << 20);
+    int initial = chunker.chunkSize();
+    for (int i = 0; i < 20; i++)
+      chunker.record(initial, TimeUnit.MILLISECONDS.toNanos(400), 1000);
+    Assert.assertTrue(chunker.chunkSize() < initial / 2);
+
+    for (int i = 0; i < 50; i++)
+      chunker.record(100, TimeUnit.MILLISECONDS.toNanos(10), 100 * 50_000);
+    // Latency allows 1000 calls, but only ~20 calls fit the 1 MiB payload limit
+    Assert.assertTrue(chunker.chunkSize() <= 25);
+  }
+}
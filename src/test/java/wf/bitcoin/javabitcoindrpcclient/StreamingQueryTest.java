@@ -0,0 +1,58 @@
+package wf.bitcoin.javabitcoindrpcclient;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.krotjson.HexCoder;
+
+public class StreamingQueryTest {
+
+  private static BitcoinJSONRPCClient client(String response) {
+    return new CannedTransport(response).client();
+  }
+
+  @Test
+  public void elementsAreStreamedOneByOne() {
+    StringBuilder json = new StringBuilder("{\"result\":[");
+    for (int i = 0; i < 5000; i++)
+      json.append(i == 0 ? "" : ",").append("{\"txid\":\"").append(i).append("\",\"vout\":").append(i % 3).append(",\"amount\":0.0001}");
+    json.append("],\"error\":null,\"id\":\"1\"}");
+
+    List<Object> vouts = new ArrayList<>();
+    long count = client(json.toString()).queryForEach("listunspent", utxo -> vouts.add(((Map<?, ?>) utxo).get("vout")));
+
+    Assert.assertEquals(5000, count);
+    Assert.assertEquals(2L, vouts.get(5));
+  }
+
+  @Test
+  public void errorIsReportedAfterNullResult() {
+    try {
+      client("{\"result\":null,\"error\":{\"code\":-18,\"message\":\"Requested wallet does not exist or is not loaded\"},\"id\":\"1\"}")
+          .queryForEach("listunspent", utxo -> Assert.fail());
+      Assert.fail();
+    } catch (BitcoinRPCException ex) {
+      Assert.assertEquals(-18, ex.getRPCError().getCode());
+    }
+  }
+
+  @Test
+  public void rawBlockIsDecodedFromTheStream() {
+    byte[] block = new byte[20_000];
+    for (int i = 0; i < block.length; i++)
+      block[i] = (byte) (i * 31);
+    BitcoinJSONRPCClient client = client("{\"result\":\"" + HexCoder.encode(block) + "\",\"error\":null,\"id\":\"1\"}");
+
+    Assert.assertArrayEquals(block, client.getRawBlockBytes("00aa"));
+
+    ByteBuffer target = ByteBuffer.allocate(block.length + 10);
+    target.position(10);
+    Assert.assertEquals(block.length, client.getRawBlock("00aa", target));
+    Assert.assertEquals(block[block.length - 1], target.get(block.length + 9));
+  }
+}
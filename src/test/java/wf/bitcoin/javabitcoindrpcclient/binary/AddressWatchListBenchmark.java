@@ -0,0 +1,36 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+
+/**
+ * Measures matching the outputs of a block against a large watch list.
+ * <br><br>
+ * Run with <code>java wf.bitcoin.javabitcoindrpcclient.binary.AddressWatchListBenchmark [addresses] [transactions]</code>.
+ */
+public class AddressWatchListBenchmark {
+
+  public static void main(String[] args) {
+    int addresses = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+    int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+
+    AddressWatchList watchList = new AddressWatchList(Chain.MAIN, addresses);
+    byte[] script = new byte[22];
+    script[1] = 20;
+    long start = System.nanoTime();
+    for (int i = 0; i < addresses; i++) {
+      for (int j = 0; j < 4; j++)
+        script[18 + j] = (byte) (i >>> (j * 8));
+      watchList.addScript(script);
+    }
+    System.out.printf("%d scripts added in %.0f ms%n", watchList.size(), (System.nanoTime() - start) / 1e6);
+
+    BinaryBlock block = BinaryBlock.decode(BinaryBlockBenchmark.block(transactions));
+    for (int round = 0; round < 5; round++) {
+      start = System.nanoTime();
+      int iterations = 100;
+      for (int i = 0; i < iterations; i++)
+        watchList.match(block);
+      System.out.printf("round %d: %d outputs matched in %.3f ms%n", round, transactions * 2, (System.nanoTime() - start) / 1e6 / iterations);
+    }
+  }
+}
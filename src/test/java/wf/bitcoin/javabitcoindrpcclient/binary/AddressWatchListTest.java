@@ -0,0 +1,90 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.Transaction;
+import wf.bitcoin.javabitcoindrpcclient.SimpleBitcoinPaymentListener;
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+import wf.bitcoin.krotjson.HexCoder;
+
+public class AddressWatchListTest {
+
+  private static void assertScript(String address, String script, Chain chain) {
+    Assert.assertEquals(script, HexCoder.encode(Address.toScript(address)));
+    // Segwit addresses are encoded in lower case
+    String expected = address.startsWith("BC1") ? address.toLowerCase(Locale.ROOT) : address;
+    Assert.assertEquals(expected, Address.fromScript(HexCoder.decode(script), chain));
+  }
+
+  @Test
+  public void addressesConvertToScripts() {
+    assertScript("1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa", "76a91462e907b15cbf27d5425399ebf6f0fb50ebb88f1888ac", Chain.MAIN);
+    assertScript("3J98t1WpEZ73CNmQviecrnyiWrnqRhWNLy", "a914b472a266d0bd89c13706a4132ccfb16f7c3b9fcb87", Chain.MAIN);
+    assertScript("BC1QW508D6QEJXTDG4Y5R3ZARVARY0C5XW7KV8F3T4", "0014751e76e8199196d454941c45d1b3a323f1433bd6", Chain.MAIN);
+    assertScript("tb1qrp33g0q5c5txsp9arysrx4k6zdkfs4nce4xj0gdcccefvpysxf3q0sl5k7",
+        "00201863143c14c5166804bd19203356da136c985678cd4d27a1b8c6329604903262", Chain.TEST);
+    assertScript("bc1p0xlxvlhemja6c4dqv22uapctqupfhlxm9h8z3k2e72q4k9hcz7vqzk5jj0",
+        "512079be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798", Chain.MAIN);
+    Assert.assertNull(Address.fromScript(HexCoder.decode("6a0401020304"), Chain.MAIN));
+
+    for (String invalid : new String[] { "1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNb", "bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t5",
+        "bc1qw508d6qejxtdg4y5r3zarvary0C5xw7kv8f3t4", "0A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa" }) {
+      try {
+        Address.toScript(invalid);
+        Assert.fail(invalid);
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void watchListReportsMatchingOutputs() {
+    BinaryBlock block = BinaryBlock.decode(BinaryBlockBenchmark.block(300));
+    AddressWatchList watchList = new AddressWatchList(Chain.MAIN, 16);
+    for (int i = 0; i < 50_000; i++)
+      Assert.assertTrue(watchList.addScript(HexCoder.decode(String.format("0014%040x", i))));
+    String address = Address.fromScript(block.transaction(7).output(0).scriptBytes(), Chain.MAIN);
+    Assert.assertTrue(watchList.add(address));
+    Assert.assertFalse(watchList.add(address));
+    Assert.assertTrue(watchList.addScript(block.transaction(250).output(1).scriptBytes()));
+    Assert.assertEquals(50_002, watchList.size());
+    Assert.assertTrue(watchList.contains(address));
+
+    List<Transaction> payments = new ArrayList<>();
+    List<String> blocks = new ArrayList<>();
+    watchList.addListener(new SimpleBitcoinPaymentListener() {
+      @Override
+      public void transaction(Transaction transaction) {
+        payments.add(transaction);
+      }
+
+      @Override
+      public void block(String blockHash) {
+        blocks.add(blockHash);
+      }
+    });
+
+    // Both outputs of these transactions pay the same script
+    Assert.assertEquals(4, watchList.match(block));
+    Assert.assertEquals(Arrays.asList(block.hash()), blocks);
+    Transaction first = payments.get(0);
+    Assert.assertEquals(block.transaction(7).txId(), first.txId());
+    Assert.assertEquals(address, first.address());
+    Assert.assertEquals(block.transaction(7).output(0).value(), first.amount());
+    Assert.assertEquals("receive", first.category());
+    Assert.assertEquals(block.hash(), first.blockHash());
+    Assert.assertEquals(7, first.blockIndex());
+    Assert.assertEquals(Integer.valueOf(1), payments.get(1).mapInt("vout"));
+    Assert.assertEquals(block.transaction(250).txId(), payments.get(3).txId());
+
+    Assert.assertTrue(watchList.matches(block.transaction(250)));
+    Assert.assertFalse(watchList.matches(block.transaction(251)));
+  }
+}
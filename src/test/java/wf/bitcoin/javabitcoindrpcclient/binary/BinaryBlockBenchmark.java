@@ -0,0 +1,146 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import wf.bitcoin.krotjson.HexCoder;
+import wf.bitcoin.krotjson.JSON;
+import wf.bitcoin.krotjson.JSONReader;
+
+/**
+ * Compares reading the txids and output values of a block from a <code>getblock</code> response with verbosity 2,
+ * parsed by the byte parser, and from a verbosity 0 response decoded into a {@link BinaryBlock}.
+ * Both sides start from the response bytes, as received from the server.
+ * <br><br>
+ * Run with <code>java wf.bitcoin.javabitcoindrpcclient.binary.BinaryBlockBenchmark [transactions] [iterations]</code>.
+ */
+public class BinaryBlockBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    byte[] raw = block(transactions);
+    BinaryBlock decoded = BinaryBlock.decode(raw);
+    byte[] binaryResponse = ("{\"result\":\"" + HexCoder.encode(raw) + "\",\"error\":null,\"id\":\"1\"}").getBytes(StandardCharsets.US_ASCII);
+    byte[] jsonResponse = verbose(decoded).getBytes(StandardCharsets.UTF_8);
+    System.out.printf("Block of %d transactions: verbosity 2 response %.1f MiB, verbosity 0 response %.1f MiB%n",
+        transactions, jsonResponse.length / 1048576.0, binaryResponse.length / 1048576.0);
+
+    for (int round = 0; round < 3; round++) {
+      long json = 0;
+      long binary = 0;
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        readJson((Map<?, ?>) JSON.parse(jsonResponse));
+        json += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        readBinary(binaryResponse);
+        binary += System.nanoTime() - start;
+      }
+      System.out.printf("round %d: verbosity 2 %.2f ms, binary %.2f ms%n", round, json / 1e6 / iterations, binary / 1e6 / iterations);
+    }
+  }
+
+  private static long readJson(Map<?, ?> response) {
+    long sum = 0;
+    for (Object tx : (List<?>) ((Map<?, ?>) response.get("result")).get("tx")) {
+      sum += ((String) ((Map<?, ?>) tx).get("txid")).length();
+      for (Object out : (List<?>) ((Map<?, ?>) tx).get("vout"))
+        sum += ((Number) ((Map<?, ?>) out).get("value")).longValue();
+    }
+    return sum;
+  }
+
+  private static long readBinary(byte[] response) throws IOException {
+    byte[] raw;
+    try (JSONReader reader = new JSONReader(new ByteArrayInputStream(response))) {
+      reader.beginObject();
+      reader.nextName();
+      raw = reader.nextHex();
+    }
+    long sum = 0;
+    BinaryBlock block = BinaryBlock.decode(raw);
+    for (int t = 0; t < block.transactionCount(); t++) {
+      BinaryTransaction tx = block.transaction(t);
+      sum += tx.txId().length();
+      for (int o = 0; o < tx.vOut().size(); o++)
+        sum += tx.output(o).valueSats();
+    }
+    return sum;
+  }
+
+  /**
+   * @return a block of segwit transactions spending two inputs to two P2WPKH outputs
+   */
+  static byte[] block(int transactions) {
+    StringBuilder sb = new StringBuilder(transactions * 450);
+    sb.append("00000020").append(hex(0, 64)).append(hex(1, 64)).append("35e1bd64").append("b2de0417").append("3c8f1a2b");
+    if (transactions < 0xFD)
+      sb.append(String.format("%02x", transactions));
+    else
+      sb.append("fd").append(String.format("%02x%02x", transactions & 0xFF, transactions >>> 8));
+    for (int t = 0; t < transactions; t++) {
+      sb.append("02000000").append("0001").append("02");
+      for (int i = 0; i < 2; i++)
+        sb.append(hex(t + i, 64)).append(String.format("%02x000000", i)).append("00").append("fdffffff");
+      sb.append("02");
+      for (int o = 0; o < 2; o++)
+        sb.append(String.format("%016x", Long.reverseBytes((t * 7919L + o) % 100000000))).append("160014").append(hex(t, 40));
+      for (int i = 0; i < 2; i++)
+        sb.append("0247").append(hex(t, 142)).append("21").append(hex(t, 66));
+      sb.append("00000000");
+    }
+    return HexCoder.decode(sb.toString());
+  }
+
+  private static String verbose(BinaryBlock block) {
+    StringBuilder sb = new StringBuilder(block.size() * 6);
+    sb.append("{\"result\":{\"hash\":\"").append(block.hash()).append("\",\"confirmations\":12,\"height\":800000,")
+        .append("\"version\":").append(block.version()).append(",\"merkleroot\":\"").append(block.merkleRoot())
+        .append("\",\"time\":1690168629,\"difficulty\":52350439455487.47,\"nTx\":").append(block.transactionCount()).append(",\"tx\":[");
+    for (int t = 0; t < block.transactionCount(); t++) {
+      BinaryTransaction tx = block.transaction(t);
+      if (t > 0)
+        sb.append(',');
+      sb.append("{\"txid\":\"").append(tx.txId()).append("\",\"hash\":\"").append(tx.hash()).append("\",\"version\":2,\"size\":")
+          .append(tx.size()).append(",\"vsize\":").append(tx.vsize()).append(",\"weight\":").append(tx.weight()).append(",\"locktime\":0,\"vin\":[");
+      for (int i = 0; i < tx.vIn().size(); i++) {
+        BinaryTransaction.Input in = tx.input(i);
+        if (i > 0)
+          sb.append(',');
+        sb.append("{\"txid\":\"").append(in.txid()).append("\",\"vout\":").append(in.vout())
+            .append(",\"scriptSig\":{\"asm\":\"\",\"hex\":\"\"},\"txinwitness\":[\"").append(HexCoder.encode(in.witness().get(0)))
+            .append("\",\"").append(HexCoder.encode(in.witness().get(1))).append("\"],\"sequence\":4294967293}");
+      }
+      sb.append("],\"vout\":[");
+      for (int o = 0; o < tx.vOut().size(); o++) {
+        BinaryTransaction.Output out = tx.output(o);
+        String script = HexCoder.encode(out.scriptBytes());
+        if (o > 0)
+          sb.append(',');
+        sb.append("{\"value\":").append(out.value().toPlainString()).append(",\"n\":").append(o)
+            .append(",\"scriptPubKey\":{\"asm\":\"0 ").append(script.substring(4)).append("\",\"hex\":\"").append(script)
+            .append("\",\"address\":\"bc1q").append(script.substring(6)).append("\",\"type\":\"witness_v0_keyhash\"}}");
+      }
+      sb.append("],\"fee\":0.00002820,\"hex\":\"").append(tx.hex()).append("\"}");
+    }
+    return sb.append("]},\"error\":null,\"id\":\"1\"}").toString();
+  }
+
+  private static String hex(int seed, int length) {
+    StringBuilder sb = new StringBuilder(length);
+    long x = seed * 0x9E3779B97F4A7C15L + 1;
+    while (sb.length() < length) {
+      x ^= x << 13;
+      x ^= x >>> 7;
+      x ^= x << 17;
+      sb.append(Character.forDigit((int) (x & 15), 16));
+    }
+    return sb.toString();
+  }
+}
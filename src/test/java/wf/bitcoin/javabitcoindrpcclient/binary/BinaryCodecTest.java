@@ -0,0 +1,100 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.RawTransaction;
+import wf.bitcoin.krotjson.HexCoder;
+
+public class BinaryCodecTest {
+
+  static final String GENESIS_BLOCK = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c"
+      + "0101000000010000000000000000000000000000000000000000000000000000000000000000ffffffff4d04ffff001d0104455468652054696d65732030332f4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b206f66207365636f6e64206261696c6f757420666f722062616e6b73ffffffff"
+      + "0100f2052a01000000434104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac00000000";
+
+  static final String SEGWIT_PREFIX = "02000000";
+  static final String SEGWIT_BODY = "01" + "1111111111111111111111111111111111111111111111111111111111111111" + "01000000" + "00" + "fdffffff"
+      + "02"
+      + "a086010000000000" + "16" + "0014" + "2222222222222222222222222222222222222222"
+      + "8813000000000000" + "22" + "5120" + "3333333333333333333333333333333333333333333333333333333333333333";
+  static final String SEGWIT_WITNESS = "02" + "03" + "aabbcc" + "02" + "ddee";
+  static final String SEGWIT_LOCKTIME = "65000000";
+
+  @Test
+  public void decodesGenesisBlock() {
+    BinaryBlock block = BinaryBlock.decode(HexCoder.decode(GENESIS_BLOCK));
+
+    Assert.assertEquals("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f", block.hash());
+    Assert.assertEquals("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b", block.merkleRoot());
+    Assert.assertNull(block.previousHash());
+    Assert.assertEquals(1, block.version());
+    Assert.assertEquals(1231006505000L, block.time().getTime());
+    Assert.assertEquals("1d00ffff", block.bits());
+    Assert.assertEquals(2083236893L, block.nonce());
+    Assert.assertEquals(1, block.difficulty().intValue());
+    Assert.assertEquals(285, block.size());
+    Assert.assertEquals(-1, block.height());
+
+    List<RawTransaction> txs = block.tx();
+    Assert.assertEquals(1, txs.size());
+    BinaryTransaction coinbase = block.transaction(0);
+    Assert.assertTrue(coinbase.isCoinbase());
+    Assert.assertEquals(block.merkleRoot(), coinbase.txId());
+    Assert.assertEquals(block.hash(), coinbase.blockHash());
+    Assert.assertNull(coinbase.vIn().get(0).txid());
+
+    BinaryTransaction.Output out = coinbase.output(0);
+    Assert.assertEquals(5000000000L, out.valueSats());
+    Assert.assertEquals(new BigDecimal("50.00000000"), out.value());
+    Assert.assertEquals(ScriptType.PUBKEY, out.scriptPubKey().type());
+
+    Assert.assertEquals(block.hash(), block.mapStr("hash"));
+    Assert.assertEquals(1231006505L, block.mapLong("time").longValue());
+  }
+
+  @Test
+  public void decodesSegwitTransaction() {
+    byte[] bytes = HexCoder.decode(SEGWIT_PREFIX + "0001" + SEGWIT_BODY + SEGWIT_WITNESS + SEGWIT_LOCKTIME);
+    byte[] stripped = HexCoder.decode(SEGWIT_PREFIX + SEGWIT_BODY + SEGWIT_LOCKTIME);
+
+    // Embedded in a larger buffer, to check offsets are honoured
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+    buffer.position(3);
+    buffer.put(bytes);
+    buffer.position(3);
+    BinaryTransaction tx = BinaryTransaction.decode(buffer.slice());
+
+    Assert.assertTrue(tx.isSegwit());
+    Assert.assertEquals(2, tx.version());
+    Assert.assertEquals(0x65, tx.lockTime());
+    Assert.assertEquals(bytes.length, tx.size());
+    Assert.assertEquals(stripped.length, tx.strippedSize());
+    Assert.assertEquals(stripped.length * 3 + bytes.length, tx.weight());
+    Assert.assertEquals(BinaryTransaction.decode(stripped).txId(), tx.txId());
+    Assert.assertNotEquals(tx.txId(), tx.hash());
+    Assert.assertEquals(HexCoder.encode(bytes), tx.hex());
+
+    BinaryTransaction.Input in = tx.input(0);
+    Assert.assertEquals("1111111111111111111111111111111111111111111111111111111111111111", in.txid());
+    Assert.assertEquals(Integer.valueOf(1), in.vout());
+    Assert.assertEquals(0xfffffffdL, in.sequence());
+    Assert.assertEquals(2, in.witness().size());
+    Assert.assertArrayEquals(new byte[] { (byte) 0xdd, (byte) 0xee }, in.witness().get(1));
+
+    Assert.assertEquals(2, tx.vOut().size());
+    Assert.assertEquals(100000, tx.output(0).valueSats());
+    Assert.assertEquals(ScriptType.WITNESS_V0_KEYHASH, tx.output(0).scriptPubKey().type());
+    Assert.assertEquals(ScriptType.WITNESS_V1_TAPROOT, tx.output(1).scriptPubKey().type());
+    Assert.assertEquals(1, tx.output(1).n());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTruncatedTransaction() {
+    byte[] bytes = HexCoder.decode(SEGWIT_PREFIX + "0001" + SEGWIT_BODY + SEGWIT_WITNESS);
+    BinaryTransaction.decode(bytes);
+  }
+}
@@ -0,0 +1,114 @@
+package wf.bitcoin.javabitcoindrpcclient.binary;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BasicTxInput;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.BasicTxOutput;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxInput;
+import wf.bitcoin.javabitcoindrpcclient.BitcoindRpcClient.TxOutput;
+import wf.bitcoin.javabitcoindrpcclient.util.Chain;
+import wf.bitcoin.krotjson.HexCoder;
+
+public class TransactionSerializerTest {
+
+  private static final String TXID = "4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b";
+  private static final String ADDRESS = "bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4";
+
+  private static final List<TxInput> INPUTS = Collections.<TxInput> singletonList(new BasicTxInput(TXID, 1));
+  private static final List<TxOutput> OUTPUTS = Collections.<TxOutput> singletonList(
+      new BasicTxOutput(ADDRESS, new BigDecimal("0.1"), new byte[] { 0, 1, 2, 3 }));
+
+  @Test
+  public void matchesCreateRawTransaction() {
+    // createrawtransaction '[{"txid":"4a5e...a33b","vout":1}]' '[{"bc1qw508...8f3t4":0.1},{"data":"00010203"}]'
+    String expected = "02000000" + "01" + "3ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a" + "01000000" + "00"
+        + "ffffffff" + "02" + "8096980000000000" + "160014751e76e8199196d454941c45d1b3a323f1433bd6" + "0000000000000000"
+        + "066a0400010203" + "00000000";
+    Assert.assertEquals(expected, new TransactionSerializer().hex(INPUTS, OUTPUTS));
+
+    BinaryTransaction tx = BinaryTransaction.decode(new TransactionSerializer().serialize(INPUTS, OUTPUTS));
+    Assert.assertEquals(TXID, tx.input(0).txid());
+    Assert.assertEquals(10_000_000, tx.output(0).valueSats());
+    Assert.assertFalse(tx.isSegwit());
+  }
+
+  @Test
+  public void sequenceFollowsLockTime() {
+    TransactionSerializer serializer = new TransactionSerializer().setLockTime(800_000);
+    BinaryTransaction tx = BinaryTransaction.decode(serializer.serialize(INPUTS, OUTPUTS));
+    Assert.assertEquals(800_000, tx.lockTime());
+    Assert.assertEquals(TransactionSerializer.SEQUENCE_NONFINAL, tx.input(0).sequence());
+
+    serializer.setReplaceable(true);
+    tx = BinaryTransaction.decode(serializer.serialize(INPUTS, OUTPUTS));
+    Assert.assertEquals(TransactionSerializer.SEQUENCE_REPLACEABLE, tx.input(0).sequence());
+
+    serializer.setSequence(0, 144).setVersion(1);
+    tx = BinaryTransaction.decode(serializer.serialize(INPUTS, OUTPUTS));
+    Assert.assertEquals(144, tx.input(0).sequence());
+    Assert.assertEquals(1, tx.version());
+  }
+
+  @Test
+  public void witnessAddsSegwitMarker() {
+    String unsigned = new TransactionSerializer().hex(INPUTS, OUTPUTS);
+    byte[] signature = new byte[71];
+    byte[] pubKey = new byte[33];
+    BinaryTransaction tx = BinaryTransaction.decode(new TransactionSerializer().setWitness(0, signature, pubKey).serialize(INPUTS, OUTPUTS));
+    Assert.assertTrue(tx.isSegwit());
+    Assert.assertEquals(2, tx.input(0).witness().size());
+    Assert.assertEquals(33, tx.input(0).witness().get(1).length);
+    Assert.assertEquals(BinaryTransaction.decode(HexCoder.decode(unsigned)).txId(), tx.txId());
+  }
+
+  @Test
+  public void largeDataUsesPushData() {
+    Assert.assertEquals("6a4c50", HexCoder.encode(TransactionSerializer.nullData(new byte[80])).substring(0, 6));
+    Assert.assertEquals("6a4d0001", HexCoder.encode(TransactionSerializer.nullData(new byte[256])).substring(0, 8));
+  }
+
+  @Test
+  public void rejectsWhatBitcoindRejects() {
+    List<List<TxOutput>> invalid = Arrays.asList(
+        Collections.<TxOutput> singletonList(new BasicTxOutput(ADDRESS, new BigDecimal("0.000000001"))),
+        Arrays.<TxOutput> asList(new BasicTxOutput(ADDRESS, BigDecimal.ONE), new BasicTxOutput(ADDRESS, BigDecimal.ONE)),
+        Collections.<TxOutput> singletonList(new BasicTxOutput("bc1qinvalid", BigDecimal.ONE)));
+    for (List<TxOutput> outputs : invalid) {
+      try {
+        new TransactionSerializer().serialize(INPUTS, outputs);
+        Assert.fail(outputs.toString());
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void rejectsAddressesOfAnotherChain() {
+    TransactionSerializer serializer = new TransactionSerializer().setChain(Chain.MAIN);
+    Assert.assertNotNull(serializer.serialize(INPUTS, OUTPUTS));
+    String[] others = { "tb1qw508d6qejxtdg4y5r3zarvary0c5xw7kxpjzsx", "mipcBbFg9gMiCh81Kj8tqqdgoZub1ZJRfn" };
+    for (String address : others) {
+      try {
+        serializer.serialize(INPUTS, Collections.<TxOutput> singletonList(new BasicTxOutput(address, BigDecimal.ONE)));
+        Assert.fail(address);
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+      Assert.assertNotNull(new TransactionSerializer().setChain(Chain.TEST)
+          .serialize(INPUTS, Collections.<TxOutput> singletonList(new BasicTxOutput(address, BigDecimal.ONE))));
+    }
+    try {
+      new TransactionSerializer().setChain(Chain.REGTEST).serialize(INPUTS, OUTPUTS);
+      Assert.fail();
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package wf.bitcoin.javabitcoindrpcclient.zmq;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import wf.bitcoin.javabitcoindrpcclient.BitcoinAcceptor;
+
+public class ZmqSubscriberTest {
+
+  /**
+   * Stand-in for the ZMQ publisher of bitcoind, accepting a single subscriber.
+   */
+  static class Publisher implements Closeable {
+
+    final ServerSocket server = new ServerSocket(0);
+    final List<String> subscriptions = new ArrayList<>();
+    Socket socket;
+    OutputStream out;
+
+    Publisher() throws IOException {
+    }
+
+    int port() {
+      return server.getLocalPort();
+    }
+
+    void accept(int topics) throws IOException {
+      server.setSoTimeout(5000);
+      socket = server.accept();
+      socket.setSoTimeout(5000);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = socket.getOutputStream();
+      byte[] greeting = ZmqSubscriber.greeting();
+      greeting[11] = 1;
+      out.write(greeting);
+      in.readFully(new byte[64]);
+      byte[] ready = ZmqSubscriber.readCommand(in);
+      Assert.assertEquals("SUB", ZmqSubscriber.property(ready, "Socket-Type"));
+      out.write(ZmqSubscriber.command("READY", "Socket-Type", "PUB"));
+      for (int i = 0; i < topics; i++) {
+        byte[] subscription = ZmqSubscriber.readFrameBody(in, in.readUnsignedByte());
+        Assert.assertEquals(1, subscription[0]);
+        subscriptions.add(new String(subscription, 1, subscription.length - 1, StandardCharsets.US_ASCII));
+      }
+    }
+
+    void publish(String topic, byte[] body, int sequence) throws IOException {
+      ZmqSubscriber.writeFrame(out, 1, topic.getBytes(StandardCharsets.US_ASCII));
+      ZmqSubscriber.writeFrame(out, 1, body);
+      ZmqSubscriber.writeFrame(out, 0, new byte[] { (byte) sequence, (byte) (sequence >> 8), (byte) (sequence >> 16), (byte) (sequence >> 24) });
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (socket != null)
+        socket.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void notificationsAndGapsAreDelivered() throws Exception {
+    BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    try (Publisher publisher = new Publisher();
+         ZmqSubscriber subscriber = new ZmqSubscriber("tcp://127.0.0.1:" + publisher.port())) {
+      subscriber.subscribe(ZmqSubscriber.HASHBLOCK).subscribe(ZmqSubscriber.RAWTX);
+      subscriber.addListener(new ZmqSubscriber.Listener() {
+        @Override
+        public void message(String topic, byte[] body, long sequence) {
+          events.add(topic + " " + body.length + " " + sequence);
+        }
+
+        @Override
+        public void connected() {
+          events.add("connected");
+        }
+
+        @Override
+        public void gap(String topic, long expected, long received) {
+          events.add("gap " + topic + " " + expected + " " + received);
+        }
+      });
+      subscriber.start();
+      publisher.accept(2);
+      Assert.assertEquals("connected", events.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals(2, publisher.subscriptions.size());
+      Assert.assertTrue(publisher.subscriptions.contains(ZmqSubscriber.RAWTX));
+
+      publisher.publish(ZmqSubscriber.HASHBLOCK, new byte[32], 7);
+      publisher.publish(ZmqSubscriber.RAWTX, new byte[300], 0);
+      publisher.publish(ZmqSubscriber.HASHBLOCK, new byte[32], 8);
+      publisher.publish(ZmqSubscriber.HASHBLOCK, new byte[32], 10);
+
+      Assert.assertEquals("hashblock 32 7", events.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals("rawtx 300 0", events.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals("hashblock 32 8", events.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals("gap hashblock 9 10", events.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals("hashblock 32 10", events.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void notificationsWakeTheAcceptorUp() throws Exception {
+    BlockingQueue<Long> checks = new LinkedBlockingQueue<>();
+    BitcoinAcceptor acceptor = new BitcoinAcceptor(null) {
+      @Override
+      public synchronized void checkPayments() {
+        checks.add(System.nanoTime());
+      }
+    };
+    acceptor.setCheckInterval(TimeUnit.HOURS.toMillis(1));
+
+    try (Publisher publisher = new Publisher();
+         ZmqSubscriber subscriber = new ZmqSubscriber("127.0.0.1", publisher.port())) {
+      ZmqAcceptorDriver driver = new ZmqAcceptorDriver(acceptor, subscriber);
+      Thread acceptorThread = new Thread(acceptor);
+      acceptorThread.start();
+      Assert.assertNotNull("initial check", checks.poll(5, TimeUnit.SECONDS));
+
+      subscriber.start();
+      publisher.accept(2);
+      Assert.assertNotNull("check on connection", checks.poll(5, TimeUnit.SECONDS));
+
+      byte[] disconnected = new byte[33];
+      disconnected[32] = 'D';
+      publisher.publish(ZmqSubscriber.SEQUENCE, disconnected, 0);
+      Assert.assertNotNull("check on disconnected block", checks.poll(5, TimeUnit.SECONDS));
+
+      byte[] added = new byte[41];
+      added[32] = 'A';
+      publisher.publish(ZmqSubscriber.SEQUENCE, added, 1);
+      publisher.publish(ZmqSubscriber.SEQUENCE, added, 5);
+      Assert.assertNotNull("check on gap", checks.poll(5, TimeUnit.SECONDS));
+      Assert.assertEquals(1, driver.getGapCount());
+      Assert.assertEquals(1, driver.getNotificationCount());
+
+      acceptor.stopAccepting();
+      acceptorThread.join(5000);
+      Assert.assertFalse(acceptorThread.isAlive());
+    }
+  }
+
+  @Test
+  public void mempoolTransactionsNeedAFilter() {
+    BitcoinAcceptor acceptor = new BitcoinAcceptor(null);
+    ZmqSubscriber subscriber = new ZmqSubscriber("127.0.0.1", 28332);
+    ZmqAcceptorDriver driver = new ZmqAcceptorDriver(acceptor, subscriber);
+    Assert.assertFalse(subscriber.getTopics().contains(ZmqSubscriber.RAWTX));
+    // Version, one input, one empty output, locktime
+    byte[] tx = new byte[4 + 1 + 41 + 1 + 9 + 4];
+    tx[0] = 1;
+    tx[4] = 1;
+    tx[46] = 1;
+    driver.message(ZmqSubscriber.RAWTX, tx, 0);
+    Assert.assertEquals(0, driver.getNotificationCount());
+
+    driver.setTransactionFilter(t -> t.vOut().size() == 1);
+    Assert.assertTrue(subscriber.getTopics().contains(ZmqSubscriber.RAWTX));
+    driver.message(ZmqSubscriber.RAWTX, tx, 1);
+    Assert.assertEquals(1, driver.getNotificationCount());
+  }
+}
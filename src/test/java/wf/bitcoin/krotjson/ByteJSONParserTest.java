@@ -0,0 +1,68 @@
+package wf.bitcoin.krotjson;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteJSONParserTest {
+
+    private static Object parse(String json) {
+        return ByteJSONParser.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void matchesStringParser() {
+        String[] documents = {
+            "{\"result\":{\"hash\":\"00ff\",\"height\":800000,\"fee\":0.00001000,\"tx\":[],\"in\":{},\"ok\":true,\"no\":false,\"n\":null},\"error\":null,\"id\":\"1\"}",
+            "[1, -2, 3.5, -0.00000001, 1e3, 21000000.00000000, [ [ ] ], {\"a\":[{\"b\":{}}]}]",
+            "{\"label\":\"tab\\tquote\\\"slash\\/back\\\\ \\u00e9\\u20ac\"}",
+            "  \"plain\"  ",
+        };
+        for (String json : documents)
+            Assert.assertEquals(json, CrippledJavaScriptParser.parseJSExpr(json), parse(json));
+    }
+
+    @Test
+    public void numbersKeepTypeAndScale() {
+        List<?> list = (List<?>) parse("[0, 9223372036854775807, 99999999999999999999, 0.10, 1234567890.12345678901, 1.5E-7]");
+        Assert.assertEquals(0L, list.get(0));
+        Assert.assertEquals(Long.MAX_VALUE, list.get(1));
+        Assert.assertEquals(new BigDecimal("99999999999999999999"), list.get(2));
+        Assert.assertEquals(new BigDecimal("0.10"), list.get(3));
+        Assert.assertEquals(new BigDecimal("1234567890.12345678901"), list.get(4));
+        Assert.assertEquals(new BigDecimal("1.5E-7"), list.get(5));
+    }
+
+    @Test
+    public void decodesUtf8() {
+        Map<?, ?> map = (Map<?, ?>) parse("{\"label\":\"caf\u00e9 \u20ac \ud83d\ude00\",\"esc\":\"\\n\u00e9\"}");
+        Assert.assertEquals("caf\u00e9 \u20ac \ud83d\ude00", map.get("label"));
+        Assert.assertEquals("\n\u00e9", map.get("esc"));
+    }
+
+    @Test
+    public void parsesByteBufferSlice() {
+        byte[] bytes = "xx{\"a\":[1,2]}yy".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 4);
+        Map<?, ?> map = (Map<?, ?>) ByteJSONParser.parse(buffer);
+        Assert.assertEquals(2, ((List<?>) map.get("a")).size());
+        Assert.assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        String[] invalid = { "", "{", "[1,", "{\"a\" 1}", "\"open", "tru", "[1] x", "{\"a\":-}" };
+        for (String json : invalid) {
+            try {
+                parse(json);
+                Assert.fail(json);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
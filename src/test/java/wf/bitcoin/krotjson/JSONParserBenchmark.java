@@ -0,0 +1,99 @@
+package wf.bitcoin.krotjson;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares {@link CrippledJavaScriptParser} with {@link ByteJSONParser} and {@link LazyJSON} on a synthetic
+ * <code>getblock</code> response with verbosity 2, the largest kind of response the client usually handles.
+ * The lazy parser is timed together with reading the txid and output values of every transaction.
+ * <br><br>
+ * Run with <code>java wf.bitcoin.krotjson.JSONParserBenchmark [transactions] [iterations]</code>.
+ */
+public class JSONParserBenchmark {
+
+    public static void main(String[] args) {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        byte[] data = block(transactions).getBytes(StandardCharsets.UTF_8);
+        System.out.printf("Response of %d transactions, %.1f MiB%n", transactions, data.length / 1048576.0);
+
+        for (int round = 0; round < 3; round++) {
+            long legacy = 0;
+            long bytes = 0;
+            long lazy = 0;
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                JSON.parse(new String(data, StandardCharsets.ISO_8859_1));
+                legacy += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                JSON.parse(data);
+                bytes += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                readFewFields((Map<?, ?>) LazyJSON.parse(data));
+                lazy += System.nanoTime() - start;
+            }
+            System.out.printf("round %d: string parser %.2f ms, byte parser %.2f ms, lazy parser %.2f ms%n",
+                    round, legacy / 1e6 / iterations, bytes / 1e6 / iterations, lazy / 1e6 / iterations);
+        }
+    }
+
+    private static int readFewFields(Map<?, ?> response) {
+        int found = 0;
+        for (Object tx : (List<?>) ((Map<?, ?>) response.get("result")).get("tx")) {
+            if (((Map<?, ?>) tx).get("txid") != null)
+                found++;
+            for (Object out : (List<?>) ((Map<?, ?>) tx).get("vout"))
+                if (((Map<?, ?>) out).get("value") != null)
+                    found++;
+        }
+        return found;
+    }
+
+    private static String block(int transactions) {
+        StringBuilder sb = new StringBuilder(transactions * 1200);
+        sb.append("{\"result\":{\"hash\":\"").append(hex(0, 64)).append("\",\"confirmations\":12,\"height\":800000,")
+                .append("\"version\":536870912,\"merkleroot\":\"").append(hex(1, 64)).append("\",\"time\":1690168629,")
+                .append("\"difficulty\":52350439455487.47,\"nTx\":").append(transactions).append(",\"tx\":[");
+        for (int t = 0; t < transactions; t++) {
+            if (t > 0)
+                sb.append(',');
+            sb.append("{\"txid\":\"").append(hex(t, 64)).append("\",\"hash\":\"").append(hex(t + 1, 64))
+                    .append("\",\"version\":2,\"size\":222,\"vsize\":141,\"weight\":561,\"locktime\":0,\"vin\":[");
+            for (int i = 0; i < 2; i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append("{\"txid\":\"").append(hex(t + i, 64)).append("\",\"vout\":").append(i)
+                        .append(",\"scriptSig\":{\"asm\":\"\",\"hex\":\"\"},\"txinwitness\":[\"").append(hex(t, 142))
+                        .append("\",\"").append(hex(t, 66)).append("\"],\"sequence\":4294967293}");
+            }
+            sb.append("],\"vout\":[");
+            for (int o = 0; o < 2; o++) {
+                if (o > 0)
+                    sb.append(',');
+                sb.append("{\"value\":0.").append(String.format("%08d", (t * 7919 + o) % 100000000)).append(",\"n\":").append(o)
+                        .append(",\"scriptPubKey\":{\"asm\":\"0 ").append(hex(t, 40)).append("\",\"hex\":\"0014")
+                        .append(hex(t, 40)).append("\",\"address\":\"bc1q").append(hex(t, 38))
+                        .append("\",\"type\":\"witness_v0_keyhash\"}}");
+            }
+            sb.append("],\"fee\":0.00002820,\"hex\":\"").append(hex(t, 444)).append("\"}");
+        }
+        return sb.append("]},\"error\":null,\"id\":\"1\"}").toString();
+    }
+
+    private static String hex(int seed, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        long x = seed * 0x9E3779B97F4A7C15L + 1;
+        while (sb.length() < length) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            sb.append(Character.forDigit((int) (x & 15), 16));
+        }
+        return sb.toString();
+    }
+}
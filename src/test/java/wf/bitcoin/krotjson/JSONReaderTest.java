@@ -0,0 +1,90 @@
+package wf.bitcoin.krotjson;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JSONReaderTest {
+
+    /**
+     * Hands out at most three bytes per read, so every token crosses buffer refills.
+     */
+    private static InputStream trickle(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+
+    @Test
+    public void readValueMatchesByteParser() throws IOException {
+        String[] documents = {
+            "{\"result\":{\"hash\":\"00ff\",\"height\":800000,\"fee\":0.00001000,\"tx\":[],\"in\":{},\"ok\":true,\"n\":null},\"error\":null,\"id\":\"1\"}",
+            "[1, -2, 3.5, -0.00000001, 1e3, 99999999999999999999, [ [ ] ], {\"a\":[{\"b\":{}}]}]",
+            "{\"label\":\"tab\\tquote\\\"\\u00e9 café € 😀\",\"a-rather-long-key-that-is-not-cached-at-all\":1}",
+        };
+        for (String json : documents) {
+            Object expected = ByteJSONParser.parse(json.getBytes(StandardCharsets.UTF_8));
+            try (JSONReader reader = new JSONReader(trickle(json), 8)) {
+                Assert.assertEquals(json, expected, reader.readValue());
+                Assert.assertEquals(JSONReader.Token.END_DOCUMENT, reader.peek());
+            }
+        }
+    }
+
+    @Test
+    public void walksTokens() throws IOException {
+        JSONReader reader = new JSONReader(trickle("{\"utxos\":[{\"txid\":\"aa\",\"vout\":1,\"amount\":0.5,\"extra\":{\"x\":[1,2]}},{\"txid\":\"bb\",\"vout\":0,\"amount\":2}],\"spendable\":true}"), 8);
+        reader.beginObject();
+        Assert.assertEquals("utxos", reader.nextName());
+        reader.beginArray();
+        StringBuilder txids = new StringBuilder();
+        BigDecimal total = BigDecimal.ZERO;
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "txid":
+                        txids.append(reader.nextString());
+                        break;
+                    case "amount":
+                        total = total.add(reader.nextBigDecimal());
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+        Assert.assertEquals("spendable", reader.nextName());
+        Assert.assertTrue(reader.nextBoolean());
+        reader.endObject();
+        Assert.assertFalse(reader.hasNext());
+
+        Assert.assertEquals("aabb", txids.toString());
+        Assert.assertEquals(0, new BigDecimal("2.5").compareTo(total));
+    }
+
+    @Test
+    public void reportsMalformedInputAndWrongTokens() throws IOException {
+        try {
+            new JSONReader("[1,".getBytes(StandardCharsets.US_ASCII)).readValue();
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        JSONReader reader = new JSONReader("{\"a\":1}".getBytes(StandardCharsets.US_ASCII));
+        try {
+            reader.beginArray();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
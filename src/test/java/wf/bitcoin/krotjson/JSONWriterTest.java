@@ -0,0 +1,55 @@
+package wf.bitcoin.krotjson;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JSONWriterTest {
+
+    @Test
+    public void matchesStringify() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("txid", "00ff");
+        map.put("vout", 1);
+        map.put("amount", new BigDecimal("0.00012000"));
+        map.put("list", Arrays.asList(true, null, Collections.emptyMap()));
+        map.put("esc", "tab\tquote\"back\\slash");
+        Object[] params = { "sendtoaddress", map, new Object[0], 5L };
+
+        Assert.assertEquals(JSON.stringify(params), new JSONWriter(16).value(params).toString());
+    }
+
+    @Test
+    public void writesValidUtf8() {
+        String label = "caf\u00e9 \u20ac \ud83d\ude00 \u0001 \ud800";
+        JSONWriter writer = new JSONWriter();
+        writer.beginObject().name("label").value(label).endObject();
+
+        Assert.assertEquals("{\"label\":\"caf\u00e9 \u20ac \ud83d\ude00 \\u0001 \\ud800\"}", writer.toString());
+        Map<?, ?> parsed = (Map<?, ?>) ByteJSONParser.parse(writer.toByteArray());
+        Assert.assertEquals(label, parsed.get("label"));
+    }
+
+    @Test
+    public void reusesBufferForLargeHex() {
+        char[] hex = new char[300_000];
+        Arrays.fill(hex, 'a');
+        String tx = new String(hex);
+
+        JSONWriter writer = new JSONWriter();
+        writer.beginObject().name("method").value("sendrawtransaction").name("params").value(new Object[] { tx }).endObject();
+        Assert.assertEquals(tx.length() + 45, writer.size());
+        Assert.assertEquals(tx, ((List<?>) ((Map<?, ?>) JSON.parse(writer.toByteArray())).get("params")).get(0));
+
+        writer.reset();
+        writer.beginArray().value(1).value("x").endArray();
+        Assert.assertEquals("[1,\"x\"]", new String(writer.buffer(), 0, writer.size(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,63 @@
+package wf.bitcoin.krotjson;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LazyJSONTest {
+
+    private static Object parse(String json) {
+        return LazyJSON.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void viewsEqualFullParse() {
+        String[] documents = {
+            "{\"result\":{\"hash\":\"00ff\",\"height\":800000,\"fee\":0.00001000,\"tx\":[],\"in\":{},\"ok\":true,\"n\":null},\"error\":null,\"id\":\"1\"}",
+            "[1, -2, 3.5, -0.00000001, 1e3, 99999999999999999999, [ [ ] ], {\"a\":[{\"b\":{}}]}]",
+            "{\"l\\u0061bel\":\"tab\\tquote\\\"\\u00e9 caf\u00e9\",\"\u00e9\":[true,false,null]}",
+            "\"scalar\"",
+        };
+        for (String json : documents) {
+            Object expected = ByteJSONParser.parse(json.getBytes(StandardCharsets.UTF_8));
+            Object lazy = parse(json);
+            Assert.assertEquals(json, expected, lazy);
+            Assert.assertEquals(json, expected.toString(), lazy.toString());
+        }
+    }
+
+    @Test
+    public void fieldsAreFoundWithoutDecodingSiblings() {
+        Map<?, ?> block = (Map<?, ?>) parse("{\"hash\":\"aa\",\"tx\":[{\"txid\":\"t0\",\"vout\":[{\"value\":0.5}]},{\"txid\":\"t1\",\"bad\":1x2}],\"height\":7,\"label\":\"\\u00e9\"}");
+        Assert.assertEquals(7L, block.get("height"));
+        Assert.assertEquals("\u00e9", block.get("label"));
+        Assert.assertNull(block.get("missing"));
+        Assert.assertTrue(block.containsKey("tx"));
+        Assert.assertEquals(4, block.size());
+
+        List<?> txs = (List<?>) block.get("tx");
+        Assert.assertEquals(2, txs.size());
+        Assert.assertEquals("t1", ((Map<?, ?>) txs.get(1)).get("txid"));
+        // The malformed number is only reported when read
+        try {
+            ((Map<?, ?>) txs.get(1)).get("bad");
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsMalformedStructure() {
+        String[] invalid = { "", "{", "[1,]", "{\"a\" 1}", "{\"a\":}", "\"open", "[1] x", "[1}", "{,}", "[1 2]" };
+        for (String json : invalid) {
+            try {
+                parse(json);
+                Assert.fail(json);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}